@@ -2,10 +2,12 @@ package com.uem.dbconfig;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
+import com.uem.metrics.Metrics;
 import com.uem.util.ApplicationLogger;
 import com.uem.util.PropertiesHelper;
 
@@ -18,6 +20,7 @@ public final class DatabaseConnection {
     public static DatabaseConnection databaseConnection;
 
     private final Connection connection;
+    private final DatabaseType databaseType;
     private Statement statement;
     private static final String MYSQL_DRIVER      = "com.mysql.jdbc.Driver";
     private static final String ORACLE_DRIVER     = "oracle.jdbc.driver.OracleDriver";
@@ -29,7 +32,9 @@ public final class DatabaseConnection {
      */
     private DatabaseConnection() {
         try {
-            switch (PropertiesHelper.getDatabaseType()) {
+            databaseType = PropertiesHelper.getDatabaseType();
+
+            switch (databaseType) {
                 case MYSQL:
                     loadMysqlDriver();
                     break;
@@ -62,6 +67,23 @@ public final class DatabaseConnection {
         return databaseConnection;
     }
 
+    /**
+     * Opens a new session with the database, independent from the active instance of this class.
+     * Meant for the threads which read table data in parallel; each one shall close its own session
+     * @return A new instance of the DatabaseConnection class
+     */
+    public static DatabaseConnection openSession() {
+        return new DatabaseConnection();
+    }
+
+    /**
+     * Closes the connection with the database. Only meant for sessions opened with openSession
+     * @throws SQLException When the connection couldn't be closed for some reason
+     */
+    public void close() throws SQLException {
+        connection.close();
+    }
+
     /**
      * Executes a query in the database
      * @param query The query to be executed
@@ -69,9 +91,54 @@ public final class DatabaseConnection {
      * @throws SQLException When the query couldn't be executed for some reason
      */
     public ResultSet query(String query) throws SQLException {
-        statement = databaseConnection.connection.createStatement();
+        statement = connection.createStatement();
+        final long start = System.nanoTime();
+        final ResultSet result = statement.executeQuery(query);
+
+        Metrics.getQueryLatency(Metrics.QUERY_METADATA).record(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Executes a query in the database, cancelling it when it takes too long
+     * @param query The query to be executed
+     * @param timeoutSeconds How long the query may run, in seconds (0 for no limit)
+     * @return The ResultSet obtained with the query (null if nothing was found)
+     * @throws SQLException When the query couldn't be executed for some reason, or took too long
+     */
+    public ResultSet queryWithTimeout(String query, int timeoutSeconds) throws SQLException {
+        statement = connection.createStatement();
+        statement.setQueryTimeout(timeoutSeconds);
+        final long start = System.nanoTime();
         final ResultSet result = statement.executeQuery(query);
 
+        Metrics.getQueryLatency(Metrics.QUERY_TIMEOUT).record(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Executes a query in the database, streaming its rows instead of fetching them all at once.
+     * Meant for queries which read table data, whose result may not fit in memory
+     * @param query The query to be executed, with a ? for each parameter
+     * @param fetchSize How many rows are fetched from the database at once
+     * @param parameters The values bound to the parameters of the query, in order
+     * @return The ResultSet obtained with the query (null if nothing was found)
+     * @throws SQLException When the query couldn't be executed for some reason
+     */
+    public ResultSet query(String query, int fetchSize, Object... parameters) throws SQLException {
+        final PreparedStatement preparedStatement =
+            connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+        statement = preparedStatement;
+        // MySQL's driver only streams the rows when asked for this specific fetch size
+        preparedStatement.setFetchSize(databaseType == DatabaseType.MYSQL ? Integer.MIN_VALUE : fetchSize);
+        for (int i = 0; i < parameters.length; i++) {
+            preparedStatement.setObject(i + 1, parameters[i]);
+        }
+        final long start = System.nanoTime();
+        final ResultSet result = preparedStatement.executeQuery();
+
+        Metrics.getQueryLatency(Metrics.QUERY_STREAMING).record(System.nanoTime() - start);
         return result;
     }
 
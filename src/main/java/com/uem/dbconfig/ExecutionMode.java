@@ -0,0 +1,33 @@
+package com.uem.dbconfig;
+
+/**
+ * Provides all the ways in which the per-table database work can be executed
+ *
+ * @author zessin
+ */
+public enum ExecutionMode {
+    /** One table after the other, through the active connection */
+    SEQUENTIAL,
+    /** Tables in parallel on a fixed pool of platform threads, one per database session */
+    THREADS,
+    /** Each table on its own virtual thread (Java 21 or newer), the database sessions being the only limit */
+    VIRTUAL;
+
+    /**
+     * Returns the correct ExecutionMode according to the property in the properties file
+     * @param executionModeProperty The value of the property in the file
+     * @return The correct ExecutionMode for the property (null if not found)
+     */
+    public static ExecutionMode getExecutionModeByProperty(String executionModeProperty) {
+        switch (executionModeProperty.trim().toUpperCase()) {
+            case "SEQUENTIAL":
+                return SEQUENTIAL;
+            case "THREADS":
+                return THREADS;
+            case "VIRTUAL":
+                return VIRTUAL;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.uem.dbconfig;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Runs the same piece of database work for each item of a list (usually one per table),
+ * according to an ExecutionMode. When the work runs in parallel, a semaphore caps how
+ * many database sessions are in use at the same time; the sessions are opened on demand,
+ * reused by the following items and closed once all the work is done
+ *
+ * @author zessin
+ */
+public final class SessionExecutor {
+    private static final String VIRTUAL_EXECUTOR_METHOD = "newVirtualThreadPerTaskExecutor";
+    private static final long SHUTDOWN_TIMEOUT_S        = 30;
+
+    private final ExecutionMode executionMode;
+    private final int maxSessions;
+
+    /**
+     * Initializes the executor
+     * @param executionMode How the work is executed
+     * @param maxSessions How many database sessions may be in use at the same time (ignored when sequential)
+     */
+    public SessionExecutor(ExecutionMode executionMode, int maxSessions) {
+        super();
+        this.executionMode = executionMode;
+        this.maxSessions = Math.max(1, maxSessions);
+    }
+
+    /**
+     * Executes the work for every item, returning only when all of them are done or one of them failed
+     * @param items The items to be worked on
+     * @param task The work to be executed for each item
+     * @return The results of the work, in the same order as the items
+     * @throws SQLException When the work of some item couldn't query the database
+     * @throws IOException When the work of some item couldn't write its output
+     */
+    public <I, O> List<O> map(List<I> items, SessionTask<I, O> task) throws SQLException, IOException {
+        final List<O> results = new ArrayList<>(items.size());
+
+        if (executionMode == ExecutionMode.SEQUENTIAL || items.size() <= 1) {
+            final DatabaseConnection session = DatabaseConnection.getConnection();
+
+            for (final I item : items) {
+                results.add(task.execute(session, item));
+            }
+
+            return results;
+        }
+
+        final Semaphore permits = new Semaphore(maxSessions);
+        final ConcurrentLinkedQueue<DatabaseConnection> idleSessions = new ConcurrentLinkedQueue<>();
+        final ExecutorService executor = createExecutorService();
+        final List<Future<O>> futures = new ArrayList<>(items.size());
+
+        ApplicationLogger.info(String.format("Running %d tasks in %s mode with up to %d database sessions",
+                                             items.size(), executionMode, maxSessions));
+
+        try {
+            for (final I item : items) {
+                futures.add(executor.submit(createCallable(item, task, permits, idleSessions)));
+            }
+            for (final Future<O> future : futures) {
+                results.add(future.get());
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Database work was interrupted", ex);
+        } catch (final ExecutionException ex) {
+            rethrow(ex.getCause());
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+            shutdown(executor);
+            closeSessions(idleSessions);
+        }
+
+        return results;
+    }
+
+    /**
+     * Wraps the work of an item so it only runs while holding one of the permits,
+     * borrowing an idle session (or opening a new one) for as long as it runs
+     * @param item The item to be worked on
+     * @param task The work to be executed
+     * @param permits The permits which cap the sessions in use
+     * @param idleSessions The sessions opened by previous items and not in use
+     * @return The Callable which executes the work
+     */
+    private <I, O> Callable<O> createCallable(I item, SessionTask<I, O> task, Semaphore permits,
+                                              ConcurrentLinkedQueue<DatabaseConnection> idleSessions) {
+        return () -> {
+            permits.acquire();
+
+            try {
+                DatabaseConnection session = idleSessions.poll();
+                if (session == null) {
+                    session = DatabaseConnection.openSession();
+                }
+
+                try {
+                    return task.execute(session, item);
+                } finally {
+                    idleSessions.add(session);
+                }
+            } finally {
+                permits.release();
+            }
+        };
+    }
+
+    /**
+     * Creates the ExecutorService for the parallel modes. Virtual threads are looked up by reflection,
+     * since the application still targets Java 8; older runtimes fall back to platform threads
+     * @return The ExecutorService created
+     */
+    private ExecutorService createExecutorService() {
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            try {
+                return (ExecutorService) Executors.class.getMethod(VIRTUAL_EXECUTOR_METHOD).invoke(null);
+            } catch (final ReflectiveOperationException ex) {
+                ApplicationLogger.warning("Virtual threads are not available in this Java version, using platform threads instead");
+            }
+        }
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(maxSessions, r -> new Thread(r, "rtg-session-" + threadNumber.incrementAndGet()));
+    }
+
+    /**
+     * Stops the ExecutorService, waiting for the running work to give its session back
+     * @param executor The ExecutorService to be stopped
+     */
+    private void shutdown(ExecutorService executor) {
+        executor.shutdownNow();
+
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_S, TimeUnit.SECONDS)) {
+                ApplicationLogger.warning("Some database work did not stop in time");
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes all the sessions opened by the executor
+     * @param sessions The sessions to be closed
+     */
+    private void closeSessions(ConcurrentLinkedQueue<DatabaseConnection> sessions) {
+        DatabaseConnection session;
+
+        while ((session = sessions.poll()) != null) {
+            try {
+                session.close();
+            } catch (final SQLException ex) {
+                ApplicationLogger.warning("Could not close a database session: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Throws the failure of some work with its original type when possible
+     * @param cause The failure of the work
+     * @throws SQLException When the work failed querying the database
+     * @throws IOException When the work failed writing its output
+     */
+    private void rethrow(Throwable cause) throws SQLException, IOException {
+        if (cause instanceof SQLException) {
+            throw (SQLException) cause;
+        }
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+
+        throw new IllegalStateException(cause);
+    }
+
+    /**
+     * The work executed for each item, through a database session which is exclusive while it runs
+     * @param <I> The type of the items
+     * @param <O> The type of the results
+     */
+    public interface SessionTask<I, O> {
+        O execute(DatabaseConnection session, I item) throws SQLException, IOException;
+    }
+}
@@ -8,6 +8,12 @@ package com.uem.dbstructure;
 public class Column {
     private Table table;
     private String name;
+    private ColumnType type;
+    private int length;
+    private int precision;
+    private int scale;
+    private boolean nullable;
+    private int ordinalPosition;
 
     /**
      * Initializes the Column with a name, associating it with a Table
@@ -18,6 +24,7 @@ public class Column {
         super();
         this.table = table;
         this.name = name;
+        this.nullable = true;
     }
 
     public Table getTable() {
@@ -36,6 +43,74 @@ public class Column {
         this.name = name;
     }
 
+    /**
+     * Provides the data type of the Column, when it's already known
+     * @return The ColumnType of the Column (null if unknown)
+     */
+    public ColumnType getType() {
+        return type;
+    }
+
+    public void setType(ColumnType type) {
+        this.type = type;
+    }
+
+    /**
+     * Provides the maximum length of the Column's values, for character and binary types
+     * @return The maximum length (0 if unknown or not applicable)
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        this.length = length;
+    }
+
+    /**
+     * Provides the number of digits of the Column's values, for numeric types
+     * @return The precision (0 if unknown or not applicable)
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void setPrecision(int precision) {
+        this.precision = precision;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public void setScale(int scale) {
+        this.scale = scale;
+    }
+
+    /**
+     * Tells whether the Column accepts null values. Columns are considered nullable unless the metadata says otherwise
+     * @return true when the Column accepts nulls, false otherwise
+     */
+    public boolean isNullable() {
+        return nullable;
+    }
+
+    public void setNullable(boolean nullable) {
+        this.nullable = nullable;
+    }
+
+    /**
+     * Provides the position of the Column in its Table, starting at 1
+     * @return The ordinal position (0 if unknown)
+     */
+    public int getOrdinalPosition() {
+        return ordinalPosition;
+    }
+
+    public void setOrdinalPosition(int ordinalPosition) {
+        this.ordinalPosition = ordinalPosition;
+    }
+
     @Override
     public boolean equals(Object other){
         if (other == null) {
@@ -53,6 +128,11 @@ public class Column {
                this.getTable().equals(otherColumn.getTable());
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * table.hashCode() + name.hashCode();
+    }
+
     @Override
     public String toString() {
         return String.format("%s.%s", table, name);
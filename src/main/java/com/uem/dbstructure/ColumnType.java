@@ -0,0 +1,256 @@
+package com.uem.dbstructure;
+
+import java.sql.Types;
+
+/**
+ * Provides all the column data types known by the application. Each type has a one byte code,
+ * which is what gets stored, so the type of every column costs a single byte
+ *
+ * @author zessin
+ */
+public enum ColumnType {
+    OTHER((byte) 0),
+    BOOLEAN((byte) 1),
+    SMALLINT((byte) 2),
+    INTEGER((byte) 3),
+    BIGINT((byte) 4),
+    DECIMAL((byte) 5),
+    REAL((byte) 6),
+    DOUBLE((byte) 7),
+    CHAR((byte) 8),
+    VARCHAR((byte) 9),
+    CLOB((byte) 10),
+    DATE((byte) 11),
+    TIME((byte) 12),
+    TIMESTAMP((byte) 13),
+    BINARY((byte) 14),
+    BLOB((byte) 15);
+
+    // Exact numbers with up to this many digits always fit in a long
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final ColumnType[] TYPES_BY_CODE = new ColumnType[16];
+
+    static {
+        for (final ColumnType type : values()) {
+            TYPES_BY_CODE[type.code] = type;
+        }
+    }
+
+    private final byte code;
+
+    private ColumnType(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Tells whether the values of the type are whole numbers which fit in a long
+     * @return true when the values can be read as longs, false otherwise
+     */
+    public boolean isIntegral() {
+        return this.equals(SMALLINT) || this.equals(INTEGER) || this.equals(BIGINT);
+    }
+
+    /**
+     * Tells whether the values of the type are approximate numbers
+     * @return true when the values can be read as doubles, false otherwise
+     */
+    public boolean isFloatingPoint() {
+        return this.equals(REAL) || this.equals(DOUBLE);
+    }
+
+    /**
+     * Tells whether the values of the type are raw bytes
+     * @return true when the values can be read as byte arrays, false otherwise
+     */
+    public boolean isBinary() {
+        return this.equals(BINARY) || this.equals(BLOB);
+    }
+
+    /**
+     * Returns the ColumnType which has a given code
+     * @param code The code of the type
+     * @return The ColumnType for the code (OTHER if not found)
+     */
+    public static ColumnType getColumnTypeByCode(byte code) {
+        if (code < 0 || code >= TYPES_BY_CODE.length || TYPES_BY_CODE[code] == null) {
+            return OTHER;
+        }
+
+        return TYPES_BY_CODE[code];
+    }
+
+    /**
+     * Returns the correct ColumnType for a data type name found in the database catalog, as in the
+     * data_type column of information_schema.columns or all_tab_columns. Length modifiers and
+     * time zone qualifiers are ignored, and exact numbers are treated as in getColumnTypeByJdbcType.
+     * Full MySQL column types (the column_type column) are also understood: an unsigned integer
+     * takes the next wider type, since its highest values don't fit in the signed one
+     * @param dataType The name of the data type
+     * @param precision The number of digits of the column (0 when unknown)
+     * @param scale The number of decimal places of the column
+     * @return The correct ColumnType for the name (OTHER if not supported)
+     */
+    public static ColumnType getColumnTypeByName(String dataType, int precision, int scale) {
+        if (dataType == null) {
+            return OTHER;
+        }
+
+        final String fullName = dataType.replaceAll("\\(.*?\\)", "").trim().toUpperCase();
+        final boolean unsigned = fullName.endsWith(" UNSIGNED") || fullName.endsWith(" UNSIGNED ZEROFILL");
+        final String name = fullName.replaceAll("( UNSIGNED)?( ZEROFILL)?$", "");
+
+        if (unsigned) {
+            switch (name) {
+                case "TINYINT":
+                    return SMALLINT;
+                case "SMALLINT":
+                case "MEDIUMINT":
+                    return INTEGER;
+                case "INT":
+                case "INTEGER":
+                    return BIGINT;
+                case "BIGINT":
+                    return DECIMAL;
+                default:
+                    break;
+            }
+        }
+
+        if (name.startsWith("TIMESTAMP") || name.startsWith("DATETIME")) {
+            return TIMESTAMP;
+        }
+        if (name.startsWith("TIME ")) {
+            return TIME;
+        }
+
+        switch (name) {
+            case "BOOLEAN":
+            case "BOOL":
+            case "BIT":
+                return BOOLEAN;
+            case "TINYINT":
+            case "SMALLINT":
+            case "INT2":
+                return SMALLINT;
+            case "MEDIUMINT":
+            case "INT":
+            case "INTEGER":
+            case "INT4":
+            case "SERIAL":
+                return INTEGER;
+            case "BIGINT":
+            case "INT8":
+            case "BIGSERIAL":
+                return BIGINT;
+            case "NUMBER":
+            case "NUMERIC":
+            case "DECIMAL":
+                return getColumnTypeByJdbcType(Types.NUMERIC, precision, scale);
+            case "REAL":
+            case "FLOAT4":
+            case "BINARY_FLOAT":
+                return REAL;
+            case "FLOAT":
+            case "FLOAT8":
+            case "DOUBLE":
+            case "DOUBLE PRECISION":
+            case "BINARY_DOUBLE":
+                return DOUBLE;
+            case "CHAR":
+            case "CHARACTER":
+            case "NCHAR":
+            case "BPCHAR":
+                return CHAR;
+            case "VARCHAR":
+            case "VARCHAR2":
+            case "NVARCHAR2":
+            case "CHARACTER VARYING":
+                return VARCHAR;
+            case "TEXT":
+            case "TINYTEXT":
+            case "MEDIUMTEXT":
+            case "LONGTEXT":
+            case "LONG":
+            case "CLOB":
+            case "NCLOB":
+                return CLOB;
+            case "DATE":
+                return DATE;
+            case "TIME":
+                return TIME;
+            case "BINARY":
+            case "VARBINARY":
+            case "BYTEA":
+            case "RAW":
+            case "LONG RAW":
+                return BINARY;
+            case "BLOB":
+            case "TINYBLOB":
+            case "MEDIUMBLOB":
+            case "LONGBLOB":
+                return BLOB;
+            default:
+                return OTHER;
+        }
+    }
+
+    /**
+     * Returns the correct ColumnType for a type reported by the JDBC driver.
+     * Exact numbers without decimal places and with few enough digits are treated as BIGINT
+     * @param jdbcType The type, as one of the java.sql.Types constants
+     * @param precision The number of digits of the column (0 when unknown)
+     * @param scale The number of decimal places of the column
+     * @return The correct ColumnType for the JDBC type (OTHER if not supported)
+     */
+    public static ColumnType getColumnTypeByJdbcType(int jdbcType, int precision, int scale) {
+        switch (jdbcType) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return BOOLEAN;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+                return SMALLINT;
+            case Types.INTEGER:
+                return INTEGER;
+            case Types.BIGINT:
+                return BIGINT;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return scale == 0 && precision > 0 && precision <= MAX_LONG_DIGITS ? BIGINT : DECIMAL;
+            case Types.REAL:
+                return REAL;
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return DOUBLE;
+            case Types.CHAR:
+            case Types.NCHAR:
+                return CHAR;
+            case Types.VARCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.LONGNVARCHAR:
+                return VARCHAR;
+            case Types.CLOB:
+            case Types.NCLOB:
+                return CLOB;
+            case Types.DATE:
+                return DATE;
+            case Types.TIME:
+                return TIME;
+            case Types.TIMESTAMP:
+                return TIMESTAMP;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return BINARY;
+            case Types.BLOB:
+                return BLOB;
+            default:
+                return OTHER;
+        }
+    }
+}
@@ -1,27 +1,50 @@
 package com.uem.dbstructure;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import com.uem.dbconfig.DatabaseConnection;
+import com.uem.dbconfig.SessionExecutor;
+import com.uem.metrics.Metrics;
 import com.uem.util.ApplicationLogger;
+import com.uem.util.CheckpointJournal;
 import com.uem.util.PropertiesHelper;
 
 /**
- * Provides all the methods needed to load the metadata from a relational database
+ * Provides all the methods needed to load the metadata from a relational database.
+ * The metadata loaded for each table is checkpointed in a journal, so a run which
+ * dies midway resumes from the first table which wasn't completely loaded.
+ * The columns and constraints of each table are queried through a SessionExecutor,
+ * so they may be loaded for many tables at the same time
  *
  * @author zessin
  */
 public class DatabaseInfo {
+    private static final String JOURNAL_FILE_EXTENSION = ".journal";
+    private static final String TABLES_UNIT            = "tables";
+    private static final String COLUMNS_UNIT           = "columns:";
+    private static final String CONSTRAINTS_UNIT       = "constraints:";
+    private static final String STATISTICS_UNIT        = "statistics:";
+    private static final int COLUMN_FIELDS             = 7;
+
     private final List<Table> tables;
     private final List<Column> columns;
     private final List<Constraint> constraints;
     private final DatabaseConnection databaseConnection;
     private final String schema;
+    private final SessionExecutor sessionExecutor;
     private ResultSet resultSet;
+    private CheckpointJournal journal;
 
     /**
      * Initializes all the attributes and the schema based on the properties file
@@ -33,6 +56,7 @@ public class DatabaseInfo {
         constraints = new ArrayList<>();
         databaseConnection = DatabaseConnection.getConnection();
         schema = PropertiesHelper.getDatabaseSchema();
+        sessionExecutor = new SessionExecutor(PropertiesHelper.getTableExecutionMode(), PropertiesHelper.getMaxDatabaseSessions());
         resultSet = null;
     }
 
@@ -41,17 +65,44 @@ public class DatabaseInfo {
      * @throws SQLException When the metadata couldn't be queried for some reason
      */
     public void loadDatabaseInformation() throws SQLException {
-        loadAllTables();
-        loadAllColumns();
-        loadAllConstraints();
-        loadRelationshipTables();
+        journal = new CheckpointJournal(new File(PropertiesHelper.getOutputPath(), schema + JOURNAL_FILE_EXTENSION), schema);
+
+        try {
+            journal.open();
+
+            Metrics.time(Metrics.PHASE_TABLES, this::loadAllTables);
+            Metrics.time(Metrics.PHASE_COLUMNS, this::loadAllColumns);
+            Metrics.time(Metrics.PHASE_CONSTRAINTS, this::loadAllConstraints);
+            Metrics.time(Metrics.PHASE_STATISTICS, this::loadAllStatistics);
+            Metrics.time(Metrics.PHASE_RELATIONSHIPS, () -> {
+                loadRelationshipTables();
+
+                if (PropertiesHelper.isOneToOneFoldingEnabled()) {
+                    loadFoldedTables();
+                }
+            });
+
+            journal.finish();
+        } catch (final IOException ex) {
+            ApplicationLogger.error("Could not write the metadata journal: " + ex.getMessage());
+            throw new IllegalStateException(ex);
+        } finally {
+            closeJournal();
+        }
     }
 
     /**
      * Queries and organizes all the tables metadata needed for the application
      * @throws SQLException When the tables metadata couldn't be queried for some reason
+     * @throws IOException When the journal couldn't be written for some reason
      */
-    private void loadAllTables() throws SQLException {
+    private void loadAllTables() throws SQLException, IOException {
+        if (journal.isCommitted(TABLES_UNIT)) {
+            ApplicationLogger.info("Tables metadata for schema " + schema + " recovered from journal");
+            journal.getRecords(TABLES_UNIT).forEach(r -> tables.add(new Table(r[0])));
+            return;
+        }
+
         ApplicationLogger.info("Loading tables metadata for schema " + schema);
 
         final String tablesQuery = "SELECT table_name " +
@@ -63,61 +114,141 @@ public class DatabaseInfo {
 
         while (resultSet.next()) {
             tables.add(new Table(resultSet.getString("table_name")));
+            journal.append(TABLES_UNIT, resultSet.getString("table_name"));
         }
 
         databaseConnection.closeStatement();
+        journal.commit(TABLES_UNIT);
     }
 
     /**
      * Queries and organizes all the columns metadata needed for the application
      * @throws SQLException When the columns metadata couldn't be queried for some reason
+     * @throws IOException When the journal couldn't be written for some reason
      */
-    private void loadAllColumns() throws SQLException {
-        for (final Table table : tables) {
-            loadTableColumns(table);
-        }
+    private void loadAllColumns() throws SQLException, IOException {
+        sessionExecutor.map(tables, this::loadTableColumns).forEach(columns::addAll);
     }
 
     /**
      * Queries and organizes all the table's columns metadata needed for the application
+     * @param session The database session used for the query
      * @param table The Table whose columns will be queried
+     * @return The columns of the Table
      * @throws SQLException When the table's columns metadata couldn't be queried for some reason
+     * @throws IOException When the journal couldn't be written for some reason
      */
-    private void loadTableColumns(Table table) throws SQLException {
-        ApplicationLogger.info("Loading columns metadata for table " + table);
+    private List<Column> loadTableColumns(DatabaseConnection session, Table table) throws SQLException, IOException {
+        final String unit = COLUMNS_UNIT + table.getName();
+        final List<Column> tableColumns = new ArrayList<>();
+
+        if (journal.isCommitted(unit)) {
+            ApplicationLogger.info(() -> "Columns metadata for table " + table + " recovered from journal");
+            journal.getRecords(unit).forEach(r -> tableColumns.add(createColumn(table, r)));
+            return tableColumns;
+        }
+
+        ApplicationLogger.info(() -> "Loading columns metadata for table " + table);
 
-        final String columnsQuery = "SELECT column_name " +
+        final String columnsQuery = "SELECT column_name, " +
+                                    "       data_type, " +
+                                    "       data_length, " +
+                                    "       data_precision, " +
+                                    "       data_scale, " +
+                                    "       nullable, " +
+                                    "       ordinal_position " +
                                     "FROM   " + schema + "." + PropertiesHelper.getColumnsView() + " " +
                                     "WHERE  UPPER(table_schema) = UPPER('" + schema + "') AND " +
                                     "       UPPER(table_name)   = UPPER('" + table.getName() + "') " +
-                                    "ORDER BY table_name";
+                                    "ORDER BY table_name, ordinal_position";
+
+        try {
+            final ResultSet columnsResultSet = session.query(columnsQuery);
+
+            while (columnsResultSet.next()) {
+                final int precision = columnsResultSet.getInt("data_precision");
+                final int scale = columnsResultSet.getInt("data_scale");
+                final ColumnType type = ColumnType.getColumnTypeByName(columnsResultSet.getString("data_type"), precision, scale);
+                final String[] fields = { columnsResultSet.getString("column_name"),
+                                          String.valueOf(type.getCode()),
+                                          String.valueOf(columnsResultSet.getInt("data_length")),
+                                          String.valueOf(precision),
+                                          String.valueOf(scale),
+                                          String.valueOf(isNullable(columnsResultSet.getString("nullable"))),
+                                          String.valueOf(columnsResultSet.getInt("ordinal_position")) };
+
+                tableColumns.add(createColumn(table, fields));
+                journal.append(unit, fields);
+            }
+        } finally {
+            session.closeStatement();
+        }
 
-        resultSet = databaseConnection.query(columnsQuery);
+        journal.commit(unit);
+        return tableColumns;
+    }
 
-        while (resultSet.next()) {
-            columns.add(new Column(table, resultSet.getString("column_name")));
+    /**
+     * Creates a Column from the fields of its metadata, as they're stored in the journal.
+     * Records written before the data types were loaded only hold the name, and leave the type unknown
+     * @param table The Table which the Column belongs to
+     * @param fields The name, type code, length, precision, scale, nullability and ordinal position of the Column
+     * @return The Column created
+     */
+    private Column createColumn(Table table, String[] fields) {
+        final Column column = new Column(table, fields[0]);
+
+        if (fields.length < COLUMN_FIELDS) {
+            return column;
         }
 
-        databaseConnection.closeStatement();
+        column.setType(ColumnType.getColumnTypeByCode(Byte.parseByte(fields[1])));
+        column.setLength(Integer.parseInt(fields[2]));
+        column.setPrecision(Integer.parseInt(fields[3]));
+        column.setScale(Integer.parseInt(fields[4]));
+        column.setNullable(Boolean.parseBoolean(fields[5]));
+        column.setOrdinalPosition(Integer.parseInt(fields[6]));
+
+        return column;
+    }
+
+    /**
+     * Reads the nullability of a column as reported by the catalog ('YES'/'NO' or 'Y'/'N')
+     * @param nullable The value reported by the catalog
+     * @return false when the column is declared as not null, true otherwise
+     */
+    private boolean isNullable(String nullable) {
+        return nullable == null || !nullable.trim().toUpperCase().startsWith("N");
     }
 
     /**
      * Queries and organizes all the constraints metadata needed for the application
      * @throws SQLException When the constraints metadata couldn't be queried for some reason
+     * @throws IOException When the journal couldn't be written for some reason
      */
-    private void loadAllConstraints() throws SQLException {
-        for (final Table table : tables) {
-            loadTableConstraints(table);
-        }
+    private void loadAllConstraints() throws SQLException, IOException {
+        sessionExecutor.map(tables, this::loadTableConstraints).forEach(constraints::addAll);
     }
 
     /**
      * Queries and organizes all the table's constraints metadata needed for the application
+     * @param session The database session used for the query
      * @param table The Table whose constraints will be queried
+     * @return The constraints of the Table
      * @throws SQLException When the table's constraints metadata couldn't be queried for some reason
+     * @throws IOException When the journal couldn't be written for some reason
      */
-    private void loadTableConstraints(Table table) throws SQLException {
-        ApplicationLogger.info("Loading constraints metadata for table " + table);
+    private List<Constraint> loadTableConstraints(DatabaseConnection session, Table table) throws SQLException, IOException {
+        final String unit = CONSTRAINTS_UNIT + table.getName();
+        final List<Constraint> tableConstraints = new ArrayList<>();
+
+        if (journal.isCommitted(unit)) {
+            ApplicationLogger.info(() -> "Constraints metadata for table " + table + " recovered from journal");
+            journal.getRecords(unit).forEach(r -> tableConstraints.add(createConstraint(table, r[0], r[1], r[2], r[3], r[4])));
+            return tableConstraints;
+        }
+
+        ApplicationLogger.info(() -> "Loading constraints metadata for table " + table);
 
         final String constraintsQuery = "SELECT constraint_name, " +
                                         "       constraint_type, " +
@@ -130,26 +261,200 @@ public class DatabaseInfo {
                                         "       UPPER(table_name)   = UPPER('" + table.getName() + "') " +
                                         "ORDER BY table_name, constraint_type";
 
-        resultSet = databaseConnection.query(constraintsQuery);
+        try {
+            final ResultSet constraintsResultSet = session.query(constraintsQuery);
+
+            while (constraintsResultSet.next()) {
+                final String[] fields = { constraintsResultSet.getString("constraint_name"),
+                                          constraintsResultSet.getString("constraint_type"),
+                                          constraintsResultSet.getString("column_name"),
+                                          constraintsResultSet.getString("referenced_table_name"),
+                                          constraintsResultSet.getString("referenced_column_name") };
+
+                tableConstraints.add(createConstraint(table, fields[0], fields[1], fields[2], fields[3], fields[4]));
+                journal.append(unit, fields);
+            }
+        } finally {
+            session.closeStatement();
+        }
 
-        while (resultSet.next()) {
-            final Column column = findColumnByTableAndColumnNames(table.getName(), resultSet.getString("column_name"));
-            final ConstraintType constraintType = ConstraintType.getConstraintTypeByName(resultSet.getString("constraint_type"));
-            final Table referencedTable = constraintType.isForeignKey() ? findTableByTableName(resultSet.getString("referenced_table_name")) : null;
-            final Column referencedColumn = constraintType.isForeignKey() ? findColumnByTableAndColumnNames(resultSet.getString("referenced_table_name"), resultSet.getString("referenced_column_name")) : null;
-
-            final Constraint constraint =
-                new Constraint(resultSet.getString("constraint_name"),
-                               table,
-                               column,
-                               referencedTable,
-                               referencedColumn,
-                               constraintType);
-
-            constraints.add(constraint);
+        journal.commit(unit);
+        return tableConstraints;
+    }
+
+    /**
+     * Creates a Constraint from the values queried in the constraints view
+     * @param table The Table which the Constraint belongs to
+     * @param constraintName The name of the Constraint
+     * @param constraintTypeName The name of the Constraint's type
+     * @param columnName The name of the Column which the Constraint belongs to
+     * @param referencedTableName The name of the referenced Table, when the Constraint is a FOREIGN_KEY
+     * @param referencedColumnName The name of the referenced Column, when the Constraint is a FOREIGN_KEY
+     * @return The Constraint created
+     */
+    private Constraint createConstraint(Table table, String constraintName, String constraintTypeName, String columnName,
+                               String referencedTableName, String referencedColumnName) {
+        final Column column = findColumnByTableAndColumnNames(table.getName(), columnName);
+        final ConstraintType constraintType = ConstraintType.getConstraintTypeByName(constraintTypeName);
+        final Table referencedTable = constraintType.isForeignKey() ? findTableByTableName(referencedTableName) : null;
+        final Column referencedColumn = constraintType.isForeignKey() ? findColumnByTableAndColumnNames(referencedTableName, referencedColumnName) : null;
+
+        return new Constraint(constraintName,
+                              table,
+                              column,
+                              referencedTable,
+                              referencedColumn,
+                              constraintType);
+    }
+
+    /**
+     * Gathers the row counts of all the tables, when enabled in the properties file, and derives the
+     * expected fan-out of the foreign keys from them. The estimates of the database catalog are used where
+     * available (a single query on the statistics view); the other tables are counted in parallel,
+     * each count being cancelled after a timeout. A table whose count fails is left without statistics
+     * @throws SQLException When the statistics couldn't be queried for some reason
+     * @throws IOException When the journal couldn't be written for some reason
+     */
+    private void loadAllStatistics() throws SQLException, IOException {
+        final StatisticsMode statisticsMode = PropertiesHelper.getStatisticsMode();
+
+        if (statisticsMode == StatisticsMode.NONE) {
+            return;
         }
 
-        databaseConnection.closeStatement();
+        final List<Table> pendingTables = new ArrayList<>();
+
+        for (final Table table : tables) {
+            final String unit = STATISTICS_UNIT + table.getName();
+
+            if (journal.isCommitted(unit)) {
+                final String[] fields = journal.getRecords(unit).get(0);
+                table.setStatistics(new TableStatistics(Long.parseLong(fields[0]), Boolean.parseBoolean(fields[1])));
+            } else {
+                pendingTables.add(table);
+            }
+        }
+
+        if (pendingTables.size() < tables.size()) {
+            ApplicationLogger.info(String.format("Statistics for %d tables recovered from journal", tables.size() - pendingTables.size()));
+        }
+
+        if (!pendingTables.isEmpty() && statisticsMode == StatisticsMode.CATALOG) {
+            final Map<String, Long> estimates = loadRowCountEstimates();
+
+            for (final Table table : new ArrayList<>(pendingTables)) {
+                final Long estimate = estimates.get(table.getName().toUpperCase());
+
+                // Catalogs report negative or missing estimates for tables which were never analyzed
+                if (estimate != null && estimate >= 0) {
+                    saveStatistics(table, new TableStatistics(estimate, false));
+                    pendingTables.remove(table);
+                }
+            }
+        }
+
+        sessionExecutor.map(pendingTables, this::countTableRows);
+
+        loadForeignKeyFanOuts();
+    }
+
+    /**
+     * Queries the row count estimates kept by the database catalog, through the statistics view
+     * @return The estimates found, by upper case table name (empty map if the view couldn't be queried)
+     * @throws SQLException When the statement couldn't be closed for some reason
+     */
+    private Map<String, Long> loadRowCountEstimates() throws SQLException {
+        final Map<String, Long> estimates = new HashMap<>();
+        final String statisticsQuery = "SELECT table_name, " +
+                                       "       row_count " +
+                                       "FROM   " + schema + "." + PropertiesHelper.getStatisticsView() + " " +
+                                       "WHERE  UPPER(table_schema) = UPPER('" + schema + "')";
+
+        ApplicationLogger.info("Loading row count estimates for schema " + schema);
+
+        try {
+            resultSet = databaseConnection.query(statisticsQuery);
+
+            while (resultSet.next()) {
+                final long rowCount = resultSet.getLong("row_count");
+
+                if (!resultSet.wasNull()) {
+                    estimates.put(resultSet.getString("table_name").toUpperCase(), rowCount);
+                }
+            }
+        } catch (final SQLException ex) {
+            ApplicationLogger.warning(String.format("Could not query the row count estimates (%s), tables will be counted instead", ex.getMessage()));
+        } finally {
+            databaseConnection.closeStatement();
+        }
+
+        return estimates;
+    }
+
+    /**
+     * Counts the rows of a Table, giving up when the count takes longer than the configured timeout
+     * @param session The database session used for the query
+     * @param table The Table whose rows will be counted
+     * @return The TableStatistics gathered (null if the rows couldn't be counted)
+     * @throws SQLException When the statement couldn't be closed for some reason
+     * @throws IOException When the journal couldn't be written for some reason
+     */
+    private TableStatistics countTableRows(DatabaseConnection session, Table table) throws SQLException, IOException {
+        ApplicationLogger.info(() -> "Counting rows of table " + table);
+
+        final String countQuery = "SELECT COUNT(*) FROM " + schema + "." + table.getName();
+        final long rowCount;
+
+        try {
+            final ResultSet countResultSet = session.queryWithTimeout(countQuery, PropertiesHelper.getCountTimeoutSeconds());
+
+            countResultSet.next();
+            rowCount = countResultSet.getLong(1);
+        } catch (final SQLException ex) {
+            ApplicationLogger.warning(String.format("Could not count rows of table %s, it will have no statistics: %s", table, ex.getMessage()));
+            return null;
+        } finally {
+            session.closeStatement();
+        }
+
+        final TableStatistics statistics = new TableStatistics(rowCount, true);
+        saveStatistics(table, statistics);
+
+        return statistics;
+    }
+
+    /**
+     * Sets the statistics of a Table and checkpoints them in the journal
+     * @param table The Table whose statistics were gathered
+     * @param statistics The TableStatistics gathered
+     * @throws IOException When the journal couldn't be written for some reason
+     */
+    private void saveStatistics(Table table, TableStatistics statistics) throws IOException {
+        final String unit = STATISTICS_UNIT + table.getName();
+
+        table.setStatistics(statistics);
+        journal.append(unit, String.valueOf(statistics.getRowCount()), String.valueOf(statistics.isExact()));
+        journal.commit(unit);
+    }
+
+    /**
+     * Derives the expected fan-out of every foreign key whose Table and referenced Table both have statistics
+     */
+    private void loadForeignKeyFanOuts() {
+        constraints.stream()
+                   .filter(c -> c.getType().isForeignKey() &&
+                                c.getTable().getStatistics() != null &&
+                                c.getReferencedTable().getStatistics() != null &&
+                                c.getReferencedTable().getStatistics().getRowCount() > 0)
+                   .forEach(c -> c.getTable()
+                                  .getStatistics()
+                                  .setForeignKeyFanOut(c.getName(),
+                                                       (double) c.getTable().getStatistics().getRowCount() /
+                                                       c.getReferencedTable().getStatistics().getRowCount()));
+
+        tables.stream()
+              .filter(t -> t.getStatistics() != null)
+              .forEach(t -> ApplicationLogger.info(() -> String.format("Table %s has %s", t, t.getStatistics())));
     }
 
     /**
@@ -182,6 +487,102 @@ public class DatabaseInfo {
         }
     }
 
+    /**
+     * Finds the tables split vertically from another one: their primary key is entirely a foreign key
+     * to the primary key of the other table, so each of their rows extends a single row of it.
+     * Such a table is folded into the other one, and its columns become properties of the other
+     * table's nodes. Only a single level is folded: a table whose parent is folded itself is kept apart,
+     * which is decided from the root of each chain down, so a chain folds every other level whatever the order of the tables
+     */
+    private void loadFoldedTables() {
+        final Map<Table, Set<Column>> primaryKeys = new HashMap<>();
+        final Map<Table, Map<String, List<Constraint>>> foreignKeys = new HashMap<>();
+
+        for (final Constraint constraint : constraints) {
+            final Table table = constraint.getColumn().getTable();
+
+            if (ConstraintType.PRIMARY_KEY.equals(constraint.getType())) {
+                primaryKeys.computeIfAbsent(table, t -> new HashSet<>()).add(constraint.getColumn());
+            } else if (ConstraintType.FOREIGN_KEY.equals(constraint.getType())) {
+                foreignKeys.computeIfAbsent(table, t -> new LinkedHashMap<>())
+                           .computeIfAbsent(constraint.getName(), n -> new ArrayList<>())
+                           .add(constraint);
+            }
+        }
+
+        for (final Table table : tables) {
+            final Set<Column> primaryKey = primaryKeys.get(table);
+
+            if (table.isRelationshipTable() || primaryKey == null) {
+                continue;
+            }
+
+            for (final List<Constraint> foreignKey : foreignKeys.getOrDefault(table, new HashMap<>()).values()) {
+                final Table parentTable = foreignKey.get(0).getReferencedTable();
+                final Set<Column> columns = foreignKey.stream().map(c -> c.getColumn()).collect(Collectors.toSet());
+                final Set<Column> referencedColumns = foreignKey.stream().map(c -> c.getReferencedColumn()).collect(Collectors.toSet());
+
+                if (!parentTable.equals(table) && !parentTable.isRelationshipTable() &&
+                    foreignKey.size() == primaryKey.size() &&
+                    columns.equals(primaryKey) &&
+                    referencedColumns.equals(primaryKeys.get(parentTable))) {
+                    table.setParentTable(parentTable, foreignKey);
+                    break;
+                }
+            }
+        }
+
+        final Set<Table> resolvedTables = new HashSet<>();
+
+        for (final Table table : tables) {
+            resolveFolding(table, resolvedTables, new HashSet<>());
+        }
+    }
+
+    /**
+     * Decides whether a table found by loadFoldedTables is really folded, after its parent was decided:
+     * the table is kept apart when its parent stays folded, or when the tables would be folded into each other
+     * @param table The Table being decided
+     * @param resolvedTables The tables already decided
+     * @param pendingTables The tables whose decision waits for this one, i.e. its children in the chain being resolved
+     */
+    private void resolveFolding(Table table, Set<Table> resolvedTables, Set<Table> pendingTables) {
+        if (!table.isFolded() || resolvedTables.contains(table)) {
+            return;
+        }
+
+        final Table parentTable = table.getParentTable();
+
+        pendingTables.add(table);
+        if (pendingTables.contains(parentTable)) {
+            ApplicationLogger.info(String.format("Table %s will not be folded into table %s, which would be folded into it",
+                                                 table, parentTable));
+            table.setParentTable(null, null);
+        } else {
+            resolveFolding(parentTable, resolvedTables, pendingTables);
+
+            if (parentTable.isFolded()) {
+                ApplicationLogger.info(String.format("Table %s will not be folded into table %s, which is folded itself",
+                                                     table, parentTable));
+                table.setParentTable(null, null);
+            } else {
+                ApplicationLogger.info(String.format("Table %s will be folded into table %s", table, parentTable));
+            }
+        }
+        resolvedTables.add(table);
+    }
+
+    /**
+     * Closes the metadata journal, if it's open
+     */
+    private void closeJournal() {
+        try {
+            journal.close();
+        } catch (final IOException ex) {
+            ApplicationLogger.warning("Could not close the metadata journal: " + ex.getMessage());
+        }
+    }
+
     /**
      * Finds a Table amongst all the loaded ones by its name
      * @param tableName The name of the Table which will be searched
@@ -262,4 +663,8 @@ public class DatabaseInfo {
     public DatabaseConnection getDatabaseConnection() {
         return databaseConnection;
     }
+
+    public String getSchema() {
+        return schema;
+    }
 }
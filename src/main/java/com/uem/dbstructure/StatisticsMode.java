@@ -0,0 +1,33 @@
+package com.uem.dbstructure;
+
+/**
+ * Provides all the ways in which the row counts of the tables may be gathered
+ *
+ * @author zessin
+ */
+public enum StatisticsMode {
+    /** No statistics are gathered */
+    NONE,
+    /** The estimates kept by the database catalog, counting only the tables it has no estimate for */
+    CATALOG,
+    /** Every table is counted */
+    COUNT;
+
+    /**
+     * Returns the correct StatisticsMode according to the property in the properties file
+     * @param statisticsModeProperty The value of the property in the file
+     * @return The correct StatisticsMode for the property (null if not found)
+     */
+    public static StatisticsMode getStatisticsModeByProperty(String statisticsModeProperty) {
+        switch (statisticsModeProperty.toUpperCase()) {
+            case "NONE":
+                return NONE;
+            case "CATALOG":
+                return CATALOG;
+            case "COUNT":
+                return COUNT;
+            default:
+                return null;
+        }
+    }
+}
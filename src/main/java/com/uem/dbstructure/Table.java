@@ -1,5 +1,7 @@
 package com.uem.dbstructure;
 
+import java.util.List;
+
 /**
  * Represents a table in the relational database
  *
@@ -8,6 +10,9 @@ package com.uem.dbstructure;
 public class Table {
     private String name;
     private Boolean relationshipTable;
+    private TableStatistics statistics;
+    private Table parentTable;
+    private List<Constraint> foldingKey;
 
     /**
      * Initializes the Table with a name
@@ -43,6 +48,60 @@ public class Table {
         this.relationshipTable = relationshipTable;
     }
 
+    /**
+     * Provides the size of the Table, when statistics were gathered
+     * @return The TableStatistics of the Table (null if not gathered)
+     */
+    public TableStatistics getStatistics() {
+        return statistics;
+    }
+
+    public void setStatistics(TableStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Tells whether a Table was folded into another one, sharing its primary key
+     * @return True if the Table was folded, false otherwise
+     */
+    public boolean isFolded() {
+        return parentTable != null;
+    }
+
+    /**
+     * Provides the Table whose nodes hold the data of this Table
+     * @return The Table this one was folded into, or this Table when it wasn't folded
+     */
+    public Table getNodeTable() {
+        return parentTable == null ? this : parentTable;
+    }
+
+    /**
+     * Provides the Table this one was folded into
+     * @return The parent Table (null if the Table wasn't folded)
+     */
+    public Table getParentTable() {
+        return parentTable;
+    }
+
+    /**
+     * Provides the foreign key through which this Table was folded into its parent
+     * @return The Constraints of the foreign key (null if the Table wasn't folded)
+     */
+    public List<Constraint> getFoldingKey() {
+        return foldingKey;
+    }
+
+    /**
+     * Folds this Table into another one, whose primary key is referenced by this Table's primary key
+     * @param parentTable The Table this one is folded into (null to undo the folding)
+     * @param foldingKey The Constraints of the foreign key which joins both tables
+     */
+    public void setParentTable(Table parentTable, List<Constraint> foldingKey) {
+        this.parentTable = parentTable;
+        this.foldingKey = foldingKey;
+    }
+
     @Override
     public boolean equals(Object other){
         if (other == null) {
@@ -59,6 +118,11 @@ public class Table {
         return this.getName().equals(otherTable.getName());
     }
 
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
     @Override
     public String toString() {
         return String.format("%s", name);
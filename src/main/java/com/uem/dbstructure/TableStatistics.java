@@ -0,0 +1,65 @@
+package com.uem.dbstructure;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds the size of a Table: its row count, either estimated by the database catalog or counted,
+ * and the expected fan-out of each of its foreign keys: its row count divided by the row count of the
+ * referenced Table, i.e. how many of its rows would reference each referenced row if the references
+ * were spread evenly. It's not the number of distinct values of the foreign key, which isn't gathered
+ *
+ * @author zessin
+ */
+public class TableStatistics {
+    private final long rowCount;
+    private final boolean exact;
+    private final Map<String, Double> foreignKeyFanOuts;
+
+    /**
+     * Initializes the statistics with the row count of a Table
+     * @param rowCount The number of rows of the Table
+     * @param exact Tells whether the rows were counted or only estimated
+     */
+    public TableStatistics(long rowCount, boolean exact) {
+        super();
+        this.rowCount = rowCount;
+        this.exact = exact;
+        foreignKeyFanOuts = new HashMap<>();
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Tells whether the row count was obtained with a COUNT(*) or estimated by the catalog
+     * @return true when the rows were counted, false otherwise
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Provides the expected fan-out of a foreign key of the Table
+     * @param constraintName The name of the foreign key Constraint
+     * @return The rows of the Table per row of the referenced Table (null if unknown)
+     */
+    public Double getForeignKeyFanOut(String constraintName) {
+        return foreignKeyFanOuts.get(constraintName);
+    }
+
+    /**
+     * Sets the expected fan-out of a foreign key of the Table
+     * @param constraintName The name of the foreign key Constraint
+     * @param fanOut The rows of the Table per row of the referenced Table
+     */
+    public void setForeignKeyFanOut(String constraintName, double fanOut) {
+        foreignKeyFanOuts.put(constraintName, fanOut);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rows%s", rowCount, exact ? "" : " (estimated)");
+    }
+}
@@ -0,0 +1,187 @@
+package com.uem.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import com.uem.util.ApplicationLogger;
+import com.uem.util.ChannelTextWriter;
+
+/**
+ * Writes a graph in the GraphML format. Nodes and edges may be freely interleaved,
+ * so every element goes straight to the output channel as soon as it's written
+ *
+ * @author zessin
+ */
+public class GraphMLStreamWriter implements GraphStreamWriter {
+    private static final String LABELS_KEY          = "labels";
+    private static final String LABEL_KEY           = "label";
+    private static final String NODE_KEY_PREFIX     = "n_";
+    private static final String EDGE_KEY_PREFIX     = "e_";
+    private static final char ID_SEPARATOR          = ':';
+
+    private final ChannelTextWriter writer;
+
+    /**
+     * Initializes the writer, creating (or truncating) the output file
+     * @param file The File which will hold the document
+     * @throws IOException When the File couldn't be opened for some reason
+     */
+    public GraphMLStreamWriter(File file) throws IOException {
+        super();
+        writer = ChannelTextWriter.open(file);
+    }
+
+    @Override
+    public void startGraph(boolean directed, List<String> nodeAttributes, List<String> edgeAttributes) throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>").newLine();
+        writer.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">").newLine();
+
+        writeKey(LABELS_KEY, "node", LABELS_KEY);
+        for (final String attribute : nodeAttributes) {
+            writeKey(NODE_KEY_PREFIX + attribute, "node", attribute);
+        }
+        writeKey(LABEL_KEY, "edge", LABEL_KEY);
+        for (final String attribute : edgeAttributes) {
+            writeKey(EDGE_KEY_PREFIX + attribute, "edge", attribute);
+        }
+
+        writer.write("  <graph id=\"G\" edgedefault=\"").write(directed ? "directed" : "undirected").write("\">").newLine();
+    }
+
+    @Override
+    public void writeNode(String label, String id, String[] attributeNames, String[] attributeValues) throws IOException {
+        writer.write("    <node id=\"");
+        writeNodeId(label, id);
+        writer.write("\">");
+        writeData(LABELS_KEY, label);
+        for (int i = 0; i < attributeNames.length; i++) {
+            if (attributeValues[i] != null) {
+                writeData(NODE_KEY_PREFIX, attributeNames[i], attributeValues[i]);
+            }
+        }
+        writer.write("</node>").newLine();
+    }
+
+    @Override
+    public void writeEdge(String label, String sourceLabel, String sourceId, String targetLabel, String targetId,
+                          String[] attributeNames, String[] attributeValues) throws IOException {
+        writer.write("    <edge source=\"");
+        writeNodeId(sourceLabel, sourceId);
+        writer.write("\" target=\"");
+        writeNodeId(targetLabel, targetId);
+        writer.write("\">");
+        writeData(LABEL_KEY, label);
+        for (int i = 0; i < attributeNames.length; i++) {
+            if (attributeValues[i] != null) {
+                writeData(EDGE_KEY_PREFIX, attributeNames[i], attributeValues[i]);
+            }
+        }
+        writer.write("</edge>").newLine();
+    }
+
+    @Override
+    public void endGraph() throws IOException {
+        writer.write("  </graph>").newLine();
+        writer.write("</graphml>").newLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Writes the declaration of an attribute
+     * @param id The identifier of the attribute in the document
+     * @param domain Either node or edge
+     * @param name The name of the attribute
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    private void writeKey(String id, String domain, String name) throws IOException {
+        writer.write("  <key id=\"");
+        writeEscaped(id);
+        writer.write("\" for=\"").write(domain).write("\" attr.name=\"");
+        writeEscaped(name);
+        writer.write("\" attr.type=\"string\"/>").newLine();
+    }
+
+    /**
+     * Writes the identifier of a node, which is unique in the whole document
+     * @param label The label of the node
+     * @param id The identifier of the node within its label
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    private void writeNodeId(String label, String id) throws IOException {
+        if (id == null) {
+            ApplicationLogger.error("A node of label " + label + " has no identifier, since its key is null");
+            throw new IllegalStateException();
+        }
+
+        writeEscaped(label);
+        writer.write(ID_SEPARATOR);
+        writeEscaped(id);
+    }
+
+    /**
+     * Writes the value of one of the fixed attributes
+     * @param key The identifier of the attribute
+     * @param value The value of the attribute
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    private void writeData(String key, String value) throws IOException {
+        writer.write("<data key=\"").write(key).write("\">");
+        writeEscaped(value);
+        writer.write("</data>");
+    }
+
+    /**
+     * Writes the value of one of the declared attributes
+     * @param keyPrefix The prefix of the attribute's identifier, which tells its domain
+     * @param name The name of the attribute
+     * @param value The value of the attribute
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    private void writeData(String keyPrefix, String name, String value) throws IOException {
+        writer.write("<data key=\"").write(keyPrefix);
+        writeEscaped(name);
+        writer.write("\">");
+        writeEscaped(value);
+        writer.write("</data>");
+    }
+
+    /**
+     * Writes a text escaping the XML special characters and dropping the control characters XML can't hold
+     * @param text The text to be written
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    private void writeEscaped(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            final char character = text.charAt(i);
+
+            switch (character) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '"':
+                    writer.write("&quot;");
+                    break;
+                case '\n':
+                case '\r':
+                case '\t':
+                    writer.write("&#").write((long) character).write(';');
+                    break;
+                default:
+                    if (character >= 0x20) {
+                        writer.write(character);
+                    }
+            }
+        }
+    }
+}
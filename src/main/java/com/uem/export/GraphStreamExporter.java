@@ -0,0 +1,62 @@
+package com.uem.export;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import com.uem.graph.Edge;
+import com.uem.graph.Graph;
+import com.uem.graph.Vertex;
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Exports the Graph model through a GraphStreamWriter, vertex by vertex and edge by edge,
+ * without building the whole document in memory
+ *
+ * @author zessin
+ */
+public class GraphStreamExporter {
+    public static final String VERTEX_LABEL = "Table";
+    private static final String DEGREE_ATTRIBUTE = "degree";
+
+    private final Graph graph;
+
+    /**
+     * Initializes the class with an existing Graph model
+     * @param graph The Graph to be exported
+     */
+    public GraphStreamExporter(Graph graph) {
+        super();
+        this.graph = graph;
+    }
+
+    /**
+     * Writes all the vertices and edges of the Graph, closing the writer at the end
+     * @param writer The GraphStreamWriter for the desired format
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    public void export(GraphStreamWriter writer) throws IOException {
+        ApplicationLogger.info("Exporting graph structure");
+
+        final String[] vertexAttributeNames = { DEGREE_ATTRIBUTE };
+        final String[] vertexAttributeValues = new String[1];
+        final String[] noAttributes = new String[0];
+
+        try {
+            writer.startGraph(graph.isDirected(), Collections.singletonList(DEGREE_ATTRIBUTE), new ArrayList<>());
+
+            for (final Vertex vertex : graph.getVertices()) {
+                vertexAttributeValues[0] = String.valueOf(vertex.getDegree());
+                writer.writeNode(VERTEX_LABEL, vertex.getName(), vertexAttributeNames, vertexAttributeValues);
+            }
+
+            for (final Edge edge : graph.getEdges()) {
+                writer.writeEdge(edge.getName(), VERTEX_LABEL, edge.getV1().getName(), VERTEX_LABEL, edge.getV2().getName(), noAttributes, noAttributes);
+            }
+
+            writer.endGraph();
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.uem.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes a graph document incrementally, one node or edge at a time, so that the
+ * memory used doesn't depend on the size of the graph. Nodes are identified by a
+ * label and an identifier which is unique within the label
+ *
+ * @author zessin
+ */
+public interface GraphStreamWriter extends Closeable {
+    /**
+     * Starts the document, declaring every attribute which nodes and edges may have
+     * @param directed Tells whether the graph is directed or not
+     * @param nodeAttributes The names of all the node attributes
+     * @param edgeAttributes The names of all the edge attributes
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    void startGraph(boolean directed, List<String> nodeAttributes, List<String> edgeAttributes) throws IOException;
+
+    /**
+     * Writes a node
+     * @param label The label of the node
+     * @param id The identifier of the node within its label
+     * @param attributeNames The names of the node's attributes
+     * @param attributeValues The values of the node's attributes, in the same order (nulls are skipped)
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    void writeNode(String label, String id, String[] attributeNames, String[] attributeValues) throws IOException;
+
+    /**
+     * Writes an edge
+     * @param label The label of the edge
+     * @param sourceLabel The label of the source node
+     * @param sourceId The identifier of the source node within its label
+     * @param targetLabel The label of the target node
+     * @param targetId The identifier of the target node within its label
+     * @param attributeNames The names of the edge's attributes
+     * @param attributeValues The values of the edge's attributes, in the same order (nulls are skipped)
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    void writeEdge(String label, String sourceLabel, String sourceId, String targetLabel, String targetId,
+                   String[] attributeNames, String[] attributeValues) throws IOException;
+
+    /**
+     * Finishes the document. Nothing can be written afterwards
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    void endGraph() throws IOException;
+}
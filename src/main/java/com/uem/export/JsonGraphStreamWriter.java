@@ -0,0 +1,211 @@
+package com.uem.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.uem.util.ApplicationLogger;
+import com.uem.util.ChannelTextWriter;
+
+/**
+ * Writes a graph in the JSON Graph Format, with all the nodes followed by all the edges.
+ * Since nodes and edges may arrive interleaved, edges are kept in a temporary file next
+ * to the output and appended to it when the graph ends, so memory stays constant
+ *
+ * @author zessin
+ */
+public class JsonGraphStreamWriter implements GraphStreamWriter {
+    private static final String EDGES_FILE_SUFFIX = ".edges.tmp";
+    private static final char ID_SEPARATOR        = ':';
+
+    private final File file;
+    private final File edgesFile;
+    private ChannelTextWriter nodesWriter;
+    private ChannelTextWriter edgesWriter;
+    private long nodeCount;
+    private long edgeCount;
+
+    /**
+     * Initializes the writer, creating (or truncating) the output file
+     * @param file The File which will hold the document
+     * @throws IOException When the File couldn't be opened for some reason
+     */
+    public JsonGraphStreamWriter(File file) throws IOException {
+        super();
+        this.file = file;
+        edgesFile = new File(file.getAbsolutePath() + EDGES_FILE_SUFFIX);
+        nodesWriter = ChannelTextWriter.open(file);
+        edgesWriter = ChannelTextWriter.open(edgesFile);
+        nodeCount = 0;
+        edgeCount = 0;
+    }
+
+    @Override
+    public void startGraph(boolean directed, List<String> nodeAttributes, List<String> edgeAttributes) throws IOException {
+        nodesWriter.write("{\"graph\":{\"directed\":").write(directed ? "true" : "false").write(",\"nodes\":[").newLine();
+    }
+
+    @Override
+    public void writeNode(String label, String id, String[] attributeNames, String[] attributeValues) throws IOException {
+        if (nodeCount++ > 0) {
+            nodesWriter.write(',').newLine();
+        }
+
+        nodesWriter.write("{\"id\":");
+        writeNodeId(nodesWriter, label, id);
+        nodesWriter.write(",\"label\":");
+        writeString(nodesWriter, label);
+        writeMetadata(nodesWriter, attributeNames, attributeValues);
+        nodesWriter.write('}');
+    }
+
+    @Override
+    public void writeEdge(String label, String sourceLabel, String sourceId, String targetLabel, String targetId,
+                          String[] attributeNames, String[] attributeValues) throws IOException {
+        if (edgeCount++ > 0) {
+            edgesWriter.write(',').newLine();
+        }
+
+        edgesWriter.write("{\"source\":");
+        writeNodeId(edgesWriter, sourceLabel, sourceId);
+        edgesWriter.write(",\"target\":");
+        writeNodeId(edgesWriter, targetLabel, targetId);
+        edgesWriter.write(",\"relation\":");
+        writeString(edgesWriter, label);
+        writeMetadata(edgesWriter, attributeNames, attributeValues);
+        edgesWriter.write('}');
+    }
+
+    @Override
+    public void endGraph() throws IOException {
+        nodesWriter.newLine().write("],\"edges\":[").newLine();
+        nodesWriter.close();
+        nodesWriter = null;
+
+        edgesWriter.newLine().write("]}}").newLine();
+        edgesWriter.close();
+        edgesWriter = null;
+
+        try (FileChannel source = FileChannel.open(edgesFile.toPath(), StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long position = 0;
+            final long size = source.size();
+
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (nodesWriter != null) {
+                nodesWriter.close();
+            }
+            if (edgesWriter != null) {
+                edgesWriter.close();
+            }
+        } finally {
+            if (edgesFile.exists() && !edgesFile.delete()) {
+                ApplicationLogger.warning("Could not delete temporary file " + edgesFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Writes the metadata object of a node or edge, skipping the null values
+     * @param writer The writer which receives the object
+     * @param attributeNames The names of the attributes
+     * @param attributeValues The values of the attributes, in the same order
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    private void writeMetadata(ChannelTextWriter writer, String[] attributeNames, String[] attributeValues) throws IOException {
+        boolean first = true;
+
+        writer.write(",\"metadata\":{");
+        for (int i = 0; i < attributeNames.length; i++) {
+            if (attributeValues[i] == null) {
+                continue;
+            }
+            if (!first) {
+                writer.write(',');
+            }
+            writeString(writer, attributeNames[i]);
+            writer.write(':');
+            writeString(writer, attributeValues[i]);
+            first = false;
+        }
+        writer.write('}');
+    }
+
+    /**
+     * Writes the identifier of a node, which is unique in the whole document
+     * @param writer The writer which receives the identifier
+     * @param label The label of the node
+     * @param id The identifier of the node within its label
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    private void writeNodeId(ChannelTextWriter writer, String label, String id) throws IOException {
+        if (id == null) {
+            ApplicationLogger.error("A node of label " + label + " has no identifier, since its key is null");
+            throw new IllegalStateException();
+        }
+
+        writer.write('"');
+        writeEscaped(writer, label);
+        writer.write(ID_SEPARATOR);
+        writeEscaped(writer, id);
+        writer.write('"');
+    }
+
+    /**
+     * Writes a JSON string
+     * @param writer The writer which receives the string
+     * @param text The content of the string
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    private void writeString(ChannelTextWriter writer, String text) throws IOException {
+        writer.write('"');
+        writeEscaped(writer, text);
+        writer.write('"');
+    }
+
+    /**
+     * Writes a text escaping the characters which can't appear in a JSON string
+     * @param writer The writer which receives the text
+     * @param text The text to be written
+     * @throws IOException When the document couldn't be written for some reason
+     */
+    private void writeEscaped(ChannelTextWriter writer, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            final char character = text.charAt(i);
+
+            switch (character) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (character < 0x20) {
+                        writer.write("\\u00").write(Character.forDigit(character >> 4, 16)).write(Character.forDigit(character & 0xF, 16));
+                    } else {
+                        writer.write(character);
+                    }
+            }
+        }
+    }
+}
@@ -74,19 +74,22 @@ public class Graph {
      * @param table The Table which will become a Vertex in the Graph
      */
     private void addVertexFromTable(Table table) {
-        if (!table.isRelationshipTable()) {
+        if (!table.isRelationshipTable() && !table.isFolded()) {
             addVertex(new Vertex(table));
         }
     }
 
     /**
-     * Adds a new Edge based on an existing foreign key Constraint
+     * Adds a new Edge based on an existing foreign key Constraint. The tables folded into another
+     * one are represented by the Vertex of that other table, and their folding keys become no Edge
      * @param foreignKey The foreign key Constraint which will become an Edge in the Graph
      */
     private void addEdgeFromForeignKey(Constraint foreignKey) {
-        if (!foreignKey.getTable().isRelationshipTable()) {
-            final Vertex v1 = getVertexByName(foreignKey.getTable().getName());
-            final Vertex v2 = getVertexByName(foreignKey.getReferencedTable().getName());
+        final Table table = foreignKey.getTable();
+
+        if (!table.isRelationshipTable() && (!table.isFolded() || !table.getFoldingKey().contains(foreignKey))) {
+            final Vertex v1 = getVertexByName(table.getNodeTable().getName());
+            final Vertex v2 = getVertexByName(foreignKey.getReferencedTable().getNodeTable().getName());
 
             addEdge(new Edge(String.format("%s-%s", v1.getName(), v2.getName()), v1, v2));
         }
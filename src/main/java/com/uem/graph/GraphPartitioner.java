@@ -0,0 +1,186 @@
+package com.uem.graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits a Graph into parts small enough to be laid out on their own. Every connected component
+ * (ignoring the direction of the edges) is a part, unless it has more vertices than allowed, in which
+ * case it's split into clusters grown along its foreign keys from its most connected vertices.
+ * The small components and clusters are then packed together, so a schema with many isolated
+ * tables doesn't turn into as many parts
+ *
+ * @author zessin
+ */
+public class GraphPartitioner {
+    private final Graph graph;
+    private final int maxVertices;
+    private final Map<Vertex, Set<Vertex>> neighbours;
+
+    /**
+     * Initializes the partitioner for a Graph
+     * @param graph The Graph to be split
+     * @param maxVertices How many vertices a part may have
+     */
+    public GraphPartitioner(Graph graph, int maxVertices) {
+        super();
+        this.graph = graph;
+        this.maxVertices = Math.max(1, maxVertices);
+        neighbours = new LinkedHashMap<>();
+
+        graph.getVertices().forEach(v -> neighbours.put(v, new LinkedHashSet<>()));
+        graph.getAdjacencyList().forEach((v, adjacent) -> adjacent.forEach(w -> {
+            neighbours.get(v).add(w);
+            neighbours.get(w).add(v);
+        }));
+    }
+
+    /**
+     * Splits the Graph
+     * @return The vertices of every part, biggest parts first
+     */
+    public List<List<Vertex>> partition() {
+        final List<List<Vertex>> parts = new ArrayList<>();
+        final List<List<Vertex>> smallComponents = new ArrayList<>();
+
+        for (final List<Vertex> component : findConnectedComponents()) {
+            if (component.size() <= maxVertices) {
+                smallComponents.add(component);
+                continue;
+            }
+
+            for (final List<Vertex> cluster : splitComponent(component)) {
+                if (cluster.size() == maxVertices) {
+                    parts.add(cluster);
+                } else {
+                    smallComponents.add(cluster);
+                }
+            }
+        }
+
+        parts.addAll(packComponents(smallComponents));
+        parts.sort(Comparator.comparingInt(p -> -p.size()));
+
+        return parts;
+    }
+
+    /**
+     * Tells how many vertices a Vertex shares an edge with, in any direction
+     * @param vertex The Vertex whose neighbours are counted
+     * @return The number of neighbours
+     */
+    public int getNeighbourCount(Vertex vertex) {
+        return neighbours.get(vertex).size();
+    }
+
+    /**
+     * Finds the connected components of the Graph, in the order of their first vertices
+     * @return The vertices of every component
+     */
+    private List<List<Vertex>> findConnectedComponents() {
+        final List<List<Vertex>> components = new ArrayList<>();
+        final Set<Vertex> visited = new HashSet<>();
+
+        for (final Vertex vertex : graph.getVertices()) {
+            if (visited.add(vertex)) {
+                components.add(growCluster(vertex, visited, Integer.MAX_VALUE));
+            }
+        }
+
+        return components;
+    }
+
+    /**
+     * Splits a component which is too big into clusters. Each cluster starts at the unassigned vertex
+     * with most unassigned neighbours, and grows breadth first along the edges until it's full
+     * @param component The vertices of the component
+     * @return The vertices of every cluster
+     */
+    private List<List<Vertex>> splitComponent(List<Vertex> component) {
+        final List<List<Vertex>> clusters = new ArrayList<>();
+        final Set<Vertex> assigned = new HashSet<>();
+        final Map<Vertex, Integer> freeNeighbours = new HashMap<>();
+
+        component.forEach(v -> freeNeighbours.put(v, neighbours.get(v).size()));
+
+        while (assigned.size() < component.size()) {
+            final Vertex seed = component.stream()
+                                         .filter(v -> !assigned.contains(v))
+                                         .max(Comparator.comparingInt(v -> freeNeighbours.get(v)))
+                                         .get();
+
+            assigned.add(seed);
+            final List<Vertex> cluster = growCluster(seed, assigned, maxVertices);
+
+            cluster.forEach(v -> neighbours.get(v).forEach(w -> freeNeighbours.computeIfPresent(w, (k, n) -> n - 1)));
+            clusters.add(cluster);
+        }
+
+        return clusters;
+    }
+
+    /**
+     * Collects the vertices reachable from a seed breadth first, skipping the ones already taken
+     * @param seed The first Vertex of the cluster, already marked as taken
+     * @param taken The vertices already taken, where the collected ones are added
+     * @param size How many vertices the cluster may have
+     * @return The vertices collected, seed first
+     */
+    private List<Vertex> growCluster(Vertex seed, Set<Vertex> taken, int size) {
+        final List<Vertex> cluster = new ArrayList<>();
+        final Deque<Vertex> queue = new ArrayDeque<>();
+
+        queue.add(seed);
+
+        while (!queue.isEmpty()) {
+            final Vertex vertex = queue.poll();
+            cluster.add(vertex);
+
+            for (final Vertex neighbour : neighbours.get(vertex)) {
+                if (cluster.size() + queue.size() >= size) {
+                    break;
+                }
+                if (taken.add(neighbour)) {
+                    queue.add(neighbour);
+                }
+            }
+        }
+
+        return cluster;
+    }
+
+    /**
+     * Packs the small components (or clusters) into as few parts as possible, biggest ones first,
+     * each one into the first part it fits in
+     * @param components The vertices of the components
+     * @return The vertices of every part
+     */
+    private List<List<Vertex>> packComponents(List<List<Vertex>> components) {
+        final List<List<Vertex>> parts = new ArrayList<>();
+
+        components.sort(Comparator.comparingInt(c -> -c.size()));
+
+        for (final List<Vertex> component : components) {
+            final List<Vertex> part = parts.stream()
+                                           .filter(p -> p.size() + component.size() <= maxVertices)
+                                           .findFirst()
+                                           .orElseGet(() -> {
+                                               parts.add(new ArrayList<>());
+                                               return parts.get(parts.size() - 1);
+                                           });
+
+            part.addAll(component);
+        }
+
+        return parts;
+    }
+}
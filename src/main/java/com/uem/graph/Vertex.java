@@ -10,6 +10,7 @@ import com.uem.dbstructure.Table;
 public class Vertex {
     private String name;
     private Long degree;
+    private Long weight;
 
     /**
      * Initializes the Vertex with a name
@@ -29,6 +30,7 @@ public class Vertex {
         super();
         name = table.getName();
         degree = 0l;
+        weight = table.getStatistics() == null ? null : table.getStatistics().getRowCount();
     }
 
     public String getName() {
@@ -51,6 +53,18 @@ public class Vertex {
         degree++;
     }
 
+    /**
+     * Provides the weight of the Vertex, i.e. the number of rows of the Table it represents
+     * @return The weight of the Vertex (null if the Table has no statistics)
+     */
+    public Long getWeight() {
+        return weight;
+    }
+
+    public void setWeight(Long weight) {
+        this.weight = weight;
+    }
+
     public boolean isDegreePositive() {
         return degree > 0;
     }
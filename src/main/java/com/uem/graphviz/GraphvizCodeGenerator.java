@@ -1,20 +1,50 @@
 package com.uem.graphviz;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import com.uem.graph.Graph;
+import com.uem.graph.GraphPartitioner;
+import com.uem.graph.Vertex;
 import com.uem.util.ApplicationLogger;
+import com.uem.util.ChannelTextWriter;
 import com.uem.util.PropertiesHelper;
 
 /**
  * This class contains the logic responsible for generating the code
- * that represents the Graph model, which will be sent to Graphviz
+ * that represents the Graph model, which will be sent to Graphviz.
+ * The code is streamed straight into a DOT file as each vertex and edge is visited,
+ * so nothing but the writer's buffers is held in memory, whatever the size of the Graph.
+ * A Graph bigger than the partition size is split by a GraphPartitioner: each part gets
+ * its own DOT file, rendered on its own, and the main DOT file becomes an overview of the
+ * parts, whose vertices link to the images of the parts.
+ * A RenderedImageStore remembers which DOT code every image was rendered from, so the images
+ * whose DOT code didn't change aren't rendered again: when the Graph is split, only the parts
+ * holding some changed vertex are rendered
  *
  * @author zessin
  */
 public class GraphvizCodeGenerator {
+    public static final String DOT_FILE_NAME        = "graph.dot";
+    private static final String RENDERED_FILE_NAME  = "graph.rendered";
+    private static final String PART_FILE_PREFIX    = "graph_part_";
+    private static final String DOT_EXTENSION       = ".dot";
+    private static final String LINKED_FORMAT       = "svg";
+    private static final double DEFAULT_NODE_WIDTH  = 0.75;
+    private static final double DEFAULT_NODE_HEIGHT = 0.5;
+
     final Graph graph;
     final Graphviz gv;
+    final File dotFile;
+    final List<File> dotFiles;
+    final List<RenderTarget> renderTargets;
+    final RenderedImageStore renderedImageStore;
 
     /**
      * Initializes the class with an existing Graph model
@@ -24,80 +54,335 @@ public class GraphvizCodeGenerator {
         super();
         this.graph = graph;
         gv = new Graphviz();
+        dotFile = new File(PropertiesHelper.getOutputPath(), DOT_FILE_NAME);
+        dotFiles = new ArrayList<>();
+        renderTargets = PropertiesHelper.getRenderTargets();
+        renderedImageStore = PropertiesHelper.isIncrementalDotEnabled() ? new RenderedImageStore(new File(PropertiesHelper.getOutputPath(), RENDERED_FILE_NAME)) : null;
+    }
+
+    /**
+     * Generates the Graphviz code itself, writing it to the DOT files
+     * @throws IOException When some DOT file couldn't be written for some reason
+     */
+    public void generateCode() throws IOException {
+        final int partitionSize = PropertiesHelper.getGraphPartitionSize();
+
+        dotFiles.clear();
+        dotFiles.add(dotFile);
+
+        if (partitionSize > 0 && graph.getVertices().size() > partitionSize) {
+            generatePartitionedCode(partitionSize);
+        } else {
+            generateWholeCode();
+        }
     }
 
     /**
-     * Generates the Graphviz code itself
+     * Generates the code of the whole Graph into the main DOT file
+     * @throws IOException When the DOT file couldn't be written for some reason
      */
-    public void generateCode() {
-        ApplicationLogger.info("Generating Graphviz code");
-
-        gv.addln(gv.startGraph());
-        gv.addln("  nodesep=1;");
-        gv.addln("  node[style=filled];");
-        gv.addln();
-        gv.addln(printPositiveDegreeVertices());
-        gv.addln(printNeutralDegreeVertices());
-        gv.addln(gv.endGraph());
-
-        ApplicationLogger.info("Code generated");
+    private void generateWholeCode() throws IOException {
+        ApplicationLogger.info("Generating Graphviz code into file " + dotFile.getAbsolutePath());
+
+        try (ChannelTextWriter out = ChannelTextWriter.open(dotFile)) {
+            out.write(gv.startGraph()).newLine();
+            out.write("  nodesep=1;").newLine();
+            out.write("  node[style=filled];").newLine();
+            out.newLine();
+            writeWeightedVertices(out);
+            out.newLine();
+            writePositiveDegreeVertices(out);
+            out.newLine();
+            writeNeutralDegreeVertices(out);
+            out.newLine();
+            out.write(gv.endGraph()).newLine();
+        }
+
+        ApplicationLogger.info("Code generated: " + dotFile.length() + " bytes");
     }
 
     /**
      * After the code is generated, this method calls the Graphviz API
-     * for generating the image of the graph
+     * for generating the images of the graph, one for each RenderTarget
+     * and DOT file. The images are rendered in parallel by a RenderService,
+     * and the ones rendered before are taken from the RenderCache instead,
+     * or left as they are when their DOT code didn't change
      */
     public void writeGraphFile() {
-        final String outputPath = PropertiesHelper.getOutputPath();
-        final String fileName = "graph";
-        final String type = "svg";
-        final String representationType= "dot";
-        final String absoluteFileName = String.format("%s%s%s.%s", outputPath, File.separator, fileName, type);
-        final File outputFile = new File(absoluteFileName);
+        final File outputDirectory = new File(PropertiesHelper.getOutputPath());
+        final RenderCache renderCache = new RenderCache(PropertiesHelper.getRenderCacheDirectory(),
+                                                        PropertiesHelper.getRenderCacheMegabytes() * 1024L * 1024L);
+        final RenderService renderService = new RenderService(PropertiesHelper.getDotPath(),
+                                                              renderCache,
+                                                              PropertiesHelper.getRenderThreads(),
+                                                              PropertiesHelper.getRenderTimeoutSeconds(),
+                                                              renderedImageStore);
 
-        gv.decreaseDpi();
-        gv.decreaseDpi();
-        gv.decreaseDpi();
+        ApplicationLogger.info("Writing graph to files in " + outputDirectory.getAbsolutePath());
 
-        ApplicationLogger.info("Writing graph to file " + absoluteFileName);
+        if (renderedImageStore != null) {
+            renderedImageStore.load();
+        }
 
-        final Integer returnValue = gv.writeGraphToFile(gv.getGraph(gv.getDotSource(), type, representationType), outputFile);
+        final boolean rendered = renderService.render(dotFiles, renderTargets, outputDirectory);
 
-        if (returnValue != 1) {
-            ApplicationLogger.error("Error when writing graph to file " + absoluteFileName);
+        if (renderedImageStore != null) {
+            try {
+                renderedImageStore.save();
+            } catch (final IOException ex) {
+                ApplicationLogger.warning("Could not save the rendered images: " + ex.getMessage());
+            }
+        }
+
+        if (!rendered) {
+            ApplicationLogger.error("Error when writing graph to files in " + outputDirectory.getAbsolutePath());
             throw new IllegalStateException();
         }
     }
 
     /**
-     * Searches for all the vertices with positive degree and return them
-     * @return A string with all the positive degree vertices (empty string if no vertices found)
+     * Generates a DOT file for every part of the Graph, and the overview of the parts into the main DOT file
+     * @param partitionSize How many vertices a part may have
+     * @throws IOException When some DOT file couldn't be written for some reason
      */
-    private String printPositiveDegreeVertices() {
-        final StringBuilder sb = new StringBuilder();
+    private void generatePartitionedCode(int partitionSize) throws IOException {
+        final GraphPartitioner partitioner = new GraphPartitioner(graph, partitionSize);
+        final List<List<Vertex>> parts = partitioner.partition();
+        final Map<Vertex, Integer> partByVertex = new HashMap<>();
+
+        for (int i = 0; i < parts.size(); i++) {
+            for (final Vertex v : parts.get(i)) {
+                partByVertex.put(v, i + 1);
+            }
+        }
+
+        ApplicationLogger.info(String.format("Graph split into %d parts of at most %d vertices", parts.size(), partitionSize));
+
+        final Map<Integer, Map<Integer, Integer>> crossingEdges = new TreeMap<>();
 
-        graph.getVertices()
-             .stream()
-             .filter(v -> v.isDegreePositive())
-             .forEach(v -> graph.getAdjacencyList()
-                                .get(v)
-                                .forEach(w -> sb.append(String.format("  %s -> %s;%n", v, w))));
+        for (int i = 0; i < parts.size(); i++) {
+            final File partFile = new File(dotFile.getParentFile(), PART_FILE_PREFIX + (i + 1) + DOT_EXTENSION);
+
+            ApplicationLogger.info("Generating Graphviz code into file " + partFile.getAbsolutePath());
+            writePart(partFile, i + 1, parts.get(i), partByVertex, crossingEdges);
+            dotFiles.add(partFile);
+        }
 
-        return sb.toString();
+        ApplicationLogger.info("Generating Graphviz overview into file " + dotFile.getAbsolutePath());
+
+        try (ChannelTextWriter out = ChannelTextWriter.open(dotFile)) {
+            out.write(gv.startGraph()).newLine();
+            out.write("  nodesep=1;").newLine();
+            out.write("  node[style=filled, shape=box];").newLine();
+            out.newLine();
+
+            for (int i = 0; i < parts.size(); i++) {
+                final Vertex hub = parts.get(i)
+                                        .stream()
+                                        .max(Comparator.comparingInt(v -> partitioner.getNeighbourCount(v)))
+                                        .get();
+
+                out.write("  ").write(getPartName(i + 1)).write(" [label=\"Part ").write(i + 1).write("\\n")
+                   .write(hub.getName()).write("\\n").write(parts.get(i).size()).write(" tables\"");
+                writeLink(out, i + 1);
+                out.write("];").newLine();
+            }
+
+            out.newLine();
+
+            for (final Map.Entry<Integer, Map<Integer, Integer>> from : crossingEdges.entrySet()) {
+                for (final Map.Entry<Integer, Integer> to : from.getValue().entrySet()) {
+                    out.write("  ").write(getPartName(from.getKey())).write(" -> ").write(getPartName(to.getKey()))
+                       .write(" [label=\"").write(to.getValue()).write("\"];").newLine();
+                }
+            }
+
+            out.newLine();
+            out.write(gv.endGraph()).newLine();
+        }
     }
 
     /**
-     * Searches for all the vertices with neutral degree and return them
-     * @return A string with all the neutral degree vertices (empty string if no vertices found)
+     * Writes the DOT file of a part: its vertices inside a cluster, the edges between them, and the edges
+     * which cross to other parts, which end at (or start from) a vertex linking to the other part
+     * @param partFile The DOT file of the part
+     * @param part The number of the part
+     * @param vertices The vertices of the part
+     * @param partByVertex The number of the part of every Vertex
+     * @param crossingEdges The number of edges between each pair of parts, where the crossing edges are counted
+     * @throws IOException When the DOT file couldn't be written for some reason
      */
-    private String printNeutralDegreeVertices() {
-        final StringBuilder sb = new StringBuilder();
+    private void writePart(File partFile, int part, List<Vertex> vertices, Map<Vertex, Integer> partByVertex,
+                           Map<Integer, Map<Integer, Integer>> crossingEdges) throws IOException {
+        final Map<Integer, Boolean> linkedParts = new TreeMap<>();
+
+        try (ChannelTextWriter out = ChannelTextWriter.open(partFile)) {
+            out.write(gv.startGraph()).newLine();
+            out.write("  nodesep=1;").newLine();
+            out.write("  node[style=filled];").newLine();
+            out.newLine();
+            out.write("  ").write(gv.start_subgraph(part)).newLine();
+            out.write("    label=\"Part ").write(part).write("\";").newLine();
+
+            for (final Vertex v : vertices) {
+                writeVertex(out, "    ", v);
+            }
+
+            out.write("  ").write(gv.end_subgraph()).newLine();
+            out.newLine();
 
-        graph.getVertices()
-             .stream()
-             .filter(v -> !v.isDegreePositive())
-             .forEach(v -> sb.append(String.format("  %s;%n", v)));
+            for (final Vertex v : vertices) {
+                for (final Vertex w : graph.getAdjacencyList().get(v)) {
+                    final int otherPart = partByVertex.get(w);
+
+                    out.write("  ").write(v.getName()).write(" -> ");
+                    if (otherPart == part) {
+                        out.write(w.getName());
+                    } else {
+                        out.write(getPartName(otherPart));
+                        linkedParts.put(otherPart, true);
+                        crossingEdges.computeIfAbsent(part, p -> new TreeMap<>()).merge(otherPart, 1, Integer::sum);
+                    }
+                    out.write(';').newLine();
+                }
+            }
+
+            for (final Vertex v : graph.getVertices()) {
+                final int otherPart = partByVertex.get(v);
+
+                if (otherPart == part) {
+                    continue;
+                }
+
+                for (final Vertex w : graph.getAdjacencyList().get(v)) {
+                    if (partByVertex.get(w) == part) {
+                        out.write("  ").write(getPartName(otherPart)).write(" -> ").write(w.getName()).write(';').newLine();
+                        linkedParts.put(otherPart, true);
+                    }
+                }
+            }
+
+            out.newLine();
+
+            for (final Integer otherPart : linkedParts.keySet()) {
+                out.write("  ").write(getPartName(otherPart)).write(" [shape=box, style=dashed, label=\"Part ").write(otherPart).write("\"");
+                writeLink(out, otherPart);
+                out.write("];").newLine();
+            }
+
+            out.newLine();
+            out.write(gv.endGraph()).newLine();
+        }
+    }
 
-        return sb.toString();
+    /**
+     * Writes the attribute which links a vertex to the image of a part, when some RenderTarget
+     * produces an image which can hold links
+     * @param out The writer of the DOT file
+     * @param part The number of the part
+     * @throws IOException When the DOT file couldn't be written for some reason
+     */
+    private void writeLink(ChannelTextWriter out, int part) throws IOException {
+        final RenderTarget linkedTarget = renderTargets.stream()
+                                                 .filter(t -> t.getFormat().equals(LINKED_FORMAT))
+                                                 .findFirst()
+                                                 .orElse(null);
+
+        if (linkedTarget != null) {
+            out.write(", URL=\"").write(RenderService.getOutputFileName(PART_FILE_PREFIX + part, linkedTarget, renderTargets)).write('"');
+        }
+    }
+
+    /**
+     * Provides the name of the vertex which represents a part
+     * @param part The number of the part
+     * @return The name of the vertex
+     */
+    private static String getPartName(int part) {
+        return "part_" + part;
+    }
+
+    /**
+     * Writes all the vertices with a weight with their sizes, which grow with
+     * the logarithm of the weight, and with the row count below their names
+     * @param out The writer of the DOT file
+     * @throws IOException When the DOT file couldn't be written for some reason
+     */
+    private void writeWeightedVertices(ChannelTextWriter out) throws IOException {
+        for (final Vertex v : graph.getVertices()) {
+            if (v.getWeight() != null) {
+                writeVertex(out, "  ", v);
+            }
+        }
+    }
+
+    /**
+     * Writes a vertex. A vertex with a weight gets a size which grows with the logarithm
+     * of the weight, and the row count below its name
+     * @param out The writer of the DOT file
+     * @param indent The spaces written before the vertex
+     * @param v The Vertex to be written
+     * @throws IOException When the DOT file couldn't be written for some reason
+     */
+    private void writeVertex(ChannelTextWriter out, String indent, Vertex v) throws IOException {
+        out.write(indent).write(v.getName());
+
+        if (v.getWeight() != null) {
+            final double scale = 1 + Math.log10(v.getWeight() + 1) / 2;
+
+            out.write(" [label=\"").write(v.getName()).write("\\n").write(v.getWeight()).write(" rows\", width=");
+            writeDecimal(out, DEFAULT_NODE_WIDTH * scale);
+            out.write(", height=");
+            writeDecimal(out, DEFAULT_NODE_HEIGHT * scale);
+            out.write(']');
+        }
+
+        out.write(';').newLine();
+    }
+
+    /**
+     * Writes an edge for every adjacency of the vertices with positive degree
+     * @param out The writer of the DOT file
+     * @throws IOException When the DOT file couldn't be written for some reason
+     */
+    private void writePositiveDegreeVertices(ChannelTextWriter out) throws IOException {
+        for (final Vertex v : graph.getVertices()) {
+            if (!v.isDegreePositive()) {
+                continue;
+            }
+
+            for (final Vertex w : graph.getAdjacencyList().get(v)) {
+                out.write("  ").write(v.getName()).write(" -> ").write(w.getName()).write(';').newLine();
+            }
+        }
+    }
+
+    /**
+     * Writes all the vertices with neutral degree
+     * @param out The writer of the DOT file
+     * @throws IOException When the DOT file couldn't be written for some reason
+     */
+    private void writeNeutralDegreeVertices(ChannelTextWriter out) throws IOException {
+        for (final Vertex v : graph.getVertices()) {
+            if (!v.isDegreePositive()) {
+                out.write("  ").write(v.getName()).write(';').newLine();
+            }
+        }
+    }
+
+    /**
+     * Writes a positive number with two decimal places, the same way %.2f would
+     * @param out The writer of the DOT file
+     * @param value The number to be written
+     * @throws IOException When the DOT file couldn't be written for some reason
+     */
+    private static void writeDecimal(ChannelTextWriter out, double value) throws IOException {
+        final long hundredths = Math.round(value * 100);
+
+        out.write(hundredths / 100).write('.');
+        if (hundredths % 100 < 10) {
+            out.write('0');
+        }
+        out.write(hundredths % 100);
     }
 }
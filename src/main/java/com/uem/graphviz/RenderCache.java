@@ -0,0 +1,178 @@
+package com.uem.graphviz;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Keeps the images rendered by Graphviz in a local directory, addressed by a hash of everything
+ * which determines them: the DOT source, the output type, the layout engine and the DPI.
+ * An image found there is copied instead of being rendered again, which spares the layout of
+ * large graphs when the schema didn't change. The directory is bounded in size: once it grows
+ * bigger than allowed, the images used least recently are evicted
+ *
+ * @author zessin
+ */
+public class RenderCache {
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int BUFFER_SIZE       = 64 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * Initializes the cache over a directory
+     * @param directory The directory where the images are kept (created when the first image is stored)
+     * @param maxBytes How many bytes the images may take (0 disables the cache)
+     */
+    public RenderCache(File directory, long maxBytes) {
+        super();
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Tells whether images are cached at all
+     * @return True if the cache may hold some image, false otherwise
+     */
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Computes the key of an image, reading the DOT source a buffer at a time
+     * @param dotFile The file holding the DOT source
+     * @param type The type of the image (svg, png...)
+     * @param representationType The layout engine (dot, neato...)
+     * @param dpi The resolution of the image
+     * @return The key of the image, as an hexadecimal hash
+     * @throws IOException When the DOT file couldn't be read for some reason
+     */
+    public String computeKey(File dotFile, String type, String representationType, int dpi) throws IOException {
+        final MessageDigest digest = createDigest();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        try (InputStream in = new FileInputStream(dotFile)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        digest.update(("\0" + type + "\0" + representationType + "\0" + dpi).getBytes(StandardCharsets.UTF_8));
+
+        final StringBuilder key = new StringBuilder();
+        for (final byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Copies a cached image to its destination, marking it as the most recently used
+     * @param key The key of the image
+     * @param type The type of the image
+     * @param to The file where the image shall be written
+     * @return True if the image was found in the cache, false otherwise
+     * @throws IOException When the image couldn't be copied for some reason
+     */
+    public boolean restore(String key, String type, File to) throws IOException {
+        final File cachedFile = getCachedFile(key, type);
+
+        if (!cachedFile.isFile()) {
+            return false;
+        }
+
+        Files.copy(cachedFile.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (!cachedFile.setLastModified(System.currentTimeMillis())) {
+            ApplicationLogger.warning("Could not mark cached image " + cachedFile.getName() + " as used");
+        }
+
+        return true;
+    }
+
+    /**
+     * Stores a rendered image in the cache, evicting the least recently used images when it gets too big.
+     * The image is copied to a temporary file first, so a cached image is never seen half written
+     * @param key The key of the image
+     * @param type The type of the image
+     * @param rendered The file holding the rendered image
+     * @throws IOException When the image couldn't be stored for some reason
+     */
+    public void store(String key, String type, File rendered) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory.getAbsolutePath());
+        }
+
+        final File tempFile = File.createTempFile(key, TEMP_EXTENSION, directory);
+
+        try {
+            Files.copy(rendered.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempFile.toPath(), getCachedFile(key, type).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used images until the cached ones fit in the allowed size
+     */
+    private void evict() {
+        final File[] files = directory.listFiles(f -> f.isFile() && !f.getName().endsWith(TEMP_EXTENSION));
+
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        long totalBytes = Arrays.stream(files).mapToLong(File::length).sum();
+
+        for (int i = 0; i < files.length && totalBytes > maxBytes; i++) {
+            final long length = files[i].length();
+
+            if (files[i].delete()) {
+                totalBytes -= length;
+                ApplicationLogger.info("Evicted image " + files[i].getName() + " from the render cache");
+            } else {
+                ApplicationLogger.warning("Could not evict image " + files[i].getName() + " from the render cache");
+            }
+        }
+    }
+
+    /**
+     * Provides the file which holds a cached image
+     * @param key The key of the image
+     * @param type The type of the image, used as the file extension
+     * @return The File of the image (which may not exist)
+     */
+    private File getCachedFile(String key, String type) {
+        return new File(directory, key + "." + type);
+    }
+
+    /**
+     * Creates the MessageDigest which computes the keys
+     * @return The MessageDigest created
+     */
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (final NoSuchAlgorithmException ex) {
+            ApplicationLogger.error(HASH_ALGORITHM + " is not available in this Java runtime");
+            throw new IllegalStateException(ex);
+        }
+    }
+}
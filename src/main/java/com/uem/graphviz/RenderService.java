@@ -0,0 +1,226 @@
+package com.uem.graphviz;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Renders the DOT code into several images at the same time, one renderer process per DOT file and
+ * RenderTarget, with at most a given number of processes running at once. The DOT file is piped into each process,
+ * whose output is piped straight into the image file. A process which runs longer than allowed is killed,
+ * and the images already found in the RenderCache, or already rendered from the same DOT code
+ * according to the RenderedImageStore, aren't rendered at all
+ *
+ * @author zessin
+ */
+public class RenderService {
+    private static final String ERROR_FILE_PREFIX = "render_";
+    private static final String ERROR_FILE_SUFFIX = ".err";
+
+    private final String dotPath;
+    private final RenderCache renderCache;
+    private final int maxProcesses;
+    private final long timeoutSeconds;
+    private final RenderedImageStore renderedImageStore;
+
+    /**
+     * Initializes the service
+     * @param dotPath The path of the Graphviz executable
+     * @param renderCache The cache of the rendered images
+     * @param maxProcesses How many renderer processes may run at the same time
+     * @param timeoutSeconds How long a renderer process may run before it's killed
+     * @param renderedImageStore The store which remembers the DOT code of the rendered images (null if none)
+     */
+    public RenderService(String dotPath, RenderCache renderCache, int maxProcesses, long timeoutSeconds, RenderedImageStore renderedImageStore) {
+        super();
+        this.dotPath = dotPath;
+        this.renderCache = renderCache;
+        this.maxProcesses = maxProcesses;
+        this.timeoutSeconds = timeoutSeconds;
+        this.renderedImageStore = renderedImageStore;
+    }
+
+    /**
+     * Renders the DOT code of every file into an image for every target, waiting for all of them.
+     * The images are named after the DOT files, without their extension
+     * @param dotFiles The files holding the DOT code
+     * @param targets The images to be rendered from each file
+     * @param outputDirectory The directory where the images are written
+     * @return true when every image was rendered, false otherwise
+     */
+    public boolean render(List<File> dotFiles, List<RenderTarget> targets, File outputDirectory) {
+        final int jobCount = dotFiles.size() * targets.size();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxProcesses, jobCount)),
+                                                                      r -> new Thread(r, "rtg-render-" + threadNumber.incrementAndGet()));
+        final List<Future<Boolean>> results = new ArrayList<>();
+        final List<File> outputFiles = new ArrayList<>();
+
+        try {
+            for (final File dotFile : dotFiles) {
+                final String fileName = dotFile.getName().replaceFirst("\\.dot$", "");
+
+                for (final RenderTarget target : targets) {
+                    final File outputFile = new File(outputDirectory, getOutputFileName(fileName, target, targets));
+
+                    outputFiles.add(outputFile);
+                    results.add(executor.submit(() -> render(dotFile, target, outputFile)));
+                }
+            }
+
+            boolean rendered = true;
+
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    rendered &= results.get(i).get();
+                } catch (final ExecutionException ex) {
+                    ApplicationLogger.error(String.format("Could not render %s: %s", outputFiles.get(i).getName(), ex.getCause().getMessage()));
+                    rendered = false;
+                }
+            }
+
+            return rendered;
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Rendering was interrupted", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Renders a single image, unless it was already rendered from the same DOT code or it's found in the RenderCache
+     * @param dotFile The file holding the DOT code
+     * @param target The image to be rendered
+     * @param outputFile The file where the image is written
+     * @return true when the image was rendered, false otherwise
+     * @throws IOException When the renderer couldn't be started for some reason
+     * @throws InterruptedException When the thread was interrupted while waiting for the renderer
+     */
+    private boolean render(File dotFile, RenderTarget target, File outputFile) throws IOException, InterruptedException {
+        String cacheKey = null;
+
+        if (renderCache.isEnabled() || renderedImageStore != null) {
+            try {
+                cacheKey = renderCache.computeKey(dotFile, target.getFormat(), target.getEngine(), target.getDpi());
+
+                if (renderedImageStore != null && renderedImageStore.isRendered(outputFile, cacheKey)) {
+                    ApplicationLogger.info(String.format("Image %s is up to date", outputFile.getName()));
+                    return true;
+                }
+
+                if (renderCache.isEnabled() && renderCache.restore(cacheKey, target.getFormat(), outputFile)) {
+                    ApplicationLogger.info(String.format("Image %s taken from the render cache (%s)", outputFile.getName(), cacheKey));
+                    setRendered(outputFile, cacheKey);
+                    return true;
+                }
+            } catch (final IOException ex) {
+                ApplicationLogger.warning("Could not read the render cache: " + ex.getMessage());
+            }
+        }
+
+        ApplicationLogger.info(String.format("Rendering %s into file %s", target, outputFile.getAbsolutePath()));
+
+        if (!runRenderer(dotFile, target, outputFile)) {
+            Files.deleteIfExists(outputFile.toPath());
+            return false;
+        }
+
+        setRendered(outputFile, cacheKey);
+
+        if (cacheKey != null && renderCache.isEnabled()) {
+            try {
+                renderCache.store(cacheKey, target.getFormat(), outputFile);
+            } catch (final IOException ex) {
+                ApplicationLogger.warning("Could not store the image in the render cache: " + ex.getMessage());
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Remembers which DOT code an image was rendered from, when there's a RenderedImageStore
+     * @param outputFile The file of the image
+     * @param cacheKey The key of the DOT code and the way it's rendered (null if it couldn't be computed)
+     */
+    private void setRendered(File outputFile, String cacheKey) {
+        if (renderedImageStore != null && cacheKey != null) {
+            renderedImageStore.setRendered(outputFile, cacheKey);
+        }
+    }
+
+    /**
+     * Runs the renderer process for an image, killing it when it runs longer than allowed.
+     * Its error messages are kept in a temporary file, so they can't fill a pipe and stall it
+     * @param dotFile The file holding the DOT code
+     * @param target The image to be rendered
+     * @param outputFile The file where the image is written
+     * @return true when the renderer finished successfully, false otherwise
+     * @throws IOException When the renderer couldn't be started for some reason
+     * @throws InterruptedException When the thread was interrupted while waiting for the renderer
+     */
+    private boolean runRenderer(File dotFile, RenderTarget target, File outputFile) throws IOException, InterruptedException {
+        final File errorFile = File.createTempFile(ERROR_FILE_PREFIX, ERROR_FILE_SUFFIX, outputFile.getAbsoluteFile().getParentFile());
+
+        try {
+            final Process process = new ProcessBuilder(dotPath,
+                                                       "-T" + target.getFormat(),
+                                                       "-K" + target.getEngine(),
+                                                       "-Gdpi=" + target.getDpi()).redirectInput(dotFile)
+                                                                                 .redirectOutput(outputFile)
+                                                                                 .redirectError(errorFile)
+                                                                                 .start();
+
+            try {
+                if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                    process.destroyForcibly().waitFor();
+                    ApplicationLogger.error(String.format("Rendering %s took more than %d seconds and was killed", target, timeoutSeconds));
+                    return false;
+                }
+            } catch (final InterruptedException ex) {
+                process.destroyForcibly();
+                throw ex;
+            }
+
+            if (process.exitValue() != 0) {
+                ApplicationLogger.error(String.format("Rendering %s failed with exit status %d: %s", target, process.exitValue(),
+                                                      new String(Files.readAllBytes(errorFile.toPath()), StandardCharsets.UTF_8).trim()));
+                return false;
+            }
+
+            return true;
+        } finally {
+            Files.deleteIfExists(errorFile.toPath());
+        }
+    }
+
+    /**
+     * Provides the name of the file of an image. The format is enough to tell the images apart,
+     * unless some other target has the same format, in which case the engine and the DPI are added
+     * @param fileName The name of the image files, without the extension
+     * @param target The image whose file is named
+     * @param targets All the images being rendered
+     * @return The name of the file
+     */
+    static String getOutputFileName(String fileName, RenderTarget target, List<RenderTarget> targets) {
+        final boolean sharedFormat = targets.stream()
+                                            .filter(t -> t.getFormat().equals(target.getFormat()))
+                                            .count() > 1;
+
+        return sharedFormat ?
+               String.format("%s_%s_%d.%s", fileName, target.getEngine(), target.getDpi(), target.getFormat()) :
+               String.format("%s.%s", fileName, target.getFormat());
+    }
+}
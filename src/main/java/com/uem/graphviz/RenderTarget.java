@@ -0,0 +1,78 @@
+package com.uem.graphviz;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents one image rendered from the DOT code: its output format, the Graphviz
+ * layout engine which places the vertices and the resolution of the image
+ *
+ * @author zessin
+ */
+public class RenderTarget {
+    public static final String DEFAULT_ENGINE = "dot";
+    public static final int DEFAULT_DPI       = 70;
+
+    private static final List<String> ENGINES = Arrays.asList("dot", "neato", "fdp", "sfdp", "twopi", "circo", "osage", "patchwork");
+
+    private final String format;
+    private final String engine;
+    private final int dpi;
+
+    /**
+     * Initializes the target
+     * @param format The output format (svg, png, pdf...)
+     * @param engine The layout engine (dot, neato...)
+     * @param dpi The resolution of the image
+     */
+    public RenderTarget(String format, String engine, int dpi) {
+        super();
+        this.format = format;
+        this.engine = engine;
+        this.dpi = dpi;
+    }
+
+    /**
+     * Returns the correct RenderTarget according to a value of the property in the properties file,
+     * written as format[:engine[:dpi]]
+     * @param renderTargetProperty The value in the file
+     * @return The RenderTarget for the value (null if it isn't valid)
+     */
+    public static RenderTarget getRenderTargetByProperty(String renderTargetProperty) {
+        final String[] fields = renderTargetProperty.trim().toLowerCase().split(":");
+
+        if (fields.length > 3 || !fields[0].matches("[a-z0-9_]+")) {
+            return null;
+        }
+
+        final String engine = fields.length > 1 ? fields[1] : DEFAULT_ENGINE;
+
+        if (!ENGINES.contains(engine)) {
+            return null;
+        }
+
+        try {
+            final int dpi = fields.length > 2 ? Integer.parseInt(fields[2]) : DEFAULT_DPI;
+            return dpi > 0 ? new RenderTarget(fields[0], engine, dpi) : null;
+        } catch (final NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%s:%d", format, engine, dpi);
+    }
+}
@@ -0,0 +1,132 @@
+package com.uem.graphviz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Remembers, from one execution to the next, which DOT code every image in the output directory was
+ * rendered from (the key computed by the RenderCache), so an image whose DOT code didn't change
+ * isn't rendered again
+ *
+ * @author zessin
+ */
+public class RenderedImageStore {
+    private static final int FORMAT_VERSION     = 2;
+    private static final String TEMP_EXTENSION  = ".tmp";
+
+    private final File file;
+    private final Map<String, RenderedImage> renderedImages;
+
+    /**
+     * Represents the DOT code an image was rendered from
+     */
+    private static class RenderedImage {
+        private final String key;
+        private final long length;
+
+        RenderedImage(String key, long length) {
+            this.key = key;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Initializes the store over a file
+     * @param file The File where the rendered images are kept (created when they're first saved)
+     */
+    public RenderedImageStore(File file) {
+        super();
+        this.file = file;
+        renderedImages = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Loads the images rendered by the previous execution. A missing or unreadable file only
+     * means every image is rendered again
+     */
+    public void load() {
+        renderedImages.clear();
+
+        if (!file.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                ApplicationLogger.info("Rendered images in " + file.getName() + " were saved by another version, rendering all of them");
+                return;
+            }
+
+            final int imageCount = in.readInt();
+            for (int i = 0; i < imageCount; i++) {
+                final String imageName = in.readUTF();
+                renderedImages.put(imageName, new RenderedImage(in.readUTF(), in.readLong()));
+            }
+        } catch (final IOException ex) {
+            ApplicationLogger.warning("Could not read the rendered images in " + file.getName() + ", rendering all of them: " + ex.getMessage());
+            renderedImages.clear();
+        }
+    }
+
+    /**
+     * Saves the DOT code of the rendered images. The file is written to a temporary file first,
+     * so an interrupted execution never leaves it half written
+     * @throws IOException When the file couldn't be written for some reason
+     */
+    public void save() throws IOException {
+        final File tempFile = new File(file.getPath() + TEMP_EXTENSION);
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                final Map<String, RenderedImage> images = new HashMap<>(renderedImages);
+
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(images.size());
+                for (final Map.Entry<String, RenderedImage> entry : images.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue().key);
+                    out.writeLong(entry.getValue().length);
+                }
+            }
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Tells whether an image in the output directory was already rendered from the same DOT code,
+     * and wasn't changed since then
+     * @param image The File of the image
+     * @param key The key of the DOT code and the way it's rendered, as computed by the RenderCache
+     * @return True if the image doesn't need to be rendered again, false otherwise
+     */
+    public boolean isRendered(File image, String key) {
+        final RenderedImage renderedImage = renderedImages.get(image.getName());
+
+        return renderedImage != null && renderedImage.key.equals(key) && image.isFile() && image.length() == renderedImage.length;
+    }
+
+    /**
+     * Remembers which DOT code an image in the output directory was rendered from
+     * @param image The File of the image, already written
+     * @param key The key of the DOT code and the way it's rendered, as computed by the RenderCache
+     */
+    public void setRendered(File image, String key) {
+        renderedImages.put(image.getName(), new RenderedImage(key, image.length()));
+    }
+}
@@ -0,0 +1,120 @@
+package com.uem.index;
+
+/**
+ * Tells whether a key may have been added to a set without keeping the keys themselves.
+ * A key which was never added is reported as absent most of the time, with a false positive
+ * rate chosen when the filter is created; a key which was added is always reported as present.
+ * The bit positions of a key come from two halves of a single 64 bit hash (double hashing),
+ * so checking a key reads its characters only once
+ *
+ * @author zessin
+ */
+public class BloomFilter {
+    private static final int MAX_HASH_COUNT = 16;
+    // Bit positions come from 32 bit hashes, so more than 2^32 bits would never be used
+    private static final long MAX_WORDS     = 1L << 26;
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private long keyCount;
+
+    /**
+     * Initializes an empty filter sized for a number of keys
+     * @param expectedKeys How many keys are expected to be added
+     * @param falsePositiveRate The rate of absent keys reported as present once the expected keys were added
+     */
+    public BloomFilter(long expectedKeys, double falsePositiveRate) {
+        super();
+
+        final long keys = Math.max(1, expectedKeys);
+        final int words = getWordCount(keys, falsePositiveRate);
+
+        bits = new long[words];
+        bitCount = (long) words * 64;
+        hashCount = (int) Math.max(1, Math.min(MAX_HASH_COUNT, Math.round((double) bitCount / keys * Math.log(2))));
+        keyCount = 0;
+    }
+
+    /**
+     * Tells how much heap a filter takes, so the filters can be kept within a budget before they're created
+     * @param expectedKeys How many keys are expected to be added
+     * @param falsePositiveRate The rate of absent keys reported as present once the expected keys were added
+     * @return The size of the filter's bits, in bytes
+     */
+    public static long getSizeInBytes(long expectedKeys, double falsePositiveRate) {
+        return (long) getWordCount(Math.max(1, expectedKeys), falsePositiveRate) * Long.BYTES;
+    }
+
+    /**
+     * Adds a key to the filter
+     * @param key The key to be added
+     */
+    public void add(CharSequence key) {
+        final long hash = KeyHash.hash(key);
+        final int first = (int) hash;
+        final int second = (int) (hash >>> 32);
+
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = position(first + i * second);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+
+        keyCount++;
+    }
+
+    /**
+     * Tells whether a key may have been added to the filter
+     * @param key The key to be checked
+     * @return false when the key was certainly never added, true when it probably was
+     */
+    public boolean mightContain(CharSequence key) {
+        final long hash = KeyHash.hash(key);
+        final int first = (int) hash;
+        final int second = (int) (hash >>> 32);
+
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = position(first + i * second);
+
+            if ((bits[(int) (bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    public long getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * Maps a combined hash to a bit of the filter
+     * @param combinedHash The hash of one of the probes
+     * @return The position of the bit
+     */
+    private long position(int combinedHash) {
+        return (combinedHash & 0xFFFFFFFFL) % bitCount;
+    }
+
+    /**
+     * Finds how many 64 bit words hold the bits needed for a number of keys and a false positive rate
+     * @param keys How many keys are expected to be added (at least one)
+     * @param falsePositiveRate The rate of absent keys reported as present once the expected keys were added
+     * @return The number of words of the filter
+     */
+    private static int getWordCount(long keys, double falsePositiveRate) {
+        final double ln2 = Math.log(2);
+        final long wantedBits = (long) Math.ceil(-keys * Math.log(falsePositiveRate) / (ln2 * ln2));
+
+        return (int) Math.min(MAX_WORDS, Math.max(1, (wantedBits + 63) / 64));
+    }
+}
@@ -0,0 +1,69 @@
+package com.uem.index;
+
+import java.io.IOException;
+
+/**
+ * Joins a sorted stream of records with a sorted index whose keys are unique, in a single sequential
+ * pass over both. Each record is matched with the index entry of the same key, whose value is handed
+ * to the JoinHandler together with the record
+ *
+ * @author zessin
+ */
+public final class ExternalMergeJoin {
+
+    private ExternalMergeJoin() {
+        super();
+    }
+
+    /**
+     * Joins the records with the index
+     * @param records The records, sorted by key
+     * @param index The index entries, sorted by key, with unique keys
+     * @param handler The JoinHandler which receives every record, matched or not
+     * @return How many records were matched
+     * @throws IOException When the records or the index couldn't be read, or the handler failed
+     */
+    public static long join(RecordCursor records, RecordCursor index, JoinHandler handler) throws IOException {
+        long matched = 0;
+        boolean indexAvailable = index.next();
+
+        while (records.next()) {
+            int comparison = -1;
+
+            while (indexAvailable &&
+                   (comparison = ExternalSorter.compareKeys(index.getKey(), index.getKeyLength(),
+                                                            records.getKey(), records.getKeyLength())) < 0) {
+                indexAvailable = index.next();
+            }
+
+            if (indexAvailable && comparison == 0) {
+                handler.matched(records, index.getValue());
+                matched++;
+            } else {
+                handler.unmatched(records);
+            }
+        }
+
+        return matched;
+    }
+
+    /**
+     * Receives the outcome of the join for each record
+     */
+    public interface JoinHandler {
+        /**
+         * Receives a record whose key was found in the index
+         * @param record The cursor positioned on the record
+         * @param indexValue The value of the index entry with the same key
+         * @throws IOException When the handler failed
+         */
+        void matched(RecordCursor record, long indexValue) throws IOException;
+
+        /**
+         * Receives a record whose key wasn't found in the index
+         * @param record The cursor positioned on the record
+         * @throws IOException When the handler failed
+         */
+        void unmatched(RecordCursor record) throws IOException;
+    }
+}
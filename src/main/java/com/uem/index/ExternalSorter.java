@@ -0,0 +1,375 @@
+package com.uem.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Sorts an unbounded number of records by key without keeping them in the heap. Records are
+ * gathered in a direct buffer taken from an OffHeapBufferPool; when it's full, or when the pool needs it
+ * back for another sorter, the buffer is sorted in place and spilled to disk as a sorted run. Once all the records were added, the runs are merged
+ * (at most MAX_MERGE_FAN_IN at a time) into a single sorted file which can be read as often as needed.
+ * Keys are compared as unsigned bytes, so every sorter orders the same keys in the same way
+ *
+ * @author zessin
+ */
+public class ExternalSorter implements Closeable {
+    private static final int MAX_MERGE_FAN_IN   = 64;
+    private static final int IO_BUFFER_SIZE     = 256 * 1024;
+    private static final int RECORD_OVERHEAD    = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int INSERTION_SORT_MAX = 16;
+    // Part of the pooled buffer kept for the record offsets, sized for records of about 28 bytes
+    private static final int OFFSETS_FRACTION   = 8;
+
+    private final File directory;
+    private final String name;
+    private final OffHeapBufferPool pool;
+    private final List<File> runs;
+    private ByteBuffer buffer;
+    private ByteBuffer data;
+    private IntBuffer offsets;
+    private File sortedFile;
+    private long recordCount;
+    private int createdFiles;
+
+    /**
+     * Initializes an empty sorter. No memory is taken from the pool until the first record is added
+     * @param directory The directory which receives the run files
+     * @param name The prefix of the run files, unique amongst the sorters sharing the directory
+     * @param pool The pool which provides the sort buffers
+     */
+    public ExternalSorter(File directory, String name, OffHeapBufferPool pool) {
+        super();
+        this.directory = directory;
+        this.name = name;
+        this.pool = pool;
+        runs = new ArrayList<>();
+        recordCount = 0;
+        createdFiles = 0;
+    }
+
+    /**
+     * Compares two keys as unsigned bytes, the shorter one coming first when it's a prefix of the other
+     * @param a The array which holds the first key
+     * @param aLength The length of the first key
+     * @param b The array which holds the second key
+     * @param bLength The length of the second key
+     * @return A negative number, zero or a positive number when the first key is smaller, equal or greater
+     */
+    public static int compareKeys(byte[] a, int aLength, byte[] b, int bLength) {
+        final int length = Math.min(aLength, bLength);
+
+        for (int i = 0; i < length; i++) {
+            final int difference = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+
+        return aLength - bLength;
+    }
+
+    /**
+     * Adds a record, spilling the buffer to disk first when the record doesn't fit
+     * @param key The array which holds the key
+     * @param keyOffset The position of the key in its array
+     * @param keyLength The length of the key
+     * @param value The value of the record
+     * @param payload The array which holds the payload
+     * @param payloadOffset The position of the payload in its array
+     * @param payloadLength The length of the payload
+     * @throws IOException When a run couldn't be written for some reason
+     */
+    public void add(byte[] key, int keyOffset, int keyLength, long value, byte[] payload, int payloadOffset, int payloadLength) throws IOException {
+        if (sortedFile != null) {
+            throw new IllegalStateException("Records can't be added to sorter " + name + " after it was finished");
+        }
+        if (buffer == null) {
+            acquireBuffer();
+        }
+
+        final int size = RECORD_OVERHEAD + keyLength + payloadLength;
+
+        if (size > data.capacity()) {
+            throw new IllegalArgumentException(String.format("Record of %d bytes doesn't fit in the sort buffer of %s", size, name));
+        }
+        if (data.remaining() < size || !offsets.hasRemaining()) {
+            spill();
+        }
+
+        offsets.put(data.position());
+        data.putInt(keyLength).put(key, keyOffset, keyLength).putLong(value).putInt(payloadLength).put(payload, payloadOffset, payloadLength);
+        recordCount++;
+    }
+
+    /**
+     * Spills the records gathered so far and gives the sort buffer back to the pool, so it can be used
+     * by another sorter. A buffer is taken again if more records are added later
+     * @throws IOException When the run couldn't be written for some reason
+     */
+    public void release() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+
+        spill();
+        pool.release(this, buffer);
+        buffer = null;
+        data = null;
+        offsets = null;
+    }
+
+    /**
+     * Ends the sort: spills the remaining records and merges all the runs into a single sorted file
+     * @throws IOException When the runs couldn't be written or merged for some reason
+     */
+    public void finish() throws IOException {
+        if (sortedFile != null) {
+            return;
+        }
+
+        release();
+
+        if (runs.isEmpty()) {
+            final File emptyRun = newRunFile();
+            new RunWriter(emptyRun, Integer.BYTES).close();
+            runs.add(emptyRun);
+        }
+
+        while (runs.size() > 1) {
+            final List<File> merged = new ArrayList<>(runs.subList(0, Math.min(MAX_MERGE_FAN_IN, runs.size())));
+            final File mergedRun = newRunFile();
+
+            mergeRuns(merged, mergedRun);
+            runs.removeAll(merged);
+            runs.add(mergedRun);
+            merged.forEach(this::deleteFile);
+        }
+
+        sortedFile = runs.get(0);
+    }
+
+    /**
+     * Opens a cursor over the sorted records. The sorter must have been finished
+     * @return The cursor, which must be closed by the caller
+     * @throws IOException When the sorted file couldn't be opened for some reason
+     */
+    public RecordCursor openCursor() throws IOException {
+        if (sortedFile == null) {
+            throw new IllegalStateException("Sorter " + name + " was not finished");
+        }
+
+        return new RunCursor(sortedFile, IO_BUFFER_SIZE);
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            pool.release(this, buffer);
+            buffer = null;
+        }
+
+        runs.forEach(this::deleteFile);
+        runs.clear();
+        sortedFile = null;
+    }
+
+    /**
+     * Takes a buffer from the pool, splitting it between the record offsets and the record data
+     * @throws IOException When the pool had to spill another sorter and its run couldn't be written for some reason
+     */
+    private void acquireBuffer() throws IOException {
+        buffer = pool.acquire(this);
+
+        final int offsetsBytes = (buffer.capacity() / OFFSETS_FRACTION) & ~(Integer.BYTES - 1);
+
+        buffer.limit(offsetsBytes).position(0);
+        offsets = buffer.slice().asIntBuffer();
+        buffer.limit(buffer.capacity()).position(offsetsBytes);
+        data = buffer.slice();
+        buffer.clear();
+    }
+
+    /**
+     * Sorts the records in the buffer and writes them as a new run
+     * @throws IOException When the run couldn't be written for some reason
+     */
+    private void spill() throws IOException {
+        final int count = offsets.position();
+
+        if (count == 0) {
+            return;
+        }
+
+        sort(0, count - 1);
+
+        final File run = newRunFile();
+
+        try (RunWriter writer = new RunWriter(run, IO_BUFFER_SIZE)) {
+            final ByteBuffer record = data.duplicate();
+
+            for (int i = 0; i < count; i++) {
+                final int offset = offsets.get(i);
+                final int keyLength = data.getInt(offset);
+                final int payloadLength = data.getInt(offset + Integer.BYTES + keyLength + Long.BYTES);
+
+                record.limit(offset + RECORD_OVERHEAD + keyLength + payloadLength).position(offset);
+                writer.write(record);
+                record.limit(record.capacity());
+            }
+        }
+
+        runs.add(run);
+        data.clear();
+        offsets.clear();
+    }
+
+    /**
+     * Merges some runs into a new one
+     * @param inputs The runs to be merged
+     * @param output The File which receives the merged run
+     * @throws IOException When the runs couldn't be read or written for some reason
+     */
+    private void mergeRuns(List<File> inputs, File output) throws IOException {
+        final List<RunCursor> cursors = new ArrayList<>();
+
+        try (RecordCursor merge = new MergeCursor(cursors);
+             RunWriter writer = new RunWriter(output, IO_BUFFER_SIZE)) {
+            for (final File input : inputs) {
+                cursors.add(new RunCursor(input, IO_BUFFER_SIZE));
+            }
+
+            while (merge.next()) {
+                writer.write(merge.getKey(), merge.getKeyLength(), merge.getValue(), merge.getPayload(), merge.getPayloadLength());
+            }
+        }
+    }
+
+    /**
+     * Sorts a range of the record offsets by the keys they point to, with a quicksort which
+     * recurses into the smaller part only, so the stack depth stays logarithmic
+     * @param low The first position of the range
+     * @param high The last position of the range
+     */
+    private void sort(int low, int high) {
+        while (high - low >= INSERTION_SORT_MAX) {
+            final int middle = (low + high) >>> 1;
+
+            if (compareRecords(middle, low) < 0) {
+                swap(middle, low);
+            }
+            if (compareRecords(high, low) < 0) {
+                swap(high, low);
+            }
+            if (compareRecords(high, middle) < 0) {
+                swap(high, middle);
+            }
+
+            final int pivot = offsets.get(middle);
+            int i = low;
+            int j = high;
+
+            while (i <= j) {
+                while (compareOffsets(offsets.get(i), pivot) < 0) {
+                    i++;
+                }
+                while (compareOffsets(offsets.get(j), pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+
+        for (int i = low + 1; i <= high; i++) {
+            final int offset = offsets.get(i);
+            int j = i - 1;
+
+            while (j >= low && compareOffsets(offsets.get(j), offset) > 0) {
+                offsets.put(j + 1, offsets.get(j));
+                j--;
+            }
+            offsets.put(j + 1, offset);
+        }
+    }
+
+    /**
+     * Compares the keys of the records at two positions of the offsets
+     * @param i The first position
+     * @param j The second position
+     * @return The comparison of the keys, as in compareKeys
+     */
+    private int compareRecords(int i, int j) {
+        return compareOffsets(offsets.get(i), offsets.get(j));
+    }
+
+    /**
+     * Compares the keys of the records which start at two offsets of the data
+     * @param a The offset of the first record
+     * @param b The offset of the second record
+     * @return The comparison of the keys, as in compareKeys
+     */
+    private int compareOffsets(int a, int b) {
+        final int aLength = data.getInt(a);
+        final int bLength = data.getInt(b);
+        final int length = Math.min(aLength, bLength);
+
+        for (int i = 0; i < length; i++) {
+            final int difference = (data.get(a + Integer.BYTES + i) & 0xFF) - (data.get(b + Integer.BYTES + i) & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+
+        return aLength - bLength;
+    }
+
+    /**
+     * Swaps two record offsets
+     * @param i The first position
+     * @param j The second position
+     */
+    private void swap(int i, int j) {
+        final int offset = offsets.get(i);
+
+        offsets.put(i, offsets.get(j));
+        offsets.put(j, offset);
+    }
+
+    /**
+     * Provides the File for a new run of this sorter
+     * @return The File for the run
+     */
+    private File newRunFile() {
+        return new File(directory, name + "." + createdFiles++ + ".run");
+    }
+
+    /**
+     * Deletes a run file, only warning when it can't be deleted
+     * @param file The File to be deleted
+     */
+    private void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            ApplicationLogger.warning("Could not delete temporary file " + file.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.uem.index;
+
+/**
+ * Hashes keys into 64 bits with FNV-1a over their characters, followed by a final mix (the finalizer
+ * of MurmurHash3) so every bit of the result depends on the whole key. Both the Bloom filters and the
+ * digests of the migrated data split the hash in parts, so the final mix is what keeps those parts independent
+ *
+ * @author zessin
+ */
+public final class KeyHash {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME        = 0x100000001b3L;
+
+    private KeyHash() {
+        super();
+    }
+
+    /**
+     * Hashes a key
+     * @param key The key to be hashed
+     * @return The 64 bit hash of the key
+     */
+    public static long hash(CharSequence key) {
+        long hash = FNV_OFFSET_BASIS;
+
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+}
@@ -0,0 +1,88 @@
+package com.uem.index;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges several sorted cursors into a single sorted one, always exposing the record
+ * with the smallest key amongst the current records of all the cursors
+ *
+ * @author zessin
+ */
+class MergeCursor implements RecordCursor {
+    private final List<? extends RecordCursor> cursors;
+    private final PriorityQueue<RecordCursor> queue;
+    private RecordCursor current;
+    private boolean started;
+
+    /**
+     * Initializes the merge
+     * @param cursors The sorted cursors to be merged, which are closed with this one
+     */
+    MergeCursor(List<? extends RecordCursor> cursors) {
+        this.cursors = cursors;
+        queue = new PriorityQueue<>(Math.max(1, cursors.size()),
+                                    (a, b) -> ExternalSorter.compareKeys(a.getKey(), a.getKeyLength(), b.getKey(), b.getKeyLength()));
+        started = false;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (!started) {
+            for (final RecordCursor cursor : cursors) {
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+            started = true;
+        } else if (current != null && current.next()) {
+            queue.add(current);
+        }
+
+        current = queue.poll();
+        return current != null;
+    }
+
+    @Override
+    public byte[] getKey() {
+        return current.getKey();
+    }
+
+    @Override
+    public int getKeyLength() {
+        return current.getKeyLength();
+    }
+
+    @Override
+    public long getValue() {
+        return current.getValue();
+    }
+
+    @Override
+    public byte[] getPayload() {
+        return current.getPayload();
+    }
+
+    @Override
+    public int getPayloadLength() {
+        return current.getPayloadLength();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+
+        for (final RecordCursor cursor : cursors) {
+            try {
+                cursor.close();
+            } catch (final IOException ex) {
+                failure = ex;
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.uem.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Hands out direct buffers of a fixed size to the ExternalSorters and keeps the returned ones for later use.
+ * Direct buffers live outside the heap and are only freed by the garbage collector, so reusing them keeps
+ * the off-heap memory bounded by the buffers in use at the same time, and at most a given number of
+ * buffers is ever allocated. When all of them are in use, the sorter which took its buffer first is made
+ * to spill its records and give the buffer back, so the sorters sharing a pool are never blocked
+ *
+ * @author zessin
+ */
+public class OffHeapBufferPool {
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final Deque<ByteBuffer> freeBuffers;
+    private final Set<ExternalSorter> holders;
+    private int allocatedBuffers;
+
+    /**
+     * Initializes an empty pool
+     * @param bufferSize The size of each buffer, in bytes
+     * @param maxBuffers How many buffers may be allocated at most (at least one is)
+     */
+    public OffHeapBufferPool(int bufferSize, int maxBuffers) {
+        super();
+        this.bufferSize = bufferSize;
+        this.maxBuffers = Math.max(1, maxBuffers);
+        freeBuffers = new ArrayDeque<>();
+        holders = new LinkedHashSet<>();
+        allocatedBuffers = 0;
+    }
+
+    /**
+     * Provides a cleared buffer to a sorter, allocating a new one only when none is free. When every buffer
+     * the pool may allocate is in use, the oldest holder spills its records and gives its buffer back first
+     * @param sorter The ExternalSorter which takes the buffer, and keeps it until it releases it
+     * @return The buffer
+     * @throws IOException When the records of the oldest holder couldn't be spilled for some reason
+     */
+    public synchronized ByteBuffer acquire(ExternalSorter sorter) throws IOException {
+        if (freeBuffers.isEmpty() && allocatedBuffers >= maxBuffers) {
+            final Iterator<ExternalSorter> oldest = holders.iterator();
+
+            if (!oldest.hasNext()) {
+                throw new IllegalStateException("Every sort buffer is in use, but no sorter holds one");
+            }
+
+            oldest.next().release();
+        }
+
+        ByteBuffer buffer = freeBuffers.poll();
+
+        if (buffer != null) {
+            buffer.clear();
+        } else {
+            allocatedBuffers++;
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        holders.add(sorter);
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool
+     * @param sorter The ExternalSorter which held the buffer
+     * @param buffer The buffer, which must not be used anymore by the sorter
+     */
+    public synchronized void release(ExternalSorter sorter, ByteBuffer buffer) {
+        holders.remove(sorter);
+        freeBuffers.push(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getMaxBuffers() {
+        return maxBuffers;
+    }
+
+    public synchronized int getAllocatedBuffers() {
+        return allocatedBuffers;
+    }
+}
@@ -0,0 +1,37 @@
+package com.uem.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Iterates over sorted records, each one made of a key, a numeric value and an opaque payload.
+ * The arrays returned by the getters are reused when the cursor moves, so they must not be kept
+ *
+ * @author zessin
+ */
+public interface RecordCursor extends Closeable {
+    /**
+     * Moves to the next record
+     * @return true when there's a record, false when the end was reached
+     * @throws IOException When the records couldn't be read for some reason
+     */
+    boolean next() throws IOException;
+
+    /**
+     * Provides the key of the current record, encoded as UTF-8
+     * @return The array which holds the key (only the first getKeyLength bytes are valid)
+     */
+    byte[] getKey();
+
+    int getKeyLength();
+
+    long getValue();
+
+    /**
+     * Provides the payload of the current record
+     * @return The array which holds the payload (only the first getPayloadLength bytes are valid)
+     */
+    byte[] getPayload();
+
+    int getPayloadLength();
+}
@@ -0,0 +1,151 @@
+package com.uem.index;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads back, in order, the records of a run file written by RunWriter.
+ * Keys and payloads are copied into arrays which only grow when a bigger record shows up
+ *
+ * @author zessin
+ */
+class RunCursor implements RecordCursor {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private byte[] key;
+    private int keyLength;
+    private long value;
+    private byte[] payload;
+    private int payloadLength;
+    private boolean endOfFile;
+
+    /**
+     * Opens the run file
+     * @param file The File which holds the run
+     * @param bufferSize The size of the read buffer, in bytes
+     * @throws IOException When the File couldn't be opened for some reason
+     */
+    RunCursor(File file, int bufferSize) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        buffer = ByteBuffer.allocateDirect(bufferSize);
+        buffer.flip();
+        key = new byte[64];
+        payload = new byte[64];
+        endOfFile = false;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (!fill(Integer.BYTES)) {
+            return false;
+        }
+
+        keyLength = buffer.getInt();
+        if (key.length < keyLength) {
+            key = new byte[Math.max(keyLength, key.length * 2)];
+        }
+        readFully(key, keyLength);
+
+        require(Long.BYTES);
+        value = buffer.getLong();
+
+        require(Integer.BYTES);
+        payloadLength = buffer.getInt();
+        if (payload.length < payloadLength) {
+            payload = new byte[Math.max(payloadLength, payload.length * 2)];
+        }
+        readFully(payload, payloadLength);
+
+        return true;
+    }
+
+    @Override
+    public byte[] getKey() {
+        return key;
+    }
+
+    @Override
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    @Override
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Makes sure the buffer holds at least some bytes, reading more from the File when needed
+     * @param count How many bytes are needed
+     * @return true when the bytes are available, false when the File ended before any of them
+     * @throws IOException When the File couldn't be read or ended in the middle of a record
+     */
+    private boolean fill(int count) throws IOException {
+        if (buffer.remaining() >= count) {
+            return true;
+        }
+
+        buffer.compact();
+        while (buffer.position() < count && !endOfFile) {
+            endOfFile = channel.read(buffer) < 0;
+        }
+        buffer.flip();
+
+        if (buffer.remaining() >= count) {
+            return true;
+        }
+        if (buffer.hasRemaining()) {
+            throw new EOFException("Run file ended in the middle of a record");
+        }
+
+        return false;
+    }
+
+    /**
+     * Makes sure the buffer holds at least some bytes in the middle of a record
+     * @param count How many bytes are needed
+     * @throws IOException When the File couldn't be read or ended in the middle of a record
+     */
+    private void require(int count) throws IOException {
+        if (!fill(count)) {
+            throw new EOFException("Run file ended in the middle of a record");
+        }
+    }
+
+    /**
+     * Copies some bytes into an array, reading from the File as many times as needed
+     * @param target The array which receives the bytes
+     * @param length How many bytes are copied
+     * @throws IOException When the File couldn't be read or ended in the middle of a record
+     */
+    private void readFully(byte[] target, int length) throws IOException {
+        int start = 0;
+
+        while (start < length) {
+            require(1);
+
+            final int count = Math.min(length - start, buffer.remaining());
+            buffer.get(target, start, count);
+            start += count;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.uem.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a run of records to a file, in the layout read by RunCursor:
+ * key length, key, value, payload length and payload
+ *
+ * @author zessin
+ */
+class RunWriter implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates (or truncates) the run file
+     * @param file The File which will hold the run
+     * @param bufferSize The size of the write buffer, in bytes
+     * @throws IOException When the File couldn't be opened for some reason
+     */
+    RunWriter(File file, int bufferSize) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Writes a record which is already laid out in a buffer
+     * @param record The buffer positioned on the record, limited to its end
+     * @throws IOException When the File couldn't be written for some reason
+     */
+    void write(ByteBuffer record) throws IOException {
+        if (buffer.remaining() < record.remaining()) {
+            flush();
+        }
+        if (record.remaining() > buffer.capacity()) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            return;
+        }
+
+        buffer.put(record);
+    }
+
+    /**
+     * Writes a record given by its parts
+     * @param key The array which holds the key
+     * @param keyLength The length of the key
+     * @param value The value of the record
+     * @param payload The array which holds the payload
+     * @param payloadLength The length of the payload
+     * @throws IOException When the File couldn't be written for some reason
+     */
+    void write(byte[] key, int keyLength, long value, byte[] payload, int payloadLength) throws IOException {
+        putInt(keyLength);
+        putBytes(key, keyLength);
+        if (buffer.remaining() < Long.BYTES) {
+            flush();
+        }
+        buffer.putLong(value);
+        putInt(payloadLength);
+        putBytes(payload, payloadLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes an int, draining the buffer first when it doesn't fit
+     * @param value The value to be written
+     * @throws IOException When the File couldn't be written for some reason
+     */
+    private void putInt(int value) throws IOException {
+        if (buffer.remaining() < Integer.BYTES) {
+            flush();
+        }
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes some bytes, draining the buffer as many times as needed
+     * @param bytes The array which holds the bytes
+     * @param length How many bytes are written
+     * @throws IOException When the File couldn't be written for some reason
+     */
+    private void putBytes(byte[] bytes, int length) throws IOException {
+        int start = 0;
+
+        while (start < length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+
+            final int count = Math.min(length - start, buffer.remaining());
+            buffer.put(bytes, start, count);
+            start += count;
+        }
+    }
+
+    /**
+     * Writes the whole content of the buffer to the File
+     * @throws IOException When the File couldn't be written for some reason
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,160 @@
+package com.uem.layout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Lays out a Graph by simulating forces (Fruchterman and Reingold), for graphs with too many cycles to be drawn
+ * in layers: the vertices push each other away, the edges pull their vertices together, and the moves shrink
+ * at every iteration until the drawing settles. Only the vertices closer than twice the ideal distance push each
+ * other, found through a grid of cells of that size, so an iteration doesn't compare every pair of vertices.
+ * The edges are drawn straight
+ *
+ * @author zessin
+ */
+class ForceDirectedLayout {
+    private static final double IDEAL_DISTANCE = 120;
+    private static final int ITERATIONS        = 200;
+    private static final long SEED             = 42;
+
+    private final GraphLayout layout;
+
+    /**
+     * Initializes the layout
+     * @param layout The GraphLayout whose vertices and edges are placed
+     */
+    ForceDirectedLayout(GraphLayout layout) {
+        super();
+        this.layout = layout;
+    }
+
+    /**
+     * Places every vertex and edge of the GraphLayout. The vertices start at random positions
+     * (always the same ones), so the same Graph is always drawn the same way
+     */
+    void apply() {
+        final int vertexCount = layout.getVertexCount();
+        final double side = IDEAL_DISTANCE * Math.sqrt(vertexCount);
+        final double cellSize = 2 * IDEAL_DISTANCE;
+        final Random random = new Random(SEED);
+        final double[] dx = new double[vertexCount];
+        final double[] dy = new double[vertexCount];
+
+        for (int v = 0; v < vertexCount; v++) {
+            layout.x[v] = random.nextDouble() * side;
+            layout.y[v] = random.nextDouble() * side;
+        }
+
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            final double temperature = side / 10 * (1 - (double) iteration / ITERATIONS);
+            final Map<Long, List<Integer>> cells = new HashMap<>();
+
+            for (int v = 0; v < vertexCount; v++) {
+                cells.computeIfAbsent(getCell(layout.x[v] / cellSize, layout.y[v] / cellSize), k -> new ArrayList<>()).add(v);
+                dx[v] = 0;
+                dy[v] = 0;
+            }
+
+            for (int v = 0; v < vertexCount; v++) {
+                final long column = (long) Math.floor(layout.x[v] / cellSize);
+                final long row = (long) Math.floor(layout.y[v] / cellSize);
+
+                for (long c = column - 1; c <= column + 1; c++) {
+                    for (long r = row - 1; r <= row + 1; r++) {
+                        for (final int w : cells.getOrDefault(getCell(c, r), Collections.emptyList())) {
+                            if (w != v) {
+                                repel(v, w, cellSize, random, dx, dy);
+                            }
+                        }
+                    }
+                }
+            }
+
+            for (int e = 0; e < layout.getEdgeCount(); e++) {
+                final int source = layout.edgeSources[e];
+                final int target = layout.edgeTargets[e];
+
+                if (source != target) {
+                    attract(source, target, dx, dy);
+                }
+            }
+
+            for (int v = 0; v < vertexCount; v++) {
+                final double length = Math.sqrt(dx[v] * dx[v] + dy[v] * dy[v]);
+
+                if (length > 0) {
+                    layout.x[v] += dx[v] / length * Math.min(length, temperature);
+                    layout.y[v] += dy[v] / length * Math.min(length, temperature);
+                }
+            }
+        }
+
+        layout.normalize();
+
+        for (int e = 0; e < layout.getEdgeCount(); e++) {
+            layout.setEdgePath(e, new double[0]);
+        }
+    }
+
+    /**
+     * Pushes a vertex away from another one, when they're closer than a cell
+     * @param v The vertex pushed
+     * @param w The vertex pushing
+     * @param range The distance beyond which the vertices don't push each other
+     * @param random The generator used to separate vertices at the same position
+     * @param dx The moves of the vertices, along x
+     * @param dy The moves of the vertices, along y
+     */
+    private void repel(int v, int w, double range, Random random, double[] dx, double[] dy) {
+        double deltaX = layout.x[v] - layout.x[w];
+        double deltaY = layout.y[v] - layout.y[w];
+        double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+
+        if (distance == 0) {
+            deltaX = random.nextDouble() - 0.5;
+            deltaY = random.nextDouble() - 0.5;
+            distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+        }
+
+        if (distance < range) {
+            final double force = IDEAL_DISTANCE * IDEAL_DISTANCE / distance;
+            dx[v] += deltaX / distance * force;
+            dy[v] += deltaY / distance * force;
+        }
+    }
+
+    /**
+     * Pulls the two vertices of an edge towards each other
+     * @param source The source vertex
+     * @param target The target vertex
+     * @param dx The moves of the vertices, along x
+     * @param dy The moves of the vertices, along y
+     */
+    private void attract(int source, int target, double[] dx, double[] dy) {
+        final double deltaX = layout.x[source] - layout.x[target];
+        final double deltaY = layout.y[source] - layout.y[target];
+        final double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+
+        if (distance > 0) {
+            final double force = distance * distance / IDEAL_DISTANCE;
+            dx[source] -= deltaX / distance * force;
+            dy[source] -= deltaY / distance * force;
+            dx[target] += deltaX / distance * force;
+            dy[target] += deltaY / distance * force;
+        }
+    }
+
+    /**
+     * Provides the key of a cell of the grid
+     * @param column The column of the cell (only its integer part is used)
+     * @param row The row of the cell (only its integer part is used)
+     * @return The key of the cell
+     */
+    private static long getCell(double column, double row) {
+        return ((long) Math.floor(column) << 32) ^ ((long) Math.floor(row) & 0xFFFFFFFFL);
+    }
+}
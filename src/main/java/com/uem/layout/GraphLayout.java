@@ -0,0 +1,194 @@
+package com.uem.layout;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.uem.graph.Graph;
+import com.uem.graph.Vertex;
+
+/**
+ * Holds where every vertex and edge of a Graph is drawn. The vertices are ellipses sized the same way
+ * as in the DOT code (growing with the logarithm of their weights, and wide enough for their labels),
+ * and the edges are polylines from the border of their first vertex to the border of the second one.
+ * The layouts fill in the centers of the vertices and the bends of the edges
+ *
+ * @author zessin
+ */
+class GraphLayout {
+    static final double MARGIN = 20;
+
+    private static final double POINTS_PER_INCH     = 72;
+    private static final double DEFAULT_NODE_WIDTH  = 0.75 * POINTS_PER_INCH;
+    private static final double DEFAULT_NODE_HEIGHT = 0.5 * POINTS_PER_INCH;
+    private static final double CHARACTER_WIDTH     = 8;
+    private static final double LABEL_PADDING       = 24;
+    private static final double LOOP_SIZE           = 18;
+
+    final List<Vertex> vertices;
+    final int[] edgeSources;
+    final int[] edgeTargets;
+    final double[] x;
+    final double[] y;
+    final double[] width;
+    final double[] height;
+    final double[][] edgePaths;
+
+    /**
+     * Initializes the layout of a Graph, sizing its vertices and finding its edges (one per adjacency)
+     * @param graph The Graph to be laid out
+     */
+    GraphLayout(Graph graph) {
+        super();
+        vertices = new ArrayList<>(graph.getVertices());
+
+        final Map<Vertex, Integer> indexes = new HashMap<>();
+        final List<int[]> edges = new ArrayList<>();
+
+        for (int i = 0; i < vertices.size(); i++) {
+            indexes.put(vertices.get(i), i);
+        }
+        for (int i = 0; i < vertices.size(); i++) {
+            for (final Vertex w : graph.getAdjacencyList().get(vertices.get(i))) {
+                edges.add(new int[] { i, indexes.get(w) });
+            }
+        }
+
+        edgeSources = edges.stream().mapToInt(e -> e[0]).toArray();
+        edgeTargets = edges.stream().mapToInt(e -> e[1]).toArray();
+        x = new double[vertices.size()];
+        y = new double[vertices.size()];
+        width = new double[vertices.size()];
+        height = new double[vertices.size()];
+        edgePaths = new double[edges.size()][];
+
+        for (int i = 0; i < vertices.size(); i++) {
+            final Vertex vertex = vertices.get(i);
+            final double scale = vertex.getWeight() == null ? 1 : 1 + Math.log10(vertex.getWeight() + 1) / 2;
+
+            width[i] = Math.max(DEFAULT_NODE_WIDTH * scale, vertex.getName().length() * CHARACTER_WIDTH + LABEL_PADDING);
+            height[i] = DEFAULT_NODE_HEIGHT * scale;
+        }
+    }
+
+    int getVertexCount() {
+        return vertices.size();
+    }
+
+    int getEdgeCount() {
+        return edgeSources.length;
+    }
+
+    /**
+     * Sets the path of an edge, once its vertices are placed. A path is a list of x, y pairs going from the
+     * border of the source ellipse, through the bends, to the border of the target ellipse. An edge from a
+     * vertex to itself becomes a small loop on the right of the vertex
+     * @param edge The position of the edge
+     * @param bends The x, y pairs the edge passes through, between its vertices (empty array if none)
+     */
+    void setEdgePath(int edge, double[] bends) {
+        final int source = edgeSources[edge];
+        final int target = edgeTargets[edge];
+
+        if (source == target) {
+            final double right = x[source] + width[source] / 2;
+            edgePaths[edge] = new double[] { right, y[source] - LOOP_SIZE / 3,
+                                             right + LOOP_SIZE, y[source] - LOOP_SIZE,
+                                             right + LOOP_SIZE, y[source] + LOOP_SIZE,
+                                             right, y[source] + LOOP_SIZE / 3 };
+            return;
+        }
+
+        final double[] path = new double[bends.length + 4];
+        System.arraycopy(bends, 0, path, 2, bends.length);
+
+        final double firstX = bends.length > 0 ? bends[0] : x[target];
+        final double firstY = bends.length > 0 ? bends[1] : y[target];
+        final double lastX = bends.length > 0 ? bends[bends.length - 2] : x[source];
+        final double lastY = bends.length > 0 ? bends[bends.length - 1] : y[source];
+
+        clip(source, firstX, firstY, path, 0);
+        clip(target, lastX, lastY, path, path.length - 2);
+        edgePaths[edge] = path;
+    }
+
+    /**
+     * Provides the width of the whole drawing, including the margins
+     * @return The width found
+     */
+    double getDrawingWidth() {
+        double right = 0;
+
+        for (int i = 0; i < x.length; i++) {
+            right = Math.max(right, x[i] + width[i] / 2 + LOOP_SIZE);
+        }
+        for (final double[] path : edgePaths) {
+            for (int p = 0; p < path.length; p += 2) {
+                right = Math.max(right, path[p]);
+            }
+        }
+
+        return right + MARGIN;
+    }
+
+    /**
+     * Provides the height of the whole drawing, including the margins
+     * @return The height found
+     */
+    double getDrawingHeight() {
+        double bottom = 0;
+
+        for (int i = 0; i < y.length; i++) {
+            bottom = Math.max(bottom, y[i] + height[i] / 2 + LOOP_SIZE);
+        }
+        for (final double[] path : edgePaths) {
+            for (int p = 1; p < path.length; p += 2) {
+                bottom = Math.max(bottom, path[p]);
+            }
+        }
+
+        return bottom + MARGIN;
+    }
+
+    /**
+     * Moves every vertex so the leftmost and topmost borders lie on the margins
+     */
+    void normalize() {
+        double left = Double.MAX_VALUE;
+        double top = Double.MAX_VALUE;
+
+        for (int i = 0; i < x.length; i++) {
+            left = Math.min(left, x[i] - width[i] / 2);
+            top = Math.min(top, y[i] - height[i] / 2);
+        }
+        for (int i = 0; i < x.length; i++) {
+            x[i] += MARGIN - left;
+            y[i] += MARGIN - top;
+        }
+    }
+
+    /**
+     * Finds where the line from the center of a vertex towards a point crosses the vertex's ellipse
+     * @param vertex The position of the vertex
+     * @param towardsX The x of the point
+     * @param towardsY The y of the point
+     * @param path The path where the crossing point is written
+     * @param position The position in the path where the crossing point is written
+     */
+    private void clip(int vertex, double towardsX, double towardsY, double[] path, int position) {
+        final double dx = towardsX - x[vertex];
+        final double dy = towardsY - y[vertex];
+        final double a = width[vertex] / 2;
+        final double b = height[vertex] / 2;
+        final double distance = Math.sqrt((dx / a) * (dx / a) + (dy / b) * (dy / b));
+
+        if (distance <= 1) {
+            path[position] = x[vertex];
+            path[position + 1] = y[vertex];
+        } else {
+            path[position] = x[vertex] + dx / distance;
+            path[position + 1] = y[vertex] + dy / distance;
+        }
+    }
+}
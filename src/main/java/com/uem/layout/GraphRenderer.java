@@ -0,0 +1,29 @@
+package com.uem.layout;
+
+/**
+ * Provides all the ways in which the image of the Graph model can be drawn
+ *
+ * @author zessin
+ */
+public enum GraphRenderer {
+    /** The DOT code is rendered by the external Graphviz executable */
+    GRAPHVIZ,
+    /** The Graph is laid out and written as SVG inside the application, without any external executable */
+    JAVA;
+
+    /**
+     * Returns the correct GraphRenderer according to the property in the properties file
+     * @param graphRendererProperty The value of the property in the file
+     * @return The correct GraphRenderer for the property (null if not found)
+     */
+    public static GraphRenderer getGraphRendererByProperty(String graphRendererProperty) {
+        switch (graphRendererProperty.toUpperCase()) {
+            case "GRAPHVIZ":
+                return GRAPHVIZ;
+            case "JAVA":
+                return JAVA;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package com.uem.layout;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Lays out a Graph in layers, the way dot does for graphs which are mostly acyclic (Sugiyama style):
+ * <ol>
+ * <li>the edges which close a cycle are reversed, found by a depth first search;</li>
+ * <li>every vertex is put in a layer, the referenced tables above the tables referencing them;</li>
+ * <li>the edges spanning several layers are split by dummy vertices, one per layer crossed;</li>
+ * <li>the vertices of each layer are ordered by the barycenters of their neighbours, sweeping down
+ * and up the layers, and the order with the fewest crossings is kept;</li>
+ * <li>each vertex is moved towards its neighbours, without overlapping the others of its layer.</li>
+ * </ol>
+ * The edges then bend at their dummy vertices
+ *
+ * @author zessin
+ */
+class LayeredLayout {
+    private static final double LAYER_GAP       = 70;
+    private static final double NODE_GAP        = 30;
+    private static final double DUMMY_WIDTH     = 10;
+    private static final int ORDERING_SWEEPS    = 24;
+    private static final int POSITIONING_SWEEPS = 8;
+
+    private final GraphLayout layout;
+    private final boolean[] reversed;
+    private int reversedCount;
+    private int edgeCount;
+
+    private final List<Integer> layerOf;
+    private final List<Double> nodeWidths;
+    private final List<List<Integer>> upNeighbours;
+    private final List<List<Integer>> downNeighbours;
+    private final List<List<Integer>> layers;
+    private final int[][] chains;
+    private int[] positions;
+    private double[] nodeX;
+    private double[] layerY;
+
+    /**
+     * Initializes the layout, finding the edges which close a cycle
+     * @param layout The GraphLayout whose vertices and edges are placed
+     */
+    LayeredLayout(GraphLayout layout) {
+        super();
+        this.layout = layout;
+        reversed = new boolean[layout.getEdgeCount()];
+        layerOf = new ArrayList<>();
+        nodeWidths = new ArrayList<>();
+        upNeighbours = new ArrayList<>();
+        downNeighbours = new ArrayList<>();
+        layers = new ArrayList<>();
+        chains = new int[layout.getEdgeCount()][];
+
+        removeCycles();
+    }
+
+    /**
+     * Tells how far the Graph is from being acyclic
+     * @return The fraction of the edges (between different vertices) which had to be reversed
+     */
+    double getReversedRatio() {
+        return edgeCount == 0 ? 0 : (double) reversedCount / edgeCount;
+    }
+
+    /**
+     * Places every vertex and edge of the GraphLayout
+     */
+    void apply() {
+        addNodes(assignLayers());
+        orderLayers();
+        placeNodes();
+        routeEdges();
+    }
+
+    /**
+     * Reverses the edges which reach a vertex still being visited by a depth first search,
+     * which leaves the Graph acyclic
+     */
+    private void removeCycles() {
+        final int vertexCount = layout.getVertexCount();
+        final List<List<Integer>> outEdges = new ArrayList<>();
+        final int[] state = new int[vertexCount];
+
+        for (int v = 0; v < vertexCount; v++) {
+            outEdges.add(new ArrayList<>());
+        }
+        for (int e = 0; e < layout.getEdgeCount(); e++) {
+            if (layout.edgeSources[e] != layout.edgeTargets[e]) {
+                outEdges.get(layout.edgeSources[e]).add(e);
+                edgeCount++;
+            }
+        }
+
+        for (int root = 0; root < vertexCount; root++) {
+            if (state[root] != 0) {
+                continue;
+            }
+
+            final Deque<int[]> stack = new ArrayDeque<>();
+            stack.push(new int[] { root, 0 });
+            state[root] = 1;
+
+            while (!stack.isEmpty()) {
+                final int[] top = stack.peek();
+                final List<Integer> edges = outEdges.get(top[0]);
+
+                if (top[1] == edges.size()) {
+                    state[top[0]] = 2;
+                    stack.pop();
+                    continue;
+                }
+
+                final int e = edges.get(top[1]++);
+                final int w = layout.edgeTargets[e];
+
+                if (state[w] == 1) {
+                    reversed[e] = true;
+                    reversedCount++;
+                } else if (state[w] == 0) {
+                    state[w] = 1;
+                    stack.push(new int[] { w, 0 });
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts every vertex in a layer: the vertices without outgoing edges (the tables which reference
+     * no other) in the first one, and every other vertex one layer below the lowest vertex it points to
+     * @return The layer of every vertex
+     */
+    private int[] assignLayers() {
+        final int vertexCount = layout.getVertexCount();
+        final int[] layer = new int[vertexCount];
+        final int[] outCount = new int[vertexCount];
+        final List<List<Integer>> inEdges = new ArrayList<>();
+        final Deque<Integer> queue = new ArrayDeque<>();
+
+        for (int v = 0; v < vertexCount; v++) {
+            inEdges.add(new ArrayList<>());
+        }
+        for (int e = 0; e < layout.getEdgeCount(); e++) {
+            if (layout.edgeSources[e] != layout.edgeTargets[e]) {
+                outCount[from(e)]++;
+                inEdges.get(to(e)).add(e);
+            }
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            if (outCount[v] == 0) {
+                queue.add(v);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            final int w = queue.poll();
+
+            for (final int e : inEdges.get(w)) {
+                final int u = from(e);
+
+                layer[u] = Math.max(layer[u], layer[w] + 1);
+                if (--outCount[u] == 0) {
+                    queue.add(u);
+                }
+            }
+        }
+
+        return layer;
+    }
+
+    /**
+     * Creates the nodes of the layers: one for every vertex, and a dummy one for every layer crossed by an edge
+     * @param layer The layer of every vertex
+     */
+    private void addNodes(int[] layer) {
+        for (int v = 0; v < layout.getVertexCount(); v++) {
+            addNode(layer[v], layout.width[v]);
+        }
+
+        for (int e = 0; e < layout.getEdgeCount(); e++) {
+            if (layout.edgeSources[e] == layout.edgeTargets[e]) {
+                continue;
+            }
+
+            final int top = to(e);
+            final int bottom = from(e);
+            final int[] chain = new int[layer[bottom] - layer[top] + 1];
+
+            chain[0] = top;
+            for (int i = 1; i < chain.length - 1; i++) {
+                chain[i] = addNode(layer[top] + i, DUMMY_WIDTH);
+            }
+            chain[chain.length - 1] = bottom;
+
+            for (int i = 1; i < chain.length; i++) {
+                downNeighbours.get(chain[i - 1]).add(chain[i]);
+                upNeighbours.get(chain[i]).add(chain[i - 1]);
+            }
+            chains[e] = chain;
+        }
+
+        positions = new int[layerOf.size()];
+        for (final List<Integer> nodes : layers) {
+            for (int i = 0; i < nodes.size(); i++) {
+                positions[nodes.get(i)] = i;
+            }
+        }
+    }
+
+    /**
+     * Adds a node at the end of a layer
+     * @param layer The layer of the node
+     * @param width The width of the node
+     * @return The number of the node
+     */
+    private int addNode(int layer, double width) {
+        final int node = layerOf.size();
+
+        while (layers.size() <= layer) {
+            layers.add(new ArrayList<>());
+        }
+
+        layerOf.add(layer);
+        nodeWidths.add(width);
+        upNeighbours.add(new ArrayList<>());
+        downNeighbours.add(new ArrayList<>());
+        layers.get(layer).add(node);
+
+        return node;
+    }
+
+    /**
+     * Orders the nodes of every layer by the barycenters of their neighbours in the previous layer (sweeping down)
+     * or in the next layer (sweeping up), keeping the order with the fewest crossings
+     */
+    private void orderLayers() {
+        List<List<Integer>> bestLayers = copyLayers();
+        long bestCrossings = countCrossings();
+
+        for (int sweep = 0; sweep < ORDERING_SWEEPS && bestCrossings > 0; sweep++) {
+            if (sweep % 2 == 0) {
+                for (int k = 1; k < layers.size(); k++) {
+                    orderByBarycenter(layers.get(k), upNeighbours);
+                }
+            } else {
+                for (int k = layers.size() - 2; k >= 0; k--) {
+                    orderByBarycenter(layers.get(k), downNeighbours);
+                }
+            }
+
+            final long crossings = countCrossings();
+            if (crossings < bestCrossings) {
+                bestCrossings = crossings;
+                bestLayers = copyLayers();
+            }
+        }
+
+        for (int k = 0; k < layers.size(); k++) {
+            layers.set(k, bestLayers.get(k));
+            for (int i = 0; i < layers.get(k).size(); i++) {
+                positions[layers.get(k).get(i)] = i;
+            }
+        }
+    }
+
+    /**
+     * Sorts the nodes of a layer by the average position of their neighbours. A node without
+     * neighbours keeps its own position as its barycenter
+     * @param nodes The nodes of the layer
+     * @param neighbours The neighbours of every node in the adjacent layer
+     */
+    private void orderByBarycenter(List<Integer> nodes, List<List<Integer>> neighbours) {
+        final double[] barycenters = new double[layerOf.size()];
+
+        for (final int node : nodes) {
+            final List<Integer> adjacent = neighbours.get(node);
+            barycenters[node] = adjacent.isEmpty() ? positions[node] :
+                                adjacent.stream().mapToInt(n -> positions[n]).average().getAsDouble();
+        }
+
+        nodes.sort((a, b) -> Double.compare(barycenters[a], barycenters[b]));
+        for (int i = 0; i < nodes.size(); i++) {
+            positions[nodes.get(i)] = i;
+        }
+    }
+
+    /**
+     * Counts the crossings between the segments of every pair of adjacent layers: with the segments
+     * sorted by their upper ends, each pair whose lower ends are inverted is a crossing, counted
+     * with a Fenwick tree
+     * @return The number of crossings
+     */
+    private long countCrossings() {
+        long crossings = 0;
+
+        for (int k = 0; k < layers.size() - 1; k++) {
+            final List<long[]> segments = new ArrayList<>();
+
+            for (final int upper : layers.get(k)) {
+                for (final int lower : downNeighbours.get(upper)) {
+                    segments.add(new long[] { positions[upper], positions[lower] });
+                }
+            }
+
+            segments.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+            final int size = layers.get(k + 1).size();
+            final int[] tree = new int[size + 1];
+            int inserted = 0;
+
+            for (final long[] segment : segments) {
+                int notGreater = 0;
+                for (int i = (int) segment[1] + 1; i > 0; i -= i & -i) {
+                    notGreater += tree[i];
+                }
+                crossings += inserted - notGreater;
+
+                for (int i = (int) segment[1] + 1; i <= size; i += i & -i) {
+                    tree[i]++;
+                }
+                inserted++;
+            }
+        }
+
+        return crossings;
+    }
+
+    /**
+     * Places the layers one below the other, and moves the nodes of each layer towards their neighbours
+     * in the adjacent layers, sweeping down and up the layers
+     */
+    private void placeNodes() {
+        nodeX = new double[layerOf.size()];
+        layerY = new double[layers.size()];
+
+        double top = GraphLayout.MARGIN;
+        for (int k = 0; k < layers.size(); k++) {
+            double layerHeight = 0;
+            for (final int node : layers.get(k)) {
+                if (node < layout.getVertexCount()) {
+                    layerHeight = Math.max(layerHeight, layout.height[node]);
+                }
+            }
+
+            layerY[k] = top + layerHeight / 2;
+            top += layerHeight + LAYER_GAP;
+
+            double left = 0;
+            for (final int node : layers.get(k)) {
+                nodeX[node] = left + nodeWidths.get(node) / 2;
+                left += nodeWidths.get(node) + NODE_GAP;
+            }
+        }
+
+        for (int sweep = 0; sweep < POSITIONING_SWEEPS; sweep++) {
+            if (sweep % 2 == 0) {
+                for (int k = 1; k < layers.size(); k++) {
+                    moveTowardsNeighbours(layers.get(k), upNeighbours);
+                }
+            } else {
+                for (int k = layers.size() - 2; k >= 0; k--) {
+                    moveTowardsNeighbours(layers.get(k), downNeighbours);
+                }
+            }
+        }
+
+        double left = Double.MAX_VALUE;
+        for (int node = 0; node < nodeX.length; node++) {
+            left = Math.min(left, nodeX[node] - nodeWidths.get(node) / 2);
+        }
+
+        for (int node = 0; node < nodeX.length; node++) {
+            nodeX[node] += GraphLayout.MARGIN - left;
+        }
+        for (int v = 0; v < layout.getVertexCount(); v++) {
+            layout.x[v] = nodeX[v];
+            layout.y[v] = layerY[layerOf.get(v)];
+        }
+    }
+
+    /**
+     * Moves the nodes of a layer as close as possible to the average position of their neighbours,
+     * keeping their order and their gaps. The closest positions from the left and from the right
+     * are found separately, and each node takes the middle of both
+     * @param nodes The nodes of the layer
+     * @param neighbours The neighbours of every node in the adjacent layer
+     */
+    private void moveTowardsNeighbours(List<Integer> nodes, List<List<Integer>> neighbours) {
+        final int size = nodes.size();
+        final double[] desired = new double[size];
+        final double[] fromLeft = new double[size];
+        final double[] fromRight = new double[size];
+
+        for (int i = 0; i < size; i++) {
+            final List<Integer> adjacent = neighbours.get(nodes.get(i));
+            desired[i] = adjacent.isEmpty() ? nodeX[nodes.get(i)] : adjacent.stream().mapToDouble(n -> nodeX[n]).average().getAsDouble();
+        }
+
+        for (int i = 0; i < size; i++) {
+            fromLeft[i] = i == 0 ? desired[i] : Math.max(desired[i], fromLeft[i - 1] + separation(nodes.get(i - 1), nodes.get(i)));
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            fromRight[i] = i == size - 1 ? desired[i] : Math.min(desired[i], fromRight[i + 1] - separation(nodes.get(i), nodes.get(i + 1)));
+        }
+        for (int i = 0; i < size; i++) {
+            nodeX[nodes.get(i)] = (fromLeft[i] + fromRight[i]) / 2;
+        }
+    }
+
+    /**
+     * Provides the smallest distance between the centers of two nodes side by side
+     * @param left The node on the left
+     * @param right The node on the right
+     * @return The distance
+     */
+    private double separation(int left, int right) {
+        return (nodeWidths.get(left) + nodeWidths.get(right)) / 2 + NODE_GAP;
+    }
+
+    /**
+     * Sets the path of every edge, bending at its dummy nodes, from its source vertex to its target vertex
+     */
+    private void routeEdges() {
+        for (int e = 0; e < layout.getEdgeCount(); e++) {
+            final int[] chain = chains[e];
+
+            if (chain == null) {
+                layout.setEdgePath(e, new double[0]);
+                continue;
+            }
+
+            final double[] bends = new double[(chain.length - 2) * 2];
+
+            for (int i = 1; i < chain.length - 1; i++) {
+                final int node = reversed[e] ? chain[i] : chain[chain.length - 1 - i];
+                bends[(i - 1) * 2] = nodeX[node];
+                bends[(i - 1) * 2 + 1] = layerY[layerOf.get(node)];
+            }
+
+            layout.setEdgePath(e, bends);
+        }
+    }
+
+    /**
+     * Provides a copy of the order of every layer
+     * @return The copy
+     */
+    private List<List<Integer>> copyLayers() {
+        final List<List<Integer>> copy = new ArrayList<>();
+        layers.forEach(l -> copy.add(new ArrayList<>(l)));
+        return copy;
+    }
+
+    /**
+     * Provides the vertex an edge starts from, once the cycles are removed
+     * @param edge The position of the edge
+     * @return The vertex found
+     */
+    private int from(int edge) {
+        return reversed[edge] ? layout.edgeTargets[edge] : layout.edgeSources[edge];
+    }
+
+    /**
+     * Provides the vertex an edge ends at, once the cycles are removed
+     * @param edge The position of the edge
+     * @return The vertex found
+     */
+    private int to(int edge) {
+        return reversed[edge] ? layout.edgeSources[edge] : layout.edgeTargets[edge];
+    }
+}
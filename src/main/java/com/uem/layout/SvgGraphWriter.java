@@ -0,0 +1,210 @@
+package com.uem.layout;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.uem.graph.Graph;
+import com.uem.graph.Vertex;
+import com.uem.util.ApplicationLogger;
+import com.uem.util.ChannelTextWriter;
+
+/**
+ * Draws the Graph model as an SVG image without the Graphviz executable. The Graph is drawn in layers
+ * when it's mostly acyclic, as most schemas are, and by simulating forces otherwise. The vertices look
+ * like the ones rendered from the DOT code: grey ellipses with the name of the table and its number of rows
+ *
+ * @author zessin
+ */
+public class SvgGraphWriter {
+    private static final double MAX_REVERSED_RATIO = 0.1;
+    private static final double FONT_SIZE          = 14;
+    private static final double LINE_HEIGHT        = 16;
+
+    private final Graph graph;
+
+    /**
+     * Initializes the writer for a Graph
+     * @param graph The Graph to be drawn
+     */
+    public SvgGraphWriter(Graph graph) {
+        super();
+        this.graph = graph;
+    }
+
+    /**
+     * Lays out the Graph and writes its image
+     * @param svgFile The File where the image is written
+     * @throws IOException When the File couldn't be written for some reason
+     */
+    public void write(File svgFile) throws IOException {
+        final long start = System.currentTimeMillis();
+        final GraphLayout layout = new GraphLayout(graph);
+        final LayeredLayout layeredLayout = new LayeredLayout(layout);
+
+        if (layeredLayout.getReversedRatio() <= MAX_REVERSED_RATIO) {
+            layeredLayout.apply();
+            ApplicationLogger.info(String.format("Graph laid out in layers in %d ms", System.currentTimeMillis() - start));
+        } else {
+            new ForceDirectedLayout(layout).apply();
+            ApplicationLogger.info(String.format("Graph has %.0f%% of its edges in cycles, laid out by forces in %d ms",
+                                                 layeredLayout.getReversedRatio() * 100, System.currentTimeMillis() - start));
+        }
+
+        try (ChannelTextWriter out = ChannelTextWriter.open(svgFile)) {
+            writeDocument(out, layout);
+        }
+
+        ApplicationLogger.info(String.format("Image written into file %s (%d bytes)", svgFile.getAbsolutePath(), svgFile.length()));
+    }
+
+    /**
+     * Writes the whole SVG document: the edges first, so the vertices are drawn over their ends
+     * @param out The writer of the SVG file
+     * @param layout The positions of the vertices and edges
+     * @throws IOException When the SVG file couldn't be written for some reason
+     */
+    private void writeDocument(ChannelTextWriter out, GraphLayout layout) throws IOException {
+        final double width = layout.getDrawingWidth();
+        final double height = layout.getDrawingHeight();
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>").newLine();
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+        writeDecimal(out, width);
+        out.write("pt\" height=\"");
+        writeDecimal(out, height);
+        out.write("pt\" viewBox=\"0 0 ");
+        writeDecimal(out, width);
+        out.write(' ');
+        writeDecimal(out, height);
+        out.write("\" font-family=\"Times,serif\" font-size=\"");
+        writeDecimal(out, FONT_SIZE);
+        out.write("\">").newLine();
+
+        out.write("  <defs>").newLine();
+        out.write("    <marker id=\"arrow\" viewBox=\"0 0 10 10\" refX=\"10\" refY=\"5\" markerWidth=\"8\" markerHeight=\"8\" orient=\"auto\">").newLine();
+        out.write("      <path d=\"M0,0 L10,5 L0,10 z\"/>").newLine();
+        out.write("    </marker>").newLine();
+        out.write("  </defs>").newLine();
+        out.write("  <rect width=\"100%\" height=\"100%\" fill=\"white\"/>").newLine();
+
+        out.write("  <g fill=\"none\" stroke=\"black\">").newLine();
+        for (final double[] path : layout.edgePaths) {
+            out.write("    <polyline marker-end=\"url(#arrow)\" points=\"");
+            for (int p = 0; p < path.length; p += 2) {
+                if (p > 0) {
+                    out.write(' ');
+                }
+                writeDecimal(out, path[p]);
+                out.write(',');
+                writeDecimal(out, path[p + 1]);
+            }
+            out.write("\"/>").newLine();
+        }
+        out.write("  </g>").newLine();
+
+        out.write("  <g text-anchor=\"middle\">").newLine();
+        for (int v = 0; v < layout.getVertexCount(); v++) {
+            writeVertex(out, layout, v);
+        }
+        out.write("  </g>").newLine();
+        out.write("</svg>").newLine();
+    }
+
+    /**
+     * Writes a vertex: its ellipse, its name and, when known, its number of rows
+     * @param out The writer of the SVG file
+     * @param layout The positions of the vertices and edges
+     * @param v The position of the vertex
+     * @throws IOException When the SVG file couldn't be written for some reason
+     */
+    private void writeVertex(ChannelTextWriter out, GraphLayout layout, int v) throws IOException {
+        final Vertex vertex = layout.vertices.get(v);
+        final double nameY = vertex.getWeight() == null ? layout.y[v] + FONT_SIZE / 3 : layout.y[v] - LINE_HEIGHT / 2 + FONT_SIZE / 3;
+
+        out.write("    <g><title>");
+        writeEscaped(out, vertex.getName());
+        out.write("</title>").newLine();
+
+        out.write("      <ellipse fill=\"lightgrey\" stroke=\"black\" cx=\"");
+        writeDecimal(out, layout.x[v]);
+        out.write("\" cy=\"");
+        writeDecimal(out, layout.y[v]);
+        out.write("\" rx=\"");
+        writeDecimal(out, layout.width[v] / 2);
+        out.write("\" ry=\"");
+        writeDecimal(out, layout.height[v] / 2);
+        out.write("\"/>").newLine();
+
+        writeText(out, layout.x[v], nameY);
+        writeEscaped(out, vertex.getName());
+        out.write("</text>").newLine();
+
+        if (vertex.getWeight() != null) {
+            writeText(out, layout.x[v], nameY + LINE_HEIGHT);
+            out.write(vertex.getWeight().longValue()).write(" rows</text>").newLine();
+        }
+
+        out.write("    </g>").newLine();
+    }
+
+    /**
+     * Writes the start of a text element
+     * @param out The writer of the SVG file
+     * @param x The x of the center of the text
+     * @param y The y of the baseline of the text
+     * @throws IOException When the SVG file couldn't be written for some reason
+     */
+    private static void writeText(ChannelTextWriter out, double x, double y) throws IOException {
+        out.write("      <text x=\"");
+        writeDecimal(out, x);
+        out.write("\" y=\"");
+        writeDecimal(out, y);
+        out.write("\">");
+    }
+
+    /**
+     * Writes a text escaping the XML special characters
+     * @param out The writer of the SVG file
+     * @param text The text to be written
+     * @throws IOException When the SVG file couldn't be written for some reason
+     */
+    private static void writeEscaped(ChannelTextWriter out, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            final char character = text.charAt(i);
+
+            switch (character) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '"':
+                    out.write("&quot;");
+                    break;
+                default:
+                    if (character >= 0x20) {
+                        out.write(character);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Writes a number with one decimal place, the same way %.1f would
+     * @param out The writer of the SVG file
+     * @param value The number to be written
+     * @throws IOException When the SVG file couldn't be written for some reason
+     */
+    private static void writeDecimal(ChannelTextWriter out, double value) throws IOException {
+        final long tenths = Math.round(value * 10);
+
+        if (tenths < 0) {
+            out.write('-');
+        }
+        out.write(Math.abs(tenths) / 10).write('.').write(Math.abs(tenths) % 10);
+    }
+}
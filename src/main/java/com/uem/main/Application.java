@@ -1,6 +1,7 @@
 package com.uem.main;
 
 import com.uem.util.ApplicationLogger;
+import com.uem.util.PropertiesHelper;
 
 /**
  * The Main class of the application. Responsible for initializing all the process.
@@ -13,14 +14,18 @@ public class Application {
             System.out.println("Starting the application...");
             ApplicationLogger.info("Application started");
 
+            PropertiesHelper.initialize(args);
+            ApplicationLogger.setLevel(PropertiesHelper.getLogLevel());
             new RelationalToGraph().execute();
 
             System.out.println(String.format("Application ended. Check %s file for detailed information of the execution.", ApplicationLogger.LOG_FILE_NAME));
             ApplicationLogger.info("Application ended. Check above lines for detailed information.");
+            ApplicationLogger.shutdown();
             System.exit(0);
         } catch (final IllegalStateException ex) {
             System.out.println(String.format("Failure! Check %s file for detailed information of the execution.", ApplicationLogger.LOG_FILE_NAME));
             ApplicationLogger.error("Application ended with errors. Check above lines for detailed information.");
+            ApplicationLogger.shutdown();
             System.exit(1);
         }
     }
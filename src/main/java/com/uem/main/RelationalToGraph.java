@@ -1,11 +1,29 @@
 package com.uem.main;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
 
 import com.uem.dbstructure.DatabaseInfo;
+import com.uem.export.GraphMLStreamWriter;
+import com.uem.export.GraphStreamExporter;
+import com.uem.export.GraphStreamWriter;
+import com.uem.export.JsonGraphStreamWriter;
 import com.uem.graph.Graph;
 import com.uem.graphviz.GraphvizCodeGenerator;
+import com.uem.layout.GraphRenderer;
+import com.uem.layout.SvgGraphWriter;
+import com.uem.metrics.Metrics;
+import com.uem.migration.BulkImportCsvWriter;
+import com.uem.migration.CypherScriptWriter;
+import com.uem.migration.DataMigrator;
+import com.uem.migration.ExportFormat;
+import com.uem.migration.GraphRecordWriter;
+import com.uem.migration.MigrationMode;
+import com.uem.migration.MigrationVerifier;
+import com.uem.migration.StreamingGraphRecordWriter;
 import com.uem.util.ApplicationLogger;
+import com.uem.util.PropertiesHelper;
 
 /**
  * Responsible for calling all the necessary methods in an organized way,
@@ -14,6 +32,9 @@ import com.uem.util.ApplicationLogger;
  * @author zessin
  */
 public class RelationalToGraph {
+    private static final String GRAPH_FILE_NAME = "graph";
+    private static final String DATA_FILE_NAME  = "data";
+
     private final DatabaseInfo databaseInfo;
 
     /**
@@ -33,12 +54,43 @@ public class RelationalToGraph {
             databaseInfo.loadDatabaseInformation();
 
             System.out.println("Generating graph for database...");
-            final Graph graph = new Graph(databaseInfo, true);
+            final Graph graph = Metrics.time(Metrics.PHASE_GRAPH_BUILD, () -> new Graph(databaseInfo, true));
+
             final GraphvizCodeGenerator graphvizCodeGenerator = new GraphvizCodeGenerator(graph);
-            graphvizCodeGenerator.generateCode();
+            Metrics.time(Metrics.PHASE_DOT_GENERATION, graphvizCodeGenerator::generateCode);
 
             System.out.println("Writing graph to file...");
-            graphvizCodeGenerator.writeGraphFile();
+            Metrics.time(Metrics.PHASE_RENDER, () -> {
+                if (PropertiesHelper.getGraphRenderer() == GraphRenderer.JAVA) {
+                    new SvgGraphWriter(graph).write(new File(PropertiesHelper.getOutputPath(), GRAPH_FILE_NAME + ".svg"));
+                } else {
+                    graphvizCodeGenerator.writeGraphFile();
+                }
+            });
+
+            for (final ExportFormat graphExportFormat : PropertiesHelper.getGraphExportFormats()) {
+                System.out.println("Exporting graph as " + graphExportFormat + "...");
+                Metrics.time(Metrics.PHASE_GRAPH_EXPORT,
+                             () -> new GraphStreamExporter(graph).export(createStreamWriter(graphExportFormat, GRAPH_FILE_NAME)));
+            }
+
+            final ExportFormat exportFormat = PropertiesHelper.getDataExportFormat();
+
+            if (exportFormat != ExportFormat.NONE) {
+                final MigrationMode migrationMode = PropertiesHelper.getMigrationMode();
+
+                if (migrationMode == MigrationMode.INCREMENTAL && !exportFormat.supportsIncremental()) {
+                    throw new IllegalStateException("Incremental migration is not supported by the " + exportFormat + " format");
+                }
+
+                System.out.println(migrationMode == MigrationMode.INCREMENTAL ? "Migrating changed data..." : "Migrating data...");
+                final DataMigrator dataMigrator = new DataMigrator(databaseInfo, createRecordWriter(exportFormat, migrationMode), migrationMode);
+                Metrics.time(Metrics.PHASE_DATA_MIGRATION, dataMigrator::migrate);
+
+                if (PropertiesHelper.isMigrationVerified()) {
+                    Metrics.time(Metrics.PHASE_VERIFICATION, () -> verifyMigration(dataMigrator, exportFormat, migrationMode));
+                }
+            }
         } catch (final SQLException sqlEx) {
             ApplicationLogger.error("SQLException: " + sqlEx.getMessage());
             ApplicationLogger.error("SQLState: " + sqlEx.getSQLState());
@@ -53,6 +105,106 @@ public class RelationalToGraph {
 
                 databaseInfo.setResultSet(null);
             }
+
+            exportMetrics();
+        }
+    }
+
+    /**
+     * Writes the timings of the execution to the output path, when asked to.
+     * A failure to write them is only reported, as the execution itself is over
+     */
+    private void exportMetrics() {
+        if (!PropertiesHelper.isMetricsExportEnabled()) {
+            return;
+        }
+
+        try {
+            Metrics.export(new File(PropertiesHelper.getOutputPath()));
+            ApplicationLogger.info("Metrics written to " + new File(PropertiesHelper.getOutputPath()).getAbsolutePath());
+        } catch (final IOException ex) {
+            ApplicationLogger.warning("Could not write the metrics: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Verifies that the output of a full migration holds every node of the source tables
+     * @param dataMigrator The DataMigrator which carried out the migration
+     * @param exportFormat The format in which the data was exported
+     * @param migrationMode Whether all the rows were migrated or only the changed ones
+     * @throws SQLException When the source couldn't be queried for some reason
+     * @throws IOException When the output couldn't be read for some reason
+     */
+    private void verifyMigration(DataMigrator dataMigrator, ExportFormat exportFormat, MigrationMode migrationMode) throws SQLException, IOException {
+        if (migrationMode == MigrationMode.INCREMENTAL || !exportFormat.supportsVerification()) {
+            ApplicationLogger.warning("Verification is only available for full migrations in the CSV, GraphML and JSON formats, skipping it");
+            return;
         }
+
+        System.out.println("Verifying migrated data...");
+
+        final File output = exportFormat == ExportFormat.CSV ?
+                            new File(PropertiesHelper.getOutputPath(), BulkImportCsvWriter.IMPORT_DIR_NAME) :
+                            getDocumentFile(exportFormat, DATA_FILE_NAME);
+
+        if (new MigrationVerifier(dataMigrator.getMapping(), databaseInfo.getSchema(), exportFormat, output).verify()) {
+            System.out.println("Migrated data matches the source.");
+        } else {
+            System.out.println("Migrated data doesn't match the source, check results.log file for the mismatches.");
+        }
+    }
+
+    /**
+     * Creates the GraphRecordWriter which writes the migrated data in the desired format
+     * @param exportFormat The format in which the data is exported
+     * @param migrationMode Whether all the rows are migrated or only the changed ones
+     * @return The GraphRecordWriter for the format
+     * @throws IOException When the output file couldn't be opened for some reason
+     */
+    private GraphRecordWriter createRecordWriter(ExportFormat exportFormat, MigrationMode migrationMode) throws IOException {
+        switch (exportFormat) {
+            case CSV:
+                return new BulkImportCsvWriter(PropertiesHelper.getOutputPath(),
+                                               PropertiesHelper.getNodeIdMode(),
+                                               PropertiesHelper.getSortBufferMegabytes() * 1024 * 1024,
+                                               PropertiesHelper.getMaxSortBuffers());
+            case CYPHER:
+                return new CypherScriptWriter(PropertiesHelper.getOutputPath(),
+                                              PropertiesHelper.getCypherBatchSize(),
+                                              migrationMode == MigrationMode.INCREMENTAL);
+            case GRAPHML:
+            case JSON:
+                return new StreamingGraphRecordWriter(createStreamWriter(exportFormat, DATA_FILE_NAME));
+            default:
+                throw new IllegalStateException("Unsupported data export format: " + exportFormat);
+        }
+    }
+
+    /**
+     * Creates the GraphStreamWriter which writes a graph document in the desired format
+     * @param exportFormat The format of the document
+     * @param fileName The name of the document's file, without extension, in the output path
+     * @return The GraphStreamWriter for the format
+     * @throws IOException When the output file couldn't be opened for some reason
+     */
+    private GraphStreamWriter createStreamWriter(ExportFormat exportFormat, String fileName) throws IOException {
+        switch (exportFormat) {
+            case GRAPHML:
+                return new GraphMLStreamWriter(getDocumentFile(exportFormat, fileName));
+            case JSON:
+                return new JsonGraphStreamWriter(getDocumentFile(exportFormat, fileName));
+            default:
+                throw new IllegalStateException("Unsupported graph document format: " + exportFormat);
+        }
+    }
+
+    /**
+     * Provides the file of a graph document in the output path
+     * @param exportFormat The format of the document
+     * @param fileName The name of the document's file, without extension
+     * @return The File of the document
+     */
+    private File getDocumentFile(ExportFormat exportFormat, String fileName) {
+        return new File(PropertiesHelper.getOutputPath(), fileName + "." + exportFormat.name().toLowerCase());
     }
 }
@@ -0,0 +1,102 @@
+package com.uem.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in buckets bounded by fixed upper limits, from one millisecond to a minute,
+ * the way Prometheus histograms do. Recording a duration only increments a few counters,
+ * without any lock, so it may be done by any number of threads at once
+ *
+ * @author zessin
+ */
+public class LatencyHistogram {
+    static final double[] BUCKET_LIMITS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final AtomicLongArray bucketCounts;
+    private final AtomicLong count;
+    private final AtomicLong sumNanos;
+    private final AtomicLong maxNanos;
+
+    /**
+     * Initializes an empty histogram
+     */
+    LatencyHistogram() {
+        super();
+        bucketCounts = new AtomicLongArray(BUCKET_LIMITS.length + 1);
+        count = new AtomicLong();
+        sumNanos = new AtomicLong();
+        maxNanos = new AtomicLong();
+    }
+
+    /**
+     * Records a duration
+     * @param nanos The duration, in nanoseconds
+     */
+    public void record(long nanos) {
+        final double seconds = nanos / NANOS_PER_SECOND;
+        int bucket = 0;
+
+        while (bucket < BUCKET_LIMITS.length && seconds > BUCKET_LIMITS[bucket]) {
+            bucket++;
+        }
+
+        bucketCounts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Tells how many durations are at most the upper limit of a bucket
+     * @param bucket The position of the bucket (BUCKET_LIMITS.length for the one without limit)
+     * @return The number of durations, counted cumulatively as Prometheus does
+     */
+    long getCumulativeCount(int bucket) {
+        long cumulative = 0;
+
+        for (int i = 0; i <= bucket; i++) {
+            cumulative += bucketCounts.get(i);
+        }
+
+        return cumulative;
+    }
+
+    /**
+     * Estimates a percentile of the durations, as the upper limit of the bucket where it falls
+     * (the longest duration when it falls in the bucket without limit)
+     * @param percentile The percentile, between 0 and 1
+     * @return The estimate, in seconds (0 when nothing was recorded)
+     */
+    double getPercentileSeconds(double percentile) {
+        final long total = count.get();
+
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(percentile * total);
+
+        for (int bucket = 0; bucket < BUCKET_LIMITS.length; bucket++) {
+            if (getCumulativeCount(bucket) >= rank) {
+                return Math.min(BUCKET_LIMITS[bucket], getMaxSeconds());
+            }
+        }
+
+        return getMaxSeconds();
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    double getSumSeconds() {
+        return sumNanos.get() / NANOS_PER_SECOND;
+    }
+
+    double getMaxSeconds() {
+        return maxNanos.get() / NANOS_PER_SECOND;
+    }
+}
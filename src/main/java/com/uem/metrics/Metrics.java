@@ -0,0 +1,164 @@
+package com.uem.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Utility class which gathers the measures of an execution: how long each phase took, how long
+ * the database queries took, and how many rows were migrated from each table and how fast.
+ * The measures are written at the end of the execution by a MetricsReporter, as a JSON report
+ * and as a text file in the Prometheus exposition format
+ *
+ * @author zessin
+ */
+public final class Metrics {
+    public static final String PHASE_TABLES           = "tables";
+    public static final String PHASE_COLUMNS          = "columns";
+    public static final String PHASE_CONSTRAINTS      = "constraints";
+    public static final String PHASE_STATISTICS       = "statistics";
+    public static final String PHASE_RELATIONSHIPS    = "relationship_detection";
+    public static final String PHASE_GRAPH_BUILD      = "graph_build";
+    public static final String PHASE_DOT_GENERATION   = "dot_generation";
+    public static final String PHASE_RENDER           = "render";
+    public static final String PHASE_GRAPH_EXPORT     = "graph_export";
+    public static final String PHASE_DATA_MIGRATION   = "data_migration";
+    public static final String PHASE_VERIFICATION     = "verification";
+    public static final String QUERY_METADATA         = "metadata";
+    public static final String QUERY_TIMEOUT          = "timeout";
+    public static final String QUERY_STREAMING        = "streaming";
+
+    private static final long START_NANOS                        = System.nanoTime();
+    private static final Map<String, long[]> PHASES              = new LinkedHashMap<>();
+    private static final Map<String, LatencyHistogram> LATENCIES = new LinkedHashMap<>();
+    private static final Map<String, long[]> MIGRATED_TABLES     = new LinkedHashMap<>();
+
+    private Metrics() {
+        super();
+    }
+
+    /**
+     * Runs a phase of the execution and records how long it took, even when it fails
+     * @param phase The name of the phase
+     * @param body The work of the phase
+     * @throws SQLException When the phase failed to query the database
+     * @throws IOException When the phase failed to read or write some file
+     */
+    public static void time(String phase, Phase body) throws SQLException, IOException {
+        final long start = System.nanoTime();
+
+        try {
+            body.run();
+        } finally {
+            recordPhase(phase, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs a phase of the execution which produces a result and records how long it took, even when it fails
+     * @param phase The name of the phase
+     * @param body The work of the phase
+     * @return The result of the phase
+     * @throws SQLException When the phase failed to query the database
+     * @throws IOException When the phase failed to read or write some file
+     */
+    public static <T> T time(String phase, ResultPhase<T> body) throws SQLException, IOException {
+        final long start = System.nanoTime();
+
+        try {
+            return body.run();
+        } finally {
+            recordPhase(phase, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records how long a phase took. A phase run several times is recorded as their sum
+     * @param phase The name of the phase
+     * @param nanos The duration, in nanoseconds
+     */
+    public static void recordPhase(String phase, long nanos) {
+        synchronized (PHASES) {
+            final long[] phaseNanos = PHASES.computeIfAbsent(phase, p -> new long[2]);
+            phaseNanos[0] += nanos;
+            phaseNanos[1]++;
+        }
+    }
+
+    /**
+     * Provides the histogram of the durations of a kind of database query, creating it when needed
+     * @param kind The kind of query
+     * @return The LatencyHistogram of the kind of query
+     */
+    public static LatencyHistogram getQueryLatency(String kind) {
+        synchronized (LATENCIES) {
+            return LATENCIES.computeIfAbsent(kind, k -> new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records the rows migrated from a table, once it's finished
+     * @param table The name of the table
+     * @param rows The number of rows migrated
+     * @param nanos How long the table took to migrate, in nanoseconds
+     */
+    public static void recordMigratedRows(String table, long rows, long nanos) {
+        synchronized (MIGRATED_TABLES) {
+            final long[] tableRows = MIGRATED_TABLES.computeIfAbsent(table, t -> new long[2]);
+            tableRows[0] += rows;
+            tableRows[1] += nanos;
+        }
+    }
+
+    /**
+     * Writes the measures gathered so far into the JSON report and the Prometheus text file
+     * @param directory The directory where the files are written
+     * @throws IOException When some file couldn't be written for some reason
+     */
+    public static void export(File directory) throws IOException {
+        final MetricsReporter reporter;
+
+        synchronized (PHASES) {
+            synchronized (LATENCIES) {
+                synchronized (MIGRATED_TABLES) {
+                    reporter = new MetricsReporter(System.nanoTime() - START_NANOS,
+                                                   copy(PHASES),
+                                                   new LinkedHashMap<>(LATENCIES),
+                                                   copy(MIGRATED_TABLES));
+                }
+            }
+        }
+
+        reporter.writeJson(new File(directory, MetricsReporter.JSON_FILE_NAME));
+        reporter.writePrometheus(new File(directory, MetricsReporter.PROMETHEUS_FILE_NAME));
+    }
+
+    /**
+     * Copies a map of counters, so they can be read without holding its lock
+     * @param counters The counters, by name
+     * @return The copy, in the same order
+     */
+    private static Map<String, long[]> copy(Map<String, long[]> counters) {
+        final Map<String, long[]> copy = new LinkedHashMap<>();
+
+        counters.forEach((name, values) -> copy.put(name, values.clone()));
+        return copy;
+    }
+
+    /**
+     * The work of a phase, timed by Metrics.time
+     */
+    public interface Phase {
+        void run() throws SQLException, IOException;
+    }
+
+    /**
+     * The work of a phase which produces a result, timed by Metrics.time
+     * @param <T> The type of the result
+     */
+    public interface ResultPhase<T> {
+        T run() throws SQLException, IOException;
+    }
+}
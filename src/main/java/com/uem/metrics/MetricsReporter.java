@@ -0,0 +1,250 @@
+package com.uem.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+
+import com.uem.util.ChannelTextWriter;
+
+/**
+ * Writes the measures of an execution, as a JSON report meant to be read by people or scripts,
+ * and as a text file in the Prometheus exposition format, meant to be collected by the node
+ * exporter's textfile collector
+ *
+ * @author zessin
+ */
+class MetricsReporter {
+    static final String JSON_FILE_NAME       = "metrics.json";
+    static final String PROMETHEUS_FILE_NAME = "metrics.prom";
+
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double[] PERCENTILES    = { 0.5, 0.95, 0.99 };
+
+    private final long totalNanos;
+    private final Map<String, long[]> phases;
+    private final Map<String, LatencyHistogram> latencies;
+    private final Map<String, long[]> migratedTables;
+
+    /**
+     * Initializes the reporter with a copy of the measures
+     * @param totalNanos How long the execution took so far, from the start of its first phase, in nanoseconds
+     * @param phases The duration and the number of runs of every phase, by name
+     * @param latencies The histogram of every kind of database query
+     * @param migratedTables The rows migrated from every table and how long it took, by name
+     */
+    MetricsReporter(long totalNanos, Map<String, long[]> phases, Map<String, LatencyHistogram> latencies, Map<String, long[]> migratedTables) {
+        super();
+        this.totalNanos = totalNanos;
+        this.phases = phases;
+        this.latencies = latencies;
+        this.migratedTables = migratedTables;
+    }
+
+    /**
+     * Writes the JSON report
+     * @param file The File of the report
+     * @throws IOException When the File couldn't be written for some reason
+     */
+    void writeJson(File file) throws IOException {
+        try (ChannelTextWriter out = ChannelTextWriter.open(file)) {
+            out.write("{").newLine();
+            out.write("  \"total_seconds\": ").write(formatSeconds(totalNanos)).write(',').newLine();
+
+            out.write("  \"phases\": [");
+            String separator = "";
+            for (final Map.Entry<String, long[]> phase : phases.entrySet()) {
+                out.write(separator).newLine();
+                out.write("    { \"name\": \"").write(escapeJson(phase.getKey()))
+                   .write("\", \"seconds\": ").write(formatSeconds(phase.getValue()[0]))
+                   .write(", \"runs\": ").write(phase.getValue()[1]).write(" }");
+                separator = ",";
+            }
+            out.newLine().write("  ],").newLine();
+
+            out.write("  \"queries\": [");
+            separator = "";
+            for (final Map.Entry<String, LatencyHistogram> latency : latencies.entrySet()) {
+                final LatencyHistogram histogram = latency.getValue();
+
+                out.write(separator).newLine();
+                out.write("    { \"kind\": \"").write(escapeJson(latency.getKey()))
+                   .write("\", \"count\": ").write(histogram.getCount())
+                   .write(", \"sum_seconds\": ").write(formatDouble(histogram.getSumSeconds()))
+                   .write(", \"max_seconds\": ").write(formatDouble(histogram.getMaxSeconds()));
+                for (final double percentile : PERCENTILES) {
+                    out.write(", \"p").write(Math.round(percentile * 100)).write("_seconds\": ")
+                       .write(formatDouble(histogram.getPercentileSeconds(percentile)));
+                }
+                out.write(", \"buckets\": [");
+                for (int bucket = 0; bucket <= LatencyHistogram.BUCKET_LIMITS.length; bucket++) {
+                    out.write(bucket == 0 ? "" : ", ").write("{ \"le\": ").write(getBucketLabel(bucket, true))
+                       .write(", \"count\": ").write(histogram.getCumulativeCount(bucket)).write(" }");
+                }
+                out.write("] }");
+                separator = ",";
+            }
+            out.newLine().write("  ],").newLine();
+
+            long totalRows = 0;
+            long totalMigrationNanos = 0;
+
+            out.write("  \"migration\": {").newLine();
+            out.write("    \"tables\": [");
+            separator = "";
+            for (final Map.Entry<String, long[]> table : migratedTables.entrySet()) {
+                final long rows = table.getValue()[0];
+                final long nanos = table.getValue()[1];
+
+                out.write(separator).newLine();
+                out.write("      { \"name\": \"").write(escapeJson(table.getKey()))
+                   .write("\", \"rows\": ").write(rows)
+                   .write(", \"seconds\": ").write(formatSeconds(nanos))
+                   .write(", \"rows_per_second\": ").write(formatDouble(getRate(rows, nanos))).write(" }");
+                separator = ",";
+                totalRows += rows;
+                totalMigrationNanos += nanos;
+            }
+            out.newLine().write("    ],").newLine();
+
+            final long[] migrationPhase = phases.get(Metrics.PHASE_DATA_MIGRATION);
+            final long migrationNanos = migrationPhase != null ? migrationPhase[0] : totalMigrationNanos;
+
+            out.write("    \"rows\": ").write(totalRows).write(',').newLine();
+            out.write("    \"seconds\": ").write(formatSeconds(migrationNanos)).write(',').newLine();
+            out.write("    \"rows_per_second\": ").write(formatDouble(getRate(totalRows, migrationNanos))).newLine();
+            out.write("  }").newLine();
+            out.write("}").newLine();
+        }
+    }
+
+    /**
+     * Writes the Prometheus text file
+     * @param file The File of the text
+     * @throws IOException When the File couldn't be written for some reason
+     */
+    void writePrometheus(File file) throws IOException {
+        try (ChannelTextWriter out = ChannelTextWriter.open(file)) {
+            writeHeader(out, "rtg_run_duration_seconds", "gauge", "Time taken by the run, from the start of its first phase");
+            out.write("rtg_run_duration_seconds ").write(formatSeconds(totalNanos)).newLine();
+
+            writeHeader(out, "rtg_phase_duration_seconds", "gauge", "Time taken by each phase of the run");
+            for (final Map.Entry<String, long[]> phase : phases.entrySet()) {
+                out.write("rtg_phase_duration_seconds{phase=\"").write(escapeLabel(phase.getKey())).write("\"} ")
+                   .write(formatSeconds(phase.getValue()[0])).newLine();
+            }
+
+            writeHeader(out, "rtg_query_duration_seconds", "histogram", "Time taken by the database to execute each query");
+            for (final Map.Entry<String, LatencyHistogram> latency : latencies.entrySet()) {
+                final String kind = escapeLabel(latency.getKey());
+                final LatencyHistogram histogram = latency.getValue();
+
+                for (int bucket = 0; bucket <= LatencyHistogram.BUCKET_LIMITS.length; bucket++) {
+                    out.write("rtg_query_duration_seconds_bucket{kind=\"").write(kind).write("\",le=\"")
+                       .write(getBucketLabel(bucket, false)).write("\"} ").write(histogram.getCumulativeCount(bucket)).newLine();
+                }
+                out.write("rtg_query_duration_seconds_sum{kind=\"").write(kind).write("\"} ")
+                   .write(formatDouble(histogram.getSumSeconds())).newLine();
+                out.write("rtg_query_duration_seconds_count{kind=\"").write(kind).write("\"} ")
+                   .write(histogram.getCount()).newLine();
+            }
+
+            writeHeader(out, "rtg_migrated_rows", "gauge", "Rows migrated from each table");
+            for (final Map.Entry<String, long[]> table : migratedTables.entrySet()) {
+                out.write("rtg_migrated_rows{table=\"").write(escapeLabel(table.getKey())).write("\"} ")
+                   .write(table.getValue()[0]).newLine();
+            }
+
+            writeHeader(out, "rtg_migration_rows_per_second", "gauge", "Rows migrated per second from each table");
+            for (final Map.Entry<String, long[]> table : migratedTables.entrySet()) {
+                out.write("rtg_migration_rows_per_second{table=\"").write(escapeLabel(table.getKey())).write("\"} ")
+                   .write(formatDouble(getRate(table.getValue()[0], table.getValue()[1]))).newLine();
+            }
+        }
+    }
+
+    /**
+     * Writes the HELP and TYPE lines of a metric
+     * @param out The writer of the text file
+     * @param name The name of the metric
+     * @param type The type of the metric
+     * @param help The description of the metric
+     * @throws IOException When the text file couldn't be written for some reason
+     */
+    private static void writeHeader(ChannelTextWriter out, String name, String type, String help) throws IOException {
+        out.write("# HELP ").write(name).write(' ').write(help).newLine();
+        out.write("# TYPE ").write(name).write(' ').write(type).newLine();
+    }
+
+    /**
+     * Provides the upper limit of a bucket as written in the files
+     * @param bucket The position of the bucket
+     * @param json Whether the limit is written in the JSON report, where the bucket without limit is null
+     * @return The limit
+     */
+    private static String getBucketLabel(int bucket, boolean json) {
+        if (bucket == LatencyHistogram.BUCKET_LIMITS.length) {
+            return json ? "null" : "+Inf";
+        }
+
+        return Double.toString(LatencyHistogram.BUCKET_LIMITS[bucket]);
+    }
+
+    /**
+     * Computes how many rows were handled per second
+     * @param rows The number of rows
+     * @param nanos How long they took, in nanoseconds
+     * @return The rate (0 when no time was measured)
+     */
+    private static double getRate(long rows, long nanos) {
+        return nanos > 0 ? rows * NANOS_PER_SECOND / nanos : 0;
+    }
+
+    /**
+     * Formats a duration in seconds, with six decimal places
+     * @param nanos The duration, in nanoseconds
+     * @return The formatted duration
+     */
+    private static String formatSeconds(long nanos) {
+        return formatDouble(nanos / NANOS_PER_SECOND);
+    }
+
+    /**
+     * Formats a number with six decimal places, whatever the default locale
+     * @param value The number
+     * @return The formatted number
+     */
+    private static String formatDouble(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    /**
+     * Escapes the characters which can't appear as they are in a JSON string
+     * @param text The text to be escaped
+     * @return The escaped text
+     */
+    private static String escapeJson(String text) {
+        final StringBuilder escaped = new StringBuilder();
+
+        for (final char character : text.toCharArray()) {
+            if (character == '"' || character == '\\') {
+                escaped.append('\\').append(character);
+            } else if (character < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) character));
+            } else {
+                escaped.append(character);
+            }
+        }
+
+        return escaped.toString();
+    }
+
+    /**
+     * Escapes the characters which can't appear as they are in a Prometheus label value
+     * @param text The text to be escaped
+     * @return The escaped text
+     */
+    private static String escapeLabel(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
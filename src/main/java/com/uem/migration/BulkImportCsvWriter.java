@@ -0,0 +1,827 @@
+package com.uem.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.uem.dbstructure.Column;
+import com.uem.dbstructure.ColumnType;
+import com.uem.dbstructure.Table;
+import com.uem.index.ExternalMergeJoin;
+import com.uem.index.ExternalMergeJoin.JoinHandler;
+import com.uem.index.ExternalSorter;
+import com.uem.index.OffHeapBufferPool;
+import com.uem.index.RecordCursor;
+import com.uem.util.ApplicationLogger;
+import com.uem.util.ChannelTextWriter;
+
+/**
+ * Writes the nodes and relationships in the header plus CSV layout used by the offline
+ * bulk importers of graph databases (e.g. neo4j-admin import). Every label and every
+ * relationship type gets its own header file and data file, and an import.args file
+ * lists them all in the order the importer expects them. Node files are named after their label, and
+ * relationship files after the table which owns the foreign key and its type, since foreign key names are
+ * only unique per table; names which would collide, even only by their case, get a numbered suffix.
+ * <p>
+ * With sequential node identifiers, every node gets a number and its key is added to an off-heap
+ * index of its label, which spills sorted runs to disk. Relationships are spilled as well, sorted by
+ * the key of the node they reference, and resolved once all the nodes were written by an external
+ * merge join with the index (two joins when neither node is the row's own). Memory stays bounded by
+ * the sort buffers in use, whatever the size of the tables; the relationship data files are only
+ * written when the writer is closed
+ *
+ * @author zessin
+ */
+public class BulkImportCsvWriter implements ResumableRecordWriter {
+    public static final String IMPORT_DIR_NAME        = "import";
+    private static final String NODES_DIR_NAME        = "nodes";
+    private static final String RELATIONSHIPS_DIR_NAME = "relationships";
+    private static final String HEADER_FILE_SUFFIX    = ".header.csv";
+    private static final String DATA_FILE_SUFFIX      = ".csv";
+    private static final String ARGS_FILE_NAME        = "import.args";
+    private static final String SORT_DIR_NAME         = "sort";
+    private static final String INTEGER_IDS_ARGUMENT  = "--id-type=INTEGER";
+    private static final byte[] NO_PAYLOAD            = new byte[0];
+    private static final char FIELD_SEPARATOR         = ',';
+    private static final char QUOTE                   = '"';
+
+    private final File importDirectory;
+    private final File nodesDirectory;
+    private final File relationshipsDirectory;
+    private final Map<NodeMapping, ChannelTextWriter> nodeWriters;
+    private final Map<RelationshipMapping, ChannelTextWriter> relationshipWriters;
+    private final Map<NodeMapping, String> nodeFileNames;
+    private final Map<RelationshipMapping, String> relationshipFileNames;
+    private final File sortDirectory;
+    private final OffHeapBufferPool sortBuffers;
+    private final Map<NodeMapping, ExternalSorter> nodeIndexes;
+    private final Map<RelationshipMapping, ExternalSorter> pendingRelationships;
+    private final StringBuilder pendingFields;
+    private GraphMapping mapping;
+    private long nextNodeId;
+    private long currentNodeId;
+    private long unresolvedRelationships;
+    private boolean aborted;
+
+    /**
+     * Initializes the writer for a given output directory
+     * @param outputPath The directory in which the import directory will be created
+     * @param nodeIdMode How the nodes are identified in the files
+     * @param sortBufferSize The size, in bytes, of each off-heap sort buffer (only used with sequential identifiers)
+     * @param maxSortBuffers How many off-heap sort buffers may be allocated at most
+     */
+    public BulkImportCsvWriter(String outputPath, NodeIdMode nodeIdMode, int sortBufferSize, int maxSortBuffers) {
+        super();
+        importDirectory = new File(outputPath, IMPORT_DIR_NAME);
+        nodesDirectory = new File(importDirectory, NODES_DIR_NAME);
+        relationshipsDirectory = new File(importDirectory, RELATIONSHIPS_DIR_NAME);
+        nodeWriters = new HashMap<>();
+        relationshipWriters = new HashMap<>();
+        nodeFileNames = new HashMap<>();
+        relationshipFileNames = new HashMap<>();
+        sortDirectory = new File(importDirectory, SORT_DIR_NAME);
+        sortBuffers = nodeIdMode == NodeIdMode.SEQUENTIAL ? new OffHeapBufferPool(sortBufferSize, maxSortBuffers) : null;
+        nodeIndexes = new HashMap<>();
+        pendingRelationships = new HashMap<>();
+        pendingFields = new StringBuilder();
+        nextNodeId = 0;
+    }
+
+    @Override
+    public void start(GraphMapping mapping) throws IOException {
+        this.mapping = mapping;
+
+        createDirectory(nodesDirectory);
+        createDirectory(relationshipsDirectory);
+
+        ApplicationLogger.info("Writing bulk import files to " + importDirectory.getAbsolutePath());
+
+        nodeFileNames.putAll(assignNodeFileNames(mapping));
+        assignRelationshipFileNames();
+        for (final NodeMapping node : mapping.getNodes()) {
+            writeNodeHeader(node);
+        }
+        for (final RelationshipMapping relationship : mapping.getRelationships()) {
+            writeRelationshipHeader(relationship);
+        }
+
+        writeArgsFile();
+
+        if (sortBuffers != null) {
+            createDirectory(sortDirectory);
+
+            for (final NodeMapping node : mapping.getNodes()) {
+                if (node.hasKey()) {
+                    nodeIndexes.put(node, new ExternalSorter(sortDirectory, "node" + nodeIndexes.size(), sortBuffers));
+                }
+            }
+            for (final RelationshipMapping relationship : mapping.getRelationships()) {
+                pendingRelationships.put(relationship, new ExternalSorter(sortDirectory, "relationship" + pendingRelationships.size(), sortBuffers));
+            }
+        }
+    }
+
+    @Override
+    public void startTable(Table table) throws IOException {
+        final NodeMapping node = mapping.getNode(table);
+
+        if (node != null) {
+            nodeWriters.put(node, ChannelTextWriter.open(getDataFile(nodesDirectory, nodeFileNames.get(node))));
+        }
+        if (sortBuffers != null) {
+            return;
+        }
+        for (final RelationshipMapping relationship : mapping.getRelationships(table)) {
+            relationshipWriters.put(relationship, ChannelTextWriter.open(getDataFile(relationshipsDirectory, relationshipFileNames.get(relationship))));
+        }
+    }
+
+    @Override
+    public void writeNode(NodeMapping node, String id, Row row) throws IOException {
+        final ChannelTextWriter writer = nodeWriters.get(node);
+
+        if (id == null) {
+            ApplicationLogger.error("A node of label " + node.getLabel() + " has no identifier, since its key is null");
+            throw new IllegalStateException();
+        }
+        if (sortBuffers == null) {
+            writeField(writer, id);
+        } else {
+            currentNodeId = nextNodeId++;
+            writer.write(currentNodeId);
+
+            if (node.hasKey()) {
+                final byte[] key = id.getBytes(StandardCharsets.UTF_8);
+                nodeIndexes.get(node).add(key, 0, key.length, currentNodeId, NO_PAYLOAD, 0, 0);
+            }
+        }
+        for (int i = 0; i < row.getColumnCount(); i++) {
+            writer.write(FIELD_SEPARATOR);
+            writeValue(writer, row, i);
+        }
+        writer.write(FIELD_SEPARATOR);
+        writeField(writer, node.getLabel());
+        writer.newLine();
+    }
+
+    @Override
+    public void writeRelationship(RelationshipMapping relationship, String startId, String endId, Row row) throws IOException {
+        if (sortBuffers != null) {
+            addPendingRelationship(relationship, startId, endId, row);
+            return;
+        }
+
+        final ChannelTextWriter writer = relationshipWriters.get(relationship);
+
+        writeField(writer, startId);
+        writer.write(FIELD_SEPARATOR);
+        writeField(writer, endId);
+        for (final int index : relationship.getPropertyIndexes()) {
+            writer.write(FIELD_SEPARATOR);
+            writeValue(writer, row, index);
+        }
+        writer.write(FIELD_SEPARATOR);
+        writeField(writer, relationship.getType());
+        writer.newLine();
+    }
+
+    @Override
+    public void finishTable(Table table) throws IOException {
+        final NodeMapping node = mapping.getNode(table);
+
+        if (node != null) {
+            nodeWriters.remove(node).close();
+        }
+        if (sortBuffers != null) {
+            // The table's rows are all written, so its sort buffers can be used by the next tables
+            if (nodeIndexes.containsKey(node)) {
+                nodeIndexes.get(node).release();
+            }
+            for (final RelationshipMapping relationship : mapping.getRelationships(table)) {
+                pendingRelationships.get(relationship).release();
+            }
+            return;
+        }
+        for (final RelationshipMapping relationship : mapping.getRelationships(table)) {
+            relationshipWriters.remove(relationship).close();
+        }
+    }
+
+    /**
+     * The output is resumable with key identifiers, since every Table then has its own data files.
+     * With sequential identifiers the node numbers and the pending relationships only live in this run
+     */
+    @Override
+    public boolean isResumable() {
+        return sortBuffers == null;
+    }
+
+    @Override
+    public long[] checkpoint(Table table) throws IOException {
+        final List<ChannelTextWriter> writers = getTableWriters(table);
+        final long[] lengths = new long[writers.size()];
+
+        for (int i = 0; i < lengths.length; i++) {
+            writers.get(i).sync();
+            lengths[i] = writers.get(i).getBytesWritten();
+        }
+
+        return lengths;
+    }
+
+    @Override
+    public boolean canResume(Table table, long[] lengths) {
+        final List<File> files = getTableFiles(table);
+
+        if (files.size() != lengths.length) {
+            return false;
+        }
+        for (int i = 0; i < lengths.length; i++) {
+            if (!files.get(i).isFile() || files.get(i).length() < lengths[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void resumeTable(Table table, long[] lengths) throws IOException {
+        final NodeMapping node = mapping.getNode(table);
+        final List<File> files = getTableFiles(table);
+        int file = 0;
+
+        if (node != null) {
+            nodeWriters.put(node, ChannelTextWriter.append(files.get(file), lengths[file++]));
+        }
+        for (final RelationshipMapping relationship : mapping.getRelationships(table)) {
+            relationshipWriters.put(relationship, ChannelTextWriter.append(files.get(file), lengths[file++]));
+        }
+    }
+
+    /**
+     * The data files written so far are kept, so a resumable output can be resumed by a restarted migration.
+     * With sequential identifiers the pending relationships are dropped instead of being resolved
+     */
+    @Override
+    public void abort() {
+        aborted = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final ChannelTextWriter writer : nodeWriters.values()) {
+            writer.close();
+        }
+        for (final ChannelTextWriter writer : relationshipWriters.values()) {
+            writer.close();
+        }
+
+        nodeWriters.clear();
+        relationshipWriters.clear();
+
+        if (sortBuffers == null || mapping == null) {
+            return;
+        }
+
+        try {
+            if (!aborted) {
+                resolveRelationships();
+            }
+        } finally {
+            for (final ExternalSorter sorter : nodeIndexes.values()) {
+                sorter.close();
+            }
+            for (final ExternalSorter sorter : pendingRelationships.values()) {
+                sorter.close();
+            }
+            nodeIndexes.clear();
+            pendingRelationships.clear();
+
+            if (!sortDirectory.delete()) {
+                ApplicationLogger.warning("Could not delete temporary directory " + sortDirectory.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Spills a relationship whose nodes will only be known once all the nodes were written.
+     * When the start node is the row's own node, its number is kept and the record is sorted by the end key;
+     * otherwise the record is sorted by the start key and carries the end key at the beginning of its payload
+     * @param relationship The RelationshipMapping which produced the relationship
+     * @param startId The key of the start node
+     * @param endId The key of the end node
+     * @param row The values of the row which produced the relationship
+     * @throws IOException When the record couldn't be spilled for some reason
+     */
+    private void addPendingRelationship(RelationshipMapping relationship, String startId, String endId, Row row) throws IOException {
+        final ExternalSorter sorter = pendingRelationships.get(relationship);
+
+        pendingFields.setLength(0);
+        for (final int index : relationship.getPropertyIndexes()) {
+            pendingFields.append(FIELD_SEPARATOR);
+            appendValue(pendingFields, row, index);
+        }
+        pendingFields.append(FIELD_SEPARATOR);
+        appendField(pendingFields, relationship.getType());
+
+        final byte[] fields = pendingFields.toString().getBytes(StandardCharsets.UTF_8);
+
+        if (relationship.getStartKeyIndexes() == null) {
+            final byte[] endKey = endId.getBytes(StandardCharsets.UTF_8);
+            sorter.add(endKey, 0, endKey.length, currentNodeId, fields, 0, fields.length);
+        } else {
+            final byte[] startKey = startId.getBytes(StandardCharsets.UTF_8);
+            final byte[] endKey = endId.getBytes(StandardCharsets.UTF_8);
+            final byte[] payload = new byte[Integer.BYTES + endKey.length + fields.length];
+
+            writeInt(payload, endKey.length);
+            System.arraycopy(endKey, 0, payload, Integer.BYTES, endKey.length);
+            System.arraycopy(fields, 0, payload, Integer.BYTES + endKey.length, fields.length);
+            sorter.add(startKey, 0, startKey.length, 0, payload, 0, payload.length);
+        }
+    }
+
+    /**
+     * Writes the data files of all the relationship types, resolving the node keys against the node indexes
+     * @throws IOException When the files couldn't be read or written for some reason
+     */
+    private void resolveRelationships() throws IOException {
+        for (final ExternalSorter index : nodeIndexes.values()) {
+            index.finish();
+        }
+
+        for (final RelationshipMapping relationship : mapping.getRelationships()) {
+            final ExternalSorter pending = pendingRelationships.get(relationship);
+
+            ApplicationLogger.info(String.format("Resolving %d relationships of type %s against the node key index",
+                                                 pending.getRecordCount(), relationship.getType()));
+
+            pending.finish();
+            unresolvedRelationships = 0;
+
+            try (ChannelTextWriter writer = ChannelTextWriter.open(getDataFile(relationshipsDirectory, relationshipFileNames.get(relationship)))) {
+                if (relationship.getStartKeyIndexes() == null) {
+                    join(pending, relationship.getEndNode(),
+                         (record, endNodeId) -> writeResolvedRelationship(writer, record.getValue(), endNodeId,
+                                                                          record.getPayload(), 0, record.getPayloadLength()));
+                } else {
+                    resolveBothNodes(writer, relationship, pending);
+                }
+            }
+
+            if (unresolvedRelationships > 0) {
+                ApplicationLogger.warning(String.format("%d relationships of type %s reference missing nodes and were left out",
+                                                        unresolvedRelationships, relationship.getType()));
+            }
+        }
+    }
+
+    /**
+     * Resolves relationships whose nodes are both referenced by key: a first join finds the start nodes
+     * and spills the records again, sorted by the end key, for a second join which finds the end nodes
+     * @param writer The writer of the relationship data file
+     * @param relationship The RelationshipMapping being resolved
+     * @param pending The relationship records, sorted by start key
+     * @throws IOException When the files couldn't be read or written for some reason
+     */
+    private void resolveBothNodes(ChannelTextWriter writer, RelationshipMapping relationship, ExternalSorter pending) throws IOException {
+        try (ExternalSorter byEndKey = new ExternalSorter(sortDirectory, "relationship" + pendingRelationships.size(), sortBuffers)) {
+            join(pending, relationship.getStartNode(), (record, startNodeId) -> {
+                final byte[] payload = record.getPayload();
+                final int endKeyLength = readInt(payload);
+                final int fieldsOffset = Integer.BYTES + endKeyLength;
+
+                byEndKey.add(payload, Integer.BYTES, endKeyLength, startNodeId, payload, fieldsOffset, record.getPayloadLength() - fieldsOffset);
+            });
+
+            byEndKey.finish();
+            join(byEndKey, relationship.getEndNode(),
+                 (record, endNodeId) -> writeResolvedRelationship(writer, record.getValue(), endNodeId,
+                                                                  record.getPayload(), 0, record.getPayloadLength()));
+        }
+    }
+
+    /**
+     * Joins sorted relationship records with the key index of a node label, counting the records left unresolved
+     * @param records The relationship records, sorted by the key of the node being resolved
+     * @param node The NodeMapping of the node being resolved
+     * @param handler Receives each resolved record together with the number of its node
+     * @throws IOException When the files couldn't be read or written for some reason
+     */
+    private void join(ExternalSorter records, NodeMapping node, ResolvedHandler handler) throws IOException {
+        try (RecordCursor recordCursor = records.openCursor();
+             RecordCursor indexCursor = nodeIndexes.get(node).openCursor()) {
+            ExternalMergeJoin.join(recordCursor, indexCursor, new JoinHandler() {
+                @Override
+                public void matched(RecordCursor record, long indexValue) throws IOException {
+                    handler.resolved(record, indexValue);
+                }
+
+                @Override
+                public void unmatched(RecordCursor record) throws IOException {
+                    unresolvedRelationships++;
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes a line of a relationship data file whose nodes were resolved
+     * @param writer The writer of the file
+     * @param startNodeId The number of the start node
+     * @param endNodeId The number of the end node
+     * @param fields The array which holds the remaining fields, already encoded
+     * @param offset The position of the fields in the array
+     * @param length The length of the fields
+     * @throws IOException When the file couldn't be written for some reason
+     */
+    private void writeResolvedRelationship(ChannelTextWriter writer, long startNodeId, long endNodeId,
+                                           byte[] fields, int offset, int length) throws IOException {
+        writer.write(startNodeId).write(FIELD_SEPARATOR).write(endNodeId).write(fields, offset, length).newLine();
+    }
+
+    /**
+     * Writes an int in the first bytes of an array
+     * @param bytes The array
+     * @param value The value to be written
+     */
+    private void writeInt(byte[] bytes, int value) {
+        bytes[0] = (byte) (value >>> 24);
+        bytes[1] = (byte) (value >>> 16);
+        bytes[2] = (byte) (value >>> 8);
+        bytes[3] = (byte) value;
+    }
+
+    /**
+     * Reads an int from the first bytes of an array
+     * @param bytes The array
+     * @return The value read
+     */
+    private int readInt(byte[] bytes) {
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    /**
+     * Writes the header file of a node label: its identifier, all its columns and its label.
+     * The key columns are left as strings, so they keep matching the keys of the nodes already imported
+     * @param node The NodeMapping whose header will be written
+     * @throws IOException When the file couldn't be written for some reason
+     */
+    private void writeNodeHeader(NodeMapping node) throws IOException {
+        try (ChannelTextWriter writer = ChannelTextWriter.open(getHeaderFile(nodesDirectory, nodeFileNames.get(node)))) {
+            final List<Column> columns = node.getColumns();
+
+            writeField(writer, ":ID(" + node.getLabel() + ")");
+            for (int i = 0; i < columns.size(); i++) {
+                writer.write(FIELD_SEPARATOR);
+                writeField(writer, node.isKeyIndex(i) ? mapping.getPropertyName(columns.get(i)) : getPropertyHeader(columns.get(i)));
+            }
+            writer.write(FIELD_SEPARATOR);
+            writeField(writer, ":LABEL");
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Writes the header file of a relationship type: its start and end nodes, its properties and its type
+     * @param relationship The RelationshipMapping whose header will be written
+     * @throws IOException When the file couldn't be written for some reason
+     */
+    private void writeRelationshipHeader(RelationshipMapping relationship) throws IOException {
+        try (ChannelTextWriter writer = ChannelTextWriter.open(getHeaderFile(relationshipsDirectory, relationshipFileNames.get(relationship)))) {
+            writeField(writer, ":START_ID(" + relationship.getStartNode().getLabel() + ")");
+            writer.write(FIELD_SEPARATOR);
+            writeField(writer, ":END_ID(" + relationship.getEndNode().getLabel() + ")");
+            for (final Column column : relationship.getPropertyColumns(mapping.getColumns(relationship.getOwner()))) {
+                writer.write(FIELD_SEPARATOR);
+                writeField(writer, getPropertyHeader(column));
+            }
+            writer.write(FIELD_SEPARATOR);
+            writeField(writer, ":TYPE");
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Provides the header field of a property column, with the type the importer parses its values as.
+     * Decimals, text, dates and the types not known are left as strings, so no precision is lost
+     * @param column The Column of the property
+     * @return The name of the property, followed by its type when it's not a string
+     */
+    private String getPropertyHeader(Column column) {
+        final String name = mapping.getPropertyName(column);
+        final ColumnType type = column.getType();
+
+        if (type == null) {
+            return name;
+        }
+        if (type.isIntegral()) {
+            return name + ":long";
+        }
+        if (type.isFloatingPoint()) {
+            return name + ":double";
+        }
+        if (type == ColumnType.BOOLEAN) {
+            return name + ":boolean";
+        }
+
+        return name;
+    }
+
+    /**
+     * Provides the data files written for the rows of a Table: the one of its node label, if any,
+     * followed by the ones of its relationships, in the order used by the checkpoints
+     * @param table The Table being migrated
+     * @return The data files of the Table
+     */
+    private List<File> getTableFiles(Table table) {
+        final NodeMapping node = mapping.getNode(table);
+        final List<File> files = new ArrayList<>();
+
+        if (node != null) {
+            files.add(getDataFile(nodesDirectory, nodeFileNames.get(node)));
+        }
+        for (final RelationshipMapping relationship : mapping.getRelationships(table)) {
+            files.add(getDataFile(relationshipsDirectory, relationshipFileNames.get(relationship)));
+        }
+
+        return files;
+    }
+
+    /**
+     * Provides the writers open for the rows of a Table, in the same order as getTableFiles
+     * @param table The Table being migrated
+     * @return The writers of the Table
+     */
+    private List<ChannelTextWriter> getTableWriters(Table table) {
+        final NodeMapping node = mapping.getNode(table);
+        final List<ChannelTextWriter> writers = new ArrayList<>();
+
+        if (node != null) {
+            writers.add(nodeWriters.get(node));
+        }
+        for (final RelationshipMapping relationship : mapping.getRelationships(table)) {
+            writers.add(relationshipWriters.get(relationship));
+        }
+
+        return writers;
+    }
+
+    /**
+     * Gives every relationship mapping the base name of its files, made of the owner table and the
+     * relationship type. A number is added when two mappings would share a file (compared ignoring case,
+     * for case-insensitive file systems), so no mapping overwrites the files of another one
+     */
+    private void assignRelationshipFileNames() {
+        final Set<String> usedNames = new HashSet<>();
+
+        for (final RelationshipMapping relationship : mapping.getRelationships()) {
+            relationshipFileNames.put(relationship, assignFileName(usedNames, relationship.getOwner().getName() + "." + relationship.getType()));
+        }
+    }
+
+    /**
+     * Names the files of every label after the label itself. Labels which only differ by the characters
+     * replaced in file names, or by their case, would share their files, so the later ones get a numbered suffix
+     * @param mapping The GraphMapping used for the whole migration
+     * @return The base name of the files of every NodeMapping
+     */
+    private static Map<NodeMapping, String> assignNodeFileNames(GraphMapping mapping) {
+        final Map<NodeMapping, String> fileNames = new HashMap<>();
+        final Set<String> usedNames = new HashSet<>();
+
+        for (final NodeMapping node : mapping.getNodes()) {
+            fileNames.put(node, assignFileName(usedNames, node.getLabel()));
+        }
+
+        return fileNames;
+    }
+
+    /**
+     * Finds a base name for the files of a label or relationship which no other files of the same directory use,
+     * comparing the names regardless of their case, since file systems often do
+     * @param usedNames The names already used in the directory, in lower case, which receives the new one
+     * @param name The label, or the owner and type of the relationship
+     * @return The base name of the files
+     */
+    private static String assignFileName(Set<String> usedNames, String name) {
+        final String baseName = toFileName(name);
+        String fileName = baseName;
+
+        for (int suffix = 2; !usedNames.add(fileName.toLowerCase(Locale.ROOT)); suffix++) {
+            fileName = baseName + "_" + suffix;
+        }
+
+        return fileName;
+    }
+
+    /**
+     * Writes the file which lists the arguments for the bulk importer, one per line
+     * @throws IOException When the file couldn't be written for some reason
+     */
+    private void writeArgsFile() throws IOException {
+        final List<String> arguments = new ArrayList<>();
+
+        if (sortBuffers != null) {
+            arguments.add(INTEGER_IDS_ARGUMENT);
+        }
+
+        mapping.getNodes()
+               .forEach(n -> arguments.add(String.format("--nodes=%s/%s,%s/%s",
+                                                         NODES_DIR_NAME, getHeaderFile(nodesDirectory, nodeFileNames.get(n)).getName(),
+                                                         NODES_DIR_NAME, getDataFile(nodesDirectory, nodeFileNames.get(n)).getName())));
+        mapping.getRelationships()
+               .forEach(r -> arguments.add(String.format("--relationships=%s/%s,%s/%s",
+                                                         RELATIONSHIPS_DIR_NAME, getHeaderFile(relationshipsDirectory, relationshipFileNames.get(r)).getName(),
+                                                         RELATIONSHIPS_DIR_NAME, getDataFile(relationshipsDirectory, relationshipFileNames.get(r)).getName())));
+
+        try (ChannelTextWriter writer = ChannelTextWriter.open(new File(importDirectory, ARGS_FILE_NAME))) {
+            for (final String argument : arguments) {
+                writer.write(argument).newLine();
+            }
+        }
+    }
+
+    /**
+     * Writes the value of a column as a CSV field. Integral values are printed straight from
+     * the row, with no String created for them
+     * @param writer The writer of the file
+     * @param row The row which holds the value
+     * @param column The position of the column
+     * @throws IOException When the file couldn't be written for some reason
+     */
+    private void writeValue(ChannelTextWriter writer, Row row, int column) throws IOException {
+        if (row.isNull(column)) {
+            return;
+        }
+        if (row.getType(column).isIntegral()) {
+            writer.write(row.getLong(column));
+            return;
+        }
+
+        writeField(writer, row.getString(column));
+    }
+
+    /**
+     * Appends the value of a column to a buffer as a CSV field, following the same rules as writeValue
+     * @param text The buffer
+     * @param row The row which holds the value
+     * @param column The position of the column
+     */
+    private void appendValue(StringBuilder text, Row row, int column) {
+        if (row.isNull(column)) {
+            return;
+        }
+        if (row.getType(column).isIntegral()) {
+            text.append(row.getLong(column));
+            return;
+        }
+
+        appendField(text, row.getString(column));
+    }
+
+    /**
+     * Writes a single CSV field, quoting it only when needed. Null values become empty fields,
+     * which the importers treat as missing properties, while empty strings are quoted
+     * @param writer The writer of the file
+     * @param value The value of the field
+     * @throws IOException When the file couldn't be written for some reason
+     */
+    static void writeField(ChannelTextWriter writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (!needsQuotes(value)) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write(QUOTE);
+        for (int i = 0; i < value.length(); i++) {
+            final char character = value.charAt(i);
+
+            if (character == QUOTE) {
+                writer.write(QUOTE);
+            }
+            writer.write(character);
+        }
+        writer.write(QUOTE);
+    }
+
+    /**
+     * Appends a single CSV field to a buffer, following the same rules as writeField
+     * @param text The buffer
+     * @param value The value of the field
+     */
+    static void appendField(StringBuilder text, String value) {
+        if (value == null) {
+            return;
+        }
+        if (!needsQuotes(value)) {
+            text.append(value);
+            return;
+        }
+
+        text.append(QUOTE);
+        for (int i = 0; i < value.length(); i++) {
+            final char character = value.charAt(i);
+
+            if (character == QUOTE) {
+                text.append(QUOTE);
+            }
+            text.append(character);
+        }
+        text.append(QUOTE);
+    }
+
+    /**
+     * Tells whether a value must be quoted in order to be written as a CSV field
+     * @param value The value of the field
+     * @return true when the value must be quoted, false otherwise
+     */
+    private static boolean needsQuotes(String value) {
+        if (value.isEmpty()) {
+            return true;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            final char character = value.charAt(i);
+
+            if (character == FIELD_SEPARATOR || character == QUOTE || character == '\n' || character == '\r') {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Provides the data file of every node label, named the same way the writer names them,
+     * so the written nodes can be read back
+     * @param importDirectory The import directory created by the writer
+     * @param mapping The GraphMapping used for the migration
+     * @return The data File of every NodeMapping
+     */
+    static Map<NodeMapping, File> getNodeDataFiles(File importDirectory, GraphMapping mapping) {
+        final Map<NodeMapping, File> files = new HashMap<>();
+
+        assignNodeFileNames(mapping).forEach((node, fileName) -> files.put(node, getDataFile(new File(importDirectory, NODES_DIR_NAME), fileName)));
+
+        return files;
+    }
+
+    /**
+     * Provides the header file for a label or relationship
+     * @param directory The directory of the file
+     * @param fileName The base name of the label's or relationship's files
+     * @return The header File
+     */
+    private static File getHeaderFile(File directory, String fileName) {
+        return new File(directory, fileName + HEADER_FILE_SUFFIX);
+    }
+
+    /**
+     * Provides the data file for a label or relationship
+     * @param directory The directory of the file
+     * @param fileName The base name of the label's or relationship's files
+     * @return The data File
+     */
+    private static File getDataFile(File directory, String fileName) {
+        return new File(directory, fileName + DATA_FILE_SUFFIX);
+    }
+
+    /**
+     * Replaces the characters of a label or relationship type which shouldn't be used in a file name
+     * @param name The label or relationship type
+     * @return A name which can be safely used for a file
+     */
+    private static String toFileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9_.-]", "_");
+    }
+
+    /**
+     * Creates a directory (and its parents) if it doesn't exist yet
+     * @param directory The directory to be created
+     */
+    private void createDirectory(File directory) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            ApplicationLogger.error("Could not create directory " + directory.getAbsolutePath());
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Receives a relationship record whose node was found in a key index
+     */
+    private interface ResolvedHandler {
+        void resolved(RecordCursor record, long nodeId) throws IOException;
+    }
+}
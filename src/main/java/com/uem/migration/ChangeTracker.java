@@ -0,0 +1,295 @@
+package com.uem.migration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.uem.dbstructure.Column;
+import com.uem.dbstructure.Table;
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Keeps track of the high-water mark of the tables which have a monotonic column (an update
+ * timestamp, a version or a sequence), so that an incremental migration only reads the rows
+ * changed since the previous run. Every run records the highest value read of each tracked table;
+ * the marks are only saved once the whole migration succeeded, so a failed run is simply repeated.
+ * Rows are read from the mark on (inclusive), since the records are applied as upserts and rows
+ * sharing the mark's value may have been committed after it was read.
+ * Deleted rows, and foreign keys changed to null, can't be noticed through a monotonic column
+ *
+ * @author zessin
+ */
+public class ChangeTracker {
+    private static final char TIMESTAMP_MARK = 'T';
+    private static final char DATE_MARK      = 'D';
+    private static final char NUMBER_MARK    = 'N';
+    private static final char TEXT_MARK      = 'S';
+
+    private final GraphMapping mapping;
+    private final File marksFile;
+    private final boolean incremental;
+    private final Map<Table, Integer> trackedColumnIndexes;
+    private final Map<Table, Object> newMarks;
+    private final Properties marks;
+
+    /**
+     * Initializes the tracker, finding the monotonic column of each source Table
+     * @param mapping The GraphMapping used for the whole migration
+     * @param incrementalColumns The monotonic column names, by upper case table name
+     * @param marksFile The File which holds the marks between runs
+     * @param incremental Tells whether only the rows changed since the marks are read
+     */
+    public ChangeTracker(GraphMapping mapping, Map<String, String> incrementalColumns, File marksFile, boolean incremental) {
+        super();
+        this.mapping = mapping;
+        this.marksFile = marksFile;
+        this.incremental = incremental;
+        trackedColumnIndexes = new HashMap<>();
+        newMarks = new ConcurrentHashMap<>();
+        marks = new Properties();
+
+        for (final Table table : mapping.getSourceTables()) {
+            final String columnName = incrementalColumns.get(table.getName().toUpperCase());
+
+            if (columnName == null) {
+                continue;
+            }
+
+            final List<Column> columns = mapping.getColumns(table);
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).getName().equalsIgnoreCase(columnName)) {
+                    trackedColumnIndexes.put(table, i);
+                }
+            }
+
+            if (!trackedColumnIndexes.containsKey(table)) {
+                ApplicationLogger.warning(String.format("Incremental column %s not found in table %s", columnName, table));
+            }
+        }
+    }
+
+    /**
+     * Loads the marks saved by the previous runs, if there are any
+     * @throws IOException When the marks couldn't be read for some reason
+     */
+    public void load() throws IOException {
+        if (!marksFile.exists()) {
+            return;
+        }
+
+        try (InputStream input = new FileInputStream(marksFile)) {
+            marks.load(input);
+        }
+    }
+
+    /**
+     * Chooses the tables which take part in the migration. An incremental migration leaves out
+     * the tables without a monotonic column, and the ones whose nodes have no key to be merged on
+     * @param tables All the source tables, in order
+     * @return The tables which shall be migrated, in the same order
+     */
+    public List<Table> selectTables(List<Table> tables) {
+        if (!incremental) {
+            return tables;
+        }
+
+        final List<Table> selectedTables = new ArrayList<>();
+
+        for (final Table table : tables) {
+            final NodeMapping node = mapping.getNode(table);
+
+            if (!isTracked(table)) {
+                ApplicationLogger.warning(String.format("Table %s has no incremental column and will not be migrated", table));
+            } else if (node != null && !node.hasKey()) {
+                ApplicationLogger.warning(String.format("Table %s has no key to merge its nodes on and will not be migrated incrementally", table));
+            } else {
+                selectedTables.add(table);
+            }
+        }
+
+        return selectedTables;
+    }
+
+    /**
+     * Tells whether a Table has a monotonic column
+     * @param table The Table being checked
+     * @return true when the Table is tracked, false otherwise
+     */
+    public boolean isTracked(Table table) {
+        return trackedColumnIndexes.containsKey(table);
+    }
+
+    /**
+     * Provides the position of the monotonic column amongst the columns read from a Table
+     * @param table The Table being read
+     * @return The position of the column (-1 if the Table isn't tracked)
+     */
+    public int getColumnIndex(Table table) {
+        return isTracked(table) ? trackedColumnIndexes.get(table) : -1;
+    }
+
+    /**
+     * Provides the condition which selects the changed rows of a Table, to be appended to its query
+     * @param table The Table being read
+     * @return The condition, with a single parameter for the mark (empty when all the rows are read)
+     */
+    public String getCondition(Table table) {
+        if (getParameters(table).length == 0) {
+            return "";
+        }
+
+        return " WHERE " + mapping.qualifyColumn(table, mapping.getColumns(table).get(getColumnIndex(table))) + " >= ?";
+    }
+
+    /**
+     * Provides the parameters of the condition returned by getCondition
+     * @param table The Table being read
+     * @return The mark of the Table, typed as it was read (empty when all the rows are read)
+     */
+    public Object[] getParameters(Table table) {
+        final String mark = marks.getProperty(table.getName());
+
+        if (!incremental || !isTracked(table) || mark == null || mark.isEmpty()) {
+            return new Object[0];
+        }
+
+        return new Object[] { decode(mark) };
+    }
+
+    /**
+     * Reads the value of the monotonic column in the current row, as a comparable value
+     * @param resultSet The ResultSet positioned on the row
+     * @param columnIndex The position of the column in the ResultSet (starting at 1)
+     * @return The value read (null if the column is null)
+     * @throws SQLException When the value couldn't be read for some reason
+     */
+    public Object readValue(ResultSet resultSet, int columnIndex) throws SQLException {
+        final Object value = resultSet.getObject(columnIndex);
+
+        if (value == null || value instanceof BigDecimal || value instanceof Timestamp ||
+            value instanceof Date || value instanceof String) {
+            return value;
+        }
+        if (value instanceof Number) {
+            return new BigDecimal(value.toString());
+        }
+
+        // Vendor specific types (e.g. Oracle's TIMESTAMP) are read again through the standard one
+        return resultSet.getTimestamp(columnIndex);
+    }
+
+    /**
+     * Returns the highest of two values of the same monotonic column
+     * @param current The highest value so far (may be null)
+     * @param value The value just read (may be null)
+     * @return The highest value
+     */
+    @SuppressWarnings("unchecked")
+    public Object max(Object current, Object value) {
+        if (current == null) {
+            return value;
+        }
+        if (value == null) {
+            return current;
+        }
+
+        return ((Comparable<Object>) value).compareTo(current) > 0 ? value : current;
+    }
+
+    /**
+     * Records the highest value read from a Table in this run, to be saved once the migration succeeds
+     * @param table The Table which was read
+     * @param value The highest value of its monotonic column (null when no rows were read)
+     */
+    public void advance(Table table, Object value) {
+        if (value != null) {
+            newMarks.put(table, value);
+        }
+    }
+
+    /**
+     * Saves the marks recorded in this run, keeping the ones of the tables which weren't read.
+     * The file is replaced atomically, so a crash never leaves it half written
+     * @throws IOException When the marks couldn't be written for some reason
+     */
+    public void save() throws IOException {
+        if (newMarks.isEmpty()) {
+            return;
+        }
+
+        for (final Map.Entry<Table, Object> newMark : newMarks.entrySet()) {
+            marks.setProperty(newMark.getKey().getName(), encode(newMark.getValue()));
+        }
+
+        final File temporaryFile = new File(marksFile.getAbsolutePath() + ".tmp");
+
+        try (FileOutputStream output = new FileOutputStream(temporaryFile)) {
+            marks.store(output, "High-water marks of the incremental migration");
+            output.getFD().sync();
+        }
+
+        Files.move(temporaryFile.toPath(), marksFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ApplicationLogger.info(String.format("Saved the high-water marks of %d tables to %s", newMarks.size(), marksFile.getAbsolutePath()));
+    }
+
+    /**
+     * Encodes a value read by readValue as text, prefixed by its type so it can be bound with the same type later
+     * @param value The value (may be null)
+     * @return The encoded value (null for a null value)
+     */
+    static String encode(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Timestamp) {
+            return TIMESTAMP_MARK + value.toString();
+        }
+        if (value instanceof Date) {
+            return DATE_MARK + value.toString();
+        }
+        if (value instanceof BigDecimal) {
+            return NUMBER_MARK + ((BigDecimal) value).toPlainString();
+        }
+
+        return TEXT_MARK + value.toString();
+    }
+
+    /**
+     * Decodes a value encoded by encode, with its original type
+     * @param encoded The encoded value (may be null)
+     * @return The value (null for a null or empty encoded value)
+     */
+    static Object decode(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return null;
+        }
+
+        final String value = encoded.substring(1);
+
+        switch (encoded.charAt(0)) {
+            case TIMESTAMP_MARK:
+                return Timestamp.valueOf(value);
+            case DATE_MARK:
+                return Date.valueOf(value);
+            case NUMBER_MARK:
+                return new BigDecimal(value);
+            default:
+                return value;
+        }
+    }
+}
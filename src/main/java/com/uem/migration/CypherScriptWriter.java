@@ -0,0 +1,492 @@
+package com.uem.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.uem.dbstructure.Column;
+import com.uem.dbstructure.ColumnType;
+import com.uem.dbstructure.Table;
+import com.uem.util.ApplicationLogger;
+import com.uem.util.ChannelTextWriter;
+
+/**
+ * Writes the nodes and relationships as a Cypher script which can be applied with cypher-shell.
+ * Rows are sent in batches of parameters consumed by a single UNWIND statement per batch,
+ * grouped by label and relationship type. The uniqueness constraints built from the primary and
+ * unique keys come first, then all the nodes and finally all the relationships, which are kept in a
+ * temporary file while the nodes are written so that every MATCH finds its nodes.
+ * Nodes are merged on their keys, so an incremental script upserts the changed rows; it also
+ * replaces the relationship a changed foreign key pointed to before. Key values are always written
+ * as strings, while the other integral, floating point and boolean values keep their types
+ *
+ * @author zessin
+ */
+public class CypherScriptWriter implements GraphRecordWriter {
+    public static final String SCRIPT_FILE_NAME        = "graph.cypher";
+    private static final String RELATIONSHIPS_FILE_NAME = "graph.cypher.relationships.tmp";
+
+    private final File scriptFile;
+    private final File relationshipsFile;
+    private final int batchSize;
+    private final boolean incremental;
+    private final Map<Object, Batch> batches;
+    private GraphMapping mapping;
+    private ChannelTextWriter scriptWriter;
+    private ChannelTextWriter relationshipsWriter;
+
+    /**
+     * Initializes the writer for a given output directory
+     * @param outputPath The directory in which the script will be created
+     * @param batchSize How many rows are sent in each batch
+     * @param incremental Tells whether the script is applied over previously migrated data
+     */
+    public CypherScriptWriter(String outputPath, int batchSize, boolean incremental) {
+        super();
+        scriptFile = new File(outputPath, SCRIPT_FILE_NAME);
+        relationshipsFile = new File(outputPath, RELATIONSHIPS_FILE_NAME);
+        this.batchSize = batchSize;
+        this.incremental = incremental;
+        batches = new HashMap<>();
+    }
+
+    @Override
+    public void start(GraphMapping mapping) throws IOException {
+        this.mapping = mapping;
+
+        ApplicationLogger.info("Writing Cypher script to " + scriptFile.getAbsolutePath());
+
+        scriptWriter = ChannelTextWriter.open(scriptFile);
+        relationshipsWriter = ChannelTextWriter.open(relationshipsFile);
+
+        for (final NodeMapping node : mapping.getNodes()) {
+            writeConstraints(node);
+        }
+        scriptWriter.newLine();
+
+        for (final NodeMapping node : mapping.getNodes()) {
+            batches.put(node, new Batch(scriptWriter, buildNodeStatement(node)));
+        }
+        for (final RelationshipMapping relationship : mapping.getRelationships()) {
+            if (!relationship.getStartNode().hasKey()) {
+                ApplicationLogger.warning(String.format("Relationships of type %s start at nodes without key and will not be written to the Cypher script",
+                                                        relationship.getType()));
+                continue;
+            }
+
+            batches.put(relationship, new Batch(relationshipsWriter, buildRelationshipStatement(relationship)));
+        }
+    }
+
+    @Override
+    public void startTable(Table table) throws IOException {
+        // Batches are kept for the whole script, there's nothing to open per table
+    }
+
+    @Override
+    public void writeNode(NodeMapping node, String id, Row row) throws IOException {
+        final Batch batch = batches.get(node);
+        final StringBuilder rows = batch.nextRow();
+        final List<Column> columns = node.getColumns();
+
+        rows.append('{');
+        for (int i = 0; i < row.getColumnCount(); i++) {
+            if (i > 0) {
+                rows.append(", ");
+            }
+            appendIdentifier(rows, mapping.getPropertyName(columns.get(i)));
+            rows.append(": ");
+            if (node.isKeyIndex(i)) {
+                appendValue(rows, row, i);
+            } else {
+                appendPropertyValue(rows, row, i);
+            }
+        }
+        rows.append('}');
+
+        batch.rowAdded();
+    }
+
+    @Override
+    public void writeRelationship(RelationshipMapping relationship, String startId, String endId, Row row) throws IOException {
+        final Batch batch = batches.get(relationship);
+
+        if (batch == null) {
+            return;
+        }
+
+        final StringBuilder rows = batch.nextRow();
+        final int[] startKeyIndexes = relationship.getStartKeyIndexes() == null ?
+                                      relationship.getStartNode().getKeyIndexes() :
+                                      relationship.getStartKeyIndexes();
+        final List<Column> columns = mapping.getColumns(relationship.getOwner());
+
+        rows.append("{start: ");
+        appendValues(rows, row, startKeyIndexes);
+        rows.append(", end: ");
+        appendValues(rows, row, relationship.getEndKeyIndexes());
+        rows.append(", properties: {");
+        for (int i = 0; i < relationship.getPropertyIndexes().length; i++) {
+            final int index = relationship.getPropertyIndexes()[i];
+
+            if (i > 0) {
+                rows.append(", ");
+            }
+            appendIdentifier(rows, mapping.getPropertyName(columns.get(index)));
+            rows.append(": ");
+            appendPropertyValue(rows, row, index);
+        }
+        rows.append("}}");
+
+        batch.rowAdded();
+    }
+
+    @Override
+    public void finishTable(Table table) throws IOException {
+        final NodeMapping node = mapping.getNode(table);
+
+        if (node != null) {
+            batches.get(node).flush();
+        }
+        for (final RelationshipMapping relationship : mapping.getRelationships(table)) {
+            if (batches.containsKey(relationship)) {
+                batches.get(relationship).flush();
+            }
+        }
+    }
+
+    @Override
+    public void abort() {
+        // Every statement written so far is complete, so the script is closed as usual
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (scriptWriter == null) {
+            return;
+        }
+
+        try {
+            for (final Batch batch : batches.values()) {
+                batch.flush();
+            }
+            scriptWriter.newLine();
+        } finally {
+            relationshipsWriter.close();
+            scriptWriter.close();
+            scriptWriter = null;
+        }
+
+        try {
+            appendRelationshipsFile();
+        } finally {
+            if (!relationshipsFile.delete()) {
+                ApplicationLogger.warning("Could not delete temporary file " + relationshipsFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Writes a uniqueness constraint for each primary and unique key of a node label,
+     * which also creates the index used by the MERGE and MATCH statements. The constraint is named
+     * after the label and the key, since key names are only unique per table (every primary key
+     * is named PRIMARY in MySQL) and IF NOT EXISTS would skip the constraints of the other labels
+     * @param node The NodeMapping whose constraints will be written
+     * @throws IOException When the script couldn't be written for some reason
+     */
+    private void writeConstraints(NodeMapping node) throws IOException {
+        for (final Map.Entry<String, List<Column>> key : mapping.getUniqueKeys(node.getTable()).entrySet()) {
+            final StringBuilder statement = new StringBuilder("CREATE CONSTRAINT ");
+
+            appendIdentifier(statement, node.getLabel() + "_" + key.getKey());
+            statement.append(" IF NOT EXISTS FOR (n:");
+            appendIdentifier(statement, node.getLabel());
+            statement.append(") REQUIRE ");
+            if (key.getValue().size() > 1) {
+                statement.append('(');
+            }
+            for (int i = 0; i < key.getValue().size(); i++) {
+                if (i > 0) {
+                    statement.append(", ");
+                }
+                statement.append("n.");
+                appendIdentifier(statement, key.getValue().get(i).getName());
+            }
+            if (key.getValue().size() > 1) {
+                statement.append(')');
+            }
+            statement.append(" IS UNIQUE;");
+
+            scriptWriter.write(statement).newLine();
+        }
+    }
+
+    /**
+     * Builds the statement which consumes a batch of nodes: merged by key, or simply created when there's no key
+     * @param node The NodeMapping whose statement will be built
+     * @return The statement built
+     */
+    private String buildNodeStatement(NodeMapping node) {
+        final StringBuilder statement = new StringBuilder("UNWIND $rows AS row ");
+
+        if (node.hasKey()) {
+            statement.append("MERGE (n:");
+            appendIdentifier(statement, node.getLabel());
+            appendKeyPattern(statement, node, "row", false);
+            statement.append(") SET n += row;");
+        } else {
+            statement.append("CREATE (n:");
+            appendIdentifier(statement, node.getLabel());
+            statement.append(") SET n = row;");
+        }
+
+        return statement.toString();
+    }
+
+    /**
+     * Builds the statement which consumes a batch of relationships, matching both nodes by their keys.
+     * In an incremental script, a relationship which comes from a foreign key replaces the one of the
+     * same type leaving its start node, since a row only references one node through each foreign key
+     * @param relationship The RelationshipMapping whose statement will be built
+     * @return The statement built
+     */
+    private String buildRelationshipStatement(RelationshipMapping relationship) {
+        final StringBuilder statement = new StringBuilder("UNWIND $rows AS row MATCH (s:");
+
+        appendIdentifier(statement, relationship.getStartNode().getLabel());
+        appendKeyPattern(statement, relationship.getStartNode(), "row.start", true);
+        statement.append(") MATCH (e:");
+        appendIdentifier(statement, relationship.getEndNode().getLabel());
+        appendKeyPattern(statement, relationship.getEndNode(), "row.end", true);
+        statement.append(')');
+        if (incremental && relationship.getStartKeyIndexes() == null) {
+            statement.append(" OPTIONAL MATCH (s)-[old:");
+            appendIdentifier(statement, relationship.getType());
+            statement.append("]->(other) WHERE other <> e DELETE old WITH DISTINCT s, e, row");
+        }
+        statement.append(" MERGE (s)-[r:");
+        appendIdentifier(statement, relationship.getType());
+        statement.append("]->(e) SET r += row.properties;");
+
+        return statement.toString();
+    }
+
+    /**
+     * Appends the map pattern which matches a node by its key properties
+     * @param statement The statement being built
+     * @param node The NodeMapping of the node
+     * @param source The expression which holds the key values
+     * @param positional Tells whether the key values are read by position from a list instead of by name
+     */
+    private void appendKeyPattern(StringBuilder statement, NodeMapping node, String source, boolean positional) {
+        final List<String> keyNames = Arrays.stream(node.getKeyIndexes())
+                                            .mapToObj(i -> mapping.getPropertyName(node.getColumns().get(i)))
+                                            .collect(Collectors.toList());
+
+        statement.append(" {");
+        for (int i = 0; i < keyNames.size(); i++) {
+            if (i > 0) {
+                statement.append(", ");
+            }
+            appendIdentifier(statement, keyNames.get(i));
+            statement.append(": ").append(source);
+            if (!positional) {
+                statement.append('.');
+                appendIdentifier(statement, keyNames.get(i));
+            } else {
+                statement.append('[').append(i).append(']');
+            }
+        }
+        statement.append('}');
+    }
+
+    /**
+     * Appends a list literal with some of the values of a row
+     * @param rows The batch being built
+     * @param row The values of the row
+     * @param indexes The positions of the values to be appended
+     */
+    private void appendValues(StringBuilder rows, Row row, int[] indexes) {
+        rows.append('[');
+        for (int i = 0; i < indexes.length; i++) {
+            if (i > 0) {
+                rows.append(", ");
+            }
+            appendValue(rows, row, indexes[i]);
+        }
+        rows.append(']');
+    }
+
+    /**
+     * Appends the value of a column as a Cypher literal. Values are always written as strings, so the
+     * keys match the nodes written by previous scripts, but integral values are appended with no String created for them
+     * @param text The text being built
+     * @param row The row which holds the value
+     * @param column The position of the column
+     */
+    private void appendValue(StringBuilder text, Row row, int column) {
+        if (row.isNull(column)) {
+            text.append("null");
+            return;
+        }
+        if (row.getType(column).isIntegral()) {
+            text.append('\'').append(row.getLong(column)).append('\'');
+            return;
+        }
+
+        appendValue(text, row.getString(column));
+    }
+
+    /**
+     * Appends the value of a column which isn't part of a key as a Cypher literal of its own type:
+     * integral, floating point and boolean values are written unquoted, the others as strings.
+     * Floating point values which have no literal (NaN and the infinities) are written as strings too
+     * @param text The text being built
+     * @param row The row which holds the value
+     * @param column The position of the column
+     */
+    private void appendPropertyValue(StringBuilder text, Row row, int column) {
+        final ColumnType type = row.getType(column);
+
+        if (row.isNull(column)) {
+            text.append("null");
+        } else if (type.isIntegral()) {
+            text.append(row.getLong(column));
+        } else if (type.isFloatingPoint() && Double.isFinite(row.getDouble(column))) {
+            text.append(row.getDouble(column));
+        } else if (type == ColumnType.BOOLEAN) {
+            text.append(Boolean.parseBoolean(row.getString(column)));
+        } else {
+            appendValue(text, row.getString(column));
+        }
+    }
+
+    /**
+     * Appends a value as a Cypher literal
+     * @param text The text being built
+     * @param value The value to be appended (may be null)
+     */
+    private void appendValue(StringBuilder text, String value) {
+        if (value == null) {
+            text.append("null");
+            return;
+        }
+
+        text.append('\'');
+        for (int i = 0; i < value.length(); i++) {
+            final char character = value.charAt(i);
+
+            switch (character) {
+                case '\'':
+                    text.append("\\'");
+                    break;
+                case '\\':
+                    text.append("\\\\");
+                    break;
+                case '\n':
+                    text.append("\\n");
+                    break;
+                case '\r':
+                    text.append("\\r");
+                    break;
+                case '\t':
+                    text.append("\\t");
+                    break;
+                default:
+                    text.append(character);
+            }
+        }
+        text.append('\'');
+    }
+
+    /**
+     * Appends a label, relationship type or property name, quoted with backticks
+     * @param text The text being built
+     * @param identifier The identifier to be appended
+     */
+    private void appendIdentifier(StringBuilder text, String identifier) {
+        text.append('`').append(identifier.replace("`", "``")).append('`');
+    }
+
+    /**
+     * Appends the temporary relationships file to the end of the script
+     * @throws IOException When the files couldn't be read or written for some reason
+     */
+    private void appendRelationshipsFile() throws IOException {
+        try (FileChannel source = FileChannel.open(relationshipsFile.toPath(), StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(scriptFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long position = 0;
+            final long size = source.size();
+
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+        }
+    }
+
+    /**
+     * Holds the rows of a batch which wasn't written yet. The buffer is reused for all the batches
+     * of the same label or relationship type, so memory is bounded by the batch size
+     */
+    private class Batch {
+        private final ChannelTextWriter writer;
+        private final String statement;
+        private final StringBuilder rows;
+        private int size;
+
+        /**
+         * Initializes an empty batch
+         * @param writer The writer which receives the batch when it's full
+         * @param statement The statement which consumes the batch
+         */
+        Batch(ChannelTextWriter writer, String statement) {
+            this.writer = writer;
+            this.statement = statement;
+            rows = new StringBuilder();
+            size = 0;
+        }
+
+        /**
+         * Prepares the buffer for a new row
+         * @return The buffer in which the row shall be appended
+         */
+        StringBuilder nextRow() {
+            if (size > 0) {
+                rows.append(", ");
+            }
+            return rows;
+        }
+
+        /**
+         * Registers a row appended to the buffer, writing the batch when it's full
+         * @throws IOException When the batch couldn't be written for some reason
+         */
+        void rowAdded() throws IOException {
+            if (++size >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Writes the batch, if it has any rows, as a parameter followed by its statement
+         * @throws IOException When the batch couldn't be written for some reason
+         */
+        void flush() throws IOException {
+            if (size == 0) {
+                return;
+            }
+
+            writer.write(":param rows => [").write(rows).write("];").newLine();
+            writer.write(statement).newLine();
+
+            rows.setLength(0);
+            size = 0;
+        }
+    }
+}
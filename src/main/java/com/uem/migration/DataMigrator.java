@@ -0,0 +1,247 @@
+package com.uem.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.uem.dbconfig.DatabaseConnection;
+import com.uem.dbstructure.DatabaseInfo;
+import com.uem.dbstructure.Table;
+import com.uem.util.ApplicationLogger;
+import com.uem.util.PropertiesHelper;
+
+/**
+ * Reads the data of every table in the relational database and turns its rows into
+ * nodes and relationships, following a GraphMapping, which are sent to a GraphRecordWriter.
+ * The work is carried out by a MigrationPipeline sized by the properties file, which starts with the biggest tables,
+ * unless the orphan check needs the referenced tables first.
+ * An incremental migration only reads the rows changed since the previous run, as told by a ChangeTracker.
+ * A full migration can also check the foreign key values for orphans, through a ReferenceCheckingWriter.
+ * The relationships to supernodes can be folded into properties or spread over many types by a SupernodeSplitter.
+ * A full migration whose output is resumable records MigrationCheckpoints, so a restarted run carries on where it stopped
+ *
+ * @author zessin
+ */
+public class DataMigrator {
+    private static final String MARKS_FILE_EXTENSION = ".marks";
+    private static final String ORPHANS_FILE_SUFFIX  = ".orphans.csv";
+    private static final String JOURNAL_FILE_SUFFIX  = ".migration.journal";
+
+    private final DatabaseInfo databaseInfo;
+    private final GraphMapping mapping;
+    private final GraphRecordWriter writer;
+    private final ChangeTracker changeTracker;
+    private final SupernodeSplitter supernodeSplitter;
+    private final MigrationCheckpoints checkpoints;
+    private final boolean referencesChecked;
+
+    /**
+     * Initializes the DataMigrator with the relational database information, previously obtained and organized
+     * @param databaseInfo The relational database information
+     * @param writer The GraphRecordWriter which will receive the nodes and relationships
+     * @param migrationMode Whether all the rows are migrated or only the changed ones
+     */
+    public DataMigrator(DatabaseInfo databaseInfo, GraphRecordWriter writer, MigrationMode migrationMode) {
+        super();
+        this.databaseInfo = databaseInfo;
+        this.mapping = new GraphMapping(databaseInfo);
+
+        final GraphRecordWriter checkedWriter = createReferenceChecker(writer, migrationMode);
+        this.referencesChecked = checkedWriter instanceof ReferenceCheckingWriter;
+        final SupernodeStrategy supernodeStrategy = PropertiesHelper.getSupernodeStrategy();
+
+        this.supernodeSplitter = new SupernodeSplitter(mapping,
+                                                       checkedWriter,
+                                                       supernodeStrategy,
+                                                       PropertiesHelper.getSupernodeMinDegree(),
+                                                       PropertiesHelper.getSupernodeMaxRows(),
+                                                       PropertiesHelper.getSupernodeBuckets());
+        this.writer = supernodeStrategy == SupernodeStrategy.NONE ? checkedWriter : supernodeSplitter;
+        this.changeTracker = new ChangeTracker(mapping,
+                                               PropertiesHelper.getIncrementalColumns(),
+                                               new File(PropertiesHelper.getOutputPath(), databaseInfo.getSchema() + MARKS_FILE_EXTENSION),
+                                               migrationMode == MigrationMode.INCREMENTAL);
+        this.checkpoints = createCheckpoints(checkedWriter, migrationMode);
+    }
+
+    /**
+     * Migrates the data of all the tables, closing the writer at the end (aborting it first when the migration fails).
+     * The high-water marks are only saved, and the checkpoints marked finished, when the whole migration succeeds
+     * @throws SQLException When the data couldn't be queried for some reason
+     * @throws IOException When the output couldn't be written for some reason
+     */
+    public void migrate() throws SQLException, IOException {
+        try {
+            try {
+                if (checkpoints != null) {
+                    checkpoints.open();
+                }
+
+                changeTracker.load();
+                supernodeSplitter.split(DatabaseConnection.getConnection(), databaseInfo.getSchema(), PropertiesHelper.getFetchSize());
+                writer.start(mapping);
+
+                final MigrationPipeline pipeline = new MigrationPipeline(mapping,
+                                                                         writer,
+                                                                         changeTracker,
+                                                                         databaseInfo.getSchema(),
+                                                                         PropertiesHelper.getReaderThreads(),
+                                                                         PropertiesHelper.getTransformerThreads(),
+                                                                         PropertiesHelper.getPipelineQueueCapacity(),
+                                                                         PropertiesHelper.getFetchSize(),
+                                                                         checkpoints,
+                                                                         PropertiesHelper.getCheckpointIntervalSeconds());
+                pipeline.run(orderTables(changeTracker.selectTables(mapping.getSourceTables())));
+            } catch (final SQLException | IOException | RuntimeException ex) {
+                writer.abort();
+                throw ex;
+            } finally {
+                writer.close();
+            }
+
+            changeTracker.save();
+
+            if (checkpoints != null) {
+                checkpoints.finish();
+            }
+        } finally {
+            if (checkpoints != null) {
+                checkpoints.close();
+            }
+        }
+    }
+
+    /**
+     * Creates the MigrationCheckpoints of a full migration, when they're enabled and the output can be resumed.
+     * The journal belongs to the schema and the output format, so changing any of them starts a new migration
+     * @param checkedWriter The GraphRecordWriter behind the SupernodeSplitter, which is a ReferenceCheckingWriter with the orphan check
+     * @param migrationMode Whether all the rows are migrated or only the changed ones
+     * @return The MigrationCheckpoints (null when none are recorded)
+     */
+    private MigrationCheckpoints createCheckpoints(GraphRecordWriter checkedWriter, MigrationMode migrationMode) {
+        if (!PropertiesHelper.isMigrationCheckpointed() || migrationMode == MigrationMode.INCREMENTAL) {
+            return null;
+        }
+        if (checkedWriter instanceof ReferenceCheckingWriter) {
+            ApplicationLogger.warning("The orphan check only knows the keys written by the current run, so it can't be resumed and no checkpoints are recorded");
+            return null;
+        }
+        if (!(writer instanceof ResumableRecordWriter) || !((ResumableRecordWriter) writer).isResumable()) {
+            ApplicationLogger.info("The output of this migration can't be resumed, so no checkpoints are recorded");
+            return null;
+        }
+
+        return new MigrationCheckpoints(new File(PropertiesHelper.getOutputPath(), databaseInfo.getSchema() + JOURNAL_FILE_SUFFIX),
+                                        databaseInfo.getSchema() + " " + PropertiesHelper.getDataExportFormat() + " " + PropertiesHelper.getNodeIdMode(),
+                                        mapping);
+    }
+
+    /**
+     * Puts a ReferenceCheckingWriter in front of the writer when the orphan check is enabled. The check needs
+     * every row of the referenced tables, so it's left out of incremental migrations
+     * @param writer The GraphRecordWriter which writes the output
+     * @param migrationMode Whether all the rows are migrated or only the changed ones
+     * @return The GraphRecordWriter which receives the records
+     */
+    private GraphRecordWriter createReferenceChecker(GraphRecordWriter writer, MigrationMode migrationMode) {
+        if (!PropertiesHelper.isOrphanCheckEnabled()) {
+            return writer;
+        }
+        if (migrationMode == MigrationMode.INCREMENTAL) {
+            ApplicationLogger.warning("Orphan check is only available for full migrations, skipping it");
+            return writer;
+        }
+
+        return new ReferenceCheckingWriter(writer,
+                                           new File(PropertiesHelper.getOutputPath(), databaseInfo.getSchema() + ORPHANS_FILE_SUFFIX),
+                                           PropertiesHelper.getSortBufferMegabytes() * 1024 * 1024,
+                                           PropertiesHelper.getMaxSortBuffers(),
+                                           PropertiesHelper.getOrphanFilterMegabytes() * 1024L * 1024);
+    }
+
+    /**
+     * Orders the tables in which they should be started: by row count, and after the tables they reference
+     * when the orphan check is on
+     * @param tables The tables to be migrated
+     * @return The tables in the order they should be started
+     */
+    private List<Table> orderTables(List<Table> tables) {
+        final List<Table> bySize = orderByRowCount(tables);
+
+        return referencesChecked ? orderByReferences(bySize) : bySize;
+    }
+
+    /**
+     * Orders the tables so the biggest ones are read first, when their statistics were gathered,
+     * which keeps a big table from being started last and running alone at the end of the migration.
+     * Tables without statistics keep their order, after the others
+     * @param tables The tables to be migrated
+     * @return The tables in the order they should be started
+     */
+    private List<Table> orderByRowCount(List<Table> tables) {
+        return tables.stream()
+                     .sorted(Comparator.comparingLong((Table t) -> t.getStatistics() == null ? -1 : t.getStatistics().getRowCount())
+                                       .reversed())
+                     .collect(Collectors.toList());
+    }
+
+    /**
+     * Orders the tables so every table is read after the tables it references, which the ReferenceCheckingWriter
+     * can then check against their Bloom filters instead of spilling the references to be checked at the end.
+     * Starting a big referencing table later may leave it running alone at the end of the migration, which is
+     * the price of checking its references right away. Amongst the tables whose referenced tables are all
+     * started, the given order (the biggest first) is kept; a cycle of references is broken at its first table
+     * @param tables The tables to be migrated, ordered by row count
+     * @return The tables in the order they should be started
+     */
+    private List<Table> orderByReferences(List<Table> tables) {
+        final Map<Table, Set<Table>> referencedTables = new HashMap<>();
+
+        tables.forEach(t -> referencedTables.put(t, new HashSet<>()));
+        for (final RelationshipMapping relationship : mapping.getRelationships()) {
+            addReference(referencedTables, relationship.getOwner(), relationship.getEndNode().getTable());
+            if (relationship.getStartKeyIndexes() != null) {
+                addReference(referencedTables, relationship.getOwner(), relationship.getStartNode().getTable());
+            }
+        }
+
+        final List<Table> remaining = new ArrayList<>(tables);
+        final List<Table> ordered = new ArrayList<>();
+
+        while (!remaining.isEmpty()) {
+            final Table next = remaining.stream()
+                                        .filter(t -> referencedTables.get(t).stream().noneMatch(remaining::contains))
+                                        .findFirst()
+                                        .orElse(remaining.get(0));
+
+            remaining.remove(next);
+            ordered.add(next);
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Records that a table references another one, when both are migrated
+     * @param referencedTables The tables referenced by every migrated table
+     * @param owner The table which holds the foreign key
+     * @param referenced The table referenced by the foreign key
+     */
+    private static void addReference(Map<Table, Set<Table>> referencedTables, Table owner, Table referenced) {
+        if (referencedTables.containsKey(owner) && referencedTables.containsKey(referenced) && !owner.equals(referenced)) {
+            referencedTables.get(owner).add(referenced);
+        }
+    }
+
+    public GraphMapping getMapping() {
+        return mapping;
+    }
+}
@@ -0,0 +1,57 @@
+package com.uem.migration;
+
+/**
+ * Provides all the formats in which the data of the relational database can be exported
+ *
+ * @author zessin
+ */
+public enum ExportFormat {
+    NONE, CSV, CYPHER, GRAPHML, JSON;
+
+    /**
+     * Tells whether the format can also be used to export the Graph model, and not only the table data
+     * @return true when the format is a graph document format, false otherwise
+     */
+    public boolean isGraphDocument() {
+        return this.equals(GRAPHML) || this.equals(JSON);
+    }
+
+    /**
+     * Tells whether the format can carry an incremental migration, whose records must be merged
+     * with the ones already imported instead of loaded into an empty database
+     * @return true when the records of the format can be applied as upserts, false otherwise
+     */
+    public boolean supportsIncremental() {
+        return this.equals(CYPHER) || isGraphDocument();
+    }
+
+    /**
+     * Tells whether the nodes written in the format can be read back to verify a migration
+     * @return true when the written nodes can be read back, false otherwise
+     */
+    public boolean supportsVerification() {
+        return this.equals(CSV) || isGraphDocument();
+    }
+
+    /**
+     * Returns the correct ExportFormat according to the property in the properties file
+     * @param exportFormatProperty The value of the property in the file
+     * @return The correct ExportFormat for the property (null if not found)
+     */
+    public static ExportFormat getExportFormatByProperty(String exportFormatProperty) {
+        switch (exportFormatProperty.toUpperCase()) {
+            case "NONE":
+                return NONE;
+            case "CSV":
+                return CSV;
+            case "CYPHER":
+                return CYPHER;
+            case "GRAPHML":
+                return GRAPHML;
+            case "JSON":
+                return JSON;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package com.uem.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.uem.dbstructure.Column;
+import com.uem.dbstructure.Constraint;
+import com.uem.dbstructure.ConstraintType;
+import com.uem.dbstructure.DatabaseInfo;
+import com.uem.dbstructure.Table;
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Represents how the data of the relational database becomes nodes and relationships,
+ * based on the metadata previously loaded. Follows the same rules as the Graph class:
+ * each Table becomes a node label, except for the "many to many" relationship tables,
+ * whose rows become relationships, and each foreign key becomes a relationship type.
+ * The tables folded into another one become no node label: their columns are read along
+ * with the other table's (prefixed by their table name when the names collide), and their
+ * foreign keys start at the other table's nodes
+ *
+ * @author zessin
+ */
+public class GraphMapping {
+    public static final char KEY_SEPARATOR = '|';
+    public static final char KEY_ESCAPE    = '\\';
+
+    private final List<Table> sourceTables;
+    private final Map<Table, List<Column>> columnsByTable;
+    private final Map<Table, List<Table>> foldedTablesByParent;
+    private final Map<Column, String> foldedPropertyNames;
+    private final Map<Table, NodeMapping> nodes;
+    private final Map<Table, List<RelationshipMapping>> relationshipsByOwner;
+    private final Map<RelationshipMapping, List<RelationshipMapping>> writtenRelationships;
+    private final Map<Table, Map<String, List<Column>>> uniqueKeysByTable;
+
+    /**
+     * Initializes the GraphMapping with the relational database information, previously obtained and organized
+     * @param databaseInfo The relational database information
+     */
+    public GraphMapping(DatabaseInfo databaseInfo) {
+        super();
+        sourceTables = new ArrayList<>();
+        columnsByTable = new LinkedHashMap<>();
+        foldedTablesByParent = new LinkedHashMap<>();
+        foldedPropertyNames = new HashMap<>();
+        nodes = new LinkedHashMap<>();
+        relationshipsByOwner = new LinkedHashMap<>();
+        writtenRelationships = new HashMap<>();
+        uniqueKeysByTable = new LinkedHashMap<>();
+
+        generateMappingFromDatabaseInfo(databaseInfo);
+    }
+
+    /**
+     * Builds the identifier of a node from some of the values of a row. The values of a composite key
+     * are joined by the separator, escaped inside the values so different keys never share an identifier
+     * @param row The values of the row
+     * @param keyIndexes The positions of the key values in the row
+     * @return The identifier built (null if some of the key values is null)
+     */
+    public static String buildKey(Row row, int[] keyIndexes) {
+        if (keyIndexes.length == 1) {
+            return row.getString(keyIndexes[0]);
+        }
+
+        final StringBuilder key = new StringBuilder();
+
+        for (int i = 0; i < keyIndexes.length; i++) {
+            final String value = row.getString(keyIndexes[i]);
+
+            if (value == null) {
+                return null;
+            }
+            if (i > 0) {
+                key.append(KEY_SEPARATOR);
+            }
+            appendKeyPart(key, value);
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Appends a value of a composite key, escaping the separator and the escape character themselves
+     * @param key The identifier being built
+     * @param value The value to be appended
+     */
+    static void appendKeyPart(StringBuilder key, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char character = value.charAt(i);
+
+            if (character == KEY_SEPARATOR || character == KEY_ESCAPE) {
+                key.append(KEY_ESCAPE);
+            }
+            key.append(character);
+        }
+    }
+
+    /**
+     * Generates all the node and relationship mappings for the loaded metadata
+     * @param databaseInfo The relational database information
+     */
+    private void generateMappingFromDatabaseInfo(DatabaseInfo databaseInfo) {
+        ApplicationLogger.info("Generating node and relationship mappings");
+
+        for (final Table table : databaseInfo.getTables()) {
+            final List<Column> columns = databaseInfo.getColumns()
+                                                     .stream()
+                                                     .filter(c -> c.getTable().equals(table))
+                                                     .collect(Collectors.toList());
+
+            if (columns.isEmpty()) {
+                ApplicationLogger.warning("Table " + table + " has no columns and will not be migrated");
+                continue;
+            }
+            if (table.isFolded()) {
+                continue;
+            }
+
+            sourceTables.add(table);
+            columnsByTable.put(table, columns);
+            relationshipsByOwner.put(table, new ArrayList<>());
+        }
+
+        databaseInfo.getTables()
+                    .stream()
+                    .filter(t -> t.isFolded() && columnsByTable.containsKey(t.getParentTable()))
+                    .forEach(t -> addFoldedTable(databaseInfo, t));
+
+        for (final Table table : sourceTables) {
+            final List<Column> columns = columnsByTable.get(table);
+
+            if (!table.isRelationshipTable()) {
+                final Map<String, List<Column>> primaryKeys = findKeys(databaseInfo, table, ConstraintType.PRIMARY_KEY);
+                final Map<String, List<Column>> uniqueKeys = findKeys(databaseInfo, table, ConstraintType.UNIQUE_KEY);
+                final List<Column> keyColumns = primaryKeys.isEmpty() ?
+                                                (uniqueKeys.isEmpty() ? new ArrayList<>() : uniqueKeys.values().iterator().next()) :
+                                                primaryKeys.values().iterator().next();
+
+                nodes.put(table, new NodeMapping(table, columns, keyColumns.stream().mapToInt(c -> columns.indexOf(c)).toArray()));
+                uniqueKeysByTable.put(table, new LinkedHashMap<>(primaryKeys));
+                uniqueKeysByTable.get(table).putAll(uniqueKeys);
+            }
+        }
+
+        final Map<Table, List<List<Constraint>>> foreignKeysByOwner = groupForeignKeysByOwner(databaseInfo);
+
+        for (final Table owner : sourceTables) {
+            final List<List<Constraint>> foreignKeys = foreignKeysByOwner.getOrDefault(owner, new ArrayList<>());
+
+            if (owner.isRelationshipTable()) {
+                addRelationshipTableMapping(owner, foreignKeys);
+            } else {
+                foreignKeys.forEach(fk -> addForeignKeyMapping(owner, fk));
+            }
+        }
+    }
+
+    /**
+     * Adds the columns of a folded Table, except the ones of its folding key, to the columns of its parent.
+     * A column whose name is already used by the parent (or by a table folded before) becomes a property
+     * prefixed by the folded Table's name, so a node never has two properties with the same name
+     * @param databaseInfo The relational database information
+     * @param table The folded Table
+     */
+    private void addFoldedTable(DatabaseInfo databaseInfo, Table table) {
+        final List<Column> columns = databaseInfo.getColumns()
+                                                 .stream()
+                                                 .filter(c -> c.getTable().equals(table) &&
+                                                              table.getFoldingKey().stream().noneMatch(k -> k.getColumn().equals(c)))
+                                                 .collect(Collectors.toList());
+
+        final List<Column> parentColumns = columnsByTable.get(table.getParentTable());
+
+        for (final Column column : columns) {
+            final boolean collides = parentColumns.stream().anyMatch(c -> getPropertyName(c).equalsIgnoreCase(column.getName()));
+
+            if (collides) {
+                foldedPropertyNames.put(column, table.getName() + "_" + column.getName());
+            }
+        }
+
+        foldedTablesByParent.computeIfAbsent(table.getParentTable(), t -> new ArrayList<>()).add(table);
+        parentColumns.addAll(columns);
+    }
+
+    /**
+     * Finds all the keys of a given type in a Table. The key used to identify the rows of
+     * the Table is its primary key or, when there is none, its first unique key
+     * @param databaseInfo The relational database information
+     * @param table The Table whose keys will be searched
+     * @param type The type of the keys
+     * @return The columns of every key, without duplicates, by the name of the key (empty map if none)
+     */
+    private Map<String, List<Column>> findKeys(DatabaseInfo databaseInfo, Table table, ConstraintType type) {
+        final Map<String, List<Column>> keys = new LinkedHashMap<>();
+
+        databaseInfo.getConstraints()
+                    .stream()
+                    .filter(c -> c.getColumn().getTable().equals(table) &&
+                                 type.equals(c.getType()))
+                    .forEach(c -> {
+                        final List<Column> keyColumns = keys.computeIfAbsent(c.getName(), n -> new ArrayList<>());
+
+                        if (!keyColumns.contains(c.getColumn())) {
+                            keyColumns.add(c.getColumn());
+                        }
+                    });
+
+        return keys;
+    }
+
+    /**
+     * Groups the foreign key Constraints by the Table holding their columns and by their names,
+     * so that every group represents a single (possibly composite) foreign key. The foreign keys
+     * of a folded Table are owned by its parent, and its folding key is left out
+     * @param databaseInfo The relational database information
+     * @return The foreign keys of every Table
+     */
+    private Map<Table, List<List<Constraint>>> groupForeignKeysByOwner(DatabaseInfo databaseInfo) {
+        final Map<Table, Map<String, List<Constraint>>> groups = new LinkedHashMap<>();
+
+        databaseInfo.getConstraints()
+                    .stream()
+                    .filter(c -> ConstraintType.FOREIGN_KEY.equals(c.getType()) &&
+                                 !(c.getColumn().getTable().isFolded() && c.getColumn().getTable().getFoldingKey().contains(c)))
+                    .forEach(c -> {
+                        final List<Constraint> group = groups.computeIfAbsent(c.getColumn().getTable(), t -> new LinkedHashMap<>())
+                                                             .computeIfAbsent(c.getName(), n -> new ArrayList<>());
+
+                        if (group.stream().noneMatch(x -> x.getColumn().equals(c.getColumn()))) {
+                            group.add(c);
+                        }
+                    });
+
+        final Map<Table, List<List<Constraint>>> foreignKeysByOwner = new LinkedHashMap<>();
+        groups.forEach((t, g) -> foreignKeysByOwner.computeIfAbsent(t.getNodeTable(), o -> new ArrayList<>()).addAll(g.values()));
+
+        return foreignKeysByOwner;
+    }
+
+    /**
+     * Adds the mapping which turns a foreign key into relationships between the nodes
+     * of the Table holding it and the nodes of the referenced Table
+     * @param owner The Table holding the foreign key
+     * @param foreignKey The Constraints of the foreign key
+     */
+    private void addForeignKeyMapping(Table owner, List<Constraint> foreignKey) {
+        final NodeMapping startNode = nodes.get(owner);
+        final NodeMapping endNode = nodes.get(foreignKey.get(0).getReferencedTable().getNodeTable());
+        final int[] endKeyIndexes = findReferencingIndexes(owner, foreignKey, endNode);
+
+        if (endKeyIndexes == null) {
+            return;
+        }
+
+        relationshipsByOwner.get(owner).add(new RelationshipMapping(foreignKey.get(0).getName(),
+                                                                    owner,
+                                                                    startNode,
+                                                                    endNode,
+                                                                    null,
+                                                                    endKeyIndexes,
+                                                                    new int[0],
+                                                                    foreignKey,
+                                                                    null));
+    }
+
+    /**
+     * Adds the mapping which turns the rows of a "many to many" relationship table into
+     * relationships between the two nodes it references. The direction is the same used by the Graph
+     * @param owner The relationship Table
+     * @param foreignKeys The foreign keys of the relationship Table
+     */
+    private void addRelationshipTableMapping(Table owner, List<List<Constraint>> foreignKeys) {
+        if (foreignKeys.size() != 2) {
+            ApplicationLogger.warning("Relationship table " + owner + " doesn't have exactly two foreign keys and will not be migrated");
+            return;
+        }
+
+        final List<Constraint> startForeignKey = foreignKeys.get(1);
+        final List<Constraint> endForeignKey = foreignKeys.get(0);
+        final NodeMapping startNode = nodes.get(startForeignKey.get(0).getReferencedTable().getNodeTable());
+        final NodeMapping endNode = nodes.get(endForeignKey.get(0).getReferencedTable().getNodeTable());
+        final int[] startKeyIndexes = findReferencingIndexes(owner, startForeignKey, startNode);
+        final int[] endKeyIndexes = findReferencingIndexes(owner, endForeignKey, endNode);
+
+        if (startKeyIndexes == null || endKeyIndexes == null) {
+            return;
+        }
+
+        final List<Column> columns = columnsByTable.get(owner);
+        final int[] propertyIndexes = columns.stream()
+                                             .filter(c -> foreignKeys.stream()
+                                                                     .flatMap(fk -> fk.stream())
+                                                                     .noneMatch(fk -> fk.getColumn().equals(c)))
+                                             .mapToInt(c -> columns.indexOf(c))
+                                             .toArray();
+
+        relationshipsByOwner.get(owner).add(new RelationshipMapping(owner.getName(),
+                                                                    owner,
+                                                                    startNode,
+                                                                    endNode,
+                                                                    startKeyIndexes,
+                                                                    endKeyIndexes,
+                                                                    propertyIndexes,
+                                                                    endForeignKey,
+                                                                    startForeignKey));
+    }
+
+    /**
+     * Finds the positions of the foreign key columns, ordered as the key columns of the referenced node
+     * @param owner The Table holding the foreign key
+     * @param foreignKey The Constraints of the foreign key
+     * @param referencedNode The NodeMapping of the referenced Table
+     * @return The positions found (null when the foreign key doesn't reference the referenced node's key)
+     */
+    private int[] findReferencingIndexes(Table owner, List<Constraint> foreignKey, NodeMapping referencedNode) {
+        if (referencedNode == null || foreignKey.size() != referencedNode.getKeyIndexes().length) {
+            ApplicationLogger.warning(String.format("Foreign key %s doesn't reference the key of a migrated table and will not be migrated",
+                                                    foreignKey.get(0).getName()));
+            return null;
+        }
+
+        final List<Column> ownerColumns = columnsByTable.get(owner);
+        final int[] indexes = new int[foreignKey.size()];
+
+        for (int i = 0; i < indexes.length; i++) {
+            final Column keyColumn = referencedNode.getColumns().get(referencedNode.getKeyIndexes()[i]);
+            final Constraint constraint = foreignKey.stream()
+                                                    .filter(c -> keyColumn.equals(resolveFoldedColumn(c.getReferencedColumn())))
+                                                    .findFirst()
+                                                    .orElse(null);
+
+            if (constraint == null) {
+                ApplicationLogger.warning(String.format("Foreign key %s doesn't reference the key of table %s and will not be migrated",
+                                                        foreignKey.get(0).getName(), referencedNode.getTable()));
+                return null;
+            }
+
+            indexes[i] = ownerColumns.indexOf(resolveFoldedColumn(constraint.getColumn()));
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Finds the column read in place of a column of a folded Table. The columns of the folding key
+     * aren't read, since they hold the same values of the parent's primary key columns they reference
+     * @param column The column to be resolved
+     * @return The parent's column, for a column of a folding key, or the same column otherwise
+     */
+    private static Column resolveFoldedColumn(Column column) {
+        if (!column.getTable().isFolded()) {
+            return column;
+        }
+
+        return column.getTable()
+                     .getFoldingKey()
+                     .stream()
+                     .filter(c -> c.getColumn().equals(column))
+                     .map(c -> c.getReferencedColumn())
+                     .findFirst()
+                     .orElse(column);
+    }
+
+    /**
+     * Builds the query which reads the columns of a source Table, in the order given by getColumns.
+     * The tables folded into it are joined through their folding keys, so every row of the Table
+     * is read along with the row extending it, when there's one
+     * @param table The Table to be read
+     * @param schema The schema which holds the tables
+     * @return The query built, without any condition
+     */
+    public String buildSelectQuery(Table table, String schema) {
+        final List<Table> foldedTables = getFoldedTables(table);
+        final StringBuilder query = new StringBuilder();
+
+        query.append("SELECT ")
+             .append(columnsByTable.get(table).stream().map(c -> qualifyColumn(table, c)).collect(Collectors.joining(", ")))
+             .append(" FROM   ").append(schema).append(".").append(table.getName());
+
+        if (foldedTables.isEmpty()) {
+            return query.toString();
+        }
+
+        query.append(" ").append(table.getName());
+
+        for (final Table foldedTable : foldedTables) {
+            query.append(" LEFT JOIN ").append(schema).append(".").append(foldedTable.getName()).append(" ").append(foldedTable.getName())
+                 .append(" ON ")
+                 .append(foldedTable.getFoldingKey()
+                                    .stream()
+                                    .map(c -> qualifyColumn(table, c.getColumn()) + " = " + qualifyColumn(table, c.getReferencedColumn()))
+                                    .collect(Collectors.joining(" AND ")));
+        }
+
+        return query.toString();
+    }
+
+    /**
+     * Provides how a column is referred to in the queries which read a source Table. The columns
+     * are qualified by the name of their tables only when other tables are joined to it
+     * @param table The source Table being read
+     * @param column The column being referred to
+     * @return The reference to the column
+     */
+    public String qualifyColumn(Table table, Column column) {
+        return getFoldedTables(table).isEmpty() ? column.getName() : column.getTable().getName() + "." + column.getName();
+    }
+
+    /**
+     * Provides the tables folded into a Table, whose columns are read along with its own
+     * @param table The parent Table
+     * @return The folded tables (empty list if none)
+     */
+    public List<Table> getFoldedTables(Table table) {
+        return foldedTablesByParent.getOrDefault(table, Collections.emptyList());
+    }
+
+    /**
+     * Provides the tables whose data has to be read, in the order they should be read
+     * @return The source tables
+     */
+    public List<Table> getSourceTables() {
+        return sourceTables;
+    }
+
+    /**
+     * Provides the columns read from a Table, in the order they're read
+     * @param table The Table whose columns will be provided
+     * @return The columns of the Table
+     */
+    public List<Column> getColumns(Table table) {
+        return columnsByTable.get(table);
+    }
+
+    /**
+     * Provides the name of the property which holds the values of a Column in the graph
+     * @param column The Column read
+     * @return The name of the Column, prefixed by its table name for a folded column whose name collides
+     */
+    public String getPropertyName(Column column) {
+        return foldedPropertyNames.getOrDefault(column, column.getName());
+    }
+
+    /**
+     * Provides the NodeMapping of a Table
+     * @param table The Table whose NodeMapping will be provided
+     * @return The NodeMapping found (null for "many to many" relationship tables)
+     */
+    public NodeMapping getNode(Table table) {
+        return nodes.get(table);
+    }
+
+    /**
+     * Provides the relationship mappings computed from the rows of a Table, as they're read
+     * @param table The Table holding the relationships
+     * @return The RelationshipMappings found (empty list if none)
+     */
+    public List<RelationshipMapping> getSourceRelationships(Table table) {
+        return relationshipsByOwner.getOrDefault(table, new ArrayList<>());
+    }
+
+    /**
+     * Provides the relationship mappings whose relationships are written for the rows of a Table.
+     * They're the same computed from the rows, unless some were replaced (see setWrittenRelationships)
+     * @param table The Table holding the relationships
+     * @return The RelationshipMappings found (empty list if none)
+     */
+    public List<RelationshipMapping> getRelationships(Table table) {
+        return getSourceRelationships(table).stream()
+                                            .flatMap(r -> getWrittenRelationships(r).stream())
+                                            .collect(Collectors.toList());
+    }
+
+    /**
+     * Provides the relationship mappings which are written in place of one computed from the rows
+     * @param relationship The RelationshipMapping computed from the rows
+     * @return The RelationshipMappings written (the given one, unless it was replaced)
+     */
+    public List<RelationshipMapping> getWrittenRelationships(RelationshipMapping relationship) {
+        return writtenRelationships.getOrDefault(relationship, Collections.singletonList(relationship));
+    }
+
+    /**
+     * Replaces a relationship mapping computed from the rows by the ones actually written
+     * @param relationship The RelationshipMapping computed from the rows
+     * @param replacements The RelationshipMappings written in its place (empty list when it's not written at all)
+     */
+    void setWrittenRelationships(RelationshipMapping relationship, List<RelationshipMapping> replacements) {
+        writtenRelationships.put(relationship, replacements);
+    }
+
+    /**
+     * Provides all the primary and unique keys of a Table
+     * @param table The Table whose keys will be provided
+     * @return The columns of every key by the name of the key, primary key first (empty map if none)
+     */
+    public Map<String, List<Column>> getUniqueKeys(Table table) {
+        return uniqueKeysByTable.getOrDefault(table, new LinkedHashMap<>());
+    }
+
+    public List<NodeMapping> getNodes() {
+        return new ArrayList<>(nodes.values());
+    }
+
+    public List<RelationshipMapping> getSourceRelationships() {
+        return relationshipsByOwner.values()
+                                   .stream()
+                                   .flatMap(r -> r.stream())
+                                   .collect(Collectors.toList());
+    }
+
+    public List<RelationshipMapping> getRelationships() {
+        return getSourceRelationships().stream()
+                                       .flatMap(r -> getWrittenRelationships(r).stream())
+                                       .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,62 @@
+package com.uem.migration;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.uem.dbstructure.Table;
+
+/**
+ * Writes the nodes and relationships produced by the DataMigrator in some output format.
+ * The Rows given to the writer are reused between calls, so they must not be kept.
+ * The relationships held by a row are always written right after the row's node.
+ * A writer which keeps the output of every Table apart may be a ResumableRecordWriter
+ *
+ * @author zessin
+ */
+public interface GraphRecordWriter extends Closeable {
+    /**
+     * Starts the output, before any Table is migrated
+     * @param mapping The GraphMapping used for the whole migration
+     * @throws IOException When the output couldn't be written for some reason
+     */
+    void start(GraphMapping mapping) throws IOException;
+
+    /**
+     * Starts writing the records produced by the rows of a Table
+     * @param table The Table whose rows will be migrated
+     * @throws IOException When the output couldn't be written for some reason
+     */
+    void startTable(Table table) throws IOException;
+
+    /**
+     * Writes a node
+     * @param node The NodeMapping which produced the node
+     * @param id The identifier of the node
+     * @param row The values of the row which produced the node
+     * @throws IOException When the output couldn't be written for some reason
+     */
+    void writeNode(NodeMapping node, String id, Row row) throws IOException;
+
+    /**
+     * Writes a relationship
+     * @param relationship The RelationshipMapping which produced the relationship
+     * @param startId The identifier of the start node
+     * @param endId The identifier of the end node
+     * @param row The values of the row which produced the relationship
+     * @throws IOException When the output couldn't be written for some reason
+     */
+    void writeRelationship(RelationshipMapping relationship, String startId, String endId, Row row) throws IOException;
+
+    /**
+     * Finishes writing the records produced by the rows of a Table
+     * @param table The Table whose rows were migrated
+     * @throws IOException When the output couldn't be written for some reason
+     */
+    void finishTable(Table table) throws IOException;
+
+    /**
+     * Tells the writer that the migration failed, right before it's closed. The output is then closed
+     * without being finished, so an unfinished output isn't taken for a complete one
+     */
+    void abort();
+}
@@ -0,0 +1,205 @@
+package com.uem.migration;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import com.uem.dbstructure.Column;
+import com.uem.dbstructure.ColumnType;
+import com.uem.dbstructure.Table;
+import com.uem.util.CheckpointJournal;
+
+/**
+ * Records the progress of a data migration in a CheckpointJournal, so a restarted migration
+ * skips the tables already finished and resumes the others where their output was last
+ * checkpointed. A Table is resumed in the middle only when it's read in the order of a single,
+ * non nullable key column: the checkpoint then holds the rows written, the key of the last one,
+ * the high-water mark read so far and the length of every output file of the Table.
+ * Other tables are migrated again from their first row when the run is restarted
+ *
+ * @author zessin
+ */
+class MigrationCheckpoints implements Closeable {
+    private static final String FINISHED_UNIT = "finished:";
+    private static final String PROGRESS_UNIT = "progress:";
+
+    private final CheckpointJournal journal;
+    private final GraphMapping mapping;
+
+    /**
+     * Initializes the checkpoints for a given journal file. Nothing is read or written until open is called
+     * @param file The File which holds the journal
+     * @param runKey Identifies the migration (e.g. the schema and the output format). A journal written for another key is discarded
+     * @param mapping The GraphMapping used for the whole migration
+     */
+    MigrationCheckpoints(File file, String runKey, GraphMapping mapping) {
+        super();
+        this.journal = new CheckpointJournal(file, runKey);
+        this.mapping = mapping;
+    }
+
+    /**
+     * Opens the journal, recovering the checkpoints of a previous unfinished migration
+     * @throws IOException When the journal couldn't be read or written for some reason
+     */
+    void open() throws IOException {
+        journal.open();
+    }
+
+    /**
+     * Tells whether a previous run already migrated all the rows of a Table
+     * @param table The Table being checked
+     * @return true when the Table was finished, false otherwise
+     */
+    boolean isFinished(Table table) {
+        return journal.isCommitted(FINISHED_UNIT + table.getName());
+    }
+
+    /**
+     * Provides the high-water mark recorded when a Table was finished
+     * @param table The finished Table
+     * @return The highest value of its monotonic column (null if none was read)
+     */
+    Object getFinishedMark(Table table) {
+        final List<String[]> records = journal.getRecords(FINISHED_UNIT + table.getName());
+        return records.isEmpty() ? null : ChangeTracker.decode(records.get(0)[1]);
+    }
+
+    /**
+     * Provides the last checkpoint of a Table which wasn't finished
+     * @param table The Table being checked
+     * @return The Progress of the Table (null if it has no checkpoint)
+     */
+    Progress getProgress(Table table) {
+        final List<String[]> records = journal.getRecords(PROGRESS_UNIT + table.getName());
+
+        if (records.isEmpty() || isFinished(table)) {
+            return null;
+        }
+
+        final String[] fields = records.get(0);
+        final long[] lengths = new long[fields.length - 3];
+
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = Long.parseLong(fields[i + 3]);
+        }
+
+        return new Progress(Long.parseLong(fields[0]), ChangeTracker.decode(fields[1]), ChangeTracker.decode(fields[2]), lengths);
+    }
+
+    /**
+     * Records a checkpoint of a Table. The rows up to the checkpoint must all be written, and nothing after them
+     * @param table The Table being migrated
+     * @param progress The rows written, the key of the last one, the high-water mark and the output lengths
+     * @throws IOException When the journal couldn't be written for some reason
+     */
+    void recordProgress(Table table, Progress progress) throws IOException {
+        final String unit = PROGRESS_UNIT + table.getName();
+        final String[] fields = new String[progress.lengths.length + 3];
+
+        fields[0] = Long.toString(progress.rows);
+        fields[1] = ChangeTracker.encode(progress.lastKey);
+        fields[2] = ChangeTracker.encode(progress.mark);
+        for (int i = 0; i < progress.lengths.length; i++) {
+            fields[i + 3] = Long.toString(progress.lengths[i]);
+        }
+
+        journal.append(unit, fields);
+        journal.commit(unit);
+    }
+
+    /**
+     * Records that all the rows of a Table were written
+     * @param table The finished Table
+     * @param rows How many rows the Table had
+     * @param mark The highest value of its monotonic column (may be null)
+     * @throws IOException When the journal couldn't be written for some reason
+     */
+    void recordFinished(Table table, long rows, Object mark) throws IOException {
+        final String unit = FINISHED_UNIT + table.getName();
+
+        journal.append(unit, Long.toString(rows), ChangeTracker.encode(mark));
+        journal.commit(unit);
+    }
+
+    /**
+     * Marks the migration as finished, so the next run starts from scratch
+     * @throws IOException When the journal couldn't be written for some reason
+     */
+    void finish() throws IOException {
+        journal.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    /**
+     * Finds the column a Table can be read in order of, so it may be resumed in the middle:
+     * the only column of its node's key, when it can't be null and its values can be bound again as they were read
+     * @param table The Table being migrated
+     * @return The position of the column amongst the columns read (-1 if the Table can't be resumed in the middle)
+     */
+    int getResumeKeyIndex(Table table) {
+        final NodeMapping node = mapping.getNode(table);
+
+        if (node == null || node.getKeyIndexes().length != 1) {
+            return -1;
+        }
+
+        final Column column = node.getColumns().get(node.getKeyIndexes()[0]);
+        final ColumnType type = column.getType();
+
+        if (column.isNullable() || type == null) {
+            return -1;
+        }
+        if (type.isIntegral() || type == ColumnType.DECIMAL || type == ColumnType.CHAR || type == ColumnType.VARCHAR ||
+            type == ColumnType.DATE || type == ColumnType.TIMESTAMP) {
+            return node.getKeyIndexes()[0];
+        }
+
+        return -1;
+    }
+
+    /**
+     * The state of a Table at a checkpoint
+     */
+    static class Progress {
+        private final long rows;
+        private final Object lastKey;
+        private final Object mark;
+        private final long[] lengths;
+
+        /**
+         * Initializes the state
+         * @param rows How many rows were written
+         * @param lastKey The key of the last row written
+         * @param mark The highest value of the monotonic column read so far (may be null)
+         * @param lengths The length of every output file of the Table
+         */
+        Progress(long rows, Object lastKey, Object mark, long[] lengths) {
+            this.rows = rows;
+            this.lastKey = lastKey;
+            this.mark = mark;
+            this.lengths = lengths;
+        }
+
+        long getRows() {
+            return rows;
+        }
+
+        Object getLastKey() {
+            return lastKey;
+        }
+
+        Object getMark() {
+            return mark;
+        }
+
+        long[] getLengths() {
+            return lengths;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.uem.migration;
+
+/**
+ * Provides all the ways in which the data of the relational database can be migrated
+ *
+ * @author zessin
+ */
+public enum MigrationMode {
+    FULL, INCREMENTAL;
+
+    /**
+     * Returns the correct MigrationMode according to the property in the properties file
+     * @param migrationModeProperty The value of the property in the file
+     * @return The correct MigrationMode for the property (null if not found)
+     */
+    public static MigrationMode getMigrationModeByProperty(String migrationModeProperty) {
+        switch (migrationModeProperty.toUpperCase()) {
+            case "FULL":
+                return FULL;
+            case "INCREMENTAL":
+                return INCREMENTAL;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package com.uem.migration;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.uem.dbconfig.DatabaseConnection;
+import com.uem.dbstructure.Column;
+import com.uem.dbstructure.ColumnType;
+import com.uem.dbstructure.Table;
+import com.uem.metrics.Metrics;
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Moves the table data through three stages connected by bounded queues:
+ * <ul>
+ * <li>readers, which stream the rows of whole tables from their own database sessions into batches;</li>
+ * <li>transformers, which compute the node and relationship identifiers of every row in a batch;</li>
+ * <li>a single writer, running in the caller's thread, which encodes the records through the GraphRecordWriter.</li>
+ * </ul>
+ * Batches come from a fixed pool which is refilled by the writer, so the slowest stage
+ * sets the pace of the others and the memory used doesn't depend on the table sizes.
+ * With MigrationCheckpoints, the tables finished by a previous run are skipped, and the tables
+ * which can be resumed in the middle are read in key order and checkpointed every so often, at
+ * moments when, according to their TableProgress, all their rows up to some row are written and nothing after it
+ *
+ * @author zessin
+ */
+public class MigrationPipeline {
+    private static final RowBatch END_OF_STREAM = new RowBatch(0);
+    private static final long POLL_INTERVAL_MS = 100;
+    private static final long SHUTDOWN_TIMEOUT_S = 30;
+
+    private final GraphMapping mapping;
+    private final GraphRecordWriter writer;
+    private final ResumableRecordWriter resumableWriter;
+    private final ChangeTracker changeTracker;
+    private final String schema;
+    private final int readerThreads;
+    private final int transformerThreads;
+    private final int batchSize;
+    private final MigrationCheckpoints checkpoints;
+    private final long checkpointIntervalNanos;
+    private final Map<Table, MigrationCheckpoints.Progress> resumePoints;
+    private final ConcurrentLinkedQueue<Table> pendingTables;
+    private final Map<Table, Long> tableStarts;
+    private final BlockingQueue<RowBatch> freeBatches;
+    private final BlockingQueue<RowBatch> readBatches;
+    private final BlockingQueue<RowBatch> transformedBatches;
+    private final AtomicInteger runningReaders;
+    private final AtomicInteger runningTransformers;
+    private final RowBatch.View writerView;
+    private volatile Throwable failure;
+    private ExecutorService executor;
+
+    /**
+     * Initializes the pipeline
+     * @param mapping The GraphMapping used for the whole migration
+     * @param writer The GraphRecordWriter which receives the records, already started
+     * @param changeTracker The ChangeTracker which tells which rows of each table are read
+     * @param schema The schema which holds the tables
+     * @param readerThreads How many tables are read at the same time (each reader opens its own database session)
+     * @param transformerThreads How many batches are transformed at the same time
+     * @param queueCapacity How many batches each queue between two stages holds
+     * @param batchSize How many rows are read in each batch
+     * @param checkpoints The MigrationCheckpoints of a resumable migration, whose writer is then a ResumableRecordWriter (null when none are recorded)
+     * @param checkpointIntervalSeconds How many seconds at least pass between two checkpoints of a Table
+     */
+    MigrationPipeline(GraphMapping mapping, GraphRecordWriter writer, ChangeTracker changeTracker, String schema,
+                      int readerThreads, int transformerThreads, int queueCapacity, int batchSize,
+                      MigrationCheckpoints checkpoints, int checkpointIntervalSeconds) {
+        super();
+        this.mapping = mapping;
+        this.writer = writer;
+        this.changeTracker = changeTracker;
+        this.schema = schema;
+        this.readerThreads = Math.max(1, readerThreads);
+        this.transformerThreads = Math.max(1, transformerThreads);
+        this.batchSize = Math.max(1, batchSize);
+        this.checkpoints = checkpoints;
+        resumableWriter = checkpoints == null ? null : (ResumableRecordWriter) writer;
+        checkpointIntervalNanos = TimeUnit.SECONDS.toNanos(Math.max(0, checkpointIntervalSeconds));
+        resumePoints = new HashMap<>();
+        pendingTables = new ConcurrentLinkedQueue<>();
+        tableStarts = new ConcurrentHashMap<>();
+        runningReaders = new AtomicInteger();
+        runningTransformers = new AtomicInteger();
+        writerView = new RowBatch.View();
+
+        final int poolSize = 2 * Math.max(1, queueCapacity) + this.readerThreads + this.transformerThreads;
+        freeBatches = new ArrayBlockingQueue<>(poolSize);
+        readBatches = new ArrayBlockingQueue<>(poolSize + this.transformerThreads);
+        transformedBatches = new ArrayBlockingQueue<>(poolSize + 1);
+        for (int i = 0; i < poolSize; i++) {
+            freeBatches.add(new RowBatch(this.batchSize));
+        }
+    }
+
+    /**
+     * Migrates the data of some tables, returning only when all of them were written or when a stage failed
+     * @param tables The tables to be migrated, in the order they should be started
+     * @throws SQLException When the data couldn't be queried for some reason
+     * @throws IOException When the output couldn't be written for some reason
+     */
+    public void run(List<Table> tables) throws SQLException, IOException {
+        pendingTables.addAll(checkpoints == null ? tables : findResumePoints(tables));
+        runningReaders.set(readerThreads);
+        runningTransformers.set(transformerThreads);
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(readerThreads + transformerThreads,
+                                                r -> new Thread(r, "rtg-pipeline-" + threadNumber.incrementAndGet()));
+
+        ApplicationLogger.info(String.format("Migrating %d tables with %d readers and %d transformers",
+                                             pendingTables.size(), readerThreads, transformerThreads));
+
+        for (int i = 0; i < readerThreads; i++) {
+            executor.submit(() -> runStage(this::readTables, runningReaders, readBatches, transformerThreads));
+        }
+        for (int i = 0; i < transformerThreads; i++) {
+            executor.submit(() -> runStage(this::transformBatches, runningTransformers, transformedBatches, 1));
+        }
+
+        try {
+            writeBatches();
+        } catch (final IOException | RuntimeException ex) {
+            fail(ex);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            fail(ex);
+        } finally {
+            shutdown();
+        }
+
+        rethrowFailure();
+    }
+
+    /**
+     * Leaves out the tables finished by a previous run, handing their high-water marks to the ChangeTracker,
+     * and finds the checkpoint each remaining Table is resumed from. A Table whose output no longer
+     * holds its last checkpoint is migrated again from its first row
+     * @param tables The tables to be migrated, in the order they should be started
+     * @return The tables which still have to be migrated, in the same order
+     */
+    private List<Table> findResumePoints(List<Table> tables) {
+        final List<Table> remainingTables = new ArrayList<>();
+
+        for (final Table table : tables) {
+            if (checkpoints.isFinished(table)) {
+                ApplicationLogger.info("Table " + table + " was already migrated by a previous run, skipping it");
+                changeTracker.advance(table, checkpoints.getFinishedMark(table));
+                continue;
+            }
+
+            final MigrationCheckpoints.Progress progress = checkpoints.getProgress(table);
+
+            if (progress != null && checkpoints.getResumeKeyIndex(table) >= 0 && resumableWriter.canResume(table, progress.getLengths())) {
+                ApplicationLogger.info(String.format("Table %s will be resumed after its first %d rows", table, progress.getRows()));
+                resumePoints.put(table, progress);
+            } else if (progress != null) {
+                ApplicationLogger.warning("The output of table " + table + " doesn't match its checkpoint, migrating it again");
+            }
+
+            remainingTables.add(table);
+        }
+
+        return remainingTables;
+    }
+
+    /**
+     * Runs the body of a stage in a worker thread. The last worker of a stage to finish tells
+     * the next stage that no more batches will come; a failure stops the whole pipeline
+     * @param body The body of the stage
+     * @param running How many workers of the stage are still running
+     * @param nextQueue The queue which feeds the next stage
+     * @param nextWorkers How many workers the next stage has
+     */
+    private void runStage(StageBody body, AtomicInteger running, BlockingQueue<RowBatch> nextQueue, int nextWorkers) {
+        try {
+            body.run();
+
+            if (running.decrementAndGet() == 0) {
+                for (int i = 0; i < nextWorkers; i++) {
+                    nextQueue.put(END_OF_STREAM);
+                }
+            }
+        } catch (final InterruptedException ex) {
+            fail(ex);
+        } catch (final Exception ex) {
+            ApplicationLogger.error("Migration stage failed: " + ex.getMessage());
+            fail(ex);
+        }
+    }
+
+    /**
+     * Reader stage: takes tables until there are none left, streaming each one through its own session
+     * @throws SQLException When the data couldn't be queried for some reason
+     * @throws InterruptedException When the pipeline was stopped
+     */
+    private void readTables() throws SQLException, InterruptedException {
+        final DatabaseConnection session = DatabaseConnection.openSession();
+
+        try {
+            Table table;
+            while (failure == null && (table = pendingTables.poll()) != null) {
+                readTable(session, table);
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Reads the rows of a Table (all of them, or only the changed ones) into batches. An empty Table
+     * still produces one (empty) batch, so the writer always sees the beginning and the end of every Table.
+     * The highest value of the Table's monotonic column, if it has one, is handed to the ChangeTracker.
+     * A Table which can be checkpointed is read in key order, from the key of its checkpoint when it's resumed,
+     * and every full batch carries the key of its last row and the high-water mark read so far
+     * @param session The database session of the reader
+     * @param table The Table to be read
+     * @throws SQLException When the data couldn't be queried for some reason
+     * @throws InterruptedException When the pipeline was stopped
+     */
+    private void readTable(DatabaseConnection session, Table table) throws SQLException, InterruptedException {
+        final Object[] changeParameters = changeTracker.getParameters(table);
+        final MigrationCheckpoints.Progress progress = resumePoints.get(table);
+        final Object[] parameters = progress == null ? changeParameters : Arrays.copyOf(changeParameters, changeParameters.length + 1);
+
+        tableStarts.put(table, System.nanoTime());
+
+        if (progress != null) {
+            parameters[changeParameters.length] = progress.getLastKey();
+            ApplicationLogger.info(String.format("Migrating data for table %s after key %s", table, progress.getLastKey()));
+        } else if (changeParameters.length == 0) {
+            ApplicationLogger.info("Migrating data for table " + table);
+        } else {
+            ApplicationLogger.info(String.format("Migrating data for table %s changed since %s", table, changeParameters[0]));
+        }
+
+        final List<Column> columns = mapping.getColumns(table);
+        final NodeMapping node = mapping.getNode(table);
+        final List<RelationshipMapping> relationships = mapping.getSourceRelationships(table);
+        final int markIndex = changeTracker.getColumnIndex(table);
+        final int keyIndex = checkpoints == null ? -1 : checkpoints.getResumeKeyIndex(table);
+        Object mark = progress == null ? null : progress.getMark();
+        long rowNumber = progress == null ? 0 : progress.getRows();
+        int batchCount = 0;
+        RowBatch batch;
+
+        final ResultSet resultSet = session.query(buildSelectQuery(table, keyIndex, progress != null), batchSize, parameters);
+
+        try {
+            final RowDecoder decoder = new RowDecoder(columns, resultSet.getMetaData());
+            final ColumnType[] types = decoder.getTypes();
+
+            batch = freeBatches.take();
+            batch.reset(table, types, node, relationships, rowNumber + 1);
+
+            while (resultSet.next()) {
+                decoder.decode(resultSet, batch, batch.nextRow());
+                rowNumber++;
+
+                if (markIndex >= 0) {
+                    mark = changeTracker.max(mark, changeTracker.readValue(resultSet, markIndex + 1));
+                }
+
+                if (batch.isFull()) {
+                    if (keyIndex >= 0) {
+                        batch.setLastKey(changeTracker.readValue(resultSet, keyIndex + 1));
+                    }
+                    batch.setMark(mark);
+                    readBatches.put(batch);
+                    batchCount++;
+
+                    batch = freeBatches.take();
+                    batch.reset(table, types, node, relationships, rowNumber + 1);
+                }
+            }
+        } finally {
+            resultSet.close();
+            session.closeStatement();
+        }
+
+        changeTracker.advance(table, mark);
+        batch.setMark(mark);
+        batch.setTableBatchCount(batchCount + 1);
+        readBatches.put(batch);
+    }
+
+    /**
+     * Transformer stage: computes the identifiers of the nodes and relationships of every row
+     * @throws InterruptedException When the pipeline was stopped
+     */
+    private void transformBatches() throws InterruptedException {
+        final RowBatch.View view = new RowBatch.View();
+        RowBatch batch;
+
+        while ((batch = readBatches.take()) != END_OF_STREAM) {
+            final NodeMapping node = batch.getNode();
+            final List<RelationshipMapping> relationships = batch.getRelationships();
+
+            for (int i = 0; i < batch.getSize(); i++) {
+                final Row row = view.moveTo(batch, i);
+                final long rowNumber = batch.getFirstRowNumber() + i;
+
+                if (node != null) {
+                    batch.getNodeIds()[i] = node.getId(row, rowNumber);
+                }
+                for (int r = 0; r < relationships.size(); r++) {
+                    batch.getStartIds(r)[i] = relationships.get(r).getStartId(row, rowNumber);
+                    batch.getEndIds(r)[i] = relationships.get(r).getEndId(row);
+                }
+            }
+
+            transformedBatches.put(batch);
+        }
+    }
+
+    /**
+     * Writer stage: writes the records of every transformed batch and gives the batch back to the pool.
+     * A Table is finished once all its batches were written, whatever order they arrived in
+     * @throws IOException When the output couldn't be written for some reason
+     * @throws InterruptedException When the pipeline was stopped
+     */
+    private void writeBatches() throws IOException, InterruptedException {
+        final Map<Table, TableProgress> progresses = new HashMap<>();
+
+        while (failure == null) {
+            final RowBatch batch = transformedBatches.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+            if (batch == null) {
+                continue;
+            }
+            if (batch == END_OF_STREAM) {
+                return;
+            }
+
+            final Table table = batch.getTable();
+            TableProgress progress = progresses.get(table);
+
+            if (progress == null) {
+                final MigrationCheckpoints.Progress resumePoint = resumePoints.get(table);
+
+                progress = new TableProgress(resumePoint == null ? 0 : resumePoint.getRows(), checkpointIntervalNanos);
+                progresses.put(table, progress);
+
+                if (resumePoint != null) {
+                    resumableWriter.resumeTable(table, resumePoint.getLengths());
+                } else {
+                    writer.startTable(table);
+                }
+            }
+
+            progress.nodesSkipped(writeBatch(batch));
+            progress.batchWritten(batch);
+
+            if (progress.isFinished()) {
+                writer.finishTable(table);
+                ApplicationLogger.info(String.format("Migrated %d rows from table %s", progress.getRowsWritten(), table));
+                if (progress.getSkippedNodes() > 0) {
+                    ApplicationLogger.warning(String.format("Skipped the nodes of %d rows from table %s whose key is null", progress.getSkippedNodes(), table));
+                }
+                Metrics.recordMigratedRows(table.getName(), progress.getRowsWritten(), System.nanoTime() - tableStarts.get(table));
+
+                if (checkpoints != null) {
+                    checkpoints.recordFinished(table, progress.getLastRowNumber(), progress.getMark());
+                }
+            } else if (checkpoints != null && progress.isCheckpointDue()) {
+                checkpoints.recordProgress(table, new MigrationCheckpoints.Progress(progress.getLastRowNumber(),
+                                                                                   progress.getLastKey(),
+                                                                                   progress.getMark(),
+                                                                                   resumableWriter.checkpoint(table)));
+                progress.checkpointTaken();
+            }
+
+            freeBatches.put(batch);
+        }
+    }
+
+    /**
+     * Writes the node and the relationships produced by each row of a batch. A row whose key is null
+     * (a nullable UNIQUE key) has no identifier, so its node is skipped, and so are the relationships from it
+     * @param batch The transformed batch
+     * @return How many nodes were skipped
+     * @throws IOException When the output couldn't be written for some reason
+     */
+    private int writeBatch(RowBatch batch) throws IOException {
+        final NodeMapping node = batch.getNode();
+        final List<RelationshipMapping> relationships = batch.getRelationships();
+        int skippedNodes = 0;
+
+        for (int i = 0; i < batch.getSize(); i++) {
+            final Row row = writerView.moveTo(batch, i);
+
+            if (node != null) {
+                if (batch.getNodeIds()[i] == null) {
+                    skippedNodes++;
+                } else {
+                    writer.writeNode(node, batch.getNodeIds()[i], row);
+                }
+            }
+
+            for (int r = 0; r < relationships.size(); r++) {
+                final String startId = batch.getStartIds(r)[i];
+                final String endId = batch.getEndIds(r)[i];
+
+                if (startId != null && endId != null) {
+                    writer.writeRelationship(relationships.get(r), startId, endId, row);
+                }
+            }
+        }
+
+        return skippedNodes;
+    }
+
+    /**
+     * Builds the query which reads all the mapped columns of a Table, restricted to the changed rows when needed,
+     * in key order when the Table can be resumed, and from the key of its checkpoint when it's resumed
+     * @param table The Table to be read
+     * @param keyIndex The position of the key column the Table is read in order of (-1 for no order)
+     * @param resumed Tells whether the Table is resumed after the key of its checkpoint, given as the last parameter
+     * @return The query built
+     */
+    private String buildSelectQuery(Table table, int keyIndex, boolean resumed) {
+        final String condition = changeTracker.getCondition(table);
+        final StringBuilder query = new StringBuilder(mapping.buildSelectQuery(table, schema)).append(condition);
+
+        if (keyIndex < 0) {
+            return query.toString();
+        }
+
+        final String keyColumn = mapping.qualifyColumn(table, mapping.getColumns(table).get(keyIndex));
+
+        if (resumed) {
+            query.append(condition.isEmpty() ? " WHERE " : " AND ").append(keyColumn).append(" > ?");
+        }
+
+        return query.append(" ORDER BY ").append(keyColumn).toString();
+    }
+
+    /**
+     * Records the first failure of the pipeline and stops all the stages
+     * @param cause The reason of the failure
+     */
+    private synchronized void fail(Throwable cause) {
+        if (failure == null) {
+            failure = cause;
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops the worker threads, waiting for them to release their database sessions
+     */
+    private void shutdown() {
+        executor.shutdownNow();
+
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_S, TimeUnit.SECONDS)) {
+                ApplicationLogger.warning("Some migration threads did not stop in time");
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Throws the failure of the pipeline, if there was one, with its original type when possible
+     * @throws SQLException When a stage failed querying the data
+     * @throws IOException When a stage failed writing the output
+     */
+    private void rethrowFailure() throws SQLException, IOException {
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof SQLException) {
+            throw (SQLException) failure;
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+
+        throw new IllegalStateException("Data migration was interrupted", failure);
+    }
+
+    /**
+     * The body of a pipeline stage
+     */
+    private interface StageBody {
+        void run() throws Exception;
+    }
+}
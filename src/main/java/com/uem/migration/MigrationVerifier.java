@@ -0,0 +1,176 @@
+package com.uem.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.uem.dbconfig.DatabaseConnection;
+import com.uem.dbconfig.SessionExecutor;
+import com.uem.dbstructure.Column;
+import com.uem.util.ApplicationLogger;
+import com.uem.util.PropertiesHelper;
+
+/**
+ * Verifies that a full migration didn't lose or duplicate any node, comparing a TableDigest of the
+ * node keys computed from the source tables with one computed from the written output. The source
+ * tables are read in parallel through a SessionExecutor, while the output is read in another thread.
+ * Keys are read from the source the same way the migration reads them, so equal data gives equal
+ * digests; tables without a key are only compared by their row counts
+ *
+ * @author zessin
+ */
+public class MigrationVerifier {
+    private final GraphMapping mapping;
+    private final String schema;
+    private final ExportFormat exportFormat;
+    private final File output;
+
+    /**
+     * Initializes the verifier for a migration
+     * @param mapping The GraphMapping used by the migration
+     * @param schema The schema which holds the tables
+     * @param exportFormat The format of the output
+     * @param output The import directory for CSV, or the document for GraphML and JSON
+     */
+    public MigrationVerifier(GraphMapping mapping, String schema, ExportFormat exportFormat, File output) {
+        super();
+        this.mapping = mapping;
+        this.schema = schema;
+        this.exportFormat = exportFormat;
+        this.output = output;
+    }
+
+    /**
+     * Verifies every migrated node table, logging the tables and chunks which don't match
+     * @return true when the output matches the source, false otherwise
+     * @throws SQLException When the source couldn't be queried for some reason
+     * @throws IOException When the output couldn't be read for some reason
+     */
+    public boolean verify() throws SQLException, IOException {
+        ApplicationLogger.info("Verifying the migrated nodes of " + mapping.getNodes().size() + " tables");
+
+        final ExecutorService outputReader = Executors.newSingleThreadExecutor(r -> new Thread(r, "rtg-verification"));
+        final Future<Map<NodeMapping, TableDigest>> outputDigests =
+            outputReader.submit(() -> new OutputDigestReader(mapping).read(exportFormat, output));
+
+        try {
+            final SessionExecutor sessionExecutor = new SessionExecutor(PropertiesHelper.getTableExecutionMode(),
+                                                                        PropertiesHelper.getMaxDatabaseSessions());
+            final List<TableDigest> sourceDigests = sessionExecutor.map(mapping.getNodes(), this::digestSource);
+
+            return compare(sourceDigests, outputDigests.get());
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Verification was interrupted", ex);
+        } catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            outputReader.shutdownNow();
+        }
+    }
+
+    /**
+     * Computes the digest of the node keys of a source Table. The rows whose key is null produce no node,
+     * so they're left out
+     * @param session The database session used for the query
+     * @param node The NodeMapping of the Table
+     * @return The digest of the Table
+     * @throws SQLException When the Table couldn't be queried for some reason
+     */
+    private TableDigest digestSource(DatabaseConnection session, NodeMapping node) throws SQLException {
+        final TableDigest digest = new TableDigest();
+        final String from = "FROM   " + schema + "." + node.getTable().getName();
+
+        ApplicationLogger.info("Computing the source digest of table " + node.getTable());
+
+        if (!node.hasKey()) {
+            try {
+                final ResultSet resultSet = session.query("SELECT COUNT(*) " + from);
+
+                resultSet.next();
+                digest.addRows(resultSet.getLong(1));
+            } finally {
+                session.closeStatement();
+            }
+
+            return digest;
+        }
+
+        final List<Column> keyColumns = Arrays.stream(node.getKeyIndexes())
+                                              .mapToObj(i -> node.getColumns().get(i))
+                                              .collect(Collectors.toList());
+        final int[] keyIndexes = IntStream.range(0, keyColumns.size()).toArray();
+        final String keyQuery = "SELECT " + keyColumns.stream().map(c -> c.getName()).collect(Collectors.joining(", ")) + " " + from;
+        final ResultSet resultSet = session.query(keyQuery, PropertiesHelper.getFetchSize());
+
+        try {
+            final RowDecoder decoder = new RowDecoder(keyColumns, resultSet.getMetaData());
+            final RowBatch batch = new RowBatch(1);
+            final RowBatch.View row = new RowBatch.View();
+
+            while (resultSet.next()) {
+                batch.reset(node.getTable(), decoder.getTypes(), node, Collections.emptyList(), 1);
+                decoder.decode(resultSet, batch, batch.nextRow());
+
+                final String key = GraphMapping.buildKey(row.moveTo(batch, 0), keyIndexes);
+                if (key != null) {
+                    digest.add(key);
+                }
+            }
+        } finally {
+            resultSet.close();
+            session.closeStatement();
+        }
+
+        return digest;
+    }
+
+    /**
+     * Compares the digests of every Table, logging the ones which don't match
+     * @param sourceDigests The digests of the source, in the order of the nodes
+     * @param outputDigests The digests of the output, by NodeMapping
+     * @return true when all the digests match, false otherwise
+     */
+    private boolean compare(List<TableDigest> sourceDigests, Map<NodeMapping, TableDigest> outputDigests) {
+        boolean verified = true;
+
+        for (int i = 0; i < sourceDigests.size(); i++) {
+            final NodeMapping node = mapping.getNodes().get(i);
+            final TableDigest source = sourceDigests.get(i);
+            final TableDigest written = outputDigests.get(node);
+            final List<Integer> chunks = source.findMismatchedChunks(written);
+
+            if (source.getRowCount() == written.getRowCount() && chunks.isEmpty()) {
+                ApplicationLogger.info(String.format("Table %s verified: %d rows, checksum %016x",
+                                                     node.getTable(), source.getRowCount(), source.getChecksum()));
+                continue;
+            }
+
+            verified = false;
+            ApplicationLogger.warning(String.format("Table %s doesn't match: %d rows in the source, %d rows in the output",
+                                                    node.getTable(), source.getRowCount(), written.getRowCount()));
+            for (final int chunk : chunks) {
+                ApplicationLogger.warning(String.format("Table %s, chunk %d: %d keys (checksum %016x) in the source, %d keys (checksum %016x) in the output",
+                                                        node.getTable(), chunk,
+                                                        source.getChunkCount(chunk), source.getChunkChecksum(chunk),
+                                                        written.getChunkCount(chunk), written.getChunkChecksum(chunk)));
+            }
+        }
+
+        return verified;
+    }
+}
@@ -0,0 +1,29 @@
+package com.uem.migration;
+
+/**
+ * Provides all the ways in which the bulk import files identify the nodes
+ *
+ * @author zessin
+ */
+public enum NodeIdMode {
+    /** The key values of the row, which the importer maps to its internal identifiers */
+    KEY,
+    /** Sequential numbers, with the foreign keys resolved by the exporter through an external merge join */
+    SEQUENTIAL;
+
+    /**
+     * Returns the correct NodeIdMode according to the property in the properties file
+     * @param nodeIdModeProperty The value of the property in the file
+     * @return The correct NodeIdMode for the property (null if not found)
+     */
+    public static NodeIdMode getNodeIdModeByProperty(String nodeIdModeProperty) {
+        switch (nodeIdModeProperty.toUpperCase()) {
+            case "KEY":
+                return KEY;
+            case "SEQUENTIAL":
+                return SEQUENTIAL;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.uem.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.uem.dbstructure.Column;
+import com.uem.dbstructure.Table;
+
+/**
+ * Represents how the rows of a Table become nodes in the graph database.
+ * The node identifier is built from the Table's key columns, or from the row number
+ * when the Table has no key (in which case nothing can reference it)
+ *
+ * @author zessin
+ */
+public class NodeMapping {
+    private final Table table;
+    private final String label;
+    private final List<Column> columns;
+    private final int[] keyIndexes;
+
+    /**
+     * Initializes the NodeMapping for a Table
+     * @param table The Table whose rows will become nodes
+     * @param columns The columns read for each row, in the order they're read (the list is copied)
+     * @param keyIndexes The positions (in the columns list) of the columns which identify a row
+     */
+    public NodeMapping(Table table, List<Column> columns, int[] keyIndexes) {
+        super();
+        this.table = table;
+        this.label = table.getName();
+        this.columns = new ArrayList<>(columns);
+        this.keyIndexes = keyIndexes;
+    }
+
+    /**
+     * Builds the identifier of the node created for a row
+     * @param row The values of the row, in the order of the columns list
+     * @param rowNumber The number of the row in the Table, used when the Table has no key
+     * @return The identifier of the node (null if some of the key values is null)
+     */
+    public String getId(Row row, long rowNumber) {
+        if (!hasKey()) {
+            return String.valueOf(rowNumber);
+        }
+
+        return GraphMapping.buildKey(row, keyIndexes);
+    }
+
+    /**
+     * Tells whether the Table has key columns which identify its rows
+     * @return true when the Table has a key, false otherwise
+     */
+    public boolean hasKey() {
+        return keyIndexes.length > 0;
+    }
+
+    /**
+     * Tells whether a column is one of the key columns
+     * @param index The position of the column in the columns list
+     * @return true when the column is part of the key, false otherwise
+     */
+    public boolean isKeyIndex(int index) {
+        for (final int keyIndex : keyIndexes) {
+            if (keyIndex == index) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public Table getTable() {
+        return table;
+    }
+
+    /**
+     * Adds columns which aren't read from the Table, but whose values are written with the node's
+     * (e.g. the values of a referenced row folded into the node). They come after the columns read
+     * @param extraColumns The columns to be added
+     */
+    void addColumns(List<Column> extraColumns) {
+        columns.addAll(extraColumns);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public List<Column> getColumns() {
+        return columns;
+    }
+
+    public int[] getKeyIndexes() {
+        return keyIndexes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("(:%s)", label);
+    }
+}
@@ -0,0 +1,307 @@
+package com.uem.migration;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Reads back the nodes of a migration's output and computes a TableDigest of the keys found for every
+ * NodeMapping, so they can be compared with the source. The bulk import files are parsed as CSV, with
+ * the key rebuilt from the key columns (which also works with sequential identifiers); the GraphML and
+ * JSON documents are read line by line, since their writers put each node on its own line
+ *
+ * @author zessin
+ */
+class OutputDigestReader {
+    private static final String GRAPHML_NODE_PREFIX = "<node id=\"";
+    private static final String JSON_NODE_PREFIX    = "{\"id\":\"";
+    private static final char ID_SEPARATOR          = ':';
+    private static final char FIELD_SEPARATOR       = ',';
+    private static final char QUOTE                 = '"';
+
+    private final GraphMapping mapping;
+    private final Map<String, NodeMapping> nodesByLabel;
+
+    /**
+     * Initializes the reader
+     * @param mapping The GraphMapping used by the migration
+     */
+    OutputDigestReader(GraphMapping mapping) {
+        super();
+        this.mapping = mapping;
+        nodesByLabel = new HashMap<>();
+        mapping.getNodes().forEach(n -> nodesByLabel.put(n.getLabel(), n));
+    }
+
+    /**
+     * Computes the digests of the nodes found in the output
+     * @param exportFormat The format of the output
+     * @param output The import directory for CSV, or the document for GraphML and JSON
+     * @return The digest of every NodeMapping (empty digests for the labels not found)
+     * @throws IOException When the output couldn't be read for some reason
+     */
+    Map<NodeMapping, TableDigest> read(ExportFormat exportFormat, File output) throws IOException {
+        final Map<NodeMapping, TableDigest> digests = new HashMap<>();
+
+        mapping.getNodes().forEach(n -> digests.put(n, new TableDigest()));
+
+        switch (exportFormat) {
+            case CSV:
+                final Map<NodeMapping, File> dataFiles = BulkImportCsvWriter.getNodeDataFiles(output, mapping);
+
+                for (final NodeMapping node : mapping.getNodes()) {
+                    readCsvNodes(dataFiles.get(node), node, digests.get(node));
+                }
+                break;
+            case GRAPHML:
+                readDocumentNodes(output, GRAPHML_NODE_PREFIX, digests);
+                break;
+            case JSON:
+                readDocumentNodes(output, JSON_NODE_PREFIX, digests);
+                break;
+            default:
+                throw new IllegalStateException("Verification is not supported for the " + exportFormat + " format");
+        }
+
+        return digests;
+    }
+
+    /**
+     * Adds the nodes of a bulk import data file to a digest
+     * @param file The data file of the node label
+     * @param node The NodeMapping of the label
+     * @param digest The digest of the label
+     * @throws IOException When the file couldn't be read for some reason
+     */
+    private void readCsvNodes(File file, NodeMapping node, TableDigest digest) throws IOException {
+        if (!file.exists()) {
+            ApplicationLogger.warning("Data file " + file.getAbsolutePath() + " was not found");
+            return;
+        }
+
+        final List<String> fields = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            while (readCsvRecord(reader, fields)) {
+                digest.add(node.hasKey() ? buildKey(fields, node.getKeyIndexes()) : null);
+            }
+        }
+    }
+
+    /**
+     * Builds the key of a node from the fields of its CSV record, as GraphMapping.buildKey does from the row.
+     * The first field is the node identifier, followed by the columns in order
+     * @param fields The fields of the record
+     * @param keyIndexes The positions of the key columns
+     * @return The key built (null if some of the key values is null)
+     */
+    private String buildKey(List<String> fields, int[] keyIndexes) {
+        if (keyIndexes.length == 1) {
+            return fields.get(keyIndexes[0] + 1);
+        }
+
+        final StringBuilder key = new StringBuilder();
+
+        for (int i = 0; i < keyIndexes.length; i++) {
+            final String value = fields.get(keyIndexes[i] + 1);
+
+            if (value == null) {
+                return null;
+            }
+            if (i > 0) {
+                key.append(GraphMapping.KEY_SEPARATOR);
+            }
+            GraphMapping.appendKeyPart(key, value);
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Reads a CSV record, which may span many lines when a quoted field holds line breaks.
+     * Empty unquoted fields are read as null, following the writer
+     * @param reader The reader of the file
+     * @param fields The list which receives the fields of the record
+     * @return true when a record was read, false at the end of the file
+     * @throws IOException When the file couldn't be read for some reason
+     */
+    private boolean readCsvRecord(BufferedReader reader, List<String> fields) throws IOException {
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        int character = reader.read();
+
+        fields.clear();
+
+        if (character == -1) {
+            return false;
+        }
+
+        while (true) {
+            if (inQuotes) {
+                if (character == -1) {
+                    throw new IOException("Unterminated quoted field in CSV file");
+                }
+                if (character == QUOTE) {
+                    reader.mark(1);
+                    if (reader.read() == QUOTE) {
+                        field.append(QUOTE);
+                    } else {
+                        reader.reset();
+                        inQuotes = false;
+                    }
+                } else {
+                    field.append((char) character);
+                }
+            } else if (character == QUOTE) {
+                quoted = true;
+                inQuotes = true;
+            } else if (character == FIELD_SEPARATOR || character == '\n' || character == -1) {
+                fields.add(field.length() == 0 && !quoted ? null : field.toString());
+                field.setLength(0);
+                quoted = false;
+
+                if (character != FIELD_SEPARATOR) {
+                    return true;
+                }
+            } else if (character != '\r') {
+                field.append((char) character);
+            }
+
+            character = reader.read();
+        }
+    }
+
+    /**
+     * Adds the nodes of a GraphML or JSON document to the digests of their labels
+     * @param file The document
+     * @param prefix The text which starts the line of a node, right before its identifier
+     * @param digests The digests, by NodeMapping
+     * @throws IOException When the document couldn't be read for some reason
+     */
+    private void readDocumentNodes(File file, String prefix, Map<NodeMapping, TableDigest> digests) throws IOException {
+        if (!file.exists()) {
+            ApplicationLogger.warning("Data file " + file.getAbsolutePath() + " was not found");
+            return;
+        }
+
+        final boolean json = prefix.equals(JSON_NODE_PREFIX);
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                final int start = line.indexOf(prefix);
+
+                if (start < 0) {
+                    continue;
+                }
+
+                final String id = json ? readJsonString(line, start + prefix.length()) : readXmlAttribute(line, start + prefix.length());
+                final int separator = id.indexOf(ID_SEPARATOR);
+                final NodeMapping node = separator < 0 ? null : nodesByLabel.get(id.substring(0, separator));
+
+                if (node == null) {
+                    ApplicationLogger.warning("Node " + id + " doesn't belong to any migrated table");
+                    continue;
+                }
+
+                digests.get(node).add(node.hasKey() ? id.substring(separator + 1) : null);
+            }
+        }
+    }
+
+    /**
+     * Reads an XML attribute value, replacing the entities written by the GraphML writer
+     * @param line The line which holds the value
+     * @param start The position right after the opening quote
+     * @return The value read
+     */
+    private String readXmlAttribute(String line, int start) {
+        final StringBuilder value = new StringBuilder();
+        int i = start;
+
+        while (i < line.length() && line.charAt(i) != QUOTE) {
+            final char character = line.charAt(i);
+
+            if (character != '&') {
+                value.append(character);
+                i++;
+                continue;
+            }
+
+            final int end = line.indexOf(';', i);
+            final String entity = line.substring(i + 1, end);
+
+            switch (entity) {
+                case "amp":
+                    value.append('&');
+                    break;
+                case "lt":
+                    value.append('<');
+                    break;
+                case "gt":
+                    value.append('>');
+                    break;
+                case "quot":
+                    value.append(QUOTE);
+                    break;
+                default:
+                    value.append((char) Integer.parseInt(entity.substring(1)));
+            }
+            i = end + 1;
+        }
+
+        return value.toString();
+    }
+
+    /**
+     * Reads a JSON string, replacing the escapes written by the JSON writer
+     * @param line The line which holds the string
+     * @param start The position right after the opening quote
+     * @return The string read
+     */
+    private String readJsonString(String line, int start) {
+        final StringBuilder value = new StringBuilder();
+        int i = start;
+
+        while (i < line.length() && line.charAt(i) != QUOTE) {
+            final char character = line.charAt(i++);
+
+            if (character != '\\') {
+                value.append(character);
+                continue;
+            }
+
+            final char escaped = line.charAt(i++);
+
+            switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    value.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default:
+                    value.append(escaped);
+            }
+        }
+
+        return value.toString();
+    }
+}
@@ -0,0 +1,393 @@
+package com.uem.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.uem.dbstructure.Constraint;
+import com.uem.dbstructure.Table;
+import com.uem.index.BloomFilter;
+import com.uem.index.ExternalMergeJoin;
+import com.uem.index.ExternalMergeJoin.JoinHandler;
+import com.uem.index.ExternalSorter;
+import com.uem.index.OffHeapBufferPool;
+import com.uem.index.RecordCursor;
+import com.uem.util.ApplicationLogger;
+import com.uem.util.ChannelTextWriter;
+
+/**
+ * Sits in front of another GraphRecordWriter and catches the relationships whose foreign key values
+ * reference rows which don't exist (orphans), so they aren't silently turned into broken relationships.
+ * <p>
+ * While the referenced tables are written, the key of each of their nodes is added to a Bloom filter
+ * and to an exact off-heap index. A reference to a table which was already fully written is checked
+ * against the filter: a key the filter has never seen is an orphan, and the relationship goes to the
+ * reject file instead of the output. References to tables still being written can't be decided yet,
+ * so they're written and spilled to disk, to be checked against the exact index once the migration
+ * ends; the orphans found then are also listed in the reject file, marked as written. A small share
+ * of the orphans (the false positive rate of the filters) passes the first check unnoticed.
+ * The filters live on the heap and share a fixed budget, handed out in the order the tables are
+ * first referenced: a table whose filter doesn't fit anymore gets none, and every reference to it
+ * is spilled and checked against its exact index at the end, as if the table was still being written.
+ * The orphans are counted by foreign key Constraint and logged at the end. The filters are only of use
+ * when the referenced tables are finished first, so the DataMigrator then starts them before the tables
+ * which reference them, rather than the biggest tables first.
+ * <p>
+ * This writer isn't resumable, whatever the writer behind it: the filters and the exact indexes only hold
+ * the keys written by the current run, so a resumed run would take every reference to a table finished
+ * before it as an orphan. A migration with the orphan check records no checkpoints
+ *
+ * @author zessin
+ */
+public class ReferenceCheckingWriter implements GraphRecordWriter {
+    private static final String SORT_DIR_NAME         = "orphan-check";
+    private static final String REJECT_HEADER         = "constraint,referenced_table,start_id,end_id,missing_key,written";
+    private static final double FALSE_POSITIVE_RATE   = 0.01;
+    private static final long DEFAULT_EXPECTED_KEYS   = 1 << 20;
+    private static final byte[] NO_PAYLOAD            = new byte[0];
+    private static final char FIELD_SEPARATOR         = ',';
+
+    private final GraphRecordWriter writer;
+    private final File rejectFile;
+    private final File sortDirectory;
+    private final OffHeapBufferPool sortBuffers;
+    private final Map<NodeMapping, BloomFilter> filters;
+    private final Map<NodeMapping, ExternalSorter> keyIndexes;
+    private final Map<RelationshipMapping, List<Reference>> references;
+    private final Map<Constraint, long[]> orphanCounts;
+    private final Set<NodeMapping> writtenNodes;
+    private final StringBuilder rejectFields;
+    private long filterBudget;
+    private ChannelTextWriter rejectWriter;
+    private GraphMapping mapping;
+    private boolean aborted;
+
+    /**
+     * Initializes the writer
+     * @param writer The GraphRecordWriter which receives the records whose references were not rejected
+     * @param rejectFile The CSV file which receives the orphans
+     * @param sortBufferSize The size, in bytes, of each off-heap buffer used by the exact indexes
+     * @param maxSortBuffers How many off-heap buffers the exact indexes may allocate at most
+     * @param filterBudget The size, in bytes, all the Bloom filters together may take on the heap
+     */
+    public ReferenceCheckingWriter(GraphRecordWriter writer, File rejectFile, int sortBufferSize, int maxSortBuffers, long filterBudget) {
+        super();
+        this.writer = writer;
+        this.rejectFile = rejectFile;
+        sortDirectory = new File(rejectFile.getParentFile(), SORT_DIR_NAME);
+        sortBuffers = new OffHeapBufferPool(sortBufferSize, maxSortBuffers);
+        filters = new HashMap<>();
+        keyIndexes = new HashMap<>();
+        references = new HashMap<>();
+        orphanCounts = new LinkedHashMap<>();
+        writtenNodes = new HashSet<>();
+        rejectFields = new StringBuilder();
+        this.filterBudget = filterBudget;
+    }
+
+    @Override
+    public void start(GraphMapping mapping) throws IOException {
+        this.mapping = mapping;
+
+        if (!sortDirectory.exists() && !sortDirectory.mkdirs()) {
+            ApplicationLogger.error("Could not create directory " + sortDirectory.getAbsolutePath());
+            throw new IllegalStateException();
+        }
+
+        for (final RelationshipMapping relationship : mapping.getRelationships()) {
+            final List<Reference> relationshipReferences = new ArrayList<>();
+
+            if (relationship.getStartKeyIndexes() != null) {
+                relationshipReferences.add(createReference(relationship, relationship.getStartNode(), relationship.getStartForeignKeys(), true));
+            }
+            relationshipReferences.add(createReference(relationship, relationship.getEndNode(), relationship.getForeignKeys(), false));
+
+            references.put(relationship, relationshipReferences);
+        }
+
+        rejectWriter = ChannelTextWriter.open(rejectFile);
+        rejectWriter.write(REJECT_HEADER).newLine();
+
+        ApplicationLogger.info(String.format("Checking the references to %d tables (%d with a Bloom filter), orphans go to %s",
+                                             keyIndexes.size(), filters.size(), rejectFile.getAbsolutePath()));
+
+        writer.start(mapping);
+    }
+
+    @Override
+    public void startTable(Table table) throws IOException {
+        writer.startTable(table);
+    }
+
+    @Override
+    public void writeNode(NodeMapping node, String id, Row row) throws IOException {
+        final ExternalSorter keyIndex = keyIndexes.get(node);
+
+        if (keyIndex != null && id != null) {
+            final BloomFilter filter = filters.get(node);
+            final byte[] key = id.getBytes(StandardCharsets.UTF_8);
+
+            if (filter != null) {
+                filter.add(id);
+            }
+            keyIndex.add(key, 0, key.length, 0, NO_PAYLOAD, 0, 0);
+        }
+
+        writer.writeNode(node, id, row);
+    }
+
+    @Override
+    public void writeRelationship(RelationshipMapping relationship, String startId, String endId, Row row) throws IOException {
+        final List<Reference> relationshipReferences = references.get(relationship);
+
+        for (final Reference reference : relationshipReferences) {
+            final String key = reference.start ? startId : endId;
+            final BloomFilter filter = filters.get(reference.node);
+
+            if (filter != null && writtenNodes.contains(reference.node) && !filter.mightContain(key)) {
+                reject(reference, startId, endId, key, false);
+                return;
+            }
+        }
+
+        for (final Reference reference : relationshipReferences) {
+            if (!writtenNodes.contains(reference.node) || !filters.containsKey(reference.node)) {
+                defer(reference, startId, endId);
+            }
+        }
+
+        writer.writeRelationship(relationship, startId, endId, row);
+    }
+
+    @Override
+    public void finishTable(Table table) throws IOException {
+        final NodeMapping node = mapping.getNode(table);
+
+        if (node != null && keyIndexes.containsKey(node)) {
+            writtenNodes.add(node);
+            keyIndexes.get(node).release();
+        }
+        for (final RelationshipMapping relationship : mapping.getRelationships(table)) {
+            for (final Reference reference : references.get(relationship)) {
+                reference.deferred.release();
+            }
+        }
+
+        writer.finishTable(table);
+    }
+
+    @Override
+    public void abort() {
+        aborted = true;
+        writer.abort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.close();
+
+            if (rejectWriter != null && !aborted) {
+                checkDeferredReferences();
+                logOrphanCounts();
+            }
+        } finally {
+            if (rejectWriter != null) {
+                rejectWriter.close();
+            }
+            for (final ExternalSorter index : keyIndexes.values()) {
+                index.close();
+            }
+            for (final List<Reference> relationshipReferences : references.values()) {
+                for (final Reference reference : relationshipReferences) {
+                    reference.deferred.close();
+                }
+            }
+
+            if (sortDirectory.exists() && !sortDirectory.delete()) {
+                ApplicationLogger.warning("Could not delete temporary directory " + sortDirectory.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Creates the reference of a relationship to one of its nodes, together with the key index of the
+     * referenced node when it doesn't exist yet, and its Bloom filter when the budget still has room for it
+     * @param relationship The RelationshipMapping holding the reference
+     * @param node The NodeMapping referenced
+     * @param foreignKey The Constraints of the foreign key which makes the reference
+     * @param start Whether the start node is referenced, rather than the end node
+     * @return The Reference created
+     */
+    private Reference createReference(RelationshipMapping relationship, NodeMapping node, List<Constraint> foreignKey, boolean start) {
+        if (!keyIndexes.containsKey(node)) {
+            final Table table = node.getTable();
+            final long expectedKeys = table.getStatistics() == null || table.getStatistics().getRowCount() < 0 ?
+                                      DEFAULT_EXPECTED_KEYS :
+                                      table.getStatistics().getRowCount();
+            final long filterSize = BloomFilter.getSizeInBytes(expectedKeys, FALSE_POSITIVE_RATE);
+
+            if (filterSize <= filterBudget) {
+                filters.put(node, new BloomFilter(expectedKeys, FALSE_POSITIVE_RATE));
+                filterBudget -= filterSize;
+            } else {
+                ApplicationLogger.info(String.format("No room left for the Bloom filter of table %s (%d bytes), its references are checked at the end",
+                                                     table, filterSize));
+            }
+            keyIndexes.put(node, new ExternalSorter(sortDirectory, "keys" + keyIndexes.size(), sortBuffers));
+        }
+
+        final Constraint constraint = foreignKey.get(0);
+        orphanCounts.putIfAbsent(constraint, new long[2]);
+
+        final ExternalSorter deferred = new ExternalSorter(sortDirectory, "references" + (references.size() * 2 + (start ? 0 : 1)), sortBuffers);
+
+        return new Reference(node, constraint, start, deferred);
+    }
+
+    /**
+     * Spills a reference to a table still being written, so it's checked once all the nodes are known.
+     * The payload holds the fields of its reject line, up to the missing key
+     * @param reference The Reference made by the relationship
+     * @param startId The key of the start node
+     * @param endId The key of the end node
+     * @throws IOException When the reference couldn't be spilled for some reason
+     */
+    private void defer(Reference reference, String startId, String endId) throws IOException {
+        final String key = reference.start ? startId : endId;
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+        appendRejectFields(reference, startId, endId);
+
+        final byte[] fields = rejectFields.toString().getBytes(StandardCharsets.UTF_8);
+        reference.deferred.add(keyBytes, 0, keyBytes.length, 0, fields, 0, fields.length);
+    }
+
+    /**
+     * Writes an orphan to the reject file and counts it
+     * @param reference The Reference which was not found
+     * @param startId The key of the start node
+     * @param endId The key of the end node
+     * @param key The missing key
+     * @param written Whether the relationship was written to the output anyway
+     * @throws IOException When the reject file couldn't be written for some reason
+     */
+    private void reject(Reference reference, String startId, String endId, String key, boolean written) throws IOException {
+        appendRejectFields(reference, startId, endId);
+        rejectWriter.write(rejectFields);
+        writeRejectEnding(key, written);
+        orphanCounts.get(reference.constraint)[written ? 1 : 0]++;
+    }
+
+    /**
+     * Builds the fields of a reject line which come before the missing key
+     * @param reference The Reference which was not found
+     * @param startId The key of the start node
+     * @param endId The key of the end node
+     */
+    private void appendRejectFields(Reference reference, String startId, String endId) {
+        rejectFields.setLength(0);
+        BulkImportCsvWriter.appendField(rejectFields, reference.constraint.getName());
+        rejectFields.append(FIELD_SEPARATOR);
+        BulkImportCsvWriter.appendField(rejectFields, reference.node.getTable().getName());
+        rejectFields.append(FIELD_SEPARATOR);
+        BulkImportCsvWriter.appendField(rejectFields, startId);
+        rejectFields.append(FIELD_SEPARATOR);
+        BulkImportCsvWriter.appendField(rejectFields, endId);
+    }
+
+    /**
+     * Writes the missing key and the written flag, which end a reject line
+     * @param key The missing key
+     * @param written Whether the relationship was written to the output anyway
+     * @throws IOException When the reject file couldn't be written for some reason
+     */
+    private void writeRejectEnding(String key, boolean written) throws IOException {
+        rejectWriter.write(FIELD_SEPARATOR);
+        BulkImportCsvWriter.writeField(rejectWriter, key);
+        rejectWriter.write(FIELD_SEPARATOR).write(Boolean.toString(written)).newLine();
+    }
+
+    /**
+     * Checks the references spilled while their tables were being written against the exact key indexes,
+     * in a single merge join for each reference. Only the indexes which are needed get merged
+     * @throws IOException When the spilled records couldn't be read for some reason
+     */
+    private void checkDeferredReferences() throws IOException {
+        for (final Map.Entry<RelationshipMapping, List<Reference>> entry : references.entrySet()) {
+            for (final Reference reference : entry.getValue()) {
+                if (reference.deferred.getRecordCount() == 0) {
+                    continue;
+                }
+
+                ApplicationLogger.info(String.format("Checking %d references of %s to table %s against the key index",
+                                                     reference.deferred.getRecordCount(), entry.getKey().getType(), reference.node.getTable()));
+
+                reference.deferred.finish();
+                keyIndexes.get(reference.node).finish();
+
+                try (RecordCursor records = reference.deferred.openCursor();
+                     RecordCursor index = keyIndexes.get(reference.node).openCursor()) {
+                    ExternalMergeJoin.join(records, index, new JoinHandler() {
+                        @Override
+                        public void matched(RecordCursor record, long indexValue) {
+                        }
+
+                        @Override
+                        public void unmatched(RecordCursor record) throws IOException {
+                            rejectWriter.write(record.getPayload(), 0, record.getPayloadLength());
+                            writeRejectEnding(new String(record.getKey(), 0, record.getKeyLength(), StandardCharsets.UTF_8), true);
+                            orphanCounts.get(reference.constraint)[1]++;
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs how many orphans were found for every foreign key
+     */
+    private void logOrphanCounts() {
+        long total = 0;
+
+        for (final Map.Entry<Constraint, long[]> entry : orphanCounts.entrySet()) {
+            final long[] counts = entry.getValue();
+
+            if (counts[0] + counts[1] > 0) {
+                ApplicationLogger.warning(String.format("Foreign key %s has %d orphan references to table %s (%d rejected, %d written)",
+                                                        entry.getKey().getName(), counts[0] + counts[1],
+                                                        entry.getKey().getReferencedTable(), counts[0], counts[1]));
+                total += counts[0] + counts[1];
+            }
+        }
+
+        if (total == 0) {
+            ApplicationLogger.info("No orphan references were found");
+        }
+    }
+
+    /**
+     * A reference made by the relationships of a RelationshipMapping to the nodes on one of their ends
+     */
+    private static class Reference {
+        private final NodeMapping node;
+        private final Constraint constraint;
+        private final boolean start;
+        private final ExternalSorter deferred;
+
+        Reference(NodeMapping node, Constraint constraint, boolean start, ExternalSorter deferred) {
+            this.node = node;
+            this.constraint = constraint;
+            this.start = start;
+            this.deferred = deferred;
+        }
+    }
+}
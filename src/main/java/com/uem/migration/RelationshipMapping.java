@@ -0,0 +1,133 @@
+package com.uem.migration;
+
+import java.util.List;
+
+import com.uem.dbstructure.Column;
+import com.uem.dbstructure.Constraint;
+import com.uem.dbstructure.Table;
+
+/**
+ * Represents how the rows of a Table become relationships in the graph database.
+ * A foreign key becomes a relationship from the node of the row holding it to the node
+ * it references, while each row of a "many to many" relationship table becomes a
+ * relationship between the two nodes it references
+ *
+ * @author zessin
+ */
+public class RelationshipMapping {
+    private final String type;
+    private final Table owner;
+    private final NodeMapping startNode;
+    private final NodeMapping endNode;
+    private final int[] startKeyIndexes;
+    private final int[] endKeyIndexes;
+    private final int[] propertyIndexes;
+    private final List<Constraint> foreignKeys;
+    private final List<Constraint> startForeignKeys;
+
+    /**
+     * Initializes the RelationshipMapping with all the needed information
+     * @param type The type of the relationships
+     * @param owner The Table whose rows hold the relationships
+     * @param startNode The NodeMapping of the relationships' start nodes
+     * @param endNode The NodeMapping of the relationships' end nodes
+     * @param startKeyIndexes The positions of the columns which identify the start node (null if it's the owner's own node)
+     * @param endKeyIndexes The positions of the columns which identify the end node
+     * @param propertyIndexes The positions of the columns which become properties of the relationships
+     * @param foreignKeys The foreign key Constraints which reference the end node
+     * @param startForeignKeys The foreign key Constraints which reference the start node (null if it's the owner's own node)
+     */
+    public RelationshipMapping(String type, Table owner, NodeMapping startNode, NodeMapping endNode,
+                               int[] startKeyIndexes, int[] endKeyIndexes, int[] propertyIndexes,
+                               List<Constraint> foreignKeys, List<Constraint> startForeignKeys) {
+        super();
+        this.type = type;
+        this.owner = owner;
+        this.startNode = startNode;
+        this.endNode = endNode;
+        this.startKeyIndexes = startKeyIndexes;
+        this.endKeyIndexes = endKeyIndexes;
+        this.propertyIndexes = propertyIndexes;
+        this.foreignKeys = foreignKeys;
+        this.startForeignKeys = startForeignKeys;
+    }
+
+    /**
+     * Builds the identifier of the start node of the relationship held by a row
+     * @param row The values of the row, in the order of the owner's columns
+     * @param rowNumber The number of the row in the owner Table
+     * @return The identifier of the start node (null if some of the key values is null)
+     */
+    public String getStartId(Row row, long rowNumber) {
+        if (startKeyIndexes == null) {
+            return startNode.getId(row, rowNumber);
+        }
+
+        return GraphMapping.buildKey(row, startKeyIndexes);
+    }
+
+    /**
+     * Builds the identifier of the end node of the relationship held by a row
+     * @param row The values of the row, in the order of the owner's columns
+     * @return The identifier of the end node (null if some of the key values is null)
+     */
+    public String getEndId(Row row) {
+        return GraphMapping.buildKey(row, endKeyIndexes);
+    }
+
+    /**
+     * Provides the columns which become properties of the relationships
+     * @param ownerColumns The columns of the owner Table, in the order they're read
+     * @return The property columns, in the order of the property indexes
+     */
+    public Column[] getPropertyColumns(List<Column> ownerColumns) {
+        final Column[] propertyColumns = new Column[propertyIndexes.length];
+
+        for (int i = 0; i < propertyIndexes.length; i++) {
+            propertyColumns[i] = ownerColumns.get(propertyIndexes[i]);
+        }
+
+        return propertyColumns;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Table getOwner() {
+        return owner;
+    }
+
+    public NodeMapping getStartNode() {
+        return startNode;
+    }
+
+    public NodeMapping getEndNode() {
+        return endNode;
+    }
+
+    public int[] getStartKeyIndexes() {
+        return startKeyIndexes;
+    }
+
+    public int[] getEndKeyIndexes() {
+        return endKeyIndexes;
+    }
+
+    public int[] getPropertyIndexes() {
+        return propertyIndexes;
+    }
+
+    public List<Constraint> getForeignKeys() {
+        return foreignKeys;
+    }
+
+    public List<Constraint> getStartForeignKeys() {
+        return startForeignKeys;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s-[:%s]->%s", startNode, type, endNode);
+    }
+}
@@ -0,0 +1,46 @@
+package com.uem.migration;
+
+import java.io.IOException;
+
+import com.uem.dbstructure.Table;
+
+/**
+ * A GraphRecordWriter which keeps the output of every Table apart, so a restarted migration can skip
+ * the tables it already finished and resume the others from their last checkpoint
+ *
+ * @author zessin
+ */
+public interface ResumableRecordWriter extends GraphRecordWriter {
+    /**
+     * Tells whether the output of this migration can actually be resumed by a restarted one,
+     * which may depend on how the writer was configured
+     * @return true when the writer is resumable, false otherwise
+     */
+    boolean isResumable();
+
+    /**
+     * Forces the records written so far for a Table to disk and tells where its output ends.
+     * Only called when the writer is resumable, between two batches of the Table
+     * @param table The Table being migrated
+     * @return The length of every output file of the Table, in bytes
+     * @throws IOException When the output couldn't be written for some reason
+     */
+    long[] checkpoint(Table table) throws IOException;
+
+    /**
+     * Tells whether the output of a Table still holds everything written up to a checkpoint
+     * @param table The Table whose output is checked
+     * @param lengths The lengths returned by checkpoint
+     * @return true when the Table can be resumed from the checkpoint, false otherwise
+     */
+    boolean canResume(Table table, long[] lengths);
+
+    /**
+     * Starts writing the records produced by the rows of a Table after the ones written up to a checkpoint,
+     * dropping whatever was written after it. Takes the place of startTable
+     * @param table The Table whose remaining rows will be migrated
+     * @param lengths The lengths returned by checkpoint
+     * @throws IOException When the output couldn't be written for some reason
+     */
+    void resumeTable(Table table, long[] lengths) throws IOException;
+}
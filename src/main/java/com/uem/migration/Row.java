@@ -0,0 +1,49 @@
+package com.uem.migration;
+
+import com.uem.dbstructure.ColumnType;
+
+/**
+ * Gives access to the values of a row read from a Table, in the order of its columns.
+ * Numbers are kept as primitives, so writers which can print them directly (see ColumnType.isIntegral
+ * and ColumnType.isFloatingPoint) don't need the String returned by getString, which is created on demand
+ *
+ * @author zessin
+ */
+public interface Row {
+    int getColumnCount();
+
+    /**
+     * Tells whether the value of a column is null
+     * @param column The position of the column
+     * @return true when the value is null, false otherwise
+     */
+    boolean isNull(int column);
+
+    /**
+     * Provides the type in which the value of a column was read
+     * @param column The position of the column
+     * @return The ColumnType of the column
+     */
+    ColumnType getType(int column);
+
+    /**
+     * Provides the value of an integral column
+     * @param column The position of the column
+     * @return The value (0 when it's null)
+     */
+    long getLong(int column);
+
+    /**
+     * Provides the value of a floating point column
+     * @param column The position of the column
+     * @return The value (0 when it's null)
+     */
+    double getDouble(int column);
+
+    /**
+     * Provides the value of any column as text. Numbers are converted and binary values are written in hexadecimal
+     * @param column The position of the column
+     * @return The value as text (null when it's null)
+     */
+    String getString(int column);
+}
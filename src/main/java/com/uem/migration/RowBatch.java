@@ -0,0 +1,315 @@
+package com.uem.migration;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.uem.dbstructure.ColumnType;
+import com.uem.dbstructure.Table;
+
+/**
+ * Holds a batch of rows read from a single Table while it moves through the stages of the
+ * MigrationPipeline, together with the node and relationship identifiers computed for them.
+ * Values are stored by column, in arrays of the column's type: integral columns in longs,
+ * floating point columns in doubles, binary columns in byte arrays and the rest as text.
+ * Batches are pooled and reused, so their arrays are only allocated the first time a column
+ * position holds a given kind of value
+ *
+ * @author zessin
+ */
+class RowBatch {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final int capacity;
+    private Table table;
+    private NodeMapping node;
+    private List<RelationshipMapping> relationships;
+    private ColumnType[] types;
+    private int columnCount;
+    private boolean[][] nulls;
+    private long[][] longs;
+    private double[][] doubles;
+    private byte[][][] bytes;
+    private String[][] texts;
+    private String[] nodeIds;
+    private String[][] startIds;
+    private String[][] endIds;
+    private long firstRowNumber;
+    private int size;
+    private int tableBatchCount;
+    private Object lastKey;
+    private Object mark;
+
+    /**
+     * Initializes an empty batch
+     * @param capacity The maximum number of rows in the batch
+     */
+    RowBatch(int capacity) {
+        this.capacity = capacity;
+        nulls = new boolean[0][];
+        longs = new long[0][];
+        doubles = new double[0][];
+        bytes = new byte[0][][];
+        texts = new String[0][];
+        nodeIds = new String[capacity];
+        startIds = new String[0][];
+        endIds = new String[0][];
+    }
+
+    /**
+     * Prepares the batch to receive rows of a Table
+     * @param table The Table whose rows will be read
+     * @param types The types in which the columns are read
+     * @param node The NodeMapping of the Table (null for relationship tables)
+     * @param relationships The RelationshipMappings held by the Table's rows
+     * @param firstRowNumber The number, in the Table, of the first row of the batch
+     */
+    void reset(Table table, ColumnType[] types, NodeMapping node, List<RelationshipMapping> relationships, long firstRowNumber) {
+        this.table = table;
+        this.types = types;
+        this.node = node;
+        this.relationships = relationships;
+        this.firstRowNumber = firstRowNumber;
+        columnCount = types.length;
+        size = 0;
+        tableBatchCount = 0;
+        lastKey = null;
+        mark = null;
+
+        if (nulls.length < columnCount) {
+            nulls = grow(nulls, columnCount);
+            longs = grow(longs, columnCount);
+            doubles = grow(doubles, columnCount);
+            bytes = grow(bytes, columnCount);
+            texts = grow(texts, columnCount);
+        }
+
+        for (int column = 0; column < columnCount; column++) {
+            if (nulls[column] == null) {
+                nulls[column] = new boolean[capacity];
+            }
+            if (types[column].isIntegral() && longs[column] == null) {
+                longs[column] = new long[capacity];
+            } else if (types[column].isFloatingPoint() && doubles[column] == null) {
+                doubles[column] = new double[capacity];
+            } else if (types[column].isBinary() && bytes[column] == null) {
+                bytes[column] = new byte[capacity][];
+            } else if (texts[column] == null) {
+                texts[column] = new String[capacity];
+            }
+        }
+
+        if (startIds.length < relationships.size()) {
+            startIds = new String[relationships.size()][capacity];
+            endIds = new String[relationships.size()][capacity];
+        }
+    }
+
+    /**
+     * Reserves the position of the next row
+     * @return The position which shall receive the values of the row
+     */
+    int nextRow() {
+        return size++;
+    }
+
+    void setNull(int column, int row) {
+        nulls[column][row] = true;
+    }
+
+    void setLong(int column, int row, long value) {
+        nulls[column][row] = false;
+        longs[column][row] = value;
+    }
+
+    void setDouble(int column, int row, double value) {
+        nulls[column][row] = false;
+        doubles[column][row] = value;
+    }
+
+    void setBytes(int column, int row, byte[] value) {
+        nulls[column][row] = value == null;
+        bytes[column][row] = value;
+    }
+
+    void setText(int column, int row, String value) {
+        nulls[column][row] = value == null;
+        texts[column][row] = value;
+    }
+
+    /**
+     * Tells whether the batch can't receive more rows
+     * @return true when the batch is full, false otherwise
+     */
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Tells whether this is the last batch of its Table
+     * @return true when it's the last batch, false otherwise
+     */
+    boolean isLast() {
+        return tableBatchCount > 0;
+    }
+
+    Table getTable() {
+        return table;
+    }
+
+    NodeMapping getNode() {
+        return node;
+    }
+
+    List<RelationshipMapping> getRelationships() {
+        return relationships;
+    }
+
+    String[] getNodeIds() {
+        return nodeIds;
+    }
+
+    String[] getStartIds(int relationshipIndex) {
+        return startIds[relationshipIndex];
+    }
+
+    String[] getEndIds(int relationshipIndex) {
+        return endIds[relationshipIndex];
+    }
+
+    long getFirstRowNumber() {
+        return firstRowNumber;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getTableBatchCount() {
+        return tableBatchCount;
+    }
+
+    /**
+     * Marks this batch as the last one of its Table
+     * @param tableBatchCount How many batches the Table produced, including this one
+     */
+    void setTableBatchCount(int tableBatchCount) {
+        this.tableBatchCount = tableBatchCount;
+    }
+
+    /**
+     * Provides the key of the last row of the batch, when its Table is read in key order
+     * @return The key, as read by ChangeTracker.readValue (null if the Table isn't read in key order)
+     */
+    Object getLastKey() {
+        return lastKey;
+    }
+
+    void setLastKey(Object lastKey) {
+        this.lastKey = lastKey;
+    }
+
+    /**
+     * Provides the highest value of the Table's monotonic column read up to the last row of the batch
+     * @return The value (null if the Table isn't tracked or no value was read)
+     */
+    Object getMark() {
+        return mark;
+    }
+
+    void setMark(Object mark) {
+        this.mark = mark;
+    }
+
+    /**
+     * Copies an array of column arrays into a longer one, keeping the column arrays already allocated
+     * @param columns The current array
+     * @param length The new length
+     * @return The longer array
+     */
+    private static <T> T[] grow(T[] columns, int length) {
+        return Arrays.copyOf(columns, length);
+    }
+
+    /**
+     * A view of one row of a batch. Each stage of the pipeline keeps its own view
+     * and moves it along the rows, so reading a row allocates nothing
+     */
+    static class View implements Row {
+        private RowBatch batch;
+        private int row;
+
+        /**
+         * Moves the view to a row
+         * @param batch The batch which holds the row
+         * @param row The position of the row in the batch
+         * @return This view
+         */
+        View moveTo(RowBatch batch, int row) {
+            this.batch = batch;
+            this.row = row;
+            return this;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return batch.columnCount;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return batch.nulls[column][row];
+        }
+
+        @Override
+        public ColumnType getType(int column) {
+            return batch.types[column];
+        }
+
+        @Override
+        public long getLong(int column) {
+            return isNull(column) ? 0 : batch.longs[column][row];
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return isNull(column) ? 0 : batch.doubles[column][row];
+        }
+
+        @Override
+        public String getString(int column) {
+            if (isNull(column)) {
+                return null;
+            }
+
+            final ColumnType type = batch.types[column];
+
+            if (type.isIntegral()) {
+                return Long.toString(batch.longs[column][row]);
+            }
+            if (type.isFloatingPoint()) {
+                return Double.toString(batch.doubles[column][row]);
+            }
+            if (type.isBinary()) {
+                return toHex(batch.bytes[column][row]);
+            }
+
+            return batch.texts[column][row];
+        }
+
+        /**
+         * Writes some bytes in hexadecimal
+         * @param value The bytes
+         * @return The hexadecimal text
+         */
+        private String toHex(byte[] value) {
+            final char[] hex = new char[value.length * 2];
+
+            for (int i = 0; i < value.length; i++) {
+                hex[2 * i] = HEX_DIGITS[(value[i] >> 4) & 0xF];
+                hex[2 * i + 1] = HEX_DIGITS[value[i] & 0xF];
+            }
+
+            return new String(hex);
+        }
+    }
+}
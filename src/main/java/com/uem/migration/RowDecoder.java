@@ -0,0 +1,87 @@
+package com.uem.migration;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+import com.uem.dbstructure.Column;
+import com.uem.dbstructure.ColumnType;
+
+/**
+ * Reads the rows of a ResultSet into a RowBatch, each column through the getter of its type,
+ * so numbers go straight into the batch's primitive arrays instead of becoming Strings.
+ * The type of a column comes from the loaded metadata when it's known; otherwise it's
+ * taken from the ResultSetMetaData once, when the decoder is created. Booleans are read as
+ * true or false, whatever text the database prints them as (e.g. t and f)
+ *
+ * @author zessin
+ */
+class RowDecoder {
+    private final ColumnType[] types;
+
+    /**
+     * Initializes the decoder for the query which reads some columns
+     * @param columns The columns read, in the order of the query
+     * @param metaData The ResultSetMetaData of the query
+     * @throws SQLException When the ResultSetMetaData couldn't be read for some reason
+     */
+    RowDecoder(List<Column> columns, ResultSetMetaData metaData) throws SQLException {
+        types = new ColumnType[columns.size()];
+
+        for (int i = 0; i < types.length; i++) {
+            final ColumnType type = columns.get(i).getType();
+
+            types[i] = type != null ? type : ColumnType.getColumnTypeByJdbcType(metaData.getColumnType(i + 1),
+                                                                                  metaData.getPrecision(i + 1),
+                                                                                  metaData.getScale(i + 1));
+        }
+    }
+
+    /**
+     * Provides the types in which the columns are read
+     * @return The ColumnTypes, in the order of the query
+     */
+    ColumnType[] getTypes() {
+        return types;
+    }
+
+    /**
+     * Reads the current row of a ResultSet into a position of a batch
+     * @param resultSet The ResultSet, positioned on the row
+     * @param batch The batch which receives the values
+     * @param row The position of the row in the batch
+     * @throws SQLException When the values couldn't be read for some reason
+     */
+    void decode(ResultSet resultSet, RowBatch batch, int row) throws SQLException {
+        for (int i = 0; i < types.length; i++) {
+            final ColumnType type = types[i];
+
+            if (type.isIntegral()) {
+                final long value = resultSet.getLong(i + 1);
+
+                if (resultSet.wasNull()) {
+                    batch.setNull(i, row);
+                } else {
+                    batch.setLong(i, row, value);
+                }
+            } else if (type.isFloatingPoint()) {
+                final double value = resultSet.getDouble(i + 1);
+
+                if (resultSet.wasNull()) {
+                    batch.setNull(i, row);
+                } else {
+                    batch.setDouble(i, row, value);
+                }
+            } else if (type == ColumnType.BOOLEAN) {
+                final boolean value = resultSet.getBoolean(i + 1);
+
+                batch.setText(i, row, resultSet.wasNull() ? null : Boolean.toString(value));
+            } else if (type.isBinary()) {
+                batch.setBytes(i, row, resultSet.getBytes(i + 1));
+            } else {
+                batch.setText(i, row, resultSet.getString(i + 1));
+            }
+        }
+    }
+}
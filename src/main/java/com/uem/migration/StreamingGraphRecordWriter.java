@@ -0,0 +1,134 @@
+package com.uem.migration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.uem.dbstructure.Column;
+import com.uem.dbstructure.Table;
+import com.uem.export.GraphStreamWriter;
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Sends the nodes and relationships produced by the DataMigrator to a GraphStreamWriter,
+ * so the table data can be exported in the same streaming formats used for the Graph model.
+ * The document of a failed migration is left without its end, so it can't be read as a complete one
+ *
+ * @author zessin
+ */
+public class StreamingGraphRecordWriter implements GraphRecordWriter {
+    private final GraphStreamWriter streamWriter;
+    private final Map<NodeMapping, String[]> nodeAttributeNames;
+    private final Map<NodeMapping, String[]> nodeAttributeValues;
+    private final Map<RelationshipMapping, String[]> relationshipAttributeNames;
+    private final Map<RelationshipMapping, String[]> relationshipAttributeValues;
+    private boolean started;
+    private boolean aborted;
+
+    /**
+     * Initializes the writer for a given format
+     * @param streamWriter The GraphStreamWriter which writes the document
+     */
+    public StreamingGraphRecordWriter(GraphStreamWriter streamWriter) {
+        super();
+        this.streamWriter = streamWriter;
+        nodeAttributeNames = new HashMap<>();
+        nodeAttributeValues = new HashMap<>();
+        relationshipAttributeNames = new HashMap<>();
+        relationshipAttributeValues = new HashMap<>();
+        started = false;
+        aborted = false;
+    }
+
+    @Override
+    public void start(GraphMapping mapping) throws IOException {
+        final List<String> nodeAttributes = new ArrayList<>();
+        final List<String> edgeAttributes = new ArrayList<>();
+
+        for (final NodeMapping node : mapping.getNodes()) {
+            final String[] names = node.getColumns().stream().map(c -> mapping.getPropertyName(c)).toArray(String[]::new);
+
+            nodeAttributeNames.put(node, names);
+            nodeAttributeValues.put(node, new String[names.length]);
+            for (final String name : names) {
+                if (!nodeAttributes.contains(name)) {
+                    nodeAttributes.add(name);
+                }
+            }
+        }
+
+        for (final RelationshipMapping relationship : mapping.getRelationships()) {
+            final Column[] columns = relationship.getPropertyColumns(mapping.getColumns(relationship.getOwner()));
+            final String[] names = new String[columns.length];
+
+            for (int i = 0; i < columns.length; i++) {
+                names[i] = mapping.getPropertyName(columns[i]);
+                if (!edgeAttributes.contains(names[i])) {
+                    edgeAttributes.add(names[i]);
+                }
+            }
+
+            relationshipAttributeNames.put(relationship, names);
+            relationshipAttributeValues.put(relationship, new String[names.length]);
+        }
+
+        streamWriter.startGraph(true, nodeAttributes, edgeAttributes);
+        started = true;
+    }
+
+    @Override
+    public void startTable(Table table) throws IOException {
+        // The document is a single stream, there's nothing to open per table
+    }
+
+    @Override
+    public void writeNode(NodeMapping node, String id, Row row) throws IOException {
+        final String[] values = nodeAttributeValues.get(node);
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = row.getString(i);
+        }
+
+        streamWriter.writeNode(node.getLabel(), id, nodeAttributeNames.get(node), values);
+    }
+
+    @Override
+    public void writeRelationship(RelationshipMapping relationship, String startId, String endId, Row row) throws IOException {
+        final String[] values = relationshipAttributeValues.get(relationship);
+        final int[] propertyIndexes = relationship.getPropertyIndexes();
+
+        for (int i = 0; i < propertyIndexes.length; i++) {
+            values[i] = row.getString(propertyIndexes[i]);
+        }
+
+        streamWriter.writeEdge(relationship.getType(),
+                               relationship.getStartNode().getLabel(), startId,
+                               relationship.getEndNode().getLabel(), endId,
+                               relationshipAttributeNames.get(relationship), values);
+    }
+
+    @Override
+    public void finishTable(Table table) throws IOException {
+        // Every record is written as soon as it's produced
+    }
+
+    @Override
+    public void abort() {
+        aborted = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (started && aborted) {
+                ApplicationLogger.warning("The migration failed, so the data document was left unfinished");
+            } else if (started) {
+                streamWriter.endGraph();
+            }
+        } finally {
+            streamWriter.close();
+        }
+    }
+}
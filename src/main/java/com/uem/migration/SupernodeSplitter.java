@@ -0,0 +1,567 @@
+package com.uem.migration;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.uem.dbconfig.DatabaseConnection;
+import com.uem.dbstructure.Column;
+import com.uem.dbstructure.ColumnType;
+import com.uem.dbstructure.Table;
+import com.uem.util.ApplicationLogger;
+
+/**
+ * Finds the tables whose nodes would become supernodes, i.e. small lookup tables (status codes, countries)
+ * whose rows are referenced by a great number of rows, and changes how the relationships to them are written.
+ * The expected degree of the nodes of every table comes from the table statistics: the rows of each
+ * referencing table divided by the rows of the referenced one. A histogram of those degrees is logged,
+ * and a table is taken as a supernode table when it has few rows but a high expected degree.
+ * <p>
+ * With the PROPERTY strategy, the foreign keys to a supernode table are not written as relationships:
+ * the referenced row is loaded in memory and its values become properties of the referencing node.
+ * With the BUCKET strategy, the relationships are spread over a fixed number of types (TYPE_0, TYPE_1...),
+ * chosen by the other node, so a traversal can reach a supernode through a fraction of its relationships.
+ * This class sits in front of the GraphRecordWriter, which only sees the relationships actually written,
+ * and is resumable exactly when that writer is
+ *
+ * @author zessin
+ */
+public class SupernodeSplitter implements ResumableRecordWriter {
+    private static final int HISTOGRAM_BUCKETS = 8;
+
+    private final GraphMapping mapping;
+    private final GraphRecordWriter writer;
+    private final SupernodeStrategy strategy;
+    private final long minDegree;
+    private final int maxRows;
+    private final int buckets;
+    private final Map<NodeMapping, FoldedRow> foldedRows;
+    private final Map<RelationshipMapping, RelationshipMapping[]> bucketedRelationships;
+    private final Set<RelationshipMapping> startSupernodeRelationships;
+    private final Set<RelationshipMapping> foldedRelationships;
+
+    /**
+     * Initializes the splitter
+     * @param mapping The GraphMapping used for the whole migration
+     * @param writer The GraphRecordWriter which receives the records
+     * @param strategy How the relationships to supernodes are written
+     * @param minDegree The expected number of relationships per node from which a table holds supernodes
+     * @param maxRows The maximum number of rows of a table which holds supernodes
+     * @param buckets How many types the relationships to supernodes are spread over (BUCKET strategy)
+     */
+    public SupernodeSplitter(GraphMapping mapping, GraphRecordWriter writer, SupernodeStrategy strategy,
+                             long minDegree, int maxRows, int buckets) {
+        super();
+        this.mapping = mapping;
+        this.writer = writer;
+        this.strategy = strategy;
+        this.minDegree = minDegree;
+        this.maxRows = maxRows;
+        this.buckets = Math.max(1, buckets);
+        foldedRows = new HashMap<>();
+        bucketedRelationships = new HashMap<>();
+        startSupernodeRelationships = new HashSet<>();
+        foldedRelationships = new HashSet<>();
+    }
+
+    /**
+     * Logs the histogram of the expected node degrees, finds the supernode tables and applies the strategy
+     * to the relationships which reference them. Must be called before the writer is started
+     * @param connection The database connection used to load the rows folded into properties
+     * @param schema The schema which holds the tables
+     * @param fetchSize How many rows are fetched at a time
+     * @throws SQLException When a supernode table couldn't be queried for some reason
+     */
+    public void split(DatabaseConnection connection, String schema, int fetchSize) throws SQLException {
+        final Map<NodeMapping, Double> degrees = estimateDegrees();
+
+        if (degrees.isEmpty()) {
+            if (strategy != SupernodeStrategy.NONE) {
+                ApplicationLogger.warning("Supernodes can't be found without table statistics, their relationships will be written as they are");
+            }
+            return;
+        }
+
+        logDegreeHistogram(degrees);
+
+        final Map<NodeMapping, Lookup> lookups = new HashMap<>();
+
+        for (final RelationshipMapping relationship : mapping.getSourceRelationships()) {
+            final boolean endSupernode = isSupernode(relationship.getEndNode(), degrees);
+            final boolean startSupernode = relationship.getStartKeyIndexes() != null && isSupernode(relationship.getStartNode(), degrees);
+
+            if (!endSupernode && !startSupernode) {
+                continue;
+            }
+
+            if (strategy == SupernodeStrategy.BUCKET) {
+                bucket(relationship, !endSupernode);
+            } else if (strategy == SupernodeStrategy.PROPERTY && relationship.getStartKeyIndexes() == null) {
+                final NodeMapping endNode = relationship.getEndNode();
+
+                if (!lookups.containsKey(endNode)) {
+                    lookups.put(endNode, loadLookup(connection, schema, fetchSize, endNode));
+                }
+                if (lookups.get(endNode) != null) {
+                    fold(relationship, lookups.get(endNode));
+                }
+            }
+        }
+
+        foldedRows.values().forEach(f -> f.build());
+    }
+
+    @Override
+    public void start(GraphMapping mapping) throws IOException {
+        writer.start(mapping);
+    }
+
+    @Override
+    public void startTable(Table table) throws IOException {
+        writer.startTable(table);
+    }
+
+    @Override
+    public void writeNode(NodeMapping node, String id, Row row) throws IOException {
+        final FoldedRow foldedRow = foldedRows.get(node);
+
+        writer.writeNode(node, id, foldedRow == null ? row : foldedRow.moveTo(row));
+    }
+
+    @Override
+    public void writeRelationship(RelationshipMapping relationship, String startId, String endId, Row row) throws IOException {
+        final RelationshipMapping[] variants = bucketedRelationships.get(relationship);
+
+        if (variants != null) {
+            final String otherId = startSupernodeRelationships.contains(relationship) ? endId : startId;
+            writer.writeRelationship(variants[Math.floorMod(otherId.hashCode(), variants.length)], startId, endId, row);
+        } else if (!foldedRelationships.contains(relationship)) {
+            writer.writeRelationship(relationship, startId, endId, row);
+        }
+    }
+
+    @Override
+    public void finishTable(Table table) throws IOException {
+        writer.finishTable(table);
+    }
+
+    @Override
+    public void abort() {
+        writer.abort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    @Override
+    public boolean isResumable() {
+        return writer instanceof ResumableRecordWriter && ((ResumableRecordWriter) writer).isResumable();
+    }
+
+    @Override
+    public long[] checkpoint(Table table) throws IOException {
+        return ((ResumableRecordWriter) writer).checkpoint(table);
+    }
+
+    @Override
+    public boolean canResume(Table table, long[] lengths) {
+        return ((ResumableRecordWriter) writer).canResume(table, lengths);
+    }
+
+    @Override
+    public void resumeTable(Table table, long[] lengths) throws IOException {
+        ((ResumableRecordWriter) writer).resumeTable(table, lengths);
+    }
+
+    /**
+     * Estimates how many relationships reach each node of every table, on average
+     * @return The expected degree by NodeMapping (empty map if the tables have no statistics)
+     */
+    private Map<NodeMapping, Double> estimateDegrees() {
+        final Map<NodeMapping, Double> degrees = new LinkedHashMap<>();
+
+        for (final NodeMapping node : mapping.getNodes()) {
+            if (getRowCount(node.getTable()) > 0) {
+                degrees.put(node, 0.0);
+            }
+        }
+
+        for (final RelationshipMapping relationship : mapping.getSourceRelationships()) {
+            final long ownerRows = getRowCount(relationship.getOwner());
+
+            if (ownerRows < 0) {
+                continue;
+            }
+            if (degrees.containsKey(relationship.getEndNode())) {
+                addDegree(degrees, relationship.getEndNode(), ownerRows);
+            }
+            if (relationship.getStartKeyIndexes() != null && degrees.containsKey(relationship.getStartNode())) {
+                addDegree(degrees, relationship.getStartNode(), ownerRows);
+            }
+        }
+
+        return degrees;
+    }
+
+    /**
+     * Adds the relationships held by the rows of a table to the expected degree of the nodes they reference
+     * @param degrees The expected degree by NodeMapping
+     * @param node The NodeMapping referenced
+     * @param relationships How many relationships reference the node's table
+     */
+    private void addDegree(Map<NodeMapping, Double> degrees, NodeMapping node, long relationships) {
+        degrees.put(node, degrees.get(node) + (double) relationships / getRowCount(node.getTable()));
+    }
+
+    /**
+     * Logs how many nodes fall in each power of ten of expected degree, with the tables which hold them
+     * @param degrees The expected degree by NodeMapping
+     */
+    private void logDegreeHistogram(Map<NodeMapping, Double> degrees) {
+        final long[] nodeCounts = new long[HISTOGRAM_BUCKETS];
+        final List<List<String>> tables = new ArrayList<>();
+
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            tables.add(new ArrayList<>());
+        }
+
+        degrees.forEach((node, degree) -> {
+            final int bucket = degree < 1 ? 0 : Math.min(HISTOGRAM_BUCKETS - 1, 1 + (int) Math.log10(degree));
+
+            nodeCounts[bucket] += getRowCount(node.getTable());
+            tables.get(bucket).add(node.getLabel());
+        });
+
+        ApplicationLogger.info("Expected node degrees (relationships per node, from the table statistics):");
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            if (nodeCounts[i] > 0) {
+                ApplicationLogger.info(String.format("  %-14s %12d nodes  %s", getBucketLabel(i), nodeCounts[i], String.join(", ", tables.get(i))));
+            }
+        }
+
+        degrees.forEach((node, degree) -> {
+            if (isSupernode(node, degrees)) {
+                ApplicationLogger.warning(String.format("Table %s holds supernodes: %d rows with about %.0f relationships each",
+                                                        node.getTable(), getRowCount(node.getTable()), degree));
+            }
+        });
+    }
+
+    /**
+     * Provides the label of a histogram bucket
+     * @param bucket The position of the bucket
+     * @return The range of degrees of the bucket
+     */
+    private String getBucketLabel(int bucket) {
+        if (bucket == 0) {
+            return "< 1";
+        }
+
+        final long lower = (long) Math.pow(10, bucket - 1);
+
+        return bucket == HISTOGRAM_BUCKETS - 1 ? ">= " + lower : lower + " - " + (lower * 10 - 1);
+    }
+
+    /**
+     * Tells whether the nodes of a table are supernodes: few rows, each one referenced by many others
+     * @param node The NodeMapping of the table
+     * @param degrees The expected degree by NodeMapping
+     * @return true when the table holds supernodes, false otherwise
+     */
+    private boolean isSupernode(NodeMapping node, Map<NodeMapping, Double> degrees) {
+        final Double degree = degrees.get(node);
+
+        return degree != null && degree >= minDegree && getRowCount(node.getTable()) <= maxRows;
+    }
+
+    /**
+     * Spreads the relationships of a mapping over a fixed number of types, chosen by the node which isn't the supernode
+     * @param relationship The RelationshipMapping computed from the rows
+     * @param startSupernode Whether the supernodes are the start nodes, rather than the end nodes
+     */
+    private void bucket(RelationshipMapping relationship, boolean startSupernode) {
+        final RelationshipMapping[] variants = new RelationshipMapping[buckets];
+
+        for (int i = 0; i < buckets; i++) {
+            variants[i] = new RelationshipMapping(relationship.getType() + "_" + i,
+                                                  relationship.getOwner(),
+                                                  relationship.getStartNode(),
+                                                  relationship.getEndNode(),
+                                                  relationship.getStartKeyIndexes(),
+                                                  relationship.getEndKeyIndexes(),
+                                                  relationship.getPropertyIndexes(),
+                                                  relationship.getForeignKeys(),
+                                                  relationship.getStartForeignKeys());
+        }
+
+        bucketedRelationships.put(relationship, variants);
+        if (startSupernode) {
+            startSupernodeRelationships.add(relationship);
+        }
+        mapping.setWrittenRelationships(relationship, Arrays.asList(variants));
+
+        ApplicationLogger.info(String.format("Relationships %s will be spread over %d types", relationship, buckets));
+    }
+
+    /**
+     * Turns the relationships of a foreign key into properties of the referencing nodes
+     * @param relationship The RelationshipMapping computed from the rows
+     * @param lookup The rows of the referenced table
+     */
+    private void fold(RelationshipMapping relationship, Lookup lookup) {
+        final NodeMapping owner = mapping.getNode(relationship.getOwner());
+
+        foldedRows.computeIfAbsent(owner, o -> new FoldedRow(mapping.getColumns(o.getTable()).size()))
+                  .add(relationship, lookup);
+        foldedRelationships.add(relationship);
+        mapping.setWrittenRelationships(relationship, Collections.emptyList());
+
+        ApplicationLogger.info(String.format("Relationships %s will be written as properties of %s", relationship, owner));
+    }
+
+    /**
+     * Reads all the rows of a supernode table into memory
+     * @param connection The database connection used for the query
+     * @param schema The schema which holds the table
+     * @param fetchSize How many rows are fetched at a time
+     * @param node The NodeMapping of the table
+     * @return The rows read (null if the table has more rows than allowed)
+     * @throws SQLException When the table couldn't be queried for some reason
+     */
+    private Lookup loadLookup(DatabaseConnection connection, String schema, int fetchSize, NodeMapping node) throws SQLException {
+        final Table table = node.getTable();
+        final List<Column> columns = mapping.getColumns(table);
+        final String lookupQuery = mapping.buildSelectQuery(table, schema);
+
+        ApplicationLogger.info("Loading the rows of supernode table " + table);
+
+        final ResultSet resultSet = connection.query(lookupQuery, fetchSize);
+
+        try {
+            final RowDecoder decoder = new RowDecoder(columns, resultSet.getMetaData());
+            final Lookup lookup = new Lookup(node, columns, decoder.getTypes(), new RowBatch(maxRows));
+            final RowBatch.View view = new RowBatch.View();
+
+            lookup.rows.reset(table, lookup.types, node, Collections.emptyList(), 1);
+
+            while (resultSet.next()) {
+                if (lookup.rows.isFull()) {
+                    ApplicationLogger.warning(String.format("Table %s has more than %d rows, its relationships will be written as they are", table, maxRows));
+                    return null;
+                }
+
+                final int row = lookup.rows.nextRow();
+
+                decoder.decode(resultSet, lookup.rows, row);
+                lookup.positions.put(node.getId(view.moveTo(lookup.rows, row), row + 1), row);
+            }
+
+            return lookup;
+        } finally {
+            resultSet.close();
+            connection.closeStatement();
+        }
+    }
+
+    /**
+     * Provides the row count of a Table
+     * @param table The Table
+     * @return The number of rows (-1 if the Table has no statistics)
+     */
+    private static long getRowCount(Table table) {
+        return table.getStatistics() == null ? -1 : table.getStatistics().getRowCount();
+    }
+
+    /**
+     * The rows of a supernode table, held in memory, and the position of each one by key
+     */
+    private static class Lookup {
+        private final NodeMapping node;
+        private final List<Column> columns;
+        private final ColumnType[] types;
+        private final RowBatch rows;
+        private final Map<String, Integer> positions;
+
+        Lookup(NodeMapping node, List<Column> columns, ColumnType[] types, RowBatch rows) {
+            this.node = node;
+            this.columns = columns;
+            this.types = types;
+            this.rows = rows;
+            positions = new HashMap<>();
+        }
+    }
+
+    /**
+     * A row of a referencing table followed by the values of the rows it references in the supernode tables.
+     * The key columns of the referenced rows are left out, since the foreign key columns already hold them
+     */
+    private static class FoldedRow implements Row {
+        private final int readColumns;
+        private final List<RelationshipMapping> relationships;
+        private final List<Lookup> lookups;
+        private int[] foldOfColumn;
+        private int[] lookupColumn;
+        private int[] positions;
+        private RowBatch.View[] views;
+        private Row row;
+
+        /**
+         * Initializes the row with no folded foreign keys
+         * @param readColumns How many columns are read from the referencing table
+         */
+        FoldedRow(int readColumns) {
+            this.readColumns = readColumns;
+            relationships = new ArrayList<>();
+            lookups = new ArrayList<>();
+        }
+
+        /**
+         * Adds a foreign key whose referenced row is folded into the node
+         * @param relationship The RelationshipMapping of the foreign key
+         * @param lookup The rows of the referenced table
+         */
+        void add(RelationshipMapping relationship, Lookup lookup) {
+            relationships.add(relationship);
+            lookups.add(lookup);
+        }
+
+        /**
+         * Adds the folded columns to the node of the referencing table, named after the referenced table
+         * (or after the foreign key, when the table is referenced more than once), and prepares the row
+         */
+        void build() {
+            final List<Column> extraColumns = new ArrayList<>();
+            final List<Integer> folds = new ArrayList<>();
+            final List<Integer> columns = new ArrayList<>();
+            final Table owner = relationships.get(0).getOwner();
+
+            for (int f = 0; f < lookups.size(); f++) {
+                final Lookup lookup = lookups.get(f);
+                final boolean shared = lookups.stream().filter(l -> l == lookup).count() > 1;
+                final String prefix = shared ? relationships.get(f).getType() : lookup.node.getLabel();
+
+                for (int i = 0; i < lookup.columns.size(); i++) {
+                    if (isKeyColumn(lookup.node, i)) {
+                        continue;
+                    }
+
+                    final Column referencedColumn = lookup.columns.get(i);
+                    final Column column = new Column(owner, prefix + "_" + referencedColumn.getName());
+
+                    column.setType(referencedColumn.getType());
+                    extraColumns.add(column);
+                    folds.add(f);
+                    columns.add(i);
+                }
+            }
+
+            relationships.get(0).getStartNode().addColumns(extraColumns);
+            foldOfColumn = folds.stream().mapToInt(Integer::intValue).toArray();
+            lookupColumn = columns.stream().mapToInt(Integer::intValue).toArray();
+            positions = new int[lookups.size()];
+            views = new RowBatch.View[lookups.size()];
+            for (int f = 0; f < views.length; f++) {
+                views[f] = new RowBatch.View();
+            }
+        }
+
+        /**
+         * Moves to a row of the referencing table, finding the rows it references
+         * @param row The row of the referencing table
+         * @return This row
+         */
+        FoldedRow moveTo(Row row) {
+            this.row = row;
+
+            for (int f = 0; f < positions.length; f++) {
+                final String key = relationships.get(f).getEndId(row);
+                final Integer position = key == null ? null : lookups.get(f).positions.get(key);
+
+                positions[f] = position == null ? -1 : position;
+                if (position != null) {
+                    views[f].moveTo(lookups.get(f).rows, position);
+                }
+            }
+
+            return this;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return readColumns + foldOfColumn.length;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            if (column < readColumns) {
+                return row.isNull(column);
+            }
+
+            final int fold = foldOfColumn[column - readColumns];
+            return positions[fold] < 0 || views[fold].isNull(lookupColumn[column - readColumns]);
+        }
+
+        @Override
+        public ColumnType getType(int column) {
+            if (column < readColumns) {
+                return row.getType(column);
+            }
+
+            return lookups.get(foldOfColumn[column - readColumns]).types[lookupColumn[column - readColumns]];
+        }
+
+        @Override
+        public long getLong(int column) {
+            if (column < readColumns) {
+                return row.getLong(column);
+            }
+
+            return isNull(column) ? 0 : views[foldOfColumn[column - readColumns]].getLong(lookupColumn[column - readColumns]);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            if (column < readColumns) {
+                return row.getDouble(column);
+            }
+
+            return isNull(column) ? 0 : views[foldOfColumn[column - readColumns]].getDouble(lookupColumn[column - readColumns]);
+        }
+
+        @Override
+        public String getString(int column) {
+            if (column < readColumns) {
+                return row.getString(column);
+            }
+
+            return isNull(column) ? null : views[foldOfColumn[column - readColumns]].getString(lookupColumn[column - readColumns]);
+        }
+
+        /**
+         * Tells whether a column is part of the key of a node
+         * @param node The NodeMapping
+         * @param column The position of the column
+         * @return true when the column is a key column, false otherwise
+         */
+        private static boolean isKeyColumn(NodeMapping node, int column) {
+            for (final int keyIndex : node.getKeyIndexes()) {
+                if (keyIndex == column) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
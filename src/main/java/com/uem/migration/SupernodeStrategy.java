@@ -0,0 +1,34 @@
+package com.uem.migration;
+
+/**
+ * Provides all the ways in which the relationships to supernodes, i.e. the rows of small lookup tables
+ * referenced by a great number of rows, can be written
+ *
+ * @author zessin
+ */
+public enum SupernodeStrategy {
+    /** The relationships are written as they are */
+    NONE,
+    /** The foreign keys become properties of the referencing nodes, holding the values of the referenced row */
+    PROPERTY,
+    /** The relationships are spread over a fixed number of types, chosen by the other node of each relationship */
+    BUCKET;
+
+    /**
+     * Returns the correct SupernodeStrategy according to the property in the properties file
+     * @param supernodeStrategyProperty The value of the property in the file
+     * @return The correct SupernodeStrategy for the property (null if not found)
+     */
+    public static SupernodeStrategy getSupernodeStrategyByProperty(String supernodeStrategyProperty) {
+        switch (supernodeStrategyProperty.toUpperCase()) {
+            case "NONE":
+                return NONE;
+            case "PROPERTY":
+                return PROPERTY;
+            case "BUCKET":
+                return BUCKET;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.uem.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.uem.index.KeyHash;
+
+/**
+ * Summarizes the node keys of a Table in a way which doesn't depend on the order they're read:
+ * a row count plus, for each of a fixed number of chunks, the count, sum and xor of the 64 bit hashes
+ * of the keys which fall in that chunk. Two digests of the same keys are always equal, and when they
+ * differ the chunks tell roughly which part of the key space was lost or duplicated
+ *
+ * @author zessin
+ */
+class TableDigest {
+    static final int CHUNK_COUNT = 16;
+
+    private final long[] chunkCounts;
+    private final long[] chunkSums;
+    private final long[] chunkXors;
+    private long rowCount;
+
+    /**
+     * Initializes an empty digest
+     */
+    TableDigest() {
+        super();
+        chunkCounts = new long[CHUNK_COUNT];
+        chunkSums = new long[CHUNK_COUNT];
+        chunkXors = new long[CHUNK_COUNT];
+        rowCount = 0;
+    }
+
+    /**
+     * Adds a row to the digest
+     * @param key The key of the row's node (null when the row has no key, in which case it's only counted)
+     */
+    void add(String key) {
+        rowCount++;
+
+        if (key == null) {
+            return;
+        }
+
+        final long hash = KeyHash.hash(key);
+        final int chunk = (int) (hash >>> 60) & (CHUNK_COUNT - 1);
+
+        chunkCounts[chunk]++;
+        chunkSums[chunk] += hash;
+        chunkXors[chunk] ^= hash;
+    }
+
+    /**
+     * Adds rows which have no key to the digest, so they're only counted
+     * @param count The number of rows
+     */
+    void addRows(long count) {
+        rowCount += count;
+    }
+
+    /**
+     * Compares this digest with another one
+     * @param other The digest to be compared
+     * @return The chunks whose keys differ (empty list when the keys are the same)
+     */
+    List<Integer> findMismatchedChunks(TableDigest other) {
+        final List<Integer> chunks = new ArrayList<>();
+
+        for (int chunk = 0; chunk < CHUNK_COUNT; chunk++) {
+            if (chunkCounts[chunk] != other.chunkCounts[chunk] ||
+                chunkSums[chunk] != other.chunkSums[chunk] ||
+                chunkXors[chunk] != other.chunkXors[chunk]) {
+                chunks.add(chunk);
+            }
+        }
+
+        return chunks;
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    long getChunkCount(int chunk) {
+        return chunkCounts[chunk];
+    }
+
+    /**
+     * Provides the checksum of a chunk, combining the sum and the xor of its hashes
+     * @param chunk The position of the chunk
+     * @return The checksum of the chunk
+     */
+    long getChunkChecksum(int chunk) {
+        return chunkSums[chunk] * 31 + chunkXors[chunk];
+    }
+
+    /**
+     * Provides the checksum of the whole digest
+     * @return The checksum of all the chunks
+     */
+    long getChecksum() {
+        long checksum = rowCount;
+
+        for (int chunk = 0; chunk < CHUNK_COUNT; chunk++) {
+            checksum = checksum * 31 + getChunkChecksum(chunk);
+        }
+
+        return checksum;
+    }
+}
@@ -0,0 +1,149 @@
+package com.uem.migration;
+
+import java.util.TreeMap;
+
+/**
+ * Follows the batches of a Table written so far by the MigrationPipeline. Batches are written in the order
+ * they're transformed, which isn't the order they were read in, so the batches written after some batch
+ * still missing are held aside until it comes. A checkpoint is only taken when the rows written are exactly
+ * the ones up to the last row of the contiguous prefix, and nothing after it
+ *
+ * @author zessin
+ */
+class TableProgress {
+    private final long checkpointIntervalNanos;
+    private final TreeMap<Long, WrittenBatch> batchesAhead;
+    private int batchesWritten;
+    private int batchesExpected;
+    private long rowsWritten;
+    private long skippedNodes;
+    private long lastRowNumber;
+    private Object lastKey;
+    private Object mark;
+    private long lastCheckpoint;
+
+    /**
+     * Represents the end of a batch written before some batch which precedes it
+     */
+    private static class WrittenBatch {
+        private final long lastRowNumber;
+        private final Object lastKey;
+        private final Object mark;
+
+        WrittenBatch(long lastRowNumber, Object lastKey, Object mark) {
+            this.lastRowNumber = lastRowNumber;
+            this.lastKey = lastKey;
+            this.mark = mark;
+        }
+    }
+
+    /**
+     * Initializes the progress of a Table
+     * @param rowsBefore How many rows were written by a previous run which is resumed (0 for a Table migrated from its first row)
+     * @param checkpointIntervalNanos How many nanoseconds at least pass between two checkpoints
+     */
+    TableProgress(long rowsBefore, long checkpointIntervalNanos) {
+        this.checkpointIntervalNanos = checkpointIntervalNanos;
+        batchesAhead = new TreeMap<>();
+        lastRowNumber = rowsBefore;
+        lastCheckpoint = System.nanoTime();
+    }
+
+    /**
+     * Takes into account a batch just written, extending the contiguous prefix of written rows when possible
+     * @param batch The batch written
+     */
+    void batchWritten(RowBatch batch) {
+        batchesWritten++;
+        rowsWritten += batch.getSize();
+        if (batch.isLast()) {
+            batchesExpected = batch.getTableBatchCount();
+        }
+
+        batchesAhead.put(batch.getFirstRowNumber(), new WrittenBatch(batch.getFirstRowNumber() + batch.getSize() - 1,
+                                                                     batch.getLastKey(),
+                                                                     batch.getMark()));
+
+        while (!batchesAhead.isEmpty() && batchesAhead.firstKey() == lastRowNumber + 1) {
+            final WrittenBatch next = batchesAhead.pollFirstEntry().getValue();
+
+            lastRowNumber = next.lastRowNumber;
+            lastKey = next.lastKey;
+            mark = next.mark;
+        }
+    }
+
+    /**
+     * Takes into account the nodes of a batch which weren't written, because their key is null
+     * @param count How many nodes were skipped
+     */
+    void nodesSkipped(int count) {
+        skippedNodes += count;
+    }
+
+    /**
+     * Tells whether all the batches of the Table were written
+     * @return true when the Table is finished, false otherwise
+     */
+    boolean isFinished() {
+        return batchesExpected > 0 && batchesExpected == batchesWritten;
+    }
+
+    /**
+     * Tells whether a checkpoint may be taken now: the Table is read in key order, every row up to the end of
+     * the contiguous prefix is written and none after it, and enough time passed since the previous checkpoint
+     * @return true when a checkpoint is due, false otherwise
+     */
+    boolean isCheckpointDue() {
+        return lastKey != null &&
+               batchesAhead.isEmpty() &&
+               System.nanoTime() - lastCheckpoint >= checkpointIntervalNanos;
+    }
+
+    /**
+     * Remembers that a checkpoint was just taken
+     */
+    void checkpointTaken() {
+        lastCheckpoint = System.nanoTime();
+    }
+
+    /**
+     * Tells how many rows were written by this run
+     * @return The number of rows
+     */
+    long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Tells how many nodes of the rows written by this run were skipped, because their key is null
+     * @return The number of nodes
+     */
+    long getSkippedNodes() {
+        return skippedNodes;
+    }
+
+    /**
+     * Provides the number of the last row of the contiguous prefix of written rows
+     * @return The number of the row (the rows before the resumed ones included)
+     */
+    long getLastRowNumber() {
+        return lastRowNumber;
+    }
+
+    /**
+     * Provides the key of the last row of the contiguous prefix of written rows
+     * @return The key (null if the Table isn't read in key order, or no batch of the prefix was written)
+     */
+    Object getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * Provides the highest value of the Table's monotonic column read up to the last row of the contiguous prefix
+     * @return The value (null if the Table isn't tracked or no value was read)
+     */
+    Object getMark() {
+        return mark;
+    }
+}
@@ -1,43 +1,106 @@
 package com.uem.util;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Date;
-import java.util.logging.FileHandler;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.logging.Level;
-import java.util.logging.LogRecord;
-import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
 
 /**
- * Utility class which provides the logging methods for the application
+ * Utility class which provides the logging methods for the application.
+ * A message is only put in a bounded ring buffer by the calling thread (which waits when the buffer
+ * is full); a single writer thread takes the messages from the buffer in batches and writes them
+ * to the log file, formatting the date at most once per second. The messages below the enabled
+ * level are discarded before being built, when given as suppliers. The buffer is flushed by
+ * shutdown, which is also run when the JVM exits
  *
  * @author zessin
  */
 public class ApplicationLogger {
     public static final String LOG_FILE_NAME = "results.log";
 
-    private static ApplicationLogger applicationLogger;
-    private Logger logger;
+    private static final int BUFFER_CAPACITY     = 8192;
+    private static final String WRITER_THREAD    = "rtg-log-writer";
+    private static final long MILLIS_PER_SECOND  = 1000;
+
+    private final Level[] levels;
+    private final long[] timestamps;
+    private final String[] messages;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private final Condition written;
+    private final Thread writerThread;
+    private long enqueuedCount;
+    private long writtenCount;
+    private boolean closed;
+    private ChannelTextWriter out;
+    private long formattedSecond;
+    private String formattedDate;
+
+    private static volatile Level enabledLevel = Level.INFO;
 
     /**
-     * Initializes the class with the desired format for the log file
+     * Holds the single instance of the ApplicationLogger, created by the JVM the first time
+     * a message is logged, which is safe whatever the number of threads logging
+     */
+    private static class InstanceHolder {
+        private static final ApplicationLogger INSTANCE = new ApplicationLogger();
+    }
+
+    /**
+     * Initializes the class, opening the log file and starting the writer thread
      */
     private ApplicationLogger() {
-        try {
-            final FileHandler handler = new FileHandler(LOG_FILE_NAME);
-            final SimpleFormatter simpleFormatter = new SimpleFormatter() {
-                @Override
-                public synchronized String format(LogRecord record) {
-                    return String.format("[%s] [%s]: %s%n", new Date(), record.getLevel().getLocalizedName(), record.getMessage());
-                }
-            };
-            handler.setFormatter(simpleFormatter);
+        levels = new Level[BUFFER_CAPACITY];
+        timestamps = new long[BUFFER_CAPACITY];
+        messages = new String[BUFFER_CAPACITY];
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+        written = lock.newCondition();
+        formattedSecond = -1;
 
-            logger = Logger.getLogger(ApplicationLogger.class.getName());
-            logger.addHandler(handler);
-            logger.setUseParentHandlers(false);
-        } catch (final Exception ex) {
+        try {
+            out = ChannelTextWriter.open(new File(LOG_FILE_NAME));
+        } catch (final IOException ex) {
             ex.printStackTrace();
         }
+
+        writerThread = new Thread(this::writeMessages, WRITER_THREAD);
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(ApplicationLogger::shutdown));
+    }
+
+    /**
+     * Returns the correct Level according to the property in the properties file
+     * @param levelProperty The value of the property in the file
+     * @return The correct Level for the property (null if not found)
+     */
+    public static Level getLevelByProperty(String levelProperty) {
+        switch (levelProperty.toUpperCase()) {
+            case "INFO":
+                return Level.INFO;
+            case "WARNING":
+                return Level.WARNING;
+            case "ERROR":
+                return Level.SEVERE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Sets the lowest Level of the messages which are logged
+     * @param level The Level (INFO, WARNING or SEVERE)
+     */
+    public static void setLevel(Level level) {
+        enabledLevel = level;
     }
 
     /**
@@ -48,6 +111,16 @@ public class ApplicationLogger {
         log(Level.INFO, message);
     }
 
+    /**
+     * Logs a message with an INFO Level, building it only when the Level is enabled
+     * @param message The supplier of the message to be logged
+     */
+    public static void info(Supplier<String> message) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, message.get());
+        }
+    }
+
     /**
      * Logs a message with a WARNING Level
      * @param message The message to be logged
@@ -65,16 +138,194 @@ public class ApplicationLogger {
     }
 
     /**
-     * Singleton method which logs the desired message
-     * using the active instance of the ApplicationLogger class
+     * Waits until every message logged so far is written to the log file
+     */
+    public static void flush() {
+        InstanceHolder.INSTANCE.awaitWritten(false);
+    }
+
+    /**
+     * Writes every message logged so far and closes the log file. The messages logged afterwards
+     * are written to the standard error instead
+     */
+    public static void shutdown() {
+        InstanceHolder.INSTANCE.awaitWritten(true);
+    }
+
+    /**
+     * Tells whether the messages with a Level are logged
+     * @param level The Level of the messages
+     * @return True if they're logged, false otherwise
+     */
+    private static boolean isEnabled(Level level) {
+        return level.intValue() >= enabledLevel.intValue();
+    }
+
+    /**
+     * Puts a message in the buffer of the active instance of the ApplicationLogger class,
+     * unless its Level is disabled
      * @param level Level of the log message
      * @param message The log message itself
      */
     private static void log(Level level, String message) {
-        if (applicationLogger == null) {
-            applicationLogger = new ApplicationLogger();
+        if (isEnabled(level)) {
+            InstanceHolder.INSTANCE.enqueue(level, message);
+        }
+    }
+
+    /**
+     * Puts a message in the buffer, waiting while the buffer is full
+     * @param level Level of the log message
+     * @param message The log message itself
+     */
+    private void enqueue(Level level, String message) {
+        final long timestamp = System.currentTimeMillis();
+
+        lock.lock();
+        try {
+            while (!closed && enqueuedCount - writtenCount == BUFFER_CAPACITY) {
+                notFull.awaitUninterruptibly();
+            }
+
+            if (closed) {
+                System.err.println(String.format("[%s] [%s]: %s", new Date(timestamp), level.getLocalizedName(), message));
+                return;
+            }
+
+            final int slot = (int) (enqueuedCount % BUFFER_CAPACITY);
+            levels[slot] = level;
+            timestamps[slot] = timestamp;
+            messages[slot] = String.valueOf(message);
+            enqueuedCount++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the writer thread wrote every message put in the buffer so far
+     * @param close Whether the log file shall be closed afterwards
+     */
+    private void awaitWritten(boolean close) {
+        lock.lock();
+        try {
+            final long target = enqueuedCount;
+
+            closed |= close;
+            notEmpty.signal();
+
+            while (writtenCount < target && writerThread.isAlive()) {
+                written.awaitNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the writer thread: takes every message available in the buffer, writes them outside
+     * the lock (the slots aren't reused until they're released) and flushes the log file once
+     * per batch, until the logger is shut down and the buffer is empty
+     */
+    private void writeMessages() {
+        while (true) {
+            final long first;
+            final long last;
+
+            lock.lock();
+            try {
+                while (!closed && enqueuedCount == writtenCount) {
+                    notEmpty.awaitUninterruptibly();
+                }
+
+                if (closed && enqueuedCount == writtenCount) {
+                    break;
+                }
+
+                first = writtenCount;
+                last = enqueuedCount;
+            } finally {
+                lock.unlock();
+            }
+
+            for (long i = first; i < last; i++) {
+                final int slot = (int) (i % BUFFER_CAPACITY);
+                write(levels[slot], timestamps[slot], messages[slot]);
+                messages[slot] = null;
+            }
+            flushFile();
+
+            lock.lock();
+            try {
+                writtenCount = last;
+                notFull.signalAll();
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        closeFile();
+    }
+
+    /**
+     * Writes a message to the log file, the same way it was always formatted:
+     * [date] [level]: message
+     * @param level Level of the log message
+     * @param timestamp When the message was logged
+     * @param message The log message itself
+     */
+    private void write(Level level, long timestamp, String message) {
+        if (out == null) {
+            return;
+        }
+
+        final long second = timestamp / MILLIS_PER_SECOND;
+
+        if (second != formattedSecond) {
+            formattedSecond = second;
+            formattedDate = new Date(timestamp).toString();
+        }
+
+        try {
+            out.write('[').write(formattedDate).write("] [").write(level.getLocalizedName()).write("]: ").write(message).newLine();
+        } catch (final IOException ex) {
+            ex.printStackTrace();
+            out = null;
+        }
+    }
+
+    /**
+     * Flushes the log file, after a batch of messages
+     */
+    private void flushFile() {
+        if (out == null) {
+            return;
         }
 
-        applicationLogger.logger.log(level, message);
+        try {
+            out.flush();
+        } catch (final IOException ex) {
+            ex.printStackTrace();
+            out = null;
+        }
+    }
+
+    /**
+     * Closes the log file, once the logger is shut down
+     */
+    private void closeFile() {
+        if (out == null) {
+            return;
+        }
+
+        try {
+            out.close();
+        } catch (final IOException ex) {
+            ex.printStackTrace();
+        }
     }
 }
@@ -0,0 +1,282 @@
+package com.uem.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes text to a channel through a pair of reused buffers: characters are gathered in a
+ * char buffer and encoded into a byte buffer which is drained to the channel when full.
+ * Nothing is allocated per written value, so it can be used in the hot loops of the exporters
+ *
+ * @author zessin
+ */
+public class ChannelTextWriter implements Closeable {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+    private final char[] digits;
+    private long bytesWritten;
+
+    /**
+     * Initializes the writer for an existing channel, encoding the text as UTF-8
+     * @param channel The channel which will receive the encoded text
+     * @param bufferSize The size of the buffers, in characters and bytes
+     */
+    public ChannelTextWriter(WritableByteChannel channel, int bufferSize) {
+        super();
+        this.channel = channel;
+        encoder = StandardCharsets.UTF_8.newEncoder();
+        chars = CharBuffer.allocate(bufferSize);
+        bytes = ByteBuffer.allocateDirect(bufferSize);
+        digits = new char[20];
+        bytesWritten = 0;
+    }
+
+    /**
+     * Creates (or truncates) a file and opens a writer for it
+     * @param file The File to be written
+     * @return The writer for the File
+     * @throws IOException When the File couldn't be opened for some reason
+     */
+    public static ChannelTextWriter open(File file) throws IOException {
+        final FileChannel fileChannel = FileChannel.open(file.toPath(),
+                                                         StandardOpenOption.CREATE,
+                                                         StandardOpenOption.WRITE,
+                                                         StandardOpenOption.TRUNCATE_EXISTING);
+
+        return new ChannelTextWriter(fileChannel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a writer which appends to an existing file, after cutting it to a given length.
+     * The bytes kept are counted as already written, so getBytesWritten tells the size of the file
+     * @param file The File to be written
+     * @param length The length the File is cut to
+     * @return The writer for the File
+     * @throws IOException When the File couldn't be opened for some reason
+     */
+    public static ChannelTextWriter append(File file, long length) throws IOException {
+        final FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+
+        try {
+            fileChannel.truncate(length);
+            fileChannel.position(length);
+        } catch (final IOException ex) {
+            fileChannel.close();
+            throw ex;
+        }
+
+        final ChannelTextWriter writer = new ChannelTextWriter(fileChannel, DEFAULT_BUFFER_SIZE);
+        writer.bytesWritten = length;
+
+        return writer;
+    }
+
+    /**
+     * Writes a single character
+     * @param character The character to be written
+     * @return This writer
+     * @throws IOException When the buffers couldn't be drained for some reason
+     */
+    public ChannelTextWriter write(char character) throws IOException {
+        if (!chars.hasRemaining()) {
+            drain(false);
+        }
+        chars.put(character);
+
+        return this;
+    }
+
+    /**
+     * Writes a sequence of characters
+     * @param text The text to be written
+     * @return This writer
+     * @throws IOException When the buffers couldn't be drained for some reason
+     */
+    public ChannelTextWriter write(String text) throws IOException {
+        int start = 0;
+
+        while (start < text.length()) {
+            if (!chars.hasRemaining()) {
+                drain(false);
+            }
+
+            final int end = Math.min(text.length(), start + chars.remaining());
+            chars.put(text, start, end);
+            start = end;
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes a sequence of characters held by a buffer, such as a StringBuilder
+     * @param text The text to be written
+     * @return This writer
+     * @throws IOException When the buffers couldn't be drained for some reason
+     */
+    public ChannelTextWriter write(CharSequence text) throws IOException {
+        int start = 0;
+
+        while (start < text.length()) {
+            if (!chars.hasRemaining()) {
+                drain(false);
+            }
+
+            final int end = Math.min(text.length(), start + chars.remaining());
+            chars.append(text, start, end);
+            start = end;
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes the decimal representation of a number, without creating a String for it
+     * @param value The number to be written
+     * @return This writer
+     * @throws IOException When the buffers couldn't be drained for some reason
+     */
+    public ChannelTextWriter write(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            return write(Long.toString(value));
+        }
+
+        long remaining = Math.abs(value);
+        int position = digits.length;
+
+        do {
+            digits[--position] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+
+        if (value < 0) {
+            write('-');
+        }
+        for (int i = position; i < digits.length; i++) {
+            write(digits[i]);
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes bytes which are already encoded as UTF-8, such as text read back from a temporary file
+     * @param encoded The array which holds the bytes
+     * @param offset The position of the first byte to be written
+     * @param length How many bytes are written
+     * @return This writer
+     * @throws IOException When the buffers couldn't be drained for some reason
+     */
+    public ChannelTextWriter write(byte[] encoded, int offset, int length) throws IOException {
+        drain(false);
+
+        int start = offset;
+        while (start < offset + length) {
+            if (!bytes.hasRemaining()) {
+                writeBytes();
+            }
+
+            final int count = Math.min(offset + length - start, bytes.remaining());
+            bytes.put(encoded, start, count);
+            start += count;
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes a line separator
+     * @return This writer
+     * @throws IOException When the buffers couldn't be drained for some reason
+     */
+    public ChannelTextWriter newLine() throws IOException {
+        return write('\n');
+    }
+
+    /**
+     * Encodes all the buffered characters and writes them to the channel
+     * @throws IOException When the channel couldn't be written for some reason
+     */
+    public void flush() throws IOException {
+        drain(false);
+        writeBytes();
+    }
+
+    /**
+     * Writes all the buffered characters and forces them to the storage device, when the channel is a file
+     * @throws IOException When the channel couldn't be written for some reason
+     */
+    public void sync() throws IOException {
+        flush();
+
+        if (channel instanceof FileChannel) {
+            ((FileChannel) channel).force(false);
+        }
+    }
+
+    /**
+     * Tells how many bytes were already handed to the channel
+     * @return The number of bytes written to the channel
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Encodes the buffered characters into the byte buffer, writing it to the channel whenever it's full.
+     * An incomplete surrogate pair at the end of the buffer is kept for the next call unless it's the end of input
+     * @param endOfInput Tells whether no more characters will be written
+     * @throws IOException When the channel couldn't be written for some reason
+     */
+    private void drain(boolean endOfInput) throws IOException {
+        chars.flip();
+
+        CoderResult result;
+        while ((result = encoder.encode(chars, bytes, endOfInput)).isOverflow()) {
+            writeBytes();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+
+        chars.compact();
+    }
+
+    /**
+     * Writes the whole content of the byte buffer to the channel
+     * @throws IOException When the channel couldn't be written for some reason
+     */
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            bytesWritten += channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
@@ -0,0 +1,322 @@
+package com.uem.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal which stores the work already done by a run, so a restarted run
+ * can skip it. Records are grouped in units of work (e.g. the columns of one table) and
+ * a unit only becomes visible to a restarted run after it was committed, which forces
+ * the journal to disk. Uncommitted records left behind by a crash are discarded on open
+ *
+ * @author zessin
+ */
+public class CheckpointJournal implements Closeable {
+    private static final String RECORD_HEADER   = "H";
+    private static final String RECORD_DATA     = "R";
+    private static final String RECORD_COMMIT   = "C";
+    private static final String RECORD_FINISHED = "F";
+    private static final char FIELD_SEPARATOR  = '\t';
+    private static final char LINE_SEPARATOR   = '\n';
+    private static final char ESCAPE_CHARACTER = '\\';
+    private static final String NULL_VALUE     = "\\0";
+
+    private final File file;
+    private final String runKey;
+    private final Map<String, List<String[]>> committedUnits;
+    private final Map<String, List<String[]>> pendingUnits;
+    private FileChannel channel;
+
+    /**
+     * Initializes the journal for a given file. Nothing is read or written until open is called
+     * @param file The File which holds the journal
+     * @param runKey Identifies the run (e.g. the schema name). A journal written for another key is discarded
+     */
+    public CheckpointJournal(File file, String runKey) {
+        super();
+        this.file = file;
+        this.runKey = runKey;
+        committedUnits = new LinkedHashMap<>();
+        pendingUnits = new HashMap<>();
+    }
+
+    /**
+     * Opens the journal, recovering all the committed units of a previous unfinished run.
+     * The file is compacted so that it only holds the recovered units afterwards
+     * @throws IOException When the journal couldn't be read or written for some reason
+     */
+    public synchronized void open() throws IOException {
+        if (file.exists()) {
+            recover();
+        }
+
+        final File compactedFile = new File(file.getAbsolutePath() + ".tmp");
+
+        try (FileChannel compactedChannel = FileChannel.open(compactedFile.toPath(),
+                                                             StandardOpenOption.CREATE,
+                                                             StandardOpenOption.WRITE,
+                                                             StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel = compactedChannel;
+            writeLine(RECORD_HEADER, runKey);
+
+            for (final Map.Entry<String, List<String[]>> unit : committedUnits.entrySet()) {
+                for (final String[] fields : unit.getValue()) {
+                    writeRecord(unit.getKey(), fields);
+                }
+                writeLine(RECORD_COMMIT, unit.getKey(), String.valueOf(unit.getValue().size()));
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(compactedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        if (!committedUnits.isEmpty()) {
+            ApplicationLogger.info(String.format("Resuming from journal %s with %d completed units of work", file.getAbsolutePath(), committedUnits.size()));
+        }
+    }
+
+    /**
+     * Tells whether a unit of work was committed, either by this run or by a previous one
+     * @param unit The name of the unit of work
+     * @return true when the unit was committed, false otherwise
+     */
+    public synchronized boolean isCommitted(String unit) {
+        return committedUnits.containsKey(unit);
+    }
+
+    /**
+     * Provides the records of a committed unit of work
+     * @param unit The name of the unit of work
+     * @return The records of the unit, in the order they were appended (empty list if not committed)
+     */
+    public synchronized List<String[]> getRecords(String unit) {
+        final List<String[]> records = committedUnits.get(unit);
+        return records == null ? new ArrayList<>() : records;
+    }
+
+    /**
+     * Appends a record to a unit of work. It won't be visible to a restarted run until the unit is committed
+     * @param unit The name of the unit of work
+     * @param fields The values of the record (may contain nulls)
+     * @throws IOException When the record couldn't be written for some reason
+     */
+    public synchronized void append(String unit, String... fields) throws IOException {
+        writeRecord(unit, fields);
+        pendingUnits.computeIfAbsent(unit, u -> new ArrayList<>()).add(fields);
+    }
+
+    /**
+     * Commits a unit of work, forcing all its records to disk
+     * @param unit The name of the unit of work
+     * @throws IOException When the unit couldn't be committed for some reason
+     */
+    public synchronized void commit(String unit) throws IOException {
+        final List<String[]> records = pendingUnits.containsKey(unit) ? pendingUnits.remove(unit) : new ArrayList<>();
+
+        writeLine(RECORD_COMMIT, unit, String.valueOf(records.size()));
+        channel.force(false);
+        committedUnits.put(unit, records);
+    }
+
+    /**
+     * Marks the run as finished, so the next run starts from scratch
+     * @throws IOException When the journal couldn't be written for some reason
+     */
+    public synchronized void finish() throws IOException {
+        writeLine(RECORD_FINISHED);
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Reads an existing journal, keeping only the units committed by an unfinished run with the same key.
+     * A truncated last line (i.e. a crash in the middle of a write) and everything after it is ignored
+     * @throws IOException When the journal couldn't be read for some reason
+     */
+    private void recover() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            final String header = readCompleteLine(reader);
+
+            if (header == null || !RECORD_HEADER.equals(decodeLine(header)[0]) || !runKey.equals(decodeLine(header)[1])) {
+                ApplicationLogger.warning(String.format("Discarding journal %s, which doesn't belong to this run", file.getAbsolutePath()));
+                return;
+            }
+
+            String line;
+            while ((line = readCompleteLine(reader)) != null) {
+                final String[] fields = decodeLine(line);
+
+                switch (fields[0]) {
+                    case RECORD_DATA:
+                        final String[] values = new String[fields.length - 2];
+                        System.arraycopy(fields, 2, values, 0, values.length);
+                        pendingUnits.computeIfAbsent(fields[1], u -> new ArrayList<>()).add(values);
+                        break;
+                    case RECORD_COMMIT:
+                        final List<String[]> records = pendingUnits.containsKey(fields[1]) ? pendingUnits.remove(fields[1]) : new ArrayList<>();
+                        if (records.size() == Integer.parseInt(fields[2])) {
+                            committedUnits.put(fields[1], records);
+                        }
+                        break;
+                    case RECORD_FINISHED:
+                        committedUnits.clear();
+                        pendingUnits.clear();
+                        return;
+                    default:
+                        ApplicationLogger.warning(String.format("Ignoring unknown record in journal %s", file.getAbsolutePath()));
+                }
+            }
+        } finally {
+            pendingUnits.clear();
+        }
+    }
+
+    /**
+     * Reads a line from the journal, only if it was completely written
+     * @param reader The reader positioned at the beginning of a line
+     * @return The line read, without its separator (null when there are no more complete lines)
+     * @throws IOException When the journal couldn't be read for some reason
+     */
+    private String readCompleteLine(BufferedReader reader) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int character;
+
+        while ((character = reader.read()) != -1) {
+            if (character == LINE_SEPARATOR) {
+                return line.toString();
+            }
+            line.append((char) character);
+        }
+
+        return null;
+    }
+
+    /**
+     * Writes a data record for a unit of work
+     * @param unit The name of the unit of work
+     * @param fields The values of the record
+     * @throws IOException When the record couldn't be written for some reason
+     */
+    private void writeRecord(String unit, String[] fields) throws IOException {
+        final String[] line = new String[fields.length + 2];
+        line[0] = RECORD_DATA;
+        line[1] = unit;
+        System.arraycopy(fields, 0, line, 2, fields.length);
+
+        writeLine(line);
+    }
+
+    /**
+     * Writes a single line in the journal, escaping the separators found in the fields
+     * @param fields The fields of the line
+     * @throws IOException When the line couldn't be written for some reason
+     */
+    private void writeLine(String... fields) throws IOException {
+        final StringBuilder line = new StringBuilder();
+
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append(FIELD_SEPARATOR);
+            }
+            encodeField(fields[i], line);
+        }
+        line.append(LINE_SEPARATOR);
+
+        final ByteBuffer buffer = ByteBuffer.wrap(line.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Escapes a single field of a line
+     * @param field The field to be escaped
+     * @param line The line being built
+     */
+    private void encodeField(String field, StringBuilder line) {
+        if (field == null) {
+            line.append(NULL_VALUE);
+            return;
+        }
+
+        for (int i = 0; i < field.length(); i++) {
+            final char character = field.charAt(i);
+
+            switch (character) {
+                case FIELD_SEPARATOR:
+                    line.append(ESCAPE_CHARACTER).append('t');
+                    break;
+                case LINE_SEPARATOR:
+                    line.append(ESCAPE_CHARACTER).append('n');
+                    break;
+                case ESCAPE_CHARACTER:
+                    line.append(ESCAPE_CHARACTER).append(ESCAPE_CHARACTER);
+                    break;
+                default:
+                    line.append(character);
+            }
+        }
+    }
+
+    /**
+     * Splits a line of the journal in its fields, undoing the escaping
+     * @param line The line to be decoded
+     * @return The fields of the line
+     */
+    private String[] decodeLine(String line) {
+        final List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+
+        for (int i = 0; i < line.length(); i++) {
+            final char character = line.charAt(i);
+
+            if (character == FIELD_SEPARATOR) {
+                fields.add(decodeField(field));
+                field = new StringBuilder();
+            } else if (character == ESCAPE_CHARACTER && i + 1 < line.length()) {
+                final char escaped = line.charAt(++i);
+                field.append(escaped == 't' ? FIELD_SEPARATOR :
+                             escaped == 'n' ? LINE_SEPARATOR  :
+                             escaped == '0' ? '\0'            : escaped);
+            } else {
+                field.append(character);
+            }
+        }
+        fields.add(decodeField(field));
+
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * Turns a decoded field into its value, restoring null values
+     * @param field The decoded field
+     * @return The value of the field
+     */
+    private String decodeField(StringBuilder field) {
+        return field.length() == 1 && field.charAt(0) == '\0' ? null : field.toString();
+    }
+}
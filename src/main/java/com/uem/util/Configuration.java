@@ -0,0 +1,83 @@
+package com.uem.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Holds the values of the properties of the application as they were when loaded: the ones in the
+ * application.properties file, replaced by the ones set in the environment (as RTG_ followed by the
+ * upper case name of the property), replaced in turn by the ones given in the command line.
+ * The values never change once loaded, so a snapshot may be shared by any number of threads
+ *
+ * @author zessin
+ */
+public final class Configuration {
+    public static final String ENVIRONMENT_PREFIX = "RTG_";
+
+    private final Map<String, String> values;
+    private final long lastModified;
+
+    /**
+     * Initializes the snapshot
+     * @param values The values of the properties, by name
+     * @param lastModified When the properties file was last modified, when loaded
+     */
+    private Configuration(Map<String, String> values, long lastModified) {
+        super();
+        this.values = Collections.unmodifiableMap(values);
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Loads a snapshot
+     * @param propertiesFile The application.properties file
+     * @param environment The environment variables, where the ones starting with RTG_ are overrides
+     * @param commandLine The values given in the command line, by property name
+     * @return The snapshot loaded
+     * @throws IOException When the properties file couldn't be read for some reason
+     */
+    public static Configuration load(File propertiesFile, Map<String, String> environment, Map<String, String> commandLine) throws IOException {
+        final Properties properties = new Properties();
+        final Map<String, String> values = new HashMap<>();
+        final long lastModified = propertiesFile.lastModified();
+
+        try (InputStream in = new FileInputStream(propertiesFile)) {
+            properties.load(in);
+        }
+
+        properties.stringPropertyNames().forEach(name -> values.put(name, properties.getProperty(name)));
+
+        environment.forEach((name, value) -> {
+            if (name.startsWith(ENVIRONMENT_PREFIX) && name.length() > ENVIRONMENT_PREFIX.length()) {
+                values.put(name.substring(ENVIRONMENT_PREFIX.length()).toLowerCase(), value);
+            }
+        });
+
+        values.putAll(commandLine);
+
+        return new Configuration(values, lastModified);
+    }
+
+    /**
+     * Provides the value of a property
+     * @param propertyName The name of the property
+     * @return The value found (null if it's not set)
+     */
+    public String getValue(String propertyName) {
+        return values.get(propertyName);
+    }
+
+    /**
+     * Tells when the properties file was last modified, when this snapshot was loaded
+     * @return The modification time, in milliseconds
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+}
@@ -1,22 +1,44 @@
 package com.uem.util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.logging.Level;
 
 import com.uem.dbconfig.DatabaseType;
+import com.uem.dbconfig.ExecutionMode;
+import com.uem.dbstructure.StatisticsMode;
+import com.uem.graphviz.RenderTarget;
+import com.uem.layout.GraphRenderer;
+import com.uem.migration.ExportFormat;
+import com.uem.migration.MigrationMode;
+import com.uem.migration.NodeIdMode;
+import com.uem.migration.SupernodeStrategy;
 
 /**
  * Utility class which provides the methods for querying the values
- * of the properties in the application.properties file
+ * of the properties in the application.properties file.
+ * The file is read once into a validated Configuration snapshot, where the environment
+ * and the command line may override its values, and the snapshot is kept for the whole run.
+ * When asked to, the file is watched, and the settings which are safe to change halfway
+ * through a run (the log level) are applied whenever the file changes and is still valid;
+ * the other changes only take effect on the next run
  *
  * @author zessin
  */
 public class PropertiesHelper {
     private static final String PROPERTIES_DIR_NAME    = ".rtg";
     private static final String PROPERTIES_FILE_NAME   = "application.properties";
+    private static final String RENDER_CACHE_DIR_NAME  = "render-cache";
     private static final String PROP_DATABASE_TYPE     = "database_type";
     private static final String PROP_DATABASE_URL      = "database_url";
     private static final String PROP_DATABASE_SCHEMA   = "database_schema";
@@ -27,13 +49,126 @@ public class PropertiesHelper {
     private static final String PROP_CONSTRAINTS_VIEW  = "constraints_view";
     private static final String PROP_OUTPUT_PATH       = "output_path";
     private static final String PROP_DOT_PATH          = "dot_path";
+    private static final String PROP_DATA_EXPORT       = "data_export_format";
+    private static final String PROP_FETCH_SIZE        = "fetch_size";
+    private static final String PROP_CYPHER_BATCH_SIZE = "cypher_batch_size";
+    private static final String PROP_GRAPH_EXPORTS     = "graph_export_formats";
+    private static final String PROP_READER_THREADS    = "reader_threads";
+    private static final String PROP_TRANSFORMERS      = "transformer_threads";
+    private static final String PROP_QUEUE_CAPACITY    = "pipeline_queue_capacity";
+    private static final String PROP_EXECUTION_MODE    = "table_execution_mode";
+    private static final String PROP_MAX_SESSIONS      = "max_database_sessions";
+    private static final String PROP_MIGRATION_MODE    = "data_migration_mode";
+    private static final String PROP_INCREMENTAL_COLS  = "incremental_columns";
+    private static final String PROP_NODE_ID_MODE      = "node_id_mode";
+    private static final String PROP_SORT_BUFFER_MB    = "sort_buffer_mb";
+    private static final String PROP_SORT_BUFFERS      = "max_sort_buffers";
+    private static final String PROP_STATISTICS_MODE   = "table_statistics";
+    private static final String PROP_STATISTICS_VIEW   = "statistics_view";
+    private static final String PROP_COUNT_TIMEOUT_S   = "count_timeout_s";
+    private static final String PROP_VERIFY_MIGRATION  = "verify_migration";
+    private static final String PROP_CHECKPOINTS       = "migration_checkpoints";
+    private static final String PROP_CHECKPOINT_S      = "checkpoint_interval_s";
+    private static final String PROP_ORPHAN_CHECK      = "orphan_check";
+    private static final String PROP_ORPHAN_FILTER_MB  = "orphan_filter_mb";
+    private static final String PROP_SUPERNODES        = "supernode_strategy";
+    private static final String PROP_SUPERNODE_DEGREE  = "supernode_min_degree";
+    private static final String PROP_SUPERNODE_ROWS    = "supernode_max_rows";
+    private static final String PROP_SUPERNODE_BUCKETS = "supernode_buckets";
+    private static final String PROP_FOLD_ONE_TO_ONE   = "fold_one_to_one";
+    private static final String PROP_RENDER_CACHE_MB   = "render_cache_mb";
+    private static final String PROP_RENDER_TARGETS    = "graph_render_targets";
+    private static final String PROP_RENDER_THREADS    = "render_threads";
+    private static final String PROP_RENDER_TIMEOUT_S  = "render_timeout_s";
+    private static final String PROP_PARTITION_SIZE    = "graph_partition_size";
+    private static final String PROP_GRAPH_RENDERER    = "graph_renderer";
+    private static final String PROP_INCREMENTAL_DOT   = "incremental_dot";
+    private static final String PROP_CONFIG_WATCH      = "config_watch";
+    private static final String PROP_LOG_LEVEL         = "log_level";
+    private static final String PROP_METRICS_EXPORT    = "metrics_export";
+    private static final String DEFAULT_DATA_EXPORT    = "none";
+    private static final String DEFAULT_FETCH_SIZE     = "1000";
+    private static final String DEFAULT_CYPHER_BATCH   = "1000";
+    private static final String DEFAULT_THREADS        = "1";
+    private static final String DEFAULT_QUEUE_CAPACITY = "8";
+    private static final String DEFAULT_EXECUTION_MODE = "sequential";
+    private static final String DEFAULT_MAX_SESSIONS   = "4";
+    private static final String DEFAULT_MIGRATION_MODE = "full";
+    private static final String DEFAULT_NODE_ID_MODE   = "key";
+    private static final String DEFAULT_SORT_BUFFER_MB = "64";
+    private static final String DEFAULT_SORT_BUFFERS   = "8";
+    private static final String DEFAULT_STATISTICS     = "none";
+    private static final String DEFAULT_STATS_VIEW     = "v_table_statistics";
+    private static final String DEFAULT_COUNT_TIMEOUT  = "60";
+    private static final String DEFAULT_VERIFICATION   = "false";
+    private static final String DEFAULT_CHECKPOINTS    = "true";
+    private static final String DEFAULT_CHECKPOINT_S   = "30";
+    private static final String DEFAULT_ORPHAN_CHECK   = "false";
+    private static final String DEFAULT_ORPHAN_FILTER  = "256";
+    private static final String DEFAULT_SUPERNODES     = "none";
+    private static final String DEFAULT_SUPER_DEGREE   = "10000";
+    private static final String DEFAULT_SUPER_ROWS     = "1000";
+    private static final String DEFAULT_SUPER_BUCKETS  = "16";
+    private static final String DEFAULT_FOLDING        = "false";
+    private static final String DEFAULT_RENDER_CACHE   = "256";
+    private static final String DEFAULT_RENDER_TARGETS = "svg";
+    private static final String DEFAULT_RENDER_THREADS = "2";
+    private static final String DEFAULT_RENDER_TIMEOUT = "600";
+    private static final String DEFAULT_PARTITION_SIZE = "0";
+    private static final String DEFAULT_RENDERER       = "graphviz";
+    private static final String DEFAULT_INCREMENTAL    = "true";
+    private static final String DEFAULT_CONFIG_WATCH   = "false";
+    private static final String DEFAULT_LOG_LEVEL      = "info";
+    private static final String DEFAULT_METRICS_EXPORT = "true";
+    private static final String WATCH_THREAD_NAME      = "rtg-config-watch";
+
+    private static final ThreadLocal<Configuration> candidateConfiguration = new ThreadLocal<>();
+    private static volatile Configuration configuration;
+    private static Map<String, String> commandLineValues = new HashMap<>();
+
+    /**
+     * Loads the configuration of the application, with the values given in the command line
+     * (written as --property=value) overriding the ones in the environment and in the properties file,
+     * and starts watching the properties file when asked to
+     * @param args The arguments of the command line
+     */
+    public static synchronized void initialize(String[] args) {
+        final Map<String, String> values = new HashMap<>();
+
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || separator < 3) {
+                ApplicationLogger.error(String.format("Argument %s must be written as --property=value.", arg));
+                throw new IllegalStateException();
+            }
+
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        commandLineValues = values;
+        configuration = loadConfiguration();
+
+        if (isConfigurationWatched()) {
+            final Thread watchThread = new Thread(PropertiesHelper::watchConfiguration, WATCH_THREAD_NAME);
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+    }
 
     /**
      * Finds the property which represents the database type
      * @return The value of the property found
      */
     public static DatabaseType getDatabaseType() {
-        return DatabaseType.getDatabaseTypeByProperty(getPropertyValue(PROP_DATABASE_TYPE));
+        final DatabaseType databaseType = DatabaseType.getDatabaseTypeByProperty(getPropertyValue(PROP_DATABASE_TYPE));
+
+        if (databaseType == null) {
+            ApplicationLogger.error(String.format("Property %s has an unknown value in %s file.", PROP_DATABASE_TYPE, PROPERTIES_FILE_NAME));
+            throw new IllegalStateException();
+        }
+
+        return databaseType;
     }
 
     /**
@@ -108,13 +243,432 @@ public class PropertiesHelper {
         return getPropertyValue(PROP_DOT_PATH);
     }
 
+    /**
+     * Finds the optional property which represents the format in which the data is exported
+     * @return The value of the property found (NONE if it's not set)
+     */
+    public static ExportFormat getDataExportFormat() {
+        final ExportFormat exportFormat = ExportFormat.getExportFormatByProperty(getOptionalPropertyValue(PROP_DATA_EXPORT, DEFAULT_DATA_EXPORT));
+
+        if (exportFormat == null) {
+            ApplicationLogger.error(String.format("Property %s has an unknown value in %s file.", PROP_DATA_EXPORT, PROPERTIES_FILE_NAME));
+            throw new IllegalStateException();
+        }
+
+        return exportFormat;
+    }
+
+    /**
+     * Finds the optional property which represents the document formats (besides the image)
+     * in which the Graph model is exported, as a comma separated list
+     * @return The values of the property found (empty list if it's not set)
+     */
+    public static List<ExportFormat> getGraphExportFormats() {
+        final List<ExportFormat> exportFormats = new ArrayList<>();
+
+        for (final String value : getOptionalPropertyValue(PROP_GRAPH_EXPORTS, "").split(",")) {
+            if (value.trim().isEmpty()) {
+                continue;
+            }
+
+            final ExportFormat exportFormat = ExportFormat.getExportFormatByProperty(value.trim());
+
+            if (exportFormat == null || !exportFormat.isGraphDocument()) {
+                ApplicationLogger.error(String.format("Property %s has an unsupported value (%s) in %s file.", PROP_GRAPH_EXPORTS, value.trim(), PROPERTIES_FILE_NAME));
+                throw new IllegalStateException();
+            }
+
+            exportFormats.add(exportFormat);
+        }
+
+        return exportFormats;
+    }
+
+    /**
+     * Finds the optional property which represents how many rows are fetched at once when reading table data
+     * @return The value of the property found (1000 if it's not set)
+     */
+    public static int getFetchSize() {
+        return getOptionalIntPropertyValue(PROP_FETCH_SIZE, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Finds the optional property which represents how many rows are sent in each batch of the Cypher script
+     * @return The value of the property found (1000 if it's not set)
+     */
+    public static int getCypherBatchSize() {
+        return getOptionalIntPropertyValue(PROP_CYPHER_BATCH_SIZE, DEFAULT_CYPHER_BATCH);
+    }
+
+    /**
+     * Finds the optional property which represents how many tables are read at the same time
+     * during the data migration, each one through its own database session
+     * @return The value of the property found (1 if it's not set)
+     */
+    public static int getReaderThreads() {
+        return getOptionalIntPropertyValue(PROP_READER_THREADS, DEFAULT_THREADS);
+    }
+
+    /**
+     * Finds the optional property which represents how many threads turn rows into nodes and relationships
+     * @return The value of the property found (1 if it's not set)
+     */
+    public static int getTransformerThreads() {
+        return getOptionalIntPropertyValue(PROP_TRANSFORMERS, DEFAULT_THREADS);
+    }
+
+    /**
+     * Finds the optional property which represents how many batches are held between two stages of the migration
+     * @return The value of the property found (8 if it's not set)
+     */
+    public static int getPipelineQueueCapacity() {
+        return getOptionalIntPropertyValue(PROP_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Finds the optional property which represents how the per-table metadata queries are executed
+     * @return The value of the property found (SEQUENTIAL if it's not set)
+     */
+    public static ExecutionMode getTableExecutionMode() {
+        final ExecutionMode executionMode = ExecutionMode.getExecutionModeByProperty(getOptionalPropertyValue(PROP_EXECUTION_MODE, DEFAULT_EXECUTION_MODE));
+
+        if (executionMode == null) {
+            ApplicationLogger.error(String.format("Property %s has an unknown value in %s file.", PROP_EXECUTION_MODE, PROPERTIES_FILE_NAME));
+            throw new IllegalStateException();
+        }
+
+        return executionMode;
+    }
+
+    /**
+     * Finds the optional property which represents how many database sessions
+     * the per-table metadata queries may use at the same time
+     * @return The value of the property found (4 if it's not set)
+     */
+    public static int getMaxDatabaseSessions() {
+        return getOptionalIntPropertyValue(PROP_MAX_SESSIONS, DEFAULT_MAX_SESSIONS);
+    }
+
+    /**
+     * Finds the optional property which represents whether all the table data is migrated or only what changed since the last run
+     * @return The value of the property found (FULL if it's not set)
+     */
+    public static MigrationMode getMigrationMode() {
+        final MigrationMode migrationMode = MigrationMode.getMigrationModeByProperty(getOptionalPropertyValue(PROP_MIGRATION_MODE, DEFAULT_MIGRATION_MODE));
+
+        if (migrationMode == null) {
+            ApplicationLogger.error(String.format("Property %s has an unknown value in %s file.", PROP_MIGRATION_MODE, PROPERTIES_FILE_NAME));
+            throw new IllegalStateException();
+        }
+
+        return migrationMode;
+    }
+
+    /**
+     * Finds the optional property which represents the monotonic column (an update timestamp or a version)
+     * of each table migrated incrementally, as a comma separated list of TABLE.COLUMN entries
+     * @return The column names found, by upper case table name (empty map if it's not set)
+     */
+    public static Map<String, String> getIncrementalColumns() {
+        final Map<String, String> incrementalColumns = new HashMap<>();
+
+        for (final String value : getOptionalPropertyValue(PROP_INCREMENTAL_COLS, "").split(",")) {
+            if (value.trim().isEmpty()) {
+                continue;
+            }
+
+            final String[] parts = value.trim().split("\\.");
+
+            if (parts.length != 2 || parts[0].isEmpty() || parts[1].isEmpty()) {
+                ApplicationLogger.error(String.format("Property %s has an invalid entry (%s) in %s file.", PROP_INCREMENTAL_COLS, value.trim(), PROPERTIES_FILE_NAME));
+                throw new IllegalStateException();
+            }
+
+            incrementalColumns.put(parts[0].toUpperCase(), parts[1]);
+        }
+
+        return incrementalColumns;
+    }
+
+    /**
+     * Finds the optional property which represents how the nodes are identified in the bulk import files
+     * @return The value of the property found (KEY if it's not set)
+     */
+    public static NodeIdMode getNodeIdMode() {
+        final NodeIdMode nodeIdMode = NodeIdMode.getNodeIdModeByProperty(getOptionalPropertyValue(PROP_NODE_ID_MODE, DEFAULT_NODE_ID_MODE));
+
+        if (nodeIdMode == null) {
+            ApplicationLogger.error(String.format("Property %s has an unknown value in %s file.", PROP_NODE_ID_MODE, PROPERTIES_FILE_NAME));
+            throw new IllegalStateException();
+        }
+
+        return nodeIdMode;
+    }
+
+    /**
+     * Finds the optional property which represents the size, in megabytes, of each off-heap buffer used to sort keys on disk
+     * @return The value of the property found (64 if it's not set)
+     */
+    public static int getSortBufferMegabytes() {
+        return getOptionalIntPropertyValue(PROP_SORT_BUFFER_MB, DEFAULT_SORT_BUFFER_MB);
+    }
+
+    /**
+     * Finds the optional property which represents how many off-heap sort buffers may be allocated by each writer
+     * @return The value of the property found (8 if it's not set)
+     */
+    public static int getMaxSortBuffers() {
+        return getOptionalIntPropertyValue(PROP_SORT_BUFFERS, DEFAULT_SORT_BUFFERS);
+    }
+
+    /**
+     * Finds the optional property which represents how the row counts of the tables are gathered
+     * @return The value of the property found (NONE if it's not set)
+     */
+    public static StatisticsMode getStatisticsMode() {
+        final StatisticsMode statisticsMode = StatisticsMode.getStatisticsModeByProperty(getOptionalPropertyValue(PROP_STATISTICS_MODE, DEFAULT_STATISTICS));
+
+        if (statisticsMode == null) {
+            ApplicationLogger.error(String.format("Property %s has an unknown value in %s file.", PROP_STATISTICS_MODE, PROPERTIES_FILE_NAME));
+            throw new IllegalStateException();
+        }
+
+        return statisticsMode;
+    }
+
+    /**
+     * Finds the optional property which represents the view with the row count estimates of the database catalog
+     * @return The value of the property found (v_table_statistics if it's not set)
+     */
+    public static String getStatisticsView() {
+        return getOptionalPropertyValue(PROP_STATISTICS_VIEW, DEFAULT_STATS_VIEW);
+    }
+
+    /**
+     * Finds the optional property which represents how long, in seconds, the row count of a table may take
+     * @return The value of the property found (60 if it's not set)
+     */
+    public static int getCountTimeoutSeconds() {
+        return getOptionalIntPropertyValue(PROP_COUNT_TIMEOUT_S, DEFAULT_COUNT_TIMEOUT);
+    }
+
+    /**
+     * Finds the optional property which tells whether the progress of a full migration is checkpointed,
+     * so a restarted run resumes it
+     * @return The value of the property found (true if it's not set)
+     */
+    public static boolean isMigrationCheckpointed() {
+        return getOptionalBooleanPropertyValue(PROP_CHECKPOINTS, DEFAULT_CHECKPOINTS);
+    }
+
+    /**
+     * Finds the optional property which represents how many seconds at least pass between two checkpoints of a table
+     * @return The value of the property found (30 if it's not set)
+     */
+    public static int getCheckpointIntervalSeconds() {
+        return getOptionalIntPropertyValue(PROP_CHECKPOINT_S, DEFAULT_CHECKPOINT_S);
+    }
+
+    /**
+     * Finds the optional property which tells whether the migrated data is verified against the source
+     * @return The value of the property found (false if it's not set)
+     */
+    public static boolean isMigrationVerified() {
+        return getOptionalBooleanPropertyValue(PROP_VERIFY_MIGRATION, DEFAULT_VERIFICATION);
+    }
+
+    /**
+     * Finds the optional property which tells whether the foreign key values are checked for orphans during the migration
+     * @return The value of the property found (false if it's not set)
+     */
+    public static boolean isOrphanCheckEnabled() {
+        return getOptionalBooleanPropertyValue(PROP_ORPHAN_CHECK, DEFAULT_ORPHAN_CHECK);
+    }
+
+    /**
+     * Finds the optional property which represents the size, in megabytes, all the Bloom filters of the orphan check may take on the heap
+     * @return The value of the property found (256 if it's not set)
+     */
+    public static int getOrphanFilterMegabytes() {
+        return getOptionalIntPropertyValue(PROP_ORPHAN_FILTER_MB, DEFAULT_ORPHAN_FILTER);
+    }
+
+    /**
+     * Finds the optional property which represents how the relationships to supernodes are written
+     * @return The value of the property found (NONE if it's not set)
+     */
+    public static SupernodeStrategy getSupernodeStrategy() {
+        final SupernodeStrategy supernodeStrategy = SupernodeStrategy.getSupernodeStrategyByProperty(getOptionalPropertyValue(PROP_SUPERNODES, DEFAULT_SUPERNODES));
+
+        if (supernodeStrategy == null) {
+            ApplicationLogger.error(String.format("Property %s has an unknown value in %s file.", PROP_SUPERNODES, PROPERTIES_FILE_NAME));
+            throw new IllegalStateException();
+        }
+
+        return supernodeStrategy;
+    }
+
+    /**
+     * Finds the optional property which represents the expected number of relationships per node from which a table holds supernodes
+     * @return The value of the property found (10000 if it's not set)
+     */
+    public static int getSupernodeMinDegree() {
+        return getOptionalIntPropertyValue(PROP_SUPERNODE_DEGREE, DEFAULT_SUPER_DEGREE);
+    }
+
+    /**
+     * Finds the optional property which represents the maximum number of rows of a table which holds supernodes
+     * @return The value of the property found (1000 if it's not set)
+     */
+    public static int getSupernodeMaxRows() {
+        return getOptionalIntPropertyValue(PROP_SUPERNODE_ROWS, DEFAULT_SUPER_ROWS);
+    }
+
+    /**
+     * Finds the optional property which represents how many types the relationships to supernodes are spread over
+     * @return The value of the property found (16 if it's not set)
+     */
+    public static int getSupernodeBuckets() {
+        return getOptionalIntPropertyValue(PROP_SUPERNODE_BUCKETS, DEFAULT_SUPER_BUCKETS);
+    }
+
+    /**
+     * Finds the optional property which tells whether the tables split from another one by a shared primary key are folded into it
+     * @return The value of the property found (false if it's not set)
+     */
+    public static boolean isOneToOneFoldingEnabled() {
+        return getOptionalBooleanPropertyValue(PROP_FOLD_ONE_TO_ONE, DEFAULT_FOLDING);
+    }
+
+    /**
+     * Finds the optional property which represents how many megabytes the rendered images may take in the render cache
+     * @return The value of the property found (256 if it's not set, 0 when the cache is disabled)
+     */
+    public static int getRenderCacheMegabytes() {
+        return getOptionalIntPropertyValue(PROP_RENDER_CACHE_MB, DEFAULT_RENDER_CACHE);
+    }
+
+    /**
+     * Finds the optional property which represents the images rendered from the Graph model,
+     * as a comma separated list of format[:engine[:dpi]] values
+     * @return The values of the property found (a single svg image by the dot engine if it's not set)
+     */
+    public static List<RenderTarget> getRenderTargets() {
+        final List<RenderTarget> renderTargets = new ArrayList<>();
+
+        for (final String value : getOptionalPropertyValue(PROP_RENDER_TARGETS, DEFAULT_RENDER_TARGETS).split(",")) {
+            if (value.trim().isEmpty()) {
+                continue;
+            }
+
+            final RenderTarget renderTarget = RenderTarget.getRenderTargetByProperty(value);
+
+            if (renderTarget == null) {
+                ApplicationLogger.error(String.format("Property %s has an unsupported value (%s) in %s file.", PROP_RENDER_TARGETS, value.trim(), PROPERTIES_FILE_NAME));
+                throw new IllegalStateException();
+            }
+
+            if (renderTargets.stream().noneMatch(t -> t.toString().equals(renderTarget.toString()))) {
+                renderTargets.add(renderTarget);
+            }
+        }
+
+        return renderTargets;
+    }
+
+    /**
+     * Finds the optional property which represents how many renderer processes may run at the same time
+     * @return The value of the property found (2 if it's not set)
+     */
+    public static int getRenderThreads() {
+        return getOptionalIntPropertyValue(PROP_RENDER_THREADS, DEFAULT_RENDER_THREADS);
+    }
+
+    /**
+     * Finds the optional property which represents how many seconds a renderer process may run before it's killed
+     * @return The value of the property found (600 if it's not set)
+     */
+    public static int getRenderTimeoutSeconds() {
+        return getOptionalIntPropertyValue(PROP_RENDER_TIMEOUT_S, DEFAULT_RENDER_TIMEOUT);
+    }
+
+    /**
+     * Finds the optional property which represents how many vertices the Graph may have before its image is split into parts
+     * @return The value of the property found (0 if it's not set, when the image is never split)
+     */
+    public static int getGraphPartitionSize() {
+        return getOptionalIntPropertyValue(PROP_PARTITION_SIZE, DEFAULT_PARTITION_SIZE);
+    }
+
+    /**
+     * Finds the optional property which tells whether the images are only rendered again when their DOT code changed
+     * @return The value of the property found (true if it's not set)
+     */
+    public static boolean isIncrementalDotEnabled() {
+        return getOptionalBooleanPropertyValue(PROP_INCREMENTAL_DOT, DEFAULT_INCREMENTAL);
+    }
+
+    /**
+     * Finds the optional property which tells whether the properties file is watched, so the log level may be changed during a run
+     * @return The value of the property found (false if it's not set)
+     */
+    public static boolean isConfigurationWatched() {
+        return getOptionalBooleanPropertyValue(PROP_CONFIG_WATCH, DEFAULT_CONFIG_WATCH);
+    }
+
+    /**
+     * Finds the optional property which tells whether the timings of the execution are written to the output path at its end
+     * @return The value of the property found (true if it's not set)
+     */
+    public static boolean isMetricsExportEnabled() {
+        return getOptionalBooleanPropertyValue(PROP_METRICS_EXPORT, DEFAULT_METRICS_EXPORT);
+    }
+
+    /**
+     * Finds the optional property which represents the lowest level of the messages written to the log file
+     * @return The value of the property found (INFO if it's not set)
+     */
+    public static Level getLogLevel() {
+        final Level logLevel = ApplicationLogger.getLevelByProperty(getOptionalPropertyValue(PROP_LOG_LEVEL, DEFAULT_LOG_LEVEL));
+
+        if (logLevel == null) {
+            ApplicationLogger.error(String.format("Property %s has an unknown value in %s file.", PROP_LOG_LEVEL, PROPERTIES_FILE_NAME));
+            throw new IllegalStateException();
+        }
+
+        return logLevel;
+    }
+
+    /**
+     * Finds the optional property which represents how the image of the Graph model is drawn
+     * @return The value of the property found (GRAPHVIZ if it's not set)
+     */
+    public static GraphRenderer getGraphRenderer() {
+        final GraphRenderer graphRenderer = GraphRenderer.getGraphRendererByProperty(getOptionalPropertyValue(PROP_GRAPH_RENDERER, DEFAULT_RENDERER));
+
+        if (graphRenderer == null) {
+            ApplicationLogger.error(String.format("Property %s has an unknown value in %s file.", PROP_GRAPH_RENDERER, PROPERTIES_FILE_NAME));
+            throw new IllegalStateException();
+        }
+
+        return graphRenderer;
+    }
+
+    /**
+     * Provides the directory where the rendered images are cached, next to the application.properties file
+     * @return The File representing the directory (which may not exist yet)
+     */
+    public static File getRenderCacheDirectory() {
+        return new File(getPropertiesDirectory(), RENDER_CACHE_DIR_NAME);
+    }
+
     /**
      * Finds the desired property in the application.properties file
      * @param propertyName The name of the property being searched
      * @return The value of the property found
      */
     private static String getPropertyValue(String propertyName) {
-        final String propertyValue = getPropertiesFile().getProperty(propertyName);
+        final String propertyValue = getConfiguration().getValue(propertyName);
 
         if (propertyValue == null || propertyValue.isEmpty()) {
             ApplicationLogger.error(String.format("Property %s is not set in %s file.", propertyName, PROPERTIES_FILE_NAME));
@@ -125,26 +679,208 @@ public class PropertiesHelper {
     }
 
     /**
-     * Provides the Properties file for the application.
-     * Creates a default one if none was found
-     * @return The Properties file found or created
+     * Finds the desired optional property in the application.properties file
+     * @param propertyName The name of the property being searched
+     * @param defaultValue The value used when the property is not set
+     * @return The value of the property found (the default value if it's not set)
+     */
+    private static String getOptionalPropertyValue(String propertyName, String defaultValue) {
+        final String propertyValue = getConfiguration().getValue(propertyName);
+
+        if (propertyValue == null || propertyValue.isEmpty()) {
+            return defaultValue;
+        }
+
+        return propertyValue;
+    }
+
+    /**
+     * Finds the desired optional numeric property in the application.properties file
+     * @param propertyName The name of the property being searched
+     * @param defaultValue The value used when the property is not set
+     * @return The value of the property found (the default value if it's not set)
+     */
+    private static int getOptionalIntPropertyValue(String propertyName, String defaultValue) {
+        final String propertyValue = getOptionalPropertyValue(propertyName, defaultValue);
+
+        try {
+            return Integer.parseInt(propertyValue.trim());
+        } catch (final NumberFormatException ex) {
+            ApplicationLogger.error(String.format("Property %s must be a number in %s file.", propertyName, PROPERTIES_FILE_NAME));
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Finds the desired optional boolean property in the application.properties file
+     * @param propertyName The name of the property being searched
+     * @param defaultValue The value used when the property is not set
+     * @return The value of the property found (the default value if it's not set)
+     */
+    private static boolean getOptionalBooleanPropertyValue(String propertyName, String defaultValue) {
+        final String propertyValue = getOptionalPropertyValue(propertyName, defaultValue).trim();
+
+        if (!propertyValue.equalsIgnoreCase("true") && !propertyValue.equalsIgnoreCase("false")) {
+            ApplicationLogger.error(String.format("Property %s must be true or false in %s file.", propertyName, PROPERTIES_FILE_NAME));
+            throw new IllegalStateException();
+        }
+
+        return Boolean.parseBoolean(propertyValue);
+    }
+
+    /**
+     * Provides the current Configuration of the application, loading it when it wasn't loaded yet.
+     * While a new Configuration is being validated, the thread validating it gets the new one instead
+     * @return The Configuration found
+     */
+    private static Configuration getConfiguration() {
+        final Configuration candidate = candidateConfiguration.get();
+
+        if (candidate != null) {
+            return candidate;
+        }
+
+        if (configuration == null) {
+            synchronized (PropertiesHelper.class) {
+                if (configuration == null) {
+                    configuration = loadConfiguration();
+                }
+            }
+        }
+
+        return configuration;
+    }
+
+    /**
+     * Loads and validates a Configuration from the properties file, creating a default file if none was found
+     * @return The Configuration loaded
      */
-    private static Properties getPropertiesFile() {
+    private static Configuration loadConfiguration() {
         final File propertiesFile = new File(getPropertiesDirectory(), PROPERTIES_FILE_NAME);
-        final Properties properties = new Properties();
+        final Configuration loaded;
 
         try {
             if (!propertiesFile.exists()) {
-                createDefaultPropertiesFile(propertiesFile, properties);
+                createDefaultPropertiesFile(propertiesFile, new Properties());
             }
 
-            properties.load(new FileInputStream(propertiesFile));
+            loaded = Configuration.load(propertiesFile, System.getenv(), commandLineValues);
         } catch (final IOException ex) {
             ApplicationLogger.error(String.format("Could not load or create %s file.", PROPERTIES_FILE_NAME));
             throw new IllegalStateException(ex);
         }
 
-        return properties;
+        validate(loaded);
+        return loaded;
+    }
+
+    /**
+     * Checks every property of a Configuration which must be set, or which must have a valid value when set,
+     * so an invalid value is found before the execution starts rather than halfway through it
+     * @param candidate The Configuration to be checked
+     */
+    private static void validate(Configuration candidate) {
+        candidateConfiguration.set(candidate);
+
+        try {
+            getDatabaseType();
+            getDatabaseUrl();
+            getDatabaseSchema();
+            getDatabaseUsername();
+            getDatabasePassword();
+            getTablesView();
+            getColumnsView();
+            getConstraintsView();
+            getOutputPath();
+            getDataExportFormat();
+            getGraphExportFormats();
+            getFetchSize();
+            getCypherBatchSize();
+            getReaderThreads();
+            getTransformerThreads();
+            getPipelineQueueCapacity();
+            getTableExecutionMode();
+            getMaxDatabaseSessions();
+            getMigrationMode();
+            getIncrementalColumns();
+            getNodeIdMode();
+            getSortBufferMegabytes();
+            getMaxSortBuffers();
+            getStatisticsMode();
+            getCountTimeoutSeconds();
+            isMigrationCheckpointed();
+            getCheckpointIntervalSeconds();
+            isMigrationVerified();
+            isOrphanCheckEnabled();
+            getOrphanFilterMegabytes();
+            getSupernodeStrategy();
+            getSupernodeMinDegree();
+            getSupernodeMaxRows();
+            getSupernodeBuckets();
+            isOneToOneFoldingEnabled();
+            getRenderCacheMegabytes();
+            getRenderTargets();
+            getRenderThreads();
+            getRenderTimeoutSeconds();
+            getGraphPartitionSize();
+            isIncrementalDotEnabled();
+            isConfigurationWatched();
+            getLogLevel();
+            isMetricsExportEnabled();
+
+            if (getGraphRenderer() == GraphRenderer.GRAPHVIZ) {
+                getDotPath();
+            }
+        } finally {
+            candidateConfiguration.remove();
+        }
+    }
+
+    /**
+     * Watches the directory of the properties file, loading a new Configuration whenever the file changes.
+     * Only the log level of a valid new Configuration is applied: the phases of a run must all see the same
+     * output path, schema, formats and so on, so the current snapshot is kept until the run ends
+     */
+    private static void watchConfiguration() {
+        final File propertiesFile = new File(getPropertiesDirectory(), PROPERTIES_FILE_NAME);
+        final Path directory = propertiesFile.getParentFile().toPath();
+        long lastModified = configuration.getLastModified();
+
+        try (WatchService watchService = directory.getFileSystem().newWatchService()) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            ApplicationLogger.info("Watching " + propertiesFile.getAbsolutePath() + " for changes");
+
+            while (true) {
+                final WatchKey key = watchService.take();
+                final boolean changed = key.pollEvents()
+                                           .stream()
+                                           .anyMatch(e -> PROPERTIES_FILE_NAME.equals(String.valueOf(e.context())));
+
+                key.reset();
+
+                if (changed && propertiesFile.lastModified() != lastModified) {
+                    try {
+                        final Configuration reloaded = loadConfiguration();
+
+                        lastModified = reloaded.getLastModified();
+                        candidateConfiguration.set(reloaded);
+                        try {
+                            ApplicationLogger.setLevel(getLogLevel());
+                        } finally {
+                            candidateConfiguration.remove();
+                        }
+                        ApplicationLogger.info(String.format("Log level set again from %s, other changes will take effect on the next run",
+                                                             propertiesFile.getAbsolutePath()));
+                    } catch (final IllegalStateException ex) {
+                        ApplicationLogger.warning(String.format("Changed %s file is not valid, keeping the previous configuration", PROPERTIES_FILE_NAME));
+                    }
+                }
+            }
+        } catch (final IOException ex) {
+            ApplicationLogger.warning("Could not watch " + propertiesFile.getAbsolutePath() + ": " + ex.getMessage());
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -0,0 +1,140 @@
+package com.uem.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.uem.index.ExternalMergeJoin.JoinHandler;
+
+/**
+ * Tests the ExternalMergeJoin over sorters, with records which match the index and records which don't
+ *
+ * @author zessin
+ */
+public class ExternalMergeJoinTest {
+    private static final int TINY_BUFFER_SIZE = 512;
+    private static final int MAX_BUFFERS      = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private OffHeapBufferPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("join");
+        pool = new OffHeapBufferPool(TINY_BUFFER_SIZE, MAX_BUFFERS);
+    }
+
+    @Test
+    public void matchesRecordsWithTheIndexAndReportsTheOthers() throws IOException {
+        try (ExternalSorter records = new ExternalSorter(directory, "records", pool);
+             ExternalSorter index = new ExternalSorter(directory, "index", pool)) {
+            addAll(index, "b", "d", "f", "h");
+            addAll(records, "a", "b", "b", "c", "f", "z");
+
+            final RecordingHandler handler = join(records, index);
+
+            assertEquals(3, handler.matchedCount);
+            assertEquals("[b=98, b=98, f=102]", handler.matched.toString());
+            assertEquals("[a, c, z]", handler.unmatched.toString());
+        }
+    }
+
+    @Test
+    public void reportsEveryRecordWhenTheIndexIsEmpty() throws IOException {
+        try (ExternalSorter records = new ExternalSorter(directory, "records", pool);
+             ExternalSorter index = new ExternalSorter(directory, "index", pool)) {
+            addAll(records, "x", "y");
+
+            final RecordingHandler handler = join(records, index);
+
+            assertEquals(0, handler.matchedCount);
+            assertEquals("[x, y]", handler.unmatched.toString());
+        }
+    }
+
+    @Test
+    public void joinsManySpilledRecordsWithTheirIndexValues() throws IOException {
+        try (ExternalSorter records = new ExternalSorter(directory, "records", pool);
+             ExternalSorter index = new ExternalSorter(directory, "index", pool)) {
+            for (int i = 0; i < 2000; i++) {
+                if (i % 3 != 0) {
+                    add(index, "key" + i, i);
+                }
+                add(records, "key" + i, -1);
+            }
+
+            final RecordingHandler handler = join(records, index);
+
+            assertEquals(1333, handler.matchedCount);
+            assertEquals(667, handler.unmatched.size());
+            for (final String match : handler.matched) {
+                final String[] parts = match.split("=");
+                assertEquals(parts[0], "key" + parts[1]);
+            }
+        }
+    }
+
+    private static RecordingHandler join(ExternalSorter records, ExternalSorter index) throws IOException {
+        final RecordingHandler handler = new RecordingHandler();
+
+        records.finish();
+        index.finish();
+
+        try (RecordCursor recordCursor = records.openCursor();
+             RecordCursor indexCursor = index.openCursor()) {
+            handler.matchedCount = ExternalMergeJoin.join(recordCursor, indexCursor, handler);
+        }
+
+        return handler;
+    }
+
+    /**
+     * Adds single character keys, whose values are their character codes
+     */
+    private static void addAll(ExternalSorter sorter, String... keys) throws IOException {
+        for (final String key : keys) {
+            add(sorter, key, key.charAt(0));
+        }
+    }
+
+    private static void add(ExternalSorter sorter, String key, long value) throws IOException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+        sorter.add(keyBytes, 0, keyBytes.length, value, new byte[0], 0, 0);
+    }
+
+    private static String keyOf(RecordCursor cursor) {
+        return new String(cursor.getKey(), 0, cursor.getKeyLength(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Keeps the outcome of a join, as key=indexValue for the matched records and key for the others
+     */
+    private static class RecordingHandler implements JoinHandler {
+        private final List<String> matched = new ArrayList<>();
+        private final List<String> unmatched = new ArrayList<>();
+        private long matchedCount;
+
+        @Override
+        public void matched(RecordCursor record, long indexValue) {
+            matched.add(keyOf(record) + "=" + indexValue);
+        }
+
+        @Override
+        public void unmatched(RecordCursor record) {
+            unmatched.add(keyOf(record));
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.uem.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the ExternalSorter with sort buffers small enough to spill after a few records,
+ * so the sorted file is always built by merging runs
+ *
+ * @author zessin
+ */
+public class ExternalSorterTest {
+    private static final int TINY_BUFFER_SIZE = 512;
+    private static final int MAX_BUFFERS      = 4;
+    private static final byte[] NO_PAYLOAD    = new byte[0];
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("sort");
+    }
+
+    @Test
+    public void spillsWithATinyBufferAndReadsTheRecordsInOrder() throws IOException {
+        final List<String> keys = new ArrayList<>();
+        final Random random = new Random(42);
+
+        // More than MAX_MERGE_FAN_IN runs, so the runs are merged in more than one pass
+        for (int i = 0; i < 5000; i++) {
+            keys.add(Integer.toString(random.nextInt(1000000)) + "-" + i);
+        }
+
+        try (ExternalSorter sorter = new ExternalSorter(directory, "keys", new OffHeapBufferPool(TINY_BUFFER_SIZE, MAX_BUFFERS))) {
+            for (final String key : keys) {
+                add(sorter, key, key.hashCode(), key);
+            }
+            sorter.finish();
+
+            Collections.sort(keys);
+            assertEquals(keys.size(), sorter.getRecordCount());
+
+            try (RecordCursor cursor = sorter.openCursor()) {
+                for (final String key : keys) {
+                    assertTrue(cursor.next());
+                    assertEquals(key, keyOf(cursor));
+                    assertEquals(key.hashCode(), cursor.getValue());
+                    assertEquals(key, payloadOf(cursor));
+                }
+                assertFalse(cursor.next());
+            }
+        }
+    }
+
+    @Test
+    public void keepsEveryRecordOfADuplicateKey() throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(directory, "duplicates", new OffHeapBufferPool(TINY_BUFFER_SIZE, MAX_BUFFERS))) {
+            for (int i = 0; i < 300; i++) {
+                add(sorter, i % 2 == 0 ? "b" : "a", i, "");
+            }
+            sorter.finish();
+
+            final List<Long> aValues = new ArrayList<>();
+            final List<Long> bValues = new ArrayList<>();
+
+            try (RecordCursor cursor = sorter.openCursor()) {
+                while (cursor.next()) {
+                    if (keyOf(cursor).equals("a")) {
+                        assertTrue("Key a came after key b", bValues.isEmpty());
+                        aValues.add(cursor.getValue());
+                    } else {
+                        bValues.add(cursor.getValue());
+                    }
+                }
+            }
+
+            assertEquals(150, aValues.size());
+            assertEquals(150, bValues.size());
+        }
+    }
+
+    @Test
+    public void readsKeysAndPayloadsLargerThanTheIoBuffer() throws IOException {
+        // The I/O buffers of the runs hold 256 KB, so these records span several reads
+        final byte[] bigKey = new byte[300 * 1024];
+        final byte[] bigPayload = new byte[600 * 1024];
+
+        Arrays.fill(bigKey, (byte) 'k');
+        new Random(7).nextBytes(bigPayload);
+
+        try (ExternalSorter sorter = new ExternalSorter(directory, "big", new OffHeapBufferPool(2 * 1024 * 1024, MAX_BUFFERS))) {
+            add(sorter, "z", 1, "after");
+            sorter.add(bigKey, 0, bigKey.length, 2, bigPayload, 0, bigPayload.length);
+            sorter.release();
+            add(sorter, "a", 3, "before");
+            sorter.finish();
+
+            try (RecordCursor cursor = sorter.openCursor()) {
+                assertTrue(cursor.next());
+                assertEquals("a", keyOf(cursor));
+
+                assertTrue(cursor.next());
+                assertEquals(bigKey.length, cursor.getKeyLength());
+                assertArrayEquals(bigKey, Arrays.copyOf(cursor.getKey(), cursor.getKeyLength()));
+                assertEquals(2, cursor.getValue());
+                assertEquals(bigPayload.length, cursor.getPayloadLength());
+                assertArrayEquals(bigPayload, Arrays.copyOf(cursor.getPayload(), cursor.getPayloadLength()));
+
+                assertTrue(cursor.next());
+                assertEquals("z", keyOf(cursor));
+                assertEquals("after", payloadOf(cursor));
+                assertFalse(cursor.next());
+            }
+        }
+    }
+
+    @Test
+    public void ordersKeysAsUnsignedBytesWithPrefixesFirst() throws IOException {
+        final byte[] high = { (byte) 0xC3, (byte) 0xA9 };
+
+        try (ExternalSorter sorter = new ExternalSorter(directory, "bytes", new OffHeapBufferPool(TINY_BUFFER_SIZE, MAX_BUFFERS))) {
+            sorter.add(high, 0, high.length, 0, NO_PAYLOAD, 0, 0);
+            add(sorter, "ab", 0, "");
+            add(sorter, "a", 0, "");
+            sorter.finish();
+
+            try (RecordCursor cursor = sorter.openCursor()) {
+                assertTrue(cursor.next());
+                assertEquals("a", keyOf(cursor));
+                assertTrue(cursor.next());
+                assertEquals("ab", keyOf(cursor));
+                assertTrue(cursor.next());
+                assertArrayEquals(high, Arrays.copyOf(cursor.getKey(), cursor.getKeyLength()));
+                assertFalse(cursor.next());
+            }
+        }
+    }
+
+    @Test
+    public void opensAnEmptyCursorWhenNothingWasAdded() throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(directory, "empty", new OffHeapBufferPool(TINY_BUFFER_SIZE, MAX_BUFFERS))) {
+            sorter.finish();
+
+            try (RecordCursor cursor = sorter.openCursor()) {
+                assertFalse(cursor.next());
+            }
+        }
+    }
+
+    @Test
+    public void deletesItsRunsWhenClosed() throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(directory, "cleanup", new OffHeapBufferPool(TINY_BUFFER_SIZE, MAX_BUFFERS))) {
+            for (int i = 0; i < 100; i++) {
+                add(sorter, "key" + i, i, "");
+            }
+            sorter.finish();
+        }
+
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void spillsTheOldestSorterWhenThePoolIsExhausted() throws IOException {
+        final OffHeapBufferPool pool = new OffHeapBufferPool(TINY_BUFFER_SIZE, 1);
+
+        try (ExternalSorter first = new ExternalSorter(directory, "first", pool);
+             ExternalSorter second = new ExternalSorter(directory, "second", pool)) {
+            for (int i = 0; i < 100; i++) {
+                add(first, "first" + (99 - i), i, "");
+                add(second, "second" + (99 - i), i, "");
+            }
+            first.finish();
+            second.finish();
+
+            assertEquals(1, pool.getAllocatedBuffers());
+
+            for (final ExternalSorter sorter : Arrays.asList(first, second)) {
+                String previous = "";
+                int count = 0;
+
+                try (RecordCursor cursor = sorter.openCursor()) {
+                    while (cursor.next()) {
+                        assertTrue("Keys out of order", keyOf(cursor).compareTo(previous) >= 0);
+                        previous = keyOf(cursor);
+                        count++;
+                    }
+                }
+
+                assertEquals(100, count);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsARecordLargerThanTheSortBuffer() throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(directory, "tooBig", new OffHeapBufferPool(TINY_BUFFER_SIZE, MAX_BUFFERS))) {
+            final byte[] key = new byte[TINY_BUFFER_SIZE];
+            sorter.add(key, 0, key.length, 0, NO_PAYLOAD, 0, 0);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsRecordsAddedAfterFinishing() throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(directory, "finished", new OffHeapBufferPool(TINY_BUFFER_SIZE, MAX_BUFFERS))) {
+            sorter.finish();
+            add(sorter, "late", 0, "");
+        }
+    }
+
+    private static void add(ExternalSorter sorter, String key, long value, String payload) throws IOException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+
+        sorter.add(keyBytes, 0, keyBytes.length, value, payloadBytes, 0, payloadBytes.length);
+    }
+
+    private static String keyOf(RecordCursor cursor) {
+        return new String(cursor.getKey(), 0, cursor.getKeyLength(), StandardCharsets.UTF_8);
+    }
+
+    private static String payloadOf(RecordCursor cursor) {
+        return new String(cursor.getPayload(), 0, cursor.getPayloadLength(), StandardCharsets.UTF_8);
+    }
+}
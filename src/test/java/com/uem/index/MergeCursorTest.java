@@ -0,0 +1,114 @@
+package com.uem.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests RunWriter and RunCursor with buffers smaller than the records, and the MergeCursor over several runs
+ *
+ * @author zessin
+ */
+public class MergeCursorTest {
+    private static final int TINY_IO_BUFFER_SIZE = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackRecordsSpanningSeveralBuffers() throws IOException {
+        final byte[] payload = new byte[100];
+        final File run = folder.newFile("records.run");
+
+        Arrays.fill(payload, (byte) 'p');
+
+        try (RunWriter writer = new RunWriter(run, TINY_IO_BUFFER_SIZE)) {
+            write(writer, "first", 1, new byte[0]);
+            write(writer, "second", Long.MAX_VALUE, payload);
+            write(writer, "", -1, new byte[0]);
+        }
+
+        try (RunCursor cursor = new RunCursor(run, TINY_IO_BUFFER_SIZE)) {
+            assertTrue(cursor.next());
+            assertEquals("first", keyOf(cursor));
+            assertEquals(1, cursor.getValue());
+            assertEquals(0, cursor.getPayloadLength());
+
+            assertTrue(cursor.next());
+            assertEquals("second", keyOf(cursor));
+            assertEquals(Long.MAX_VALUE, cursor.getValue());
+            assertArrayEquals(payload, Arrays.copyOf(cursor.getPayload(), cursor.getPayloadLength()));
+
+            assertTrue(cursor.next());
+            assertEquals(0, cursor.getKeyLength());
+            assertEquals(-1, cursor.getValue());
+            assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    public void mergesRunsIntoASingleOrderKeepingDuplicates() throws IOException {
+        final List<String> expected = new ArrayList<>();
+        final List<RunCursor> cursors = new ArrayList<>();
+
+        expected.addAll(writeRun("a.run", "apple", "cherry", "kiwi"));
+        expected.addAll(writeRun("b.run", "banana", "cherry", "lemon", "mango"));
+        expected.addAll(writeRun("c.run"));
+        expected.addAll(writeRun("d.run", "apple"));
+        Collections.sort(expected);
+
+        for (final String run : new String[] { "a.run", "b.run", "c.run", "d.run" }) {
+            cursors.add(new RunCursor(new File(folder.getRoot(), run), TINY_IO_BUFFER_SIZE));
+        }
+
+        final List<String> merged = new ArrayList<>();
+
+        try (MergeCursor merge = new MergeCursor(cursors)) {
+            while (merge.next()) {
+                merged.add(keyOf(merge));
+            }
+        }
+
+        assertEquals(expected, merged);
+    }
+
+    @Test
+    public void mergesNoRunsIntoAnEmptyCursor() throws IOException {
+        try (MergeCursor merge = new MergeCursor(new ArrayList<RunCursor>())) {
+            assertFalse(merge.next());
+        }
+    }
+
+    private List<String> writeRun(String name, String... keys) throws IOException {
+        try (RunWriter writer = new RunWriter(folder.newFile(name), TINY_IO_BUFFER_SIZE)) {
+            for (final String key : keys) {
+                write(writer, key, 0, new byte[0]);
+            }
+        }
+
+        return Arrays.asList(keys);
+    }
+
+    private static void write(RunWriter writer, String key, long value, byte[] payload) throws IOException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+        writer.write(keyBytes, keyBytes.length, value, payload, payload.length);
+    }
+
+    private static String keyOf(RecordCursor cursor) {
+        return new String(cursor.getKey(), 0, cursor.getKeyLength(), StandardCharsets.UTF_8);
+    }
+}
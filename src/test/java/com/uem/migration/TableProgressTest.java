@@ -0,0 +1,108 @@
+package com.uem.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.uem.dbstructure.ColumnType;
+import com.uem.dbstructure.Table;
+
+/**
+ * Tests TableProgress with batches written out of the order they were read in, as they are
+ * when several transformers run at once
+ *
+ * @author zessin
+ */
+public class TableProgressTest {
+    private static final int BATCH_SIZE = 10;
+    private static final Table TABLE    = new Table("ORDERS");
+
+    @Test
+    public void waitsForTheMissingBatchBeforeCheckpointing() {
+        final TableProgress progress = new TableProgress(0, 0);
+
+        progress.batchWritten(batch(11, BATCH_SIZE, "k20"));
+        assertFalse(progress.isCheckpointDue());
+        assertEquals(0, progress.getLastRowNumber());
+
+        progress.batchWritten(batch(21, BATCH_SIZE, "k30"));
+        assertFalse(progress.isCheckpointDue());
+
+        progress.batchWritten(batch(1, BATCH_SIZE, "k10"));
+        assertTrue(progress.isCheckpointDue());
+        assertEquals(30, progress.getLastRowNumber());
+        assertEquals("k30", progress.getLastKey());
+        assertEquals(30, progress.getRowsWritten());
+    }
+
+    @Test
+    public void neverCheckpointsWithRowsWrittenAfterAGap() {
+        final TableProgress progress = new TableProgress(0, 0);
+
+        progress.batchWritten(batch(1, BATCH_SIZE, "k10"));
+        assertTrue(progress.isCheckpointDue());
+
+        progress.batchWritten(batch(21, BATCH_SIZE, "k30"));
+        assertFalse(progress.isCheckpointDue());
+        assertEquals(10, progress.getLastRowNumber());
+        assertEquals("k10", progress.getLastKey());
+    }
+
+    @Test
+    public void startsFromTheRowsOfTheResumedCheckpoint() {
+        final TableProgress progress = new TableProgress(100, 0);
+
+        progress.batchWritten(batch(111, BATCH_SIZE, "k120"));
+        assertFalse(progress.isCheckpointDue());
+        assertEquals(100, progress.getLastRowNumber());
+
+        progress.batchWritten(batch(101, BATCH_SIZE, "k110"));
+        assertTrue(progress.isCheckpointDue());
+        assertEquals(120, progress.getLastRowNumber());
+        assertEquals(20, progress.getRowsWritten());
+    }
+
+    @Test
+    public void finishesOnceEveryBatchIsWrittenWhateverTheirOrder() {
+        final TableProgress progress = new TableProgress(0, 0);
+        final RowBatch last = batch(21, 5, null);
+
+        last.setTableBatchCount(3);
+        last.setMark("m25");
+
+        progress.batchWritten(last);
+        progress.batchWritten(batch(11, BATCH_SIZE, "k20"));
+        assertFalse(progress.isFinished());
+
+        progress.batchWritten(batch(1, BATCH_SIZE, "k10"));
+        assertTrue(progress.isFinished());
+        assertEquals(25, progress.getLastRowNumber());
+        assertEquals("m25", progress.getMark());
+        assertNull(progress.getLastKey());
+    }
+
+    @Test
+    public void waitsForTheIntervalBetweenCheckpoints() {
+        final TableProgress progress = new TableProgress(0, Long.MAX_VALUE);
+
+        progress.batchWritten(batch(1, BATCH_SIZE, "k10"));
+        assertFalse(progress.isCheckpointDue());
+    }
+
+    private static RowBatch batch(long firstRowNumber, int size, String lastKey) {
+        final RowBatch batch = new RowBatch(BATCH_SIZE);
+
+        batch.reset(TABLE, new ColumnType[0], null, Collections.<RelationshipMapping>emptyList(), firstRowNumber);
+        for (int i = 0; i < size; i++) {
+            batch.nextRow();
+        }
+        batch.setLastKey(lastKey);
+
+        return batch;
+    }
+}
@@ -0,0 +1,6 @@
+create or replace view v_table_statistics as
+  SELECT table_schema,
+         table_name,
+         table_rows row_count
+  FROM   information_schema.tables
+  WHERE  table_type = 'BASE TABLE';
\ No newline at end of file
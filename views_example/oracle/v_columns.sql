@@ -1,5 +1,11 @@
 create or replace view v_columns as
-  select owner       table_schema,
-         table_name  table_name,
-         column_name column_name
+  select owner          table_schema,
+         table_name     table_name,
+         column_name    column_name,
+         data_type      data_type,
+         char_length    data_length,
+         data_precision data_precision,
+         data_scale     data_scale,
+         nullable       nullable,
+         column_id      ordinal_position
   from   all_tab_columns;
\ No newline at end of file
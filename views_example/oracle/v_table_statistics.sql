@@ -0,0 +1,5 @@
+create or replace view v_table_statistics as
+  select owner      table_schema,
+         table_name table_name,
+         num_rows   row_count
+  from   all_tables;
\ No newline at end of file
@@ -1,6 +1,12 @@
 create or replace view v_columns as
   SELECT table_schema,
          table_name,
-         column_name
+         column_name,
+         data_type,
+         character_maximum_length data_length,
+         numeric_precision        data_precision,
+         numeric_scale            data_scale,
+         is_nullable              nullable,
+         ordinal_position
   FROM   information_schema.columns
-  ORDER BY table_name;
\ No newline at end of file
+  ORDER BY table_name, ordinal_position;
\ No newline at end of file
@@ -0,0 +1,7 @@
+create or replace view v_table_statistics as
+  SELECT n.nspname             table_schema,
+         c.relname             table_name,
+         c.reltuples::bigint   row_count
+  FROM   pg_class c
+         JOIN pg_namespace n ON n.oid = c.relnamespace
+  WHERE  c.relkind IN ('r', 'p');
\ No newline at end of file